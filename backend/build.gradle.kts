@@ -41,6 +41,10 @@ dependencies {
 	implementation("org.springframework.boot:spring-boot-starter-oauth2-resource-server")
     // Hỗ trợ làm việc với Redis
     implementation("org.springframework.boot:spring-boot-starter-data-redis")
+    // TCP client cho STOMP broker relay (websocket.broker.mode=relay)
+    implementation("org.springframework.boot:spring-boot-starter-reactor-netty")
+    // Frame video nhị phân (CBOR) cho client WebSocket thuần
+    implementation("com.fasterxml.jackson.dataformat:jackson-dataformat-cbor")
     // Thư viện để tạo và xác thực JSON Web Tokens (JWT)
     implementation("io.jsonwebtoken:jjwt-api:0.11.5")
     runtimeOnly("io.jsonwebtoken:jjwt-impl:0.11.5")
@@ -0,0 +1,50 @@
+package com.watchtogether.Broker;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * Bản thay thế RoomMessageBus chạy trong cùng JVM, dùng để thử bridge nhiều node
+ * mà không cần Redis. Các instance dùng chung một "mạng" tĩnh (NETWORK), nên có thể
+ * tạo nhiều bus = nhiều node trong một test.
+ */
+@Component
+@ConditionalOnProperty(name = "websocket.broker.bus", havingValue = "in-memory")
+public class InMemoryRoomMessageBus implements RoomMessageBus {
+
+    private static final Map<String, List<Consumer<String>>> NETWORK = new ConcurrentHashMap<>();
+
+    private final Map<String, Consumer<String>> ownListeners = new ConcurrentHashMap<>();
+
+    @Override
+    public void publish(String roomId, String frame) {
+        List<Consumer<String>> listeners = NETWORK.get(roomId);
+        if (listeners != null) {
+            listeners.forEach(listener -> listener.accept(frame));
+        }
+    }
+
+    @Override
+    public void subscribe(String roomId, Consumer<String> listener) {
+        if (ownListeners.putIfAbsent(roomId, listener) == null) {
+            NETWORK.computeIfAbsent(roomId, id -> new CopyOnWriteArrayList<>()).add(listener);
+        }
+    }
+
+    @Override
+    public void unsubscribe(String roomId) {
+        Consumer<String> listener = ownListeners.remove(roomId);
+        if (listener != null) {
+            NETWORK.computeIfPresent(roomId, (id, listeners) -> {
+                listeners.remove(listener);
+                return listeners.isEmpty() ? null : listeners;
+            });
+        }
+    }
+}
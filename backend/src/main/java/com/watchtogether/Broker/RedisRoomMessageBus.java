@@ -0,0 +1,55 @@
+package com.watchtogether.Broker;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import lombok.RequiredArgsConstructor;
+
+/**
+ * RoomMessageBus qua Redis pub/sub: mỗi phòng một kênh "ws:room:<roomId>"
+ */
+@Component
+@ConditionalOnProperty(name = "websocket.broker.bus", havingValue = "redis", matchIfMissing = true)
+@RequiredArgsConstructor
+public class RedisRoomMessageBus implements RoomMessageBus {
+
+    private final RedisTemplate<String, String> redisTemplate;
+    private final RedisMessageListenerContainer listenerContainer;
+
+    private final Map<String, MessageListener> listeners = new ConcurrentHashMap<>();
+
+    @Override
+    public void publish(String roomId, String frame) {
+        redisTemplate.convertAndSend(channelOf(roomId), frame);
+    }
+
+    @Override
+    public void subscribe(String roomId, Consumer<String> listener) {
+        MessageListener redisListener = (message, pattern) -> listener
+                .accept(new String(message.getBody(), StandardCharsets.UTF_8));
+        if (listeners.putIfAbsent(roomId, redisListener) == null) {
+            listenerContainer.addMessageListener(redisListener, new ChannelTopic(channelOf(roomId)));
+        }
+    }
+
+    @Override
+    public void unsubscribe(String roomId) {
+        MessageListener redisListener = listeners.remove(roomId);
+        if (redisListener != null) {
+            listenerContainer.removeMessageListener(redisListener, new ChannelTopic(channelOf(roomId)));
+        }
+    }
+
+    private String channelOf(String roomId) {
+        return "ws:room:" + roomId;
+    }
+}
@@ -0,0 +1,215 @@
+package com.watchtogether.Broker;
+
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.stereotype.Component;
+import org.springframework.util.MimeType;
+
+import com.watchtogether.util.StatsSource;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Cầu nối broadcast giữa các node khi websocket.broker.mode=redis.
+ *
+ * Mỗi node vẫn dùng SimpleBroker cho client của mình. Bridge:
+ * 1. Chặn message gửi tới /topic/room/** và /topic/rooms/** trên brokerChannel,
+ *    publish một bản lên RoomMessageBus của phòng đó
+ * 2. Đếm subscription theo phòng trên clientInboundChannel: node chỉ subscribe kênh
+ *    của phòng khi có ít nhất một client cục bộ, và bỏ khi client cuối rời đi
+ * 3. Message nhận từ node khác được đẩy lại vào brokerChannel cục bộ (đánh dấu
+ *    RELAYED_HEADER để không bị publish lại)
+ */
+@Component
+@ConditionalOnProperty(name = "websocket.broker.mode", havingValue = "redis")
+@Slf4j
+public class RoomBroadcastBridge implements StatsSource {
+
+    public static final String RELAYED_HEADER = "wtRelayed";
+
+    private static final String[] ROOM_PREFIXES = { "/topic/room/", "/topic/rooms/" };
+
+    private final RoomMessageBus bus;
+    private final MessageChannel brokerChannel;
+    private final String nodeId = UUID.randomUUID().toString();
+
+    // roomId → số subscription cục bộ
+    private final Map<String, AtomicInteger> roomSubscriptions = new ConcurrentHashMap<>();
+    // sessionId → (subscriptionId → roomId), để dọn khi UNSUBSCRIBE / DISCONNECT
+    private final Map<String, Map<String, String>> sessionSubscriptions = new ConcurrentHashMap<>();
+
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong relayed = new AtomicLong();
+
+    public RoomBroadcastBridge(RoomMessageBus bus,
+            @Lazy @Qualifier("brokerChannel") MessageChannel brokerChannel) {
+        this.bus = bus;
+        this.brokerChannel = brokerChannel;
+    }
+
+    /**
+     * Interceptor cho brokerChannel: publish message phòng do node này tạo ra
+     */
+    public ChannelInterceptor brokerInterceptor() {
+        return new ChannelInterceptor() {
+            @Override
+            public Message<?> preSend(Message<?> message, MessageChannel channel) {
+                SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.wrap(message);
+                if (accessor.getMessageType() == SimpMessageType.MESSAGE
+                        && accessor.getHeader(RELAYED_HEADER) == null
+                        && message.getPayload() instanceof byte[] body) {
+                    String roomId = roomIdOf(accessor.getDestination());
+                    if (roomId != null) {
+                        publish(roomId, accessor, body);
+                    }
+                }
+                return message;
+            }
+        };
+    }
+
+    /**
+     * Interceptor cho clientInboundChannel: theo dõi phòng nào đang có subscriber cục bộ
+     */
+    public ChannelInterceptor inboundInterceptor() {
+        return new ChannelInterceptor() {
+            @Override
+            public void afterSendCompletion(Message<?> message, MessageChannel channel, boolean sent, Exception ex) {
+                if (!sent) {
+                    return;
+                }
+                SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.wrap(message);
+                SimpMessageType type = accessor.getMessageType();
+                if (type == SimpMessageType.SUBSCRIBE) {
+                    onSubscribe(accessor.getSessionId(), accessor.getSubscriptionId(), accessor.getDestination());
+                } else if (type == SimpMessageType.UNSUBSCRIBE) {
+                    onUnsubscribe(accessor.getSessionId(), accessor.getSubscriptionId());
+                } else if (type == SimpMessageType.DISCONNECT) {
+                    onDisconnect(accessor.getSessionId());
+                }
+            }
+        };
+    }
+
+    private void publish(String roomId, SimpMessageHeaderAccessor accessor, byte[] body) {
+        MimeType contentType = accessor.getContentType();
+        // Frame: nodeId \n destination \n contentType \n body
+        String frame = nodeId + "\n" + accessor.getDestination() + "\n"
+                + (contentType != null ? contentType.toString() : "") + "\n"
+                + new String(body, StandardCharsets.UTF_8);
+        try {
+            bus.publish(roomId, frame);
+            published.incrementAndGet();
+        } catch (Exception e) {
+            log.error("Cannot relay message of room {} to other nodes: {}", roomId, e.getMessage());
+        }
+    }
+
+    private void onRemoteFrame(String frame) {
+        String[] parts = frame.split("\n", 4);
+        if (parts.length < 4 || parts[0].equals(nodeId)) {
+            return; // message do chính node này gửi, client cục bộ đã nhận rồi
+        }
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        accessor.setDestination(parts[1]);
+        if (!parts[2].isEmpty()) {
+            accessor.setContentType(MimeType.valueOf(parts[2]));
+        }
+        accessor.setHeader(RELAYED_HEADER, Boolean.TRUE);
+        accessor.setLeaveMutable(true);
+        byte[] body = parts[3].getBytes(StandardCharsets.UTF_8);
+        brokerChannel.send(MessageBuilder.createMessage(body, accessor.getMessageHeaders()));
+        relayed.incrementAndGet();
+    }
+
+    private void onSubscribe(String sessionId, String subscriptionId, String destination) {
+        String roomId = roomIdOf(destination);
+        if (roomId == null || sessionId == null || subscriptionId == null) {
+            return;
+        }
+        sessionSubscriptions.computeIfAbsent(sessionId, id -> new ConcurrentHashMap<>()).put(subscriptionId, roomId);
+        roomSubscriptions.compute(roomId, (id, count) -> {
+            AtomicInteger c = count != null ? count : new AtomicInteger();
+            if (c.incrementAndGet() == 1) {
+                bus.subscribe(roomId, this::onRemoteFrame);
+                log.debug("Node subscribed to room channel {}", roomId);
+            }
+            return c;
+        });
+    }
+
+    private void onUnsubscribe(String sessionId, String subscriptionId) {
+        Map<String, String> subs = sessionId != null ? sessionSubscriptions.get(sessionId) : null;
+        if (subs == null || subscriptionId == null) {
+            return;
+        }
+        String roomId = subs.remove(subscriptionId);
+        if (roomId != null) {
+            release(roomId);
+        }
+    }
+
+    private void onDisconnect(String sessionId) {
+        Map<String, String> subs = sessionId != null ? sessionSubscriptions.remove(sessionId) : null;
+        if (subs != null) {
+            subs.values().forEach(this::release);
+        }
+    }
+
+    private void release(String roomId) {
+        roomSubscriptions.computeIfPresent(roomId, (id, count) -> {
+            if (count.decrementAndGet() <= 0) {
+                bus.unsubscribe(roomId);
+                log.debug("Node unsubscribed from room channel {}", roomId);
+                return null;
+            }
+            return count;
+        });
+    }
+
+    static String roomIdOf(String destination) {
+        if (destination == null) {
+            return null;
+        }
+        for (String prefix : ROOM_PREFIXES) {
+            if (destination.startsWith(prefix)) {
+                int end = destination.indexOf('/', prefix.length());
+                String roomId = end < 0 ? destination.substring(prefix.length())
+                        : destination.substring(prefix.length(), end);
+                return roomId.isEmpty() ? null : roomId;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public String statsName() {
+        return "roomBroadcastBridge";
+    }
+
+    @Override
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        Set<String> rooms = roomSubscriptions.keySet();
+        stats.put("subscribedRooms", rooms.size());
+        stats.put("published", published.get());
+        stats.put("relayedIn", relayed.get());
+        return stats;
+    }
+}
@@ -0,0 +1,19 @@
+package com.watchtogether.Broker;
+
+import java.util.function.Consumer;
+
+/**
+ * Kênh trao đổi message của phòng giữa các node.
+ * Mỗi node chỉ subscribe những phòng đang có người xem kết nối vào node đó.
+ *
+ * - RedisRoomMessageBus: triển khai thật qua Redis pub/sub
+ * - InMemoryRoomMessageBus: bản thay thế chạy trong một JVM (test nhiều "node" cục bộ)
+ */
+public interface RoomMessageBus {
+
+    void publish(String roomId, String frame);
+
+    void subscribe(String roomId, Consumer<String> listener);
+
+    void unsubscribe(String roomId);
+}
@@ -0,0 +1,196 @@
+package com.watchtogether.Broker;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.broker.DefaultSubscriptionRegistry;
+import org.springframework.messaging.simp.broker.SubscriptionRegistry;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+
+import com.watchtogether.util.StatsSource;
+
+/**
+ * SubscriptionRegistry cho SimpleBroker, tối ưu cho destination của phòng.
+ *
+ * Destination của phòng luôn là chuỗi cố định (/topic/room/{id}/..., /topic/rooms/{id}/...),
+ * nên không cần so khớp pattern: registry giữ map destination → mảng subscriber
+ * copy-on-write, thêm/xoá bằng CAS (không lock). Tìm subscriber là một lần lookup,
+ * chi phí fan-out tỉ lệ với số người trong phòng chứ không phải tổng subscription của node.
+ * Các destination khác (có wildcard, /user/...) vẫn dùng DefaultSubscriptionRegistry.
+ * Subscription có wildcard (ví dụ /topic/** hay /topic/room/{id}/chat) vẫn có thể khớp
+ * destination của phòng, nên khi còn subscription như vậy, kết quả của fallback được gộp vào.
+ */
+public class RoomSubscriptionRegistry implements SubscriptionRegistry, StatsSource {
+
+    private record Sub(String sessionId, String subscriptionId) {
+    }
+
+    private static final Sub[] EMPTY = new Sub[0];
+    // Đánh dấu mảng đã bị gỡ khỏi map; add gặp DEAD sẽ tạo entry mới
+    private static final Sub[] DEAD = new Sub[0];
+
+    private final SubscriptionRegistry fallback = new DefaultSubscriptionRegistry();
+
+    private final Map<String, AtomicReference<Sub[]>> byDestination = new ConcurrentHashMap<>();
+    // sessionId → (subscriptionId → destination), chỉ cho destination của phòng
+    private final Map<String, Map<String, String>> bySession = new ConcurrentHashMap<>();
+    // sessionId → subscriptionId của các subscription có wildcard (nằm trong fallback)
+    private final Map<String, Set<String>> patternSubscriptions = new ConcurrentHashMap<>();
+
+    @Override
+    public void registerSubscription(Message<?> subscribeMessage) {
+        MessageHeaders headers = subscribeMessage.getHeaders();
+        String destination = SimpMessageHeaderAccessor.getDestination(headers);
+        String sessionId = SimpMessageHeaderAccessor.getSessionId(headers);
+        String subscriptionId = SimpMessageHeaderAccessor.getSubscriptionId(headers);
+
+        if (!isRoomDestination(destination) || sessionId == null || subscriptionId == null) {
+            fallback.registerSubscription(subscribeMessage);
+            if (isPattern(destination) && sessionId != null && subscriptionId != null) {
+                patternSubscriptions.computeIfAbsent(sessionId, id -> ConcurrentHashMap.newKeySet()).add(subscriptionId);
+            }
+            return;
+        }
+        bySession.computeIfAbsent(sessionId, id -> new ConcurrentHashMap<>()).put(subscriptionId, destination);
+        add(destination, new Sub(sessionId, subscriptionId));
+    }
+
+    @Override
+    public void unregisterSubscription(Message<?> unsubscribeMessage) {
+        MessageHeaders headers = unsubscribeMessage.getHeaders();
+        String sessionId = SimpMessageHeaderAccessor.getSessionId(headers);
+        String subscriptionId = SimpMessageHeaderAccessor.getSubscriptionId(headers);
+
+        Map<String, String> subs = sessionId != null ? bySession.get(sessionId) : null;
+        String destination = subs != null && subscriptionId != null ? subs.remove(subscriptionId) : null;
+        if (destination != null) {
+            remove(destination, sessionId, subscriptionId);
+        } else {
+            fallback.unregisterSubscription(unsubscribeMessage);
+            if (sessionId != null && subscriptionId != null) {
+                patternSubscriptions.computeIfPresent(sessionId, (id, ids) -> ids.remove(subscriptionId) && ids.isEmpty() ? null : ids);
+            }
+        }
+    }
+
+    @Override
+    public void unregisterAllSubscriptions(String sessionId) {
+        Map<String, String> subs = bySession.remove(sessionId);
+        if (subs != null) {
+            subs.forEach((subscriptionId, destination) -> remove(destination, sessionId, subscriptionId));
+        }
+        patternSubscriptions.remove(sessionId);
+        fallback.unregisterAllSubscriptions(sessionId);
+    }
+
+    @Override
+    public MultiValueMap<String, String> findSubscriptions(Message<?> message) {
+        String destination = SimpMessageHeaderAccessor.getDestination(message.getHeaders());
+        if (!isRoomDestination(destination)) {
+            return fallback.findSubscriptions(message);
+        }
+        AtomicReference<Sub[]> ref = byDestination.get(destination);
+        Sub[] subs = ref != null ? ref.get() : EMPTY;
+        MultiValueMap<String, String> result = new LinkedMultiValueMap<>(subs.length);
+        for (Sub sub : subs) {
+            result.add(sub.sessionId(), sub.subscriptionId());
+        }
+        if (!patternSubscriptions.isEmpty()) {
+            fallback.findSubscriptions(message).forEach(result::addAll);
+        }
+        return result;
+    }
+
+    private void add(String destination, Sub sub) {
+        while (true) {
+            AtomicReference<Sub[]> ref = byDestination.computeIfAbsent(destination, d -> new AtomicReference<>(EMPTY));
+            Sub[] current = ref.get();
+            if (current == DEAD) {
+                byDestination.remove(destination, ref);
+                continue;
+            }
+            Sub[] next = Arrays.copyOf(current, current.length + 1);
+            next[current.length] = sub;
+            if (ref.compareAndSet(current, next)) {
+                return;
+            }
+        }
+    }
+
+    private void remove(String destination, String sessionId, String subscriptionId) {
+        AtomicReference<Sub[]> ref = byDestination.get(destination);
+        if (ref == null) {
+            return;
+        }
+        while (true) {
+            Sub[] current = ref.get();
+            int index = indexOf(current, sessionId, subscriptionId);
+            if (index < 0) {
+                return;
+            }
+            Sub[] next;
+            if (current.length == 1) {
+                next = DEAD;
+            } else {
+                next = new Sub[current.length - 1];
+                System.arraycopy(current, 0, next, 0, index);
+                System.arraycopy(current, index + 1, next, index, current.length - index - 1);
+            }
+            if (ref.compareAndSet(current, next)) {
+                if (next == DEAD) {
+                    byDestination.remove(destination, ref);
+                }
+                return;
+            }
+        }
+    }
+
+    private int indexOf(Sub[] subs, String sessionId, String subscriptionId) {
+        for (int i = 0; i < subs.length; i++) {
+            if (subs[i].sessionId().equals(sessionId) && subs[i].subscriptionId().equals(subscriptionId)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // Chỉ destination cố định của phòng, không có ký tự pattern
+    private boolean isRoomDestination(String destination) {
+        return destination != null
+                && (destination.startsWith("/topic/room/") || destination.startsWith("/topic/rooms/"))
+                && !isPattern(destination);
+    }
+
+    // Ký tự pattern của AntPathMatcher mà DefaultSubscriptionRegistry dùng
+    private boolean isPattern(String destination) {
+        return destination != null
+                && (destination.indexOf('*') >= 0 || destination.indexOf('?') >= 0 || destination.indexOf('{') >= 0);
+    }
+
+    @Override
+    public String statsName() {
+        return "roomSubscriptionRegistry";
+    }
+
+    @Override
+    public Map<String, Object> stats() {
+        int subscriptions = 0;
+        for (AtomicReference<Sub[]> ref : byDestination.values()) {
+            subscriptions += ref.get().length;
+        }
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("roomDestinations", byDestination.size());
+        stats.put("roomSubscriptions", subscriptions);
+        stats.put("sessions", bySession.size());
+        stats.put("patternSessions", patternSubscriptions.size());
+        return stats;
+    }
+}
@@ -0,0 +1,56 @@
+package com.watchtogether.Config;
+
+import java.io.IOException;
+
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.converter.AbstractMessageConverter;
+import org.springframework.util.MimeType;
+
+import com.watchtogether.DTO.Request.VideoEventDto;
+import com.watchtogether.util.CompactVideoCodec;
+
+/**
+ * Message converter STOMP cho frame video dạng gọn (content-type application/cbor).
+ * Chỉ áp dụng cho VideoEventDto; các payload khác vẫn đi qua converter JSON mặc định.
+ */
+public class CompactVideoMessageConverter extends AbstractMessageConverter {
+
+    public static final MimeType APPLICATION_CBOR = new MimeType("application", "cbor");
+
+    private final CompactVideoCodec codec;
+
+    public CompactVideoMessageConverter(CompactVideoCodec codec) {
+        super(APPLICATION_CBOR);
+        this.codec = codec;
+        setSerializedPayloadClass(byte[].class);
+        // Chỉ dùng khi message khai báo rõ application/cbor, tránh giành VideoEventDto của converter JSON
+        setStrictContentTypeMatch(true);
+    }
+
+    @Override
+    protected boolean supports(Class<?> clazz) {
+        return VideoEventDto.class.equals(clazz);
+    }
+
+    @Override
+    protected Object convertFromInternal(Message<?> message, Class<?> targetClass, Object conversionHint) {
+        if (!(message.getPayload() instanceof byte[] bytes)) {
+            return null;
+        }
+        try {
+            return codec.decode(bytes);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    @Override
+    protected Object convertToInternal(Object payload, MessageHeaders headers, Object conversionHint) {
+        try {
+            return codec.encode((VideoEventDto) payload);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,311 @@
+package com.watchtogether.Config;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.watchtogether.DTO.Response.ErrorResponse;
+import com.watchtogether.util.StatsSource;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Giới hạn tần suất message STOMP gửi lên /app/** bằng token bucket, theo session và theo phòng.
+ *
+ * Destination chia 3 nhóm, mỗi nhóm có ngân sách riêng (websocket.rate.{nhóm}.session / .room,
+ * dạng "số-message-mỗi-giây,burst", 0 = không giới hạn):
+ * - chat: /app/chat.*
+ * - video: /app/video/**, /app/rooms/{roomId}/video
+ * - other: mọi destination /app khác
+ *
+ * Mỗi bucket là một AtomicLong theo GCRA (thời điểm "đến hạn" lý thuyết): kiểm tra và trừ token
+ * là một vòng CAS, không lock. Message vượt ngân sách bị bỏ trước khi tới controller
+ * (không tốn DB/Redis, không fan-out); có thể báo về /user/queue/errors (tối đa 1 lần/giây/session).
+ * Op của /ws-native đi qua tryAcquireVideo() / tryAcquireOther(), dùng chung bucket với STOMP.
+ */
+@Component
+@Slf4j
+public class InboundRateLimiter implements StatsSource {
+
+    private static final String CHAT = "chat";
+    private static final String VIDEO = "video";
+    private static final String OTHER = "other";
+
+    private record Budget(long intervalNanos, long burstNanos) {
+
+        // "rate,burst" → khoảng cách giữa 2 token và độ dài burst (nanos)
+        static Budget parse(String spec) {
+            String[] parts = spec.split(",");
+            double rate = Double.parseDouble(parts[0].trim());
+            if (rate <= 0) {
+                return null;
+            }
+            long burst = parts.length > 1 ? Long.parseLong(parts[1].trim()) : 1;
+            long interval = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+            return new Budget(interval, interval * Math.max(0, burst - 1));
+        }
+    }
+
+    private final Map<String, Budget> sessionBudgets = new LinkedHashMap<>();
+    private final Map<String, Budget> roomBudgets = new LinkedHashMap<>();
+    private final boolean reportErrors;
+    private final ObjectProvider<SimpMessagingTemplate> messagingTemplate;
+
+    // key → thời điểm đến hạn lý thuyết (nanoTime) của bucket
+    private final Map<String, AtomicLong> buckets = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> lastReport = new ConcurrentHashMap<>();
+
+    private final Map<String, AtomicLong> allowed = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> rejectedBySession = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> rejectedByRoom = new ConcurrentHashMap<>();
+
+    public InboundRateLimiter(
+            @Value("${websocket.rate.chat.session:5,10}") String chatSession,
+            @Value("${websocket.rate.chat.room:50,100}") String chatRoom,
+            @Value("${websocket.rate.video.session:10,20}") String videoSession,
+            @Value("${websocket.rate.video.room:30,60}") String videoRoom,
+            @Value("${websocket.rate.other.session:20,40}") String otherSession,
+            @Value("${websocket.rate.other.room:0}") String otherRoom,
+            @Value("${websocket.rate.report-errors:true}") boolean reportErrors,
+            ObjectProvider<SimpMessagingTemplate> messagingTemplate) {
+        putBudget(sessionBudgets, CHAT, chatSession);
+        putBudget(roomBudgets, CHAT, chatRoom);
+        putBudget(sessionBudgets, VIDEO, videoSession);
+        putBudget(roomBudgets, VIDEO, videoRoom);
+        putBudget(sessionBudgets, OTHER, otherSession);
+        putBudget(roomBudgets, OTHER, otherRoom);
+        this.reportErrors = reportErrors;
+        this.messagingTemplate = messagingTemplate;
+        for (String group : new String[] { CHAT, VIDEO, OTHER }) {
+            allowed.put(group, new AtomicLong());
+            rejectedBySession.put(group, new AtomicLong());
+            rejectedByRoom.put(group, new AtomicLong());
+        }
+    }
+
+    private static void putBudget(Map<String, Budget> budgets, String group, String spec) {
+        Budget budget = Budget.parse(spec);
+        if (budget != null) {
+            budgets.put(group, budget);
+        }
+    }
+
+    /**
+     * Interceptor cho clientInboundChannel
+     */
+    public ChannelInterceptor inboundInterceptor() {
+        return new ChannelInterceptor() {
+            @Override
+            public Message<?> preSend(Message<?> message, MessageChannel channel) {
+                SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.wrap(message);
+                SimpMessageType type = accessor.getMessageType();
+                String sessionId = accessor.getSessionId();
+                if (type == SimpMessageType.DISCONNECT) {
+                    forgetSession(sessionId);
+                    return message;
+                }
+                String destination = accessor.getDestination();
+                if (type != SimpMessageType.MESSAGE || sessionId == null || destination == null
+                        || !destination.startsWith("/app/")) {
+                    return message;
+                }
+                String group = groupOf(destination);
+                Budget roomBudget = roomBudgets.get(group);
+                String roomId = roomBudget != null ? roomIdOf(destination, accessor) : null;
+                Map<String, AtomicLong> rejected = check(group, sessionId, roomId);
+                if (rejected != null) {
+                    reject(rejected, group, sessionId, destination);
+                    return null;
+                }
+                return message;
+            }
+        };
+    }
+
+    /**
+     * Kiểm tra ngân sách nhóm video cho một op của session /ws-native: cùng bucket với
+     * /app/rooms/{roomId}/video nên hai loại client chia chung giới hạn của phòng.
+     * Bị chặn thì trả về false; caller tự báo lỗi (xem shouldReport).
+     */
+    public boolean tryAcquireVideo(String sessionId, String roomId) {
+        return tryAcquire(VIDEO, sessionId, roomId);
+    }
+
+    /**
+     * Như tryAcquireVideo, cho op join/leave/sync của /ws-native (nhóm other, cùng bucket với
+     * /app/room/{roomId}/register...)
+     */
+    public boolean tryAcquireOther(String sessionId, String roomId) {
+        return tryAcquire(OTHER, sessionId, roomId);
+    }
+
+    private boolean tryAcquire(String group, String sessionId, String roomId) {
+        Map<String, AtomicLong> rejected = check(group, sessionId, roomId);
+        if (rejected != null) {
+            rejected.get(group).incrementAndGet();
+            log.debug("Rate limited {} op from native session {} in room {}", group, sessionId, roomId);
+            return false;
+        }
+        return true;
+    }
+
+    // null = cho qua; ngược lại là bộ đếm của giới hạn đã chặn (theo session hoặc theo phòng).
+    // Message bị phòng chặn không tốn token của session: token vừa lấy được trả lại
+    private Map<String, AtomicLong> check(String group, String sessionId, String roomId) {
+        long now = System.nanoTime();
+        String sessionKey = "s:" + sessionId + ":" + group;
+        Budget sessionBudget = sessionBudgets.get(group);
+        if (sessionBudget != null && !acquire(sessionKey, sessionBudget, now)) {
+            return rejectedBySession;
+        }
+        Budget roomBudget = roomBudgets.get(group);
+        if (roomBudget != null && roomId != null && !acquire("r:" + roomId + ":" + group, roomBudget, now)) {
+            if (sessionBudget != null) {
+                refund(sessionKey, sessionBudget);
+            }
+            return rejectedByRoom;
+        }
+        allowed.get(group).incrementAndGet();
+        return null;
+    }
+
+    // GCRA: cho qua nếu thời điểm đến hạn không vượt quá now + burst, rồi đẩy nó thêm một interval
+    private boolean acquire(String key, Budget budget, long now) {
+        AtomicLong tat = buckets.computeIfAbsent(key, k -> new AtomicLong(now));
+        while (true) {
+            long current = tat.get();
+            long base = Math.max(current, now);
+            if (base - now > budget.burstNanos()) {
+                return false;
+            }
+            if (tat.compareAndSet(current, base + budget.intervalNanos())) {
+                return true;
+            }
+        }
+    }
+
+    // Trả lại một token: lùi thời điểm đến hạn một interval (các lần acquire xen giữa vẫn giữ phần của chúng)
+    private void refund(String key, Budget budget) {
+        AtomicLong tat = buckets.get(key);
+        if (tat != null) {
+            tat.addAndGet(-budget.intervalNanos());
+        }
+    }
+
+    private String groupOf(String destination) {
+        if (destination.startsWith("/app/chat")) {
+            return CHAT;
+        }
+        if (destination.startsWith("/app/video/")
+                || (destination.startsWith("/app/rooms/") && destination.endsWith("/video"))) {
+            return VIDEO;
+        }
+        return OTHER;
+    }
+
+    // Ưu tiên roomId trong destination, sau đó tới phòng đã lưu trong session
+    private String roomIdOf(String destination, SimpMessageHeaderAccessor accessor) {
+        for (String prefix : new String[] { "/app/rooms/", "/app/room/" }) {
+            if (destination.startsWith(prefix)) {
+                int end = destination.indexOf('/', prefix.length());
+                if (end > prefix.length()) {
+                    return destination.substring(prefix.length(), end);
+                }
+            }
+        }
+        Map<String, Object> attributes = accessor.getSessionAttributes();
+        if (attributes == null) {
+            return null;
+        }
+        Object roomId = attributes.get("room_id");
+        if (roomId == null) {
+            roomId = attributes.get("roomId");
+        }
+        return roomId instanceof String id ? id : null;
+    }
+
+    private void reject(Map<String, AtomicLong> counters, String group, String sessionId, String destination) {
+        counters.get(group).incrementAndGet();
+        log.debug("Rate limited {} message from session {} to {}", group, sessionId, destination);
+        if (!shouldReport(sessionId)) {
+            return;
+        }
+        SimpMessagingTemplate template = messagingTemplate.getIfAvailable();
+        if (template == null) {
+            return;
+        }
+        SimpMessageHeaderAccessor headers = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        headers.setSessionId(sessionId);
+        headers.setLeaveMutable(true);
+        template.convertAndSendToUser(sessionId, "/queue/errors",
+                new ErrorResponse("Rate limit exceeded for " + group + " messages", System.currentTimeMillis()),
+                headers.getMessageHeaders());
+    }
+
+    /**
+     * Có nên báo lỗi bị chặn cho session này không (tối đa 1 lần/giây mỗi session)
+     */
+    public boolean shouldReport(String sessionId) {
+        if (!reportErrors) {
+            return false;
+        }
+        long now = System.currentTimeMillis();
+        AtomicLong last = lastReport.computeIfAbsent(sessionId, id -> new AtomicLong());
+        long previous = last.get();
+        return now - previous >= 1000 && last.compareAndSet(previous, now);
+    }
+
+    /**
+     * Bỏ bucket và mốc báo lỗi của session đã đóng
+     */
+    public void forgetSession(String sessionId) {
+        if (sessionId == null) {
+            return;
+        }
+        lastReport.remove(sessionId);
+        for (String group : sessionBudgets.keySet()) {
+            buckets.remove("s:" + sessionId + ":" + group);
+        }
+    }
+
+    /**
+     * Bỏ các bucket đã đầy lại (tương đương bucket mới) để map không phình theo số phòng
+     */
+    @Scheduled(fixedDelayString = "${websocket.rate.sweep-interval-ms:60000}")
+    public void sweep() {
+        long now = System.nanoTime();
+        buckets.entrySet().removeIf(e -> e.getValue().get() - now <= 0);
+    }
+
+    @Override
+    public String statsName() {
+        return "inboundRateLimiter";
+    }
+
+    @Override
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("buckets", buckets.size());
+        for (String group : allowed.keySet()) {
+            Map<String, Object> groupStats = new LinkedHashMap<>();
+            groupStats.put("allowed", allowed.get(group).get());
+            groupStats.put("rejectedBySession", rejectedBySession.get(group).get());
+            groupStats.put("rejectedByRoom", rejectedByRoom.get(group).get());
+            stats.put(group, groupStats);
+        }
+        return stats;
+    }
+}
@@ -0,0 +1,45 @@
+package com.watchtogether.Config;
+
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.messaging.simp.broker.SimpleBrokerMessageHandler;
+
+import com.watchtogether.Broker.RoomSubscriptionRegistry;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Thay SubscriptionRegistry mặc định của SimpleBroker bằng RoomSubscriptionRegistry
+ * (tra cứu chính xác theo destination của phòng). Tắt bằng
+ * websocket.broker.indexed-registry=false để so sánh với registry mặc định.
+ */
+@Configuration
+@ConditionalOnProperty(name = "websocket.broker.indexed-registry", havingValue = "true", matchIfMissing = true)
+@Slf4j
+public class RoomBrokerConfig {
+
+    @Bean
+    public RoomSubscriptionRegistry roomSubscriptionRegistry() {
+        return new RoomSubscriptionRegistry();
+    }
+
+    // static: BeanPostProcessor phải được tạo trước các bean thường
+    @Bean
+    public static BeanPostProcessor roomSubscriptionRegistryInstaller(
+            ObjectProvider<RoomSubscriptionRegistry> registry) {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) throws BeansException {
+                if (bean instanceof SimpleBrokerMessageHandler handler) {
+                    handler.setSubscriptionRegistry(registry.getObject());
+                    log.info("✅ SimpleBroker uses indexed room subscription registry");
+                }
+                return bean;
+            }
+        };
+    }
+}
@@ -0,0 +1,10 @@
+package com.watchtogether.Config;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+// Bật @Scheduled cho các tác vụ nền (flush trạng thái phòng, dọn dẹp...)
+@Configuration
+@EnableScheduling
+public class SchedulingConfig {
+}
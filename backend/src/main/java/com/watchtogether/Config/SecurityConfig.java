@@ -52,6 +52,7 @@ public class SecurityConfig {
                                                 .requestMatchers("/").permitAll()
                                                 .requestMatchers("/ws", "/ws/**").permitAll()
                                                 .requestMatchers("/ws-native", "/ws-native/**").permitAll()
+                                                .requestMatchers("/ws-stomp", "/ws-stomp/**").permitAll()
 
                                                 // /account cần access token
                                                 .requestMatchers("/api/v1/auth/account").authenticated()
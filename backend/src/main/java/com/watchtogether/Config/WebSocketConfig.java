@@ -1,22 +1,35 @@
 package com.watchtogether.Config;
 
-// import java.util.List;
+import java.util.List;
 // import java.util.Map;
 
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.VirtualThreadTaskExecutor;
+import org.springframework.messaging.converter.MessageConverter;
+import org.springframework.messaging.simp.config.ChannelRegistration;
 // import org.springframework.http.server.ServerHttpRequest;
 // import org.springframework.http.server.ServerHttpResponse;
 import org.springframework.messaging.simp.config.MessageBrokerRegistry;
-// import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.WebSocketHandler;
 import org.springframework.web.socket.config.annotation.EnableWebSocket;
 import org.springframework.web.socket.config.annotation.EnableWebSocketMessageBroker;
 import org.springframework.web.socket.config.annotation.StompEndpointRegistry;
 import org.springframework.web.socket.config.annotation.WebSocketConfigurer;
 import org.springframework.web.socket.config.annotation.WebSocketHandlerRegistry;
 import org.springframework.web.socket.config.annotation.WebSocketMessageBrokerConfigurer;
+import org.springframework.web.socket.config.annotation.WebSocketTransportRegistration;
 // import org.springframework.web.socket.server.HandshakeInterceptor;
 
+import com.watchtogether.Broker.RoomBroadcastBridge;
+import com.watchtogether.Handler.IdleSessionReaper;
+import com.watchtogether.Handler.NativeRelaySubscriber;
+import com.watchtogether.Handler.NativeRoomRegistry;
 import com.watchtogether.Handler.NativeWebSocketHandler;
+import com.watchtogether.Handler.OutboundBackpressure;
+import com.watchtogether.Handler.WebSocketCompression;
+import com.watchtogether.util.CompactVideoCodec;
 // import com.watchtogether.Service.JwtService;
 
 import lombok.RequiredArgsConstructor;
@@ -32,18 +45,140 @@ public class WebSocketConfig implements WebSocketMessageBrokerConfigurer, WebSoc
 
     // ⭐ COMMENT: Bỏ JWT dependency để WebSocket hoạt động độc lập
     // private final JwtService jwtService;
-    private final NativeWebSocketHandler nativeHandler;
+    // Lấy muộn: handler phụ thuộc VideoSyncService → SimpMessagingTemplate, bean này lại cần config này
+    private final ObjectProvider<NativeWebSocketHandler> nativeHandler;
+    private final NativeRoomRegistry nativeRoomRegistry;
+    // Chỉ tồn tại khi websocket.broker.mode=redis
+    private final ObjectProvider<RoomBroadcastBridge> broadcastBridge;
+    // Chỉ tồn tại khi websocket.broker.mode=relay
+    private final ObjectProvider<NativeRelaySubscriber> nativeRelaySubscriber;
+    private final WireFormatNegotiator wireFormatNegotiator;
+    private final CompactVideoCodec compactVideoCodec;
+    private final WebSocketCompression compression;
+    private final OutboundBackpressure backpressure;
+    private final IdleSessionReaper idleSessionReaper;
+    private final InboundRateLimiter inboundRateLimiter;
+
+    // Cả SimpleBroker lẫn relay phải phục vụ /queue: SYNC_STATE cho người mới join đi qua
+    // /user/queue/video/sync (VideoSyncService.sendCurrentStateToUser), lỗi bị giới hạn tần suất
+    // qua /user/queue/errors (InboundRateLimiter)
+    private static final String[] BROKER_PREFIXES = { "/topic", "/queue" };
+
+    // simple: SimpleBroker trong JVM (1 node)
+    // relay: STOMP broker ngoài (RabbitMQ/ActiveMQ...) qua broker relay
+    // redis: SimpleBroker + RoomBroadcastBridge chuyển message phòng giữa các node qua Redis
+    @Value("${websocket.broker.mode:simple}")
+    private String brokerMode;
+
+    @Value("${websocket.broker.relay.host:localhost}")
+    private String relayHost;
+
+    @Value("${websocket.broker.relay.port:61613}")
+    private int relayPort;
+
+    @Value("${websocket.broker.relay.login:guest}")
+    private String relayLogin;
+
+    @Value("${websocket.broker.relay.passcode:guest}")
+    private String relayPasscode;
+
+    // Cùng công tắc với Tomcat/@Async của Spring Boot: true → mọi kênh STOMP chạy trên virtual thread,
+    // false → dùng pool platform thread mặc định của Spring để so sánh.
+    // Mỗi message một virtual thread mới (VirtualThreadTaskExecutor), không gom vào pool: virtual
+    // thread rẻ, và handler chặn vì JDBC/Redis không chiếm carrier thread
+    @Value("${spring.threads.virtual.enabled:false}")
+    private boolean virtualThreads;
+
+    // Heartbeat STOMP của SimpleBroker: server gửi mỗi server-ms, chờ client gửi mỗi client-ms
+    @Value("${websocket.heartbeat.server-ms:10000}")
+    private long heartbeatServerMs;
+
+    @Value("${websocket.heartbeat.client-ms:10000}")
+    private long heartbeatClientMs;
 
     @Override
     public void configureMessageBroker(MessageBrokerRegistry config) {
-        // Định nghĩa broker nội bộ dùng để gửi thông điệp đến client
+        // Định nghĩa broker dùng để gửi thông điệp đến client
         // /topic → gửi broadcast chung (ví dụ gửi cho cả room)
         // /queue → gửi riêng cho từng user
-        config.enableSimpleBroker("/topic");
+        if ("relay".equalsIgnoreCase(brokerMode)) {
+            config.enableStompBrokerRelay(BROKER_PREFIXES)
+                    .setRelayHost(relayHost)
+                    .setRelayPort(relayPort)
+                    .setClientLogin(relayLogin)
+                    .setClientPasscode(relayPasscode)
+                    .setSystemLogin(relayLogin)
+                    .setSystemPasscode(relayPasscode);
+            log.info("✅ STOMP broker relay enabled at {}:{}", relayHost, relayPort);
+        } else {
+            // SimpleBroker tự đóng session STOMP bỏ lỡ heartbeat đã thoả thuận
+            // /queue: tin riêng theo session (/user/queue/chat-ack, /user/queue/video/sync, /user/queue/errors)
+            config.enableSimpleBroker(BROKER_PREFIXES)
+                    .setHeartbeatValue(new long[] { heartbeatServerMs, heartbeatClientMs })
+                    .setTaskScheduler(idleSessionReaper.heartbeatScheduler());
+        }
+
+        RoomBroadcastBridge bridge = broadcastBridge.getIfAvailable();
+        if (bridge != null) {
+            config.configureBrokerChannel().interceptors(bridge.brokerInterceptor());
+            log.info("✅ Redis room broadcast bridge enabled");
+        }
+        // Message phòng (kể cả message relay từ node khác) cũng được đẩy tới session /ws-native.
+        // Mode relay: NativeRelaySubscriber nhận cả message của node này qua broker ngoài
+        if (nativeRelaySubscriber.getIfAvailable() == null) {
+            config.configureBrokerChannel().interceptors(nativeRoomRegistry.brokerInterceptor());
+        }
 
         // Các endpoint client gửi lên server phải bắt đầu bằng /app
         config.setApplicationDestinationPrefixes("/app");
 
+        // Giữ thứ tự message gửi tới từng session khi outbound chạy song song
+        config.setPreservePublishOrder(true);
+    }
+
+    @Override
+    public void configureClientInboundChannel(ChannelRegistration registration) {
+        if (virtualThreads) {
+            registration.executor(new VirtualThreadTaskExecutor("ws-inbound-"));
+        }
+        // Đứng đầu: message vượt ngân sách bị bỏ trước mọi xử lý khác
+        registration.interceptors(inboundRateLimiter.inboundInterceptor());
+        RoomBroadcastBridge bridge = broadcastBridge.getIfAvailable();
+        if (bridge != null) {
+            registration.interceptors(bridge.inboundInterceptor());
+        }
+        registration.interceptors(wireFormatNegotiator.inboundInterceptor());
+        registration.interceptors(idleSessionReaper.inboundInterceptor());
+    }
+
+    @Override
+    public void configureClientOutboundChannel(ChannelRegistration registration) {
+        if (virtualThreads) {
+            registration.executor(new VirtualThreadTaskExecutor("ws-outbound-"));
+        }
+        NativeRelaySubscriber relaySubscriber = nativeRelaySubscriber.getIfAvailable();
+        if (relaySubscriber != null) {
+            registration.interceptors(relaySubscriber.outboundInterceptor());
+        }
+        // Frame video cho session đã chọn CBOR được chuyển sang binary ngay trước khi ghi ra socket
+        registration.interceptors(wireFormatNegotiator.outboundInterceptor());
+    }
+
+    @Override
+    public void configureWebSocketTransport(WebSocketTransportRegistration registration) {
+        // Đo kích thước / nén payload cho mọi session STOMP (/ws và /ws-stomp)
+        registration.addDecoratorFactory(compression::decorate);
+        // Factory thêm sau bọc ngoài cùng: hàng đợi theo session nằm sát socket, phía dưới bộ đo nén
+        registration.addDecoratorFactory(backpressure::decorate);
+        // Ngoài cùng: mọi frame nhận được (kể cả heartbeat) gia hạn deadline của session
+        registration.addDecoratorFactory(idleSessionReaper::decorate);
+    }
+
+    @Override
+    public boolean configureMessageConverters(List<MessageConverter> messageConverters) {
+        // Cho phép client gửi video event dạng application/cbor; JSON mặc định vẫn được đăng ký
+        messageConverters.add(new CompactVideoMessageConverter(compactVideoCodec));
+        return true;
     }
 
     @Override
@@ -51,17 +186,37 @@ public class WebSocketConfig implements WebSocketMessageBrokerConfigurer, WebSoc
         // ⭐ Định nghĩa endpoint kết nối WebSocket - KHÔNG CẦN JWT
         registry.addEndpoint("/ws")
                 .setAllowedOriginPatterns("*") // cho phép mọi origin
+                .setHandshakeHandler(compression.handshakeHandler()) // thoả thuận permessage-deflate
                 // .addInterceptors(new WebSocketHandshakeInterceptor()) // ⭐ COMMENT: Bỏ JWT
                 // interceptor
                 .withSockJS(); // bật SockJS fallback (phòng khi browser không hỗ trợ WS)
 
-        log.info("✅ WebSocket STOMP endpoint registered at /ws (No JWT required)");
+        // STOMP trên WebSocket thuần (không SockJS): hỗ trợ binary frame nên client có thể
+        // chọn frame video CBOR bằng header CONNECT "wt-wire-format: cbor"
+        registry.addEndpoint("/ws-stomp")
+                .setAllowedOriginPatterns("*")
+                .setHandshakeHandler(compression.handshakeHandler())
+                .addInterceptors(wireFormatNegotiator.handshakeInterceptor(true));
+
+        // Inbound chạy song song trên nhiều thread: giữ thứ tự frame của từng session
+        // (thứ tự theo phòng của video event đã do RoomEventSequencer đảm bảo)
+        registry.setPreserveReceiveOrder(true);
+
+        log.info("✅ WebSocket STOMP endpoints registered at /ws (SockJS) and /ws-stomp (No JWT required)");
     }
 
     @Override
     public void registerWebSocketHandlers(WebSocketHandlerRegistry registry) {
         // ⭐ Native WebSocket handler - KHÔNG CẦN JWT
-        registry.addHandler(nativeHandler, "/ws-native")
+        // ?compress=deflate → frame lớn được nén deflate-raw ở tầng ứng dụng
+        // Hàng đợi outbound có giới hạn như STOMP, để broadcast không bị chặn bởi client chậm
+        // Reaper ngoài cùng: client native phải gửi frame (ví dụ {"op":"ping"}) trong websocket.idle.timeout-ms
+        WebSocketHandler handler = idleSessionReaper.decorate(
+                backpressure.decorate(compression.decorate(nativeHandler.getObject())));
+        registry.addHandler(handler, "/ws-native")
+                .setHandshakeHandler(compression.handshakeHandler())
+                // ?format=cbor → session attribute wireFormat
+                .addInterceptors(wireFormatNegotiator.handshakeInterceptor(true))
                 // .addInterceptors(new WebSocketHandshakeInterceptor()) // ⭐ COMMENT: Bỏ JWT
                 // interceptor
                 .setAllowedOrigins("*"); // Allow all for testing
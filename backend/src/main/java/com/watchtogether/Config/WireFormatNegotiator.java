@@ -0,0 +1,200 @@
+package com.watchtogether.Config;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.stereotype.Component;
+import org.springframework.util.MimeTypeUtils;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.server.HandshakeInterceptor;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.watchtogether.DTO.Request.VideoEventDto;
+import com.watchtogether.util.CompactVideoCodec;
+import com.watchtogether.util.StatsSource;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Thoả thuận định dạng wire cho từng kết nối. JSON luôn là mặc định cho client cũ.
+ *
+ * - STOMP trên WebSocket thuần (/ws-stomp): client gửi header "wt-wire-format: cbor" trong
+ *   frame CONNECT; frame video gửi tới session đó được chuyển sang CBOR gọn
+ *   (content-type application/octet-stream để Spring gửi dạng binary frame, kèm header
+ *   "wt-encoding: cbor"). SockJS (/ws) không hỗ trợ vì SockJS chỉ truyền được text.
+ * - Native (/ws-native?format=cbor): định dạng được lưu vào session attribute WIRE_FORMAT_ATTR.
+ *
+ * Mỗi broadcast chỉ được mã hoá CBOR một lần rồi dùng lại cho mọi session cùng định dạng.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class WireFormatNegotiator implements StatsSource {
+
+    public static final String WIRE_FORMAT_ATTR = "wireFormat";
+    public static final String WIRE_FORMAT_HEADER = "wt-wire-format";
+    public static final String RAW_WEBSOCKET_ATTR = "rawWebSocket";
+
+    private final CompactVideoCodec codec;
+    private final ObjectMapper objectMapper;
+
+    private final Set<String> compactSessions = ConcurrentHashMap.newKeySet();
+
+    // Cache một phần tử: JSON payload gốc (so sánh theo identity) → bản CBOR
+    private volatile Encoded lastEncoded;
+
+    private final AtomicLong jsonBytes = new AtomicLong();
+    private final AtomicLong compactBytes = new AtomicLong();
+    private final AtomicLong framesTranscoded = new AtomicLong();
+
+    private record Encoded(byte[] source, byte[] compact) {
+    }
+
+    /**
+     * Handshake interceptor: ghi nhận endpoint WebSocket thuần và tham số ?format=
+     */
+    public HandshakeInterceptor handshakeInterceptor(boolean rawWebSocket) {
+        return new HandshakeInterceptor() {
+            @Override
+            public boolean beforeHandshake(ServerHttpRequest request, ServerHttpResponse response,
+                    WebSocketHandler wsHandler, Map<String, Object> attributes) {
+                attributes.put(RAW_WEBSOCKET_ATTR, rawWebSocket);
+                String format = UriComponentsBuilder.fromUri(request.getURI()).build()
+                        .getQueryParams().getFirst("format");
+                if (rawWebSocket && CompactVideoCodec.FORMAT_CBOR.equalsIgnoreCase(format)) {
+                    attributes.put(WIRE_FORMAT_ATTR, CompactVideoCodec.FORMAT_CBOR);
+                }
+                return true;
+            }
+
+            @Override
+            public void afterHandshake(ServerHttpRequest request, ServerHttpResponse response,
+                    WebSocketHandler wsHandler, Exception exception) {
+            }
+        };
+    }
+
+    /**
+     * Interceptor cho clientInboundChannel: đọc header CONNECT, dọn khi DISCONNECT
+     */
+    public ChannelInterceptor inboundInterceptor() {
+        return new ChannelInterceptor() {
+            @Override
+            public Message<?> preSend(Message<?> message, MessageChannel channel) {
+                SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.wrap(message);
+                SimpMessageType type = accessor.getMessageType();
+                if (type == SimpMessageType.CONNECT) {
+                    Map<String, Object> attributes = accessor.getSessionAttributes();
+                    boolean raw = attributes != null && Boolean.TRUE.equals(attributes.get(RAW_WEBSOCKET_ATTR));
+                    String requested = accessor.getFirstNativeHeader(WIRE_FORMAT_HEADER);
+                    if (raw && CompactVideoCodec.FORMAT_CBOR.equalsIgnoreCase(requested)) {
+                        compactSessions.add(accessor.getSessionId());
+                        attributes.put(WIRE_FORMAT_ATTR, CompactVideoCodec.FORMAT_CBOR);
+                        log.debug("Session {} negotiated compact video frames", accessor.getSessionId());
+                    }
+                } else if (type == SimpMessageType.DISCONNECT) {
+                    compactSessions.remove(accessor.getSessionId());
+                }
+                return message;
+            }
+        };
+    }
+
+    /**
+     * Interceptor cho clientOutboundChannel: chuyển frame video JSON sang CBOR cho session đã chọn
+     */
+    public ChannelInterceptor outboundInterceptor() {
+        return new ChannelInterceptor() {
+            @Override
+            public Message<?> preSend(Message<?> message, MessageChannel channel) {
+                if (compactSessions.isEmpty() || !(message.getPayload() instanceof byte[] json)) {
+                    return message;
+                }
+                StompHeaderAccessor accessor = StompHeaderAccessor.wrap(message);
+                if (accessor.getMessageType() != SimpMessageType.MESSAGE
+                        || !compactSessions.contains(accessor.getSessionId())
+                        || !isVideoDestination(accessor)) {
+                    return message;
+                }
+                byte[] compact = toCompact(json);
+                if (compact == null) {
+                    return message;
+                }
+                accessor.setContentType(MimeTypeUtils.APPLICATION_OCTET_STREAM);
+                accessor.setNativeHeader("wt-encoding", CompactVideoCodec.FORMAT_CBOR);
+                return MessageBuilder.createMessage(compact, accessor.getMessageHeaders());
+            }
+        };
+    }
+
+    public boolean isCompact(Map<String, Object> sessionAttributes) {
+        return sessionAttributes != null
+                && CompactVideoCodec.FORMAT_CBOR.equals(sessionAttributes.get(WIRE_FORMAT_ATTR));
+    }
+
+    /**
+     * Bản CBOR của frame video JSON (dùng chung cache encode-once), null nếu không chuyển được
+     */
+    public byte[] compactVideoFrame(byte[] json) {
+        return toCompact(json);
+    }
+
+    private boolean isVideoDestination(SimpMessageHeaderAccessor accessor) {
+        String destination = accessor.getDestination();
+        Object original = accessor.getHeader(SimpMessageHeaderAccessor.ORIGINAL_DESTINATION);
+        if (original instanceof String orig) {
+            destination = orig;
+        }
+        return destination != null
+                && ((destination.startsWith("/topic/rooms/") && destination.endsWith("/video"))
+                        || destination.endsWith("/queue/video/sync"));
+    }
+
+    private byte[] toCompact(byte[] json) {
+        Encoded cached = lastEncoded;
+        if (cached != null && cached.source() == json) {
+            return cached.compact();
+        }
+        try {
+            VideoEventDto event = objectMapper.readValue(json, VideoEventDto.class);
+            byte[] compact = codec.encode(event);
+            lastEncoded = new Encoded(json, compact);
+            framesTranscoded.incrementAndGet();
+            jsonBytes.addAndGet(json.length);
+            compactBytes.addAndGet(compact.length);
+            return compact;
+        } catch (Exception e) {
+            log.warn("Cannot transcode video frame to compact format: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    @Override
+    public String statsName() {
+        return "wireFormat";
+    }
+
+    @Override
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("compactSessions", compactSessions.size());
+        stats.put("framesTranscoded", framesTranscoded.get());
+        stats.put("jsonBytes", jsonBytes.get());
+        stats.put("compactBytes", compactBytes.get());
+        return stats;
+    }
+}
@@ -1,87 +1,273 @@
 package com.watchtogether.Controller;
 
 import com.watchtogether.DTO.ChatMessageDTO;
-import com.watchtogether.Entity.jpa.ChatMessage;
-import com.watchtogether.Entity.jpa.Room;
-import com.watchtogether.Entity.jpa.User;
+import com.watchtogether.DTO.Response.ChatAck;
+import com.watchtogether.Entity.jpa.ChatMessage.MessageType;
+import com.watchtogether.Repository.jpa.ChatMessageView;
 import com.watchtogether.Repository.jpa.ChatRepository;
-import com.watchtogether.Repository.jpa.RoomRepository;
-import com.watchtogether.Repository.jpa.UserRepository;
+import com.watchtogether.Service.ChatArchiver;
+import com.watchtogether.Service.ChatDedupeWindow;
+import com.watchtogether.Service.ChatExportService;
+import com.watchtogether.Service.ChatMessageWriter;
+import com.watchtogether.Service.ChatSearchService;
+import com.watchtogether.Service.RecentChatBuffer;
+import com.watchtogether.util.ChatCursor;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Limit;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
 import org.springframework.messaging.handler.annotation.MessageMapping;
 import org.springframework.messaging.handler.annotation.Payload;
 
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
 import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.*;
 
+import jakarta.servlet.http.HttpServletResponse;
+
+import java.io.IOException;
+import java.io.OutputStream;
 import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Optional;
+import java.util.zip.GZIPOutputStream;
 
 @Controller
 
 public class ChatController {
+    public static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+    public static final String CHAT_ACK_DESTINATION = "/queue/chat-ack";
+    private static final int MAX_HISTORY_LIMIT = 200;
+    private static final int MAX_MESSAGE_ID_LENGTH = 64;
+
     @Autowired
     private SimpMessagingTemplate messagingTemplate;
     private ChatRepository chatRepository;
-    private final RoomRepository roomRepository;
-    private final UserRepository userRepository;
+    private final ChatMessageWriter chatMessageWriter;
+    private final RecentChatBuffer recentChatBuffer;
+    private final ChatExportService chatExportService;
+    private final ChatSearchService chatSearchService;
+    private final ChatDedupeWindow chatDedupeWindow;
+    private final ChatArchiver chatArchiver;
 
-    public ChatController(ChatRepository chatRepository, RoomRepository roomRepository, UserRepository userRepository) {
+    public ChatController(ChatRepository chatRepository, ChatMessageWriter chatMessageWriter,
+            RecentChatBuffer recentChatBuffer, ChatExportService chatExportService,
+            ChatSearchService chatSearchService, ChatDedupeWindow chatDedupeWindow,
+            ChatArchiver chatArchiver) {
         this.chatRepository = chatRepository;
-        this.roomRepository = roomRepository;
-        this.userRepository = userRepository;
+        this.chatMessageWriter = chatMessageWriter;
+        this.recentChatBuffer = recentChatBuffer;
+        this.chatExportService = chatExportService;
+        this.chatSearchService = chatSearchService;
+        this.chatDedupeWindow = chatDedupeWindow;
+        this.chatArchiver = chatArchiver;
     }
 
     // 1. WebSocket: Nhận tin nhắn -> Lưu DB -> Gửi cho mọi người
+    // Tin có messageId: bản gửi lại (reconnect/retry) trong cửa sổ chống trùng bị bỏ trước
+    // khi broadcast và lưu DB; người gửi nhận ack trên /user/queue/chat-ack
     @MessageMapping("/chat.sendMessage")
-    public void sendMessage(@Payload ChatMessageDTO dto) {
-        // prepare data
-        LocalDateTime now = LocalDateTime.now();
-        dto.setTimestamp(now);
-
-        ChatMessage entity = new ChatMessage();
-        entity.setType(dto.getType());
-        entity.setContent(dto.getContent());
-        entity.setTimestamp(LocalDateTime.now());
-        entity.setSenderName(dto.getSender()); // Lưu tên hiển thị
-
-        // 1. Tìm Room từ DB
-        Room room = roomRepository.findById(dto.getRoomId())
-                .orElseThrow(() -> new RuntimeException("Room not found"));
-        entity.setRoom(room);
-
-        // 2. Tìm User từ DB (Dựa vào tên hoặc logic Auth của bạn)
-        // LƯU Ý: Nếu app cho phép Guest (không cần login), bước này sẽ khó.
-        // Nếu Guest: sender trong DB sẽ là null, chỉ có senderName.
-        // 3. Tìm User (nếu có)
-        Optional<User> userOpt = userRepository.findByName(dto.getSender());
-        userOpt.ifPresent(entity::setSender);
-
-        // 3. Lưu vào DB
+    public void sendMessage(@Payload ChatMessageDTO dto, SimpMessageHeaderAccessor headerAccessor) {
+        String messageId = dto.getMessageId();
+        if (messageId != null && messageId.length() > MAX_MESSAGE_ID_LENGTH) {
+            messageId = null; // không nhận id quá dài vào cửa sổ chống trùng
+        }
+        if (messageId != null && dto.getRoomId() != null
+                && !chatDedupeWindow.firstSeen(dto.getRoomId(), messageId)) {
+            sendAck(headerAccessor.getSessionId(), messageId, true);
+            return;
+        }
+
+        // prepare data (micro giây = độ chính xác của cột timestamp trong Postgres,
+        // để cursor lấy từ vòng đệm khớp với dữ liệu trong DB)
+        dto.setTimestamp(LocalDateTime.now().truncatedTo(ChronoUnit.MICROS));
+
+        // 1. Broadcast ngay cho cả phòng
         String destination = "/topic/room/" + dto.getRoomId() + "/chat";
         messagingTemplate.convertAndSend(destination, dto);
+
+        // 2. Lưu DB bất đồng bộ theo lô (sender_id được tra theo tên khi insert;
+        // Guest không có tài khoản thì sender_id = null, chỉ còn senderName)
+        if (dto.getRoomId() != null) {
+            recentChatBuffer.append(dto);
+            chatMessageWriter.enqueue(dto);
+        }
+        if (messageId != null) {
+            sendAck(headerAccessor.getSessionId(), messageId, false);
+        }
     }
 
-    // 2. REST API: Lấy lịch sử chat khi mới vào phòng
-    // Client sẽ gọi: GET /api/v1/chat/history?roomId=XYZ
+    private void sendAck(String sessionId, String messageId, boolean duplicate) {
+        if (sessionId == null) {
+            return;
+        }
+        SimpMessageHeaderAccessor headers = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        headers.setSessionId(sessionId);
+        headers.setLeaveMutable(true);
+        messagingTemplate.convertAndSendToUser(sessionId, CHAT_ACK_DESTINATION,
+                new ChatAck(messageId, duplicate, System.currentTimeMillis()), headers.getMessageHeaders());
+    }
+
+    // 2. REST API: Lấy lịch sử chat theo trang (keyset pagination trên room_id, timestamp, id)
+    // Client sẽ gọi: GET /api/v1/chat/history?roomId=XYZ[&limit=50][&cursor=...][&direction=before|after]
+    // - Không có cursor: direction=before → trang mới nhất, direction=after → trang cũ nhất
+    // - Body luôn là danh sách cũ → mới; header X-Next-Cursor để lấy trang kế tiếp cùng chiều
+    //   (không có header khi đã hết)
+    // - Trang mới nhất (lúc join) được trả từ RecentChatBuffer nếu đủ tin, không xuống DB
+    // - direction=before: Postgres hết tin thì phần còn lại lấy từ file lưu trữ (ChatArchiver)
     @GetMapping("/api/v1/chat/history")
     @ResponseBody // Trả về JSON
-    public List<ChatMessageDTO> getChatHistory(@RequestParam String roomId) {
-        // Lấy Entity từ DB -> Convert sang DTO -> Trả về
-        return chatRepository.findByRoomRoomIdOrderByTimestampAsc(roomId)
-                .stream()
-                .map(msg -> {
-                    ChatMessageDTO dto = new ChatMessageDTO();
-                    dto.setType(msg.getType());
-                    dto.setContent(msg.getContent());
-                    dto.setSender(msg.getSenderName()); // Lấy tên backup
-                    dto.setRoomId(msg.getRoom().getRoomId());
-                    dto.setTimestamp(msg.getTimestamp());
-                    return dto;
-                })
-                .toList();
+    public ResponseEntity<List<ChatMessageDTO>> getChatHistory(@RequestParam String roomId,
+            @RequestParam(defaultValue = "50") int limit,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "before") String direction) throws IOException {
+        int size = Math.max(1, Math.min(limit, MAX_HISTORY_LIMIT));
+        boolean before = !"after".equalsIgnoreCase(direction);
+
+        ChatCursor from;
+        try {
+            from = cursor != null && !cursor.isBlank() ? ChatCursor.decode(cursor) : null;
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+
+        if (before && from == null) {
+            List<RecentChatBuffer.Entry> recent = recentChatBuffer.recent(roomId, size);
+            if (recent != null) {
+                return recentPage(roomId, recent);
+            }
+        }
+
+        // Lấy thêm 1 dòng để biết còn trang sau hay không
+        Limit fetch = Limit.of(size + 1);
+        List<ChatMessageView> rows;
+        if (before) {
+            rows = from == null ? chatRepository.findLatest(roomId, fetch)
+                    : chatRepository.findBefore(roomId, from.timestamp(), from.id(), fetch);
+        } else {
+            rows = from == null ? chatRepository.findEarliest(roomId, fetch)
+                    : chatRepository.findAfter(roomId, from.timestamp(), from.id(), fetch);
+        }
+        if (before && rows.size() <= size) {
+            // Partition đã lưu trữ đều cũ hơn mọi tin trong DB: đọc tiếp từ sau dòng cũ nhất vừa lấy
+            ChatMessageView oldest = rows.isEmpty() ? null : rows.get(rows.size() - 1);
+            ChatCursor boundary = oldest != null ? new ChatCursor(oldest.getTimestamp(), oldest.getId()) : from;
+            List<ChatMessageView> archived = chatArchiver.pageBefore(roomId, boundary, size + 1 - rows.size());
+            if (!archived.isEmpty()) {
+                rows = new ArrayList<>(rows);
+                rows.addAll(archived);
+            }
+        }
+        boolean hasMore = rows.size() > size;
+        List<ChatMessageView> page = new ArrayList<>(hasMore ? rows.subList(0, size) : rows);
+
+        HttpHeaders headers = new HttpHeaders();
+        if (hasMore) {
+            ChatMessageView last = page.get(page.size() - 1);
+            headers.set(NEXT_CURSOR_HEADER, new ChatCursor(last.getTimestamp(), last.getId()).encode());
+        }
+        if (before) {
+            Collections.reverse(page); // truy vấn mới → cũ, trả về cũ → mới
+            if (from == null) {
+                recentChatBuffer.seed(roomId, page.stream()
+                        .map(msg -> new RecentChatBuffer.Entry(msg.getTimestamp(), toDto(msg)))
+                        .toList(), !hasMore);
+            }
+        }
+        List<ChatMessageDTO> body = page.stream().map(this::toDto).toList();
+        return ResponseEntity.ok().headers(headers).body(body);
+    }
+
+    // 3. REST API: Xuất toàn bộ lịch sử phòng dạng NDJSON (mỗi dòng một tin, cũ → mới)
+    // Client sẽ gọi: GET /api/v1/chat/export?roomId=XYZ[&types=CHAT,JOIN,LEAVE][&gzip=true]
+    // - types mặc định là tất cả (CHAT = chat, JOIN/LEAVE = log sự kiện)
+    // - gzip=true → file .ndjson.gz; ngược lại stream NDJSON thô
+    // Ghi thẳng ra response trong lúc đọc cursor DB (Tomcat chạy trên virtual thread,
+    // không cần async request nên không bị giới hạn thời gian của async)
+    @GetMapping("/api/v1/chat/export")
+    public void exportChat(@RequestParam String roomId,
+            @RequestParam(required = false) List<String> types,
+            @RequestParam(defaultValue = "false") boolean gzip,
+            HttpServletResponse response) throws IOException {
+        List<MessageType> selected;
+        try {
+            selected = types == null || types.isEmpty() ? Arrays.asList(MessageType.values())
+                    : types.stream().map(t -> MessageType.valueOf(t.trim().toUpperCase())).toList();
+        } catch (IllegalArgumentException e) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid message type");
+            return;
+        }
+
+        String fileName = "room-" + roomId.replaceAll("[^A-Za-z0-9_-]", "_") + "-chat.ndjson" + (gzip ? ".gz" : "");
+        response.setContentType(gzip ? "application/gzip" : "application/x-ndjson");
+        response.setCharacterEncoding("UTF-8");
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + fileName + "\"");
+
+        OutputStream out = response.getOutputStream();
+        if (gzip) {
+            try (GZIPOutputStream gzipOut = new GZIPOutputStream(out, 8192)) {
+                chatExportService.exportRoom(roomId, selected, gzipOut);
+            }
+        } else {
+            chatExportService.exportRoom(roomId, selected, out);
+            out.flush();
+        }
+    }
+
+    // 4. REST API: Tìm kiếm full-text trong chat của phòng (mới → cũ)
+    // Client sẽ gọi: GET /api/v1/chat/search?roomId=XYZ&q=...[&limit=20][&cursor=...]
+    // - q theo cú pháp websearch: từ khoá, "cụm từ", -loại trừ, or
+    // - header X-Next-Cursor để lấy trang kết quả cũ hơn (không có header khi đã hết)
+    @GetMapping("/api/v1/chat/search")
+    @ResponseBody
+    public ResponseEntity<List<ChatMessageDTO>> searchChat(@RequestParam String roomId,
+            @RequestParam String q,
+            @RequestParam(defaultValue = "20") int limit,
+            @RequestParam(required = false) String cursor) {
+        if (q.isBlank()) {
+            return ResponseEntity.badRequest().build();
+        }
+        ChatCursor from;
+        try {
+            from = cursor != null && !cursor.isBlank() ? ChatCursor.decode(cursor) : null;
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+        int size = Math.max(1, Math.min(limit, MAX_HISTORY_LIMIT));
+        ChatSearchService.Page page = chatSearchService.search(roomId, q, size, from);
+
+        HttpHeaders headers = new HttpHeaders();
+        if (page.nextCursor() != null) {
+            headers.set(NEXT_CURSOR_HEADER, page.nextCursor().encode());
+        }
+        return ResponseEntity.ok().headers(headers).body(page.messages());
+    }
+
+    // Trang mới nhất từ vòng đệm. Tin trong vòng đệm có thể chưa được ghi DB nên chưa có id:
+    // cursor dùng (timestamp tin cũ nhất, Long.MIN_VALUE), tức trang sau lấy mọi tin có
+    // timestamp nhỏ hơn hẳn
+    private ResponseEntity<List<ChatMessageDTO>> recentPage(String roomId, List<RecentChatBuffer.Entry> recent) {
+        HttpHeaders headers = new HttpHeaders();
+        if (!recent.isEmpty() && recentChatBuffer.mayHaveOlder(roomId, recent.size())) {
+            headers.set(NEXT_CURSOR_HEADER, new ChatCursor(recent.get(0).timestamp(), Long.MIN_VALUE).encode());
+        }
+        List<ChatMessageDTO> body = recent.stream().map(RecentChatBuffer.Entry::message).toList();
+        return ResponseEntity.ok().headers(headers).body(body);
+    }
+
+    private ChatMessageDTO toDto(ChatMessageView msg) {
+        ChatMessageDTO dto = new ChatMessageDTO();
+        dto.setType(msg.getType());
+        dto.setContent(msg.getContent());
+        dto.setSender(msg.getSenderName()); // Lấy tên backup
+        dto.setRoomId(msg.getRoomId());
+        dto.setTimestamp(msg.getTimestamp());
+        return dto;
     }
-}
\ No newline at end of file
+}
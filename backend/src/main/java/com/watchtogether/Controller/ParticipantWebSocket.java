@@ -11,6 +11,7 @@ import org.springframework.messaging.handler.annotation.MessageMapping;
 import org.springframework.messaging.handler.annotation.Payload;
 import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
 import org.springframework.messaging.simp.SimpMessageSendingOperations;
+import org.springframework.messaging.simp.SimpMessageType;
 import org.springframework.stereotype.Controller;
 
 @Controller
@@ -31,7 +32,8 @@ public class ParticipantWebSocket {
         headerAccessor.getSessionAttributes().put("username", username);
         headerAccessor.getSessionAttributes().put("room_id", roomId);
 
-        roomPresenceService.addUser(roomId, username);
+        // SADD + EXPIRE trong một round trip, trả về username vừa được thêm
+        RoomPresenceService.PresenceChange presence = roomPresenceService.addUser(roomId, username);
 
         // 3. Gửi thông báo JOIN
         ChatMessageDTO joinMsg = new ChatMessageDTO();
@@ -39,8 +41,17 @@ public class ParticipantWebSocket {
         joinMsg.setSender(username);
         messagingTemplate.convertAndSend("/topic/room/" + roomId, joinMsg);
 
-        // 4. [QUAN TRỌNG] Gửi danh sách thành viên mới nhất cho cả phòng
-        messagingTemplate.convertAndSend("/topic/room/" + roomId + "/members",
-                roomPresenceService.getOnlineUsers(roomId));
+        // 4. [QUAN TRỌNG] Cả phòng chỉ nhận phần thay đổi (/members/delta)
+        roomPresenceService.publishDelta(presence);
+
+        // 5. Người vừa join nhận danh sách đầy đủ, gửi sau delta nên không bị delta cũ ghi đè
+        String sessionId = headerAccessor.getSessionId();
+        if (sessionId != null) {
+            SimpMessageHeaderAccessor headers = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+            headers.setSessionId(sessionId);
+            headers.setLeaveMutable(true);
+            messagingTemplate.convertAndSendToUser(sessionId, "/queue/members",
+                    roomPresenceService.getOnlineUsers(roomId), headers.getMessageHeaders());
+        }
     }
 }
\ No newline at end of file
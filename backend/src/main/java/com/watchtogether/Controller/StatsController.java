@@ -0,0 +1,31 @@
+package com.watchtogether.Controller;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.watchtogether.util.StatsSource;
+
+import lombok.RequiredArgsConstructor;
+
+@RestController
+@RequestMapping("/api/v1/stats")
+@RequiredArgsConstructor
+public class StatsController {
+
+    private final List<StatsSource> sources;
+
+    // GET /api/v1/stats → số liệu của mọi StatsSource, gom theo tên
+    @GetMapping
+    public Map<String, Object> getStats() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        for (StatsSource source : sources) {
+            result.put(source.statsName(), source.stats());
+        }
+        return result;
+    }
+}
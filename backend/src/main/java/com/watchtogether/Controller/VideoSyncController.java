@@ -13,6 +13,7 @@ import com.watchtogether.DTO.Request.VideoEventDto;
 import com.watchtogether.DTO.Response.ErrorResponse;
 import com.watchtogether.Service.VideoSyncService;
 import com.watchtogether.Service.RoomService;
+import com.watchtogether.util.Enum.VideoEventType;
 
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -66,6 +67,12 @@ public class VideoSyncController {
                 return;
             }
 
+            // REQUEST_SYNC: chỉ gửi trạng thái hiện tại (tính từ đồng hồ server) cho người hỏi
+            if (event.getType() == VideoEventType.REQUEST_SYNC) {
+                videoSyncService.sendCurrentStateToUser(roomId, headerAccessor.getSessionId());
+                return;
+            }
+
             // 4. Set metadata
             event.setParticipantId(participantId);
             event.setRoomId(roomId);
@@ -9,6 +9,7 @@ import com.watchtogether.Entity.jpa.ChatMessage.MessageType;
 
 @Data
 public class ChatMessageDTO {
+    private String messageId; // ID do client sinh (UUID) cho mỗi tin, dùng để chống gửi trùng
     private MessageType type;
     private String content;
     private String sender; // Tên người gửi (String) từ Frontend
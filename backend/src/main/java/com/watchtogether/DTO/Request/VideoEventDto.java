@@ -33,4 +33,13 @@ public class VideoEventDto {
     // For SYNC_STATE events
     private String playbackState;         // "PLAYING", "PAUSED", "STOPPED"
     private Boolean isPlaying;            // Convenience field for frontend
+
+    // Server clock at the moment currentTime was computed (epoch millis).
+    // Client cộng thêm (now - serverTime) * playbackRate nếu đang PLAYING để bù độ trễ mạng
+    private Long serverTime;
+    private Double playbackRate;
+
+    // Số thứ tự tăng dần của event trong phòng (server gán, chung cho mọi node), client bỏ qua
+    // event có số nhỏ hơn số đã nhận; null = không so sánh
+    private Long sequence;
 }
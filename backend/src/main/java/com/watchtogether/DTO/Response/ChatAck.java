@@ -0,0 +1,17 @@
+package com.watchtogether.DTO.Response;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * Xác nhận gửi tới người gửi qua /user/queue/chat-ack
+ */
+@Data
+@AllArgsConstructor
+public class ChatAck {
+
+    private String messageId;
+    // true nếu messageId đã được nhận trước đó (tin bị bỏ, không broadcast lại)
+    private boolean duplicate;
+    private Long timestamp;
+}
@@ -0,0 +1,20 @@
+package com.watchtogether.DTO.Response;
+
+import java.util.List;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * Thay đổi thành viên phòng gửi qua /topic/room/{roomId}/members/delta.
+ * Danh sách đầy đủ chỉ được gửi riêng cho người vừa join (/user/queue/members).
+ */
+@Data
+@AllArgsConstructor
+public class MembersDelta {
+
+    private List<String> added;
+    private List<String> removed;
+    // Số người trong phòng sau thay đổi
+    private long count;
+}
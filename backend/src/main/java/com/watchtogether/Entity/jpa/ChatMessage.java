@@ -8,7 +8,10 @@ import java.time.LocalDateTime;
 @AllArgsConstructor
 @NoArgsConstructor
 @Entity
-@Table(name = "chat_messages")
+// Index cho keyset pagination lịch sử chat: WHERE room_id = ? ORDER BY timestamp, id
+// Trong DB bảng được partition theo tháng trên timestamp, khoá chính (id, timestamp),
+// id lấy từ sequence chat_messages_id_seq (xem ChatPartitionManager)
+@Table(name = "chat_messages", indexes = @Index(name = "idx_chat_messages_room_ts_id", columnList = "room_id, timestamp, id"))
 public class ChatMessage {
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
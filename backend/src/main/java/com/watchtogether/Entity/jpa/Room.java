@@ -29,7 +29,8 @@ public class Room {
     private int currPlayer = 0;
     private String currentVideoId = "M7lc1UVf-VE";
     private boolean isPlaying = false;
-    @Column(name = "online_count")
+    // Chỉ OnlineCountFlusher ghi cột này (từ SCARD trên Redis); save() entity không ghi đè
+    @Column(name = "online_count", updatable = false)
     private Integer onlineCount = 0;
     @Column(name = "current_time_value")
     private double currentTime = 0.0;
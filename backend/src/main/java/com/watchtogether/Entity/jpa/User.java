@@ -11,7 +11,8 @@ import java.util.List;
 @NoArgsConstructor
 @AllArgsConstructor
 @Entity
-@Table(name = "users")
+// Index cho tra cứu theo tên (join/tạo phòng, subquery sender_id khi lưu chat)
+@Table(name = "users", indexes = @Index(name = "idx_users_name", columnList = "name"))
 public class User {
 
     @Id
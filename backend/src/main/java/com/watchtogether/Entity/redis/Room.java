@@ -13,7 +13,7 @@ import java.time.Instant;
 import java.util.concurrent.TimeUnit;
 
 @Data
-@Builder
+@Builder(toBuilder = true)
 @NoArgsConstructor
 @AllArgsConstructor
 @RedisHash("Room") // Đánh dấu lớp này là một đối tượng để lưu vào Redis.
@@ -28,9 +28,11 @@ public class Room implements Serializable { // Implement Serializable để có
     // Video state fields
     private String currentVideoUrl;        // URL của video hiện tại
     private String videoSource;           // Source type (file, youtube, etc.) - deprecated, use currentVideoUrl
-    private Double lastPosition;          // Vị trí playback cuối cùng (seconds)
+    private Double lastPosition;          // Vị trí playback tại mốc lastSyncAt (anchor position, seconds)
     private String playbackState;         // "PLAYING", "PAUSED", "STOPPED"
-    private Instant lastSyncAt;           // Thời điểm sync cuối cùng
+    private Instant lastSyncAt;           // Mốc thời gian server của anchor (anchor server time)
+    private Double playbackRate;          // Tốc độ phát (1.0 = bình thường), null coi như 1.0
+    private Long version;                 // Tăng mỗi lần cập nhật playback (compare-and-set trong RoomStateStore)
     private Instant createdAt;            // Thời điểm tạo room
 
     // @TimeToLive: Tính năng đặc biệt của Redis.
@@ -0,0 +1,267 @@
+package com.watchtogether.Handler;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.WebSocketHandlerDecorator;
+
+import com.watchtogether.util.StatsSource;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Dọn session WebSocket "chết" (TCP half-open của điện thoại ngủ, mạng rớt không có FIN...).
+ *
+ * Mỗi session có một deadline trong hashed timing wheel (wheel-size bucket, mỗi bucket tick-ms).
+ * Mỗi frame nhận được (kể cả heartbeat STOMP) chỉ ghi lại thời điểm hoạt động cuối — O(1),
+ * không di chuyển entry. Khi wheel quay tới bucket, entry còn hạn được đặt lại theo thời điểm
+ * hoạt động cuối (lazy reschedule), entry hết hạn bị đóng với SESSION_NOT_RELIABLE. Việc đóng
+ * đi qua luồng bình thường của Spring (SessionDisconnectEvent → WebSocketEventListener) nên
+ * presence, subscription và registry /ws-native đều được dọn như khi client tự ngắt.
+ *
+ * Timeout: session STOMP đã thoả thuận heartbeat client→server dùng interval * heartbeat-misses;
+ * session không gửi heartbeat (và /ws-native) dùng websocket.idle.timeout-ms.
+ *
+ * Scheduler của reaper cũng chạy heartbeat của SimpleBroker (heartbeatScheduler()).
+ */
+@Component
+@Slf4j
+public class IdleSessionReaper implements StatsSource {
+
+    private final long tickMs;
+    private final int mask;
+    private final long idleTimeoutMs;
+    private final long serverReceiveMs;
+    private final int heartbeatMisses;
+
+    private final Set<Deadline>[] wheel;
+    private final Map<String, Deadline> deadlines = new ConcurrentHashMap<>();
+    private volatile long currentTick;
+
+    private final ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
+
+    private final AtomicLong reaped = new AtomicLong();
+    private final AtomicLong rescheduled = new AtomicLong();
+
+    private static final class Deadline {
+        final WebSocketSession session;
+        volatile long lastActivity;
+        volatile long timeoutMs;
+        volatile int bucket;
+
+        Deadline(WebSocketSession session, long now, long timeoutMs) {
+            this.session = session;
+            this.lastActivity = now;
+            this.timeoutMs = timeoutMs;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public IdleSessionReaper(
+            @Value("${websocket.idle.tick-ms:1000}") long tickMs,
+            @Value("${websocket.idle.wheel-size:512}") int wheelSize,
+            @Value("${websocket.idle.timeout-ms:300000}") long idleTimeoutMs,
+            @Value("${websocket.heartbeat.client-ms:10000}") long serverReceiveMs,
+            @Value("${websocket.heartbeat.misses:3}") int heartbeatMisses) {
+        this.tickMs = tickMs;
+        // Làm tròn lên luỹ thừa của 2 để lấy bucket bằng phép AND
+        int size = Integer.highestOneBit(Math.max(2, wheelSize - 1)) << 1;
+        this.mask = size - 1;
+        this.idleTimeoutMs = idleTimeoutMs;
+        this.serverReceiveMs = serverReceiveMs;
+        this.heartbeatMisses = heartbeatMisses;
+        this.wheel = new Set[size];
+        for (int i = 0; i < size; i++) {
+            wheel[i] = ConcurrentHashMap.newKeySet();
+        }
+    }
+
+    @PostConstruct
+    public void start() {
+        scheduler.setPoolSize(1);
+        scheduler.setThreadNamePrefix("ws-heartbeat-");
+        scheduler.setDaemon(true);
+        scheduler.initialize();
+        scheduler.scheduleAtFixedRate(this::tick, Duration.ofMillis(tickMs));
+    }
+
+    @PreDestroy
+    public void stop() {
+        scheduler.shutdown();
+    }
+
+    public TaskScheduler heartbeatScheduler() {
+        return scheduler;
+    }
+
+    /**
+     * Bọc handler: đăng ký session khi kết nối, ghi nhận hoạt động ở mỗi frame nhận được
+     */
+    public WebSocketHandler decorate(WebSocketHandler handler) {
+        return new WebSocketHandlerDecorator(handler) {
+            @Override
+            public void afterConnectionEstablished(WebSocketSession session) throws Exception {
+                register(session);
+                super.afterConnectionEstablished(session);
+            }
+
+            @Override
+            public void handleMessage(WebSocketSession session, WebSocketMessage<?> message) throws Exception {
+                touch(session.getId());
+                super.handleMessage(session, message);
+            }
+
+            @Override
+            public void afterConnectionClosed(WebSocketSession session, CloseStatus closeStatus) throws Exception {
+                unregister(session.getId());
+                super.afterConnectionClosed(session, closeStatus);
+            }
+        };
+    }
+
+    /**
+     * Interceptor cho clientInboundChannel: rút ngắn timeout khi client thoả thuận heartbeat
+     */
+    public ChannelInterceptor inboundInterceptor() {
+        return new ChannelInterceptor() {
+            @Override
+            public Message<?> preSend(Message<?> message, MessageChannel channel) {
+                StompHeaderAccessor accessor = StompHeaderAccessor.wrap(message);
+                if (accessor.getMessageType() == SimpMessageType.CONNECT && serverReceiveMs > 0) {
+                    long[] heartbeat = accessor.getHeartbeat();
+                    if (heartbeat[0] > 0) {
+                        // Theo STOMP 1.2: interval client→server = max(cx, sy)
+                        long interval = Math.max(heartbeat[0], serverReceiveMs);
+                        setTimeout(accessor.getSessionId(), interval * heartbeatMisses);
+                    }
+                }
+                return message;
+            }
+        };
+    }
+
+    private void register(WebSocketSession session) {
+        long now = now();
+        Deadline deadline = new Deadline(session, now, idleTimeoutMs);
+        deadlines.put(session.getId(), deadline);
+        place(deadline, now + idleTimeoutMs);
+    }
+
+    private void touch(String sessionId) {
+        Deadline deadline = deadlines.get(sessionId);
+        if (deadline != null) {
+            deadline.lastActivity = now();
+        }
+    }
+
+    private void setTimeout(String sessionId, long timeoutMs) {
+        Deadline deadline = deadlines.get(sessionId);
+        if (deadline == null) {
+            return;
+        }
+        long previous = deadline.timeoutMs;
+        deadline.timeoutMs = timeoutMs;
+        if (timeoutMs < previous && wheel[deadline.bucket].remove(deadline)) {
+            // Timeout ngắn hơn: đưa entry lên bucket sớm hơn
+            place(deadline, deadline.lastActivity + timeoutMs);
+        }
+    }
+
+    private void unregister(String sessionId) {
+        Deadline deadline = deadlines.remove(sessionId);
+        if (deadline != null) {
+            wheel[deadline.bucket].remove(deadline);
+        }
+    }
+
+    private void place(Deadline deadline, long dueAt) {
+        long ticks = Math.max(1, (dueAt - now() + tickMs - 1) / tickMs);
+        // Xa hơn một vòng wheel: đặt ở bucket xa nhất, tới đó sẽ được đặt lại
+        ticks = Math.min(ticks, mask);
+        int bucket = (int) ((currentTick + ticks) & mask);
+        deadline.bucket = bucket;
+        wheel[bucket].add(deadline);
+    }
+
+    void tick() {
+        try {
+            long tick = ++currentTick;
+            Set<Deadline> bucket = wheel[(int) (tick & mask)];
+            long now = now();
+            for (Deadline deadline : bucket) {
+                bucket.remove(deadline);
+                if (deadlines.get(deadline.session.getId()) != deadline) {
+                    continue; // đã đóng
+                }
+                long dueAt = deadline.lastActivity + deadline.timeoutMs;
+                if (now >= dueAt) {
+                    reap(deadline);
+                } else {
+                    rescheduled.incrementAndGet();
+                    place(deadline, dueAt);
+                }
+            }
+        } catch (Exception e) {
+            log.error("Idle session reaper tick failed: {}", e.getMessage(), e);
+        }
+    }
+
+    // Đồng hồ của wheel (test thay bằng đồng hồ giả)
+    long now() {
+        return System.currentTimeMillis();
+    }
+
+    private void reap(Deadline deadline) {
+        WebSocketSession session = deadline.session;
+        if (!deadlines.remove(session.getId(), deadline)) {
+            return;
+        }
+        reaped.incrementAndGet();
+        log.info("Closing idle WebSocket session {} (no frame for {} ms)", session.getId(),
+                now() - deadline.lastActivity);
+        // close có thể chặn trên socket half-open: chạy ngoài thread của wheel
+        Thread.ofVirtual().name("ws-reap-" + session.getId()).start(() -> {
+            try {
+                session.close(CloseStatus.SESSION_NOT_RELIABLE);
+            } catch (IOException e) {
+                log.debug("Cannot close idle session {}: {}", session.getId(), e.getMessage());
+            }
+        });
+    }
+
+    @Override
+    public String statsName() {
+        return "idleSessionReaper";
+    }
+
+    @Override
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("trackedSessions", deadlines.size());
+        stats.put("wheelSize", mask + 1);
+        stats.put("tickMs", tickMs);
+        stats.put("reaped", reaped.get());
+        stats.put("rescheduled", rescheduled.get());
+        return stats;
+    }
+}
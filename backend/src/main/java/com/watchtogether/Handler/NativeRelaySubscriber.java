@@ -0,0 +1,198 @@
+package com.watchtogether.Handler;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.context.event.EventListener;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.broker.BrokerAvailabilityEvent;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.stereotype.Component;
+
+import com.watchtogether.util.StatsSource;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Đưa message phòng từ STOMP broker ngoài tới session /ws-native khi websocket.broker.mode=relay.
+ *
+ * Broker relay gửi message thẳng tới từng session STOMP đã subscribe, không qua brokerChannel,
+ * nên NativeRoomRegistry.brokerInterceptor() không thấy message do node khác gửi. Node giữ một
+ * session STOMP "ảo" trên relay (sessionId native-relay-*): phòng có session native đầu tiên thì
+ * SUBSCRIBE các destination của phòng, phòng hết session native thì UNSUBSCRIBE.
+ * Frame broker trả về cho session này bị chặn trên clientOutboundChannel và chuyển cho
+ * NativeRoomRegistry.deliver(). Message do chính node này gửi cũng đi vòng qua broker, nên ở
+ * mode relay brokerInterceptor() không được đăng ký (tránh nhận hai lần).
+ */
+@Component
+@ConditionalOnProperty(name = "websocket.broker.mode", havingValue = "relay")
+@Slf4j
+public class NativeRelaySubscriber implements NativeRoomRegistry.RoomListener, StatsSource {
+
+    private static final String SESSION_PREFIX = "native-relay-";
+
+    // Mọi destination phòng mà server gửi tới (xem các convertAndSend tới /topic/room[s]/{id})
+    private static final String[] ROOM_DESTINATIONS = {
+            "/topic/room/%s", "/topic/room/%s/members/delta", "/topic/room/%s/chat", "/topic/room/%s/video",
+            "/topic/room/%s/sync", "/topic/rooms/%s", "/topic/rooms/%s/video" };
+
+    private final NativeRoomRegistry roomRegistry;
+    private final MessageChannel brokerChannel;
+    private final String nodeId = UUID.randomUUID().toString();
+    private final AtomicLong generation = new AtomicLong();
+
+    // Session ảo hiện tại; null = chưa kết nối. Chỉ subscribe sau khi nhận CONNECTED
+    private volatile String sessionId;
+    private volatile boolean connected;
+    private volatile boolean brokerAvailable;
+
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong reconnects = new AtomicLong();
+
+    public NativeRelaySubscriber(NativeRoomRegistry roomRegistry,
+            @Lazy @Qualifier("brokerChannel") MessageChannel brokerChannel) {
+        this.roomRegistry = roomRegistry;
+        this.brokerChannel = brokerChannel;
+    }
+
+    @PostConstruct
+    void register() {
+        roomRegistry.addRoomListener(this);
+    }
+
+    @EventListener
+    public void onBrokerAvailability(BrokerAvailabilityEvent event) {
+        brokerAvailable = event.isBrokerAvailable();
+        if (brokerAvailable) {
+            connect();
+        } else {
+            connected = false;
+        }
+    }
+
+    /**
+     * Interceptor cho clientOutboundChannel: giữ lại frame gửi cho session ảo
+     */
+    public ChannelInterceptor outboundInterceptor() {
+        return new ChannelInterceptor() {
+            @Override
+            public Message<?> preSend(Message<?> message, MessageChannel channel) {
+                StompHeaderAccessor accessor = StompHeaderAccessor.wrap(message);
+                String target = accessor.getSessionId();
+                if (target == null || !target.startsWith(SESSION_PREFIX)) {
+                    return message;
+                }
+                if (target.equals(sessionId)) {
+                    onFrame(accessor, message.getPayload());
+                }
+                // Session ảo không có WebSocket thật phía sau
+                return null;
+            }
+        };
+    }
+
+    private void onFrame(StompHeaderAccessor accessor, Object payload) {
+        StompCommand command = accessor.getCommand();
+        if (command == StompCommand.CONNECTED) {
+            onConnected();
+        } else if (command == StompCommand.MESSAGE && payload instanceof byte[] body) {
+            roomRegistry.deliver(accessor.getDestination(), body, accessor.getContentType(),
+                    accessor.getFirstNativeHeader(OutboundBackpressure.CONFLATE_HEADER) != null);
+            delivered.incrementAndGet();
+        } else if (command == StompCommand.ERROR) {
+            log.warn("Native relay session {} lost: {}", sessionId, accessor.getMessage());
+            connected = false;
+            if (brokerAvailable) {
+                connect();
+            }
+        }
+    }
+
+    private synchronized void connect() {
+        connected = false;
+        String previous = sessionId;
+        if (previous != null) {
+            send(StompHeaderAccessor.create(StompCommand.DISCONNECT), previous);
+            reconnects.incrementAndGet();
+        }
+        String next = SESSION_PREFIX + nodeId + "-" + generation.incrementAndGet();
+        sessionId = next;
+        StompHeaderAccessor connect = StompHeaderAccessor.create(StompCommand.CONNECT);
+        connect.setAcceptVersion("1.1,1.2");
+        connect.setHeartbeat(0, 0);
+        send(connect, next);
+    }
+
+    // Cùng monitor với roomOpened: một subscription id không bị SUBSCRIBE hai lần
+    private synchronized void onConnected() {
+        connected = true;
+        roomRegistry.roomIds().forEach(this::subscribe);
+        log.info("Native relay session {} connected, {} rooms subscribed", sessionId, roomRegistry.roomIds().size());
+    }
+
+    @Override
+    public synchronized void roomOpened(String roomId) {
+        if (connected) {
+            subscribe(roomId);
+        }
+    }
+
+    @Override
+    public synchronized void roomClosed(String roomId) {
+        if (!connected) {
+            return;
+        }
+        for (int i = 0; i < ROOM_DESTINATIONS.length; i++) {
+            StompHeaderAccessor unsubscribe = StompHeaderAccessor.create(StompCommand.UNSUBSCRIBE);
+            unsubscribe.setSubscriptionId(roomId + "#" + i);
+            send(unsubscribe, sessionId);
+        }
+    }
+
+    private void subscribe(String roomId) {
+        for (int i = 0; i < ROOM_DESTINATIONS.length; i++) {
+            StompHeaderAccessor subscribe = StompHeaderAccessor.create(StompCommand.SUBSCRIBE);
+            subscribe.setSubscriptionId(roomId + "#" + i);
+            subscribe.setDestination(ROOM_DESTINATIONS[i].formatted(roomId));
+            send(subscribe, sessionId);
+        }
+    }
+
+    private void send(StompHeaderAccessor accessor, String target) {
+        if (target == null) {
+            return;
+        }
+        accessor.setSessionId(target);
+        accessor.setLeaveMutable(true);
+        try {
+            brokerChannel.send(MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders()));
+        } catch (Exception e) {
+            log.error("Native relay session {}: cannot send {}: {}", target, accessor.getCommand(), e.getMessage());
+        }
+    }
+
+    @Override
+    public String statsName() {
+        return "nativeRelay";
+    }
+
+    @Override
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("connected", connected);
+        stats.put("rooms", roomRegistry.roomIds().size());
+        stats.put("delivered", delivered.get());
+        stats.put("reconnects", reconnects.get());
+        return stats;
+    }
+}
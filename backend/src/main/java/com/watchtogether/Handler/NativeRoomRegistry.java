@@ -0,0 +1,248 @@
+package com.watchtogether.Handler;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.stereotype.Component;
+import org.springframework.util.MimeType;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.watchtogether.Config.WireFormatNegotiator;
+import com.watchtogether.util.StatsSource;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Registry phòng → session của /ws-native.
+ *
+ * Không có đường broadcast riêng: brokerInterceptor() nghe mọi message phòng đi qua
+ * brokerChannel (do /ws, /ws-native hoặc node khác qua RoomBroadcastBridge tạo ra) và
+ * chuyển tiếp cho session native của phòng đó. Với broker relay, message của node khác không
+ * đi qua brokerChannel: NativeRelaySubscriber subscribe phòng trên broker ngoài và gọi deliver(). Payload JSON mà Spring đã serialize được bọc
+ * thành frame native đúng một lần rồi dùng chung cho mọi session; session CBOR nhận frame
+ * video nhị phân (cũng mã hoá một lần).
+ *
+ * Frame: {"op":"event","channel":"video","roomId":"...","data":{...}}
+ * (channel là phần sau roomId trong destination: video, chat, members/delta, "" cho thông báo phòng;
+ * "members" là danh sách đầy đủ gửi riêng khi join)
+ *
+ * Frame mang trạng thái đầy đủ (message có header CONFLATE_HEADER, danh sách members, SYNC_STATE
+ * khi join) được bọc trong OutboundBackpressure.ConflatedMessage với key theo phòng + channel,
+ * nên hàng đợi của session native chậm cũng chỉ giữ bản mới nhất như session STOMP.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class NativeRoomRegistry implements StatsSource {
+
+    private static final String[] ROOM_PREFIXES = { "/topic/rooms/", "/topic/room/" };
+
+    private final ObjectMapper objectMapper;
+    private final WireFormatNegotiator wireFormatNegotiator;
+
+    /**
+     * Nhận tin khi phòng có session native đầu tiên / mất session native cuối cùng trên node này
+     */
+    public interface RoomListener {
+
+        void roomOpened(String roomId);
+
+        void roomClosed(String roomId);
+    }
+
+    private final Map<String, Set<WebSocketSession>> rooms = new ConcurrentHashMap<>();
+    private final List<RoomListener> roomListeners = new CopyOnWriteArrayList<>();
+
+    private final AtomicLong broadcasts = new AtomicLong();
+    private final AtomicLong framesSent = new AtomicLong();
+
+    public void addRoomListener(RoomListener listener) {
+        roomListeners.add(listener);
+    }
+
+    public void join(String roomId, WebSocketSession session) {
+        rooms.compute(roomId, (id, sessions) -> {
+            Set<WebSocketSession> members = sessions != null ? sessions : ConcurrentHashMap.newKeySet();
+            if (sessions == null) {
+                roomListeners.forEach(listener -> listener.roomOpened(roomId));
+            }
+            members.add(session);
+            return members;
+        });
+    }
+
+    public void leave(String roomId, WebSocketSession session) {
+        rooms.computeIfPresent(roomId, (id, sessions) -> {
+            sessions.remove(session);
+            if (sessions.isEmpty()) {
+                roomListeners.forEach(listener -> listener.roomClosed(roomId));
+                return null;
+            }
+            return sessions;
+        });
+    }
+
+    /**
+     * Các phòng đang có session native trên node này
+     */
+    public Set<String> roomIds() {
+        return rooms.keySet();
+    }
+
+    /**
+     * Interceptor cho brokerChannel: message phòng → session native trong phòng
+     */
+    public ChannelInterceptor brokerInterceptor() {
+        return new ChannelInterceptor() {
+            @Override
+            public void postSend(Message<?> message, MessageChannel channel, boolean sent) {
+                if (!sent || rooms.isEmpty() || !(message.getPayload() instanceof byte[] body)) {
+                    return;
+                }
+                SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.wrap(message);
+                if (accessor.getMessageType() == SimpMessageType.MESSAGE) {
+                    deliver(accessor.getDestination(), body, accessor.getContentType(),
+                            accessor.getFirstNativeHeader(OutboundBackpressure.CONFLATE_HEADER) != null);
+                }
+            }
+        };
+    }
+
+    /**
+     * Chuyển một message phòng (destination /topic/room[s]/{id}/...) tới session native của phòng
+     *
+     * @param conflate message mang header CONFLATE_HEADER (frame mới thay frame cũ đang chờ)
+     */
+    public void deliver(String destination, byte[] body, MimeType contentType, boolean conflate) {
+        if (destination == null || rooms.isEmpty()) {
+            return;
+        }
+        for (String prefix : ROOM_PREFIXES) {
+            if (destination.startsWith(prefix)) {
+                String rest = destination.substring(prefix.length());
+                int slash = rest.indexOf('/');
+                String roomId = slash < 0 ? rest : rest.substring(0, slash);
+                String channelName = slash < 0 ? "" : rest.substring(slash + 1);
+                broadcast(roomId, channelName, body, contentType, conflate || "members".equals(channelName));
+                return;
+            }
+        }
+    }
+
+    private void broadcast(String roomId, String channelName, byte[] body, MimeType contentType, boolean conflate) {
+        Set<WebSocketSession> sessions = rooms.get(roomId);
+        if (sessions == null || sessions.isEmpty()) {
+            return;
+        }
+        broadcasts.incrementAndGet();
+        boolean video = "video".equals(channelName);
+        String key = conflate ? conflationKey(roomId, channelName) : null;
+        WebSocketMessage<?> text = null;
+        byte[] compact = null;
+        for (WebSocketSession session : sessions) {
+            if (video && wireFormatNegotiator.isCompact(session.getAttributes())) {
+                if (compact == null) {
+                    compact = wireFormatNegotiator.compactVideoFrame(body);
+                }
+                if (compact != null) {
+                    // BinaryMessage giữ ByteBuffer có vị trí đọc riêng nên tạo mới cho từng session
+                    send(roomId, session, tagged(new BinaryMessage(compact), key));
+                    continue;
+                }
+            }
+            if (text == null) {
+                text = tagged(new TextMessage(envelope(roomId, channelName, body, contentType)), key);
+            }
+            send(roomId, session, text);
+        }
+    }
+
+    /**
+     * Gửi một frame trạng thái đầy đủ (JSON đã serialize) tới một session, ví dụ SYNC_STATE khi join:
+     * thay thế frame trạng thái cùng channel đang chờ gửi
+     */
+    public void sendTo(WebSocketSession session, String roomId, String channelName, byte[] json) {
+        send(roomId, session, tagged(new TextMessage(envelope(roomId, channelName, json, null)),
+                conflationKey(roomId, channelName)));
+    }
+
+    // Mỗi session chỉ ở một phòng, key theo phòng + channel vẫn giữ riêng từng phòng khi đổi phòng
+    private static String conflationKey(String roomId, String channelName) {
+        return roomId + "/" + channelName;
+    }
+
+    private static WebSocketMessage<?> tagged(WebSocketMessage<?> frame, String key) {
+        return key != null ? new OutboundBackpressure.ConflatedMessage<>(frame, key) : frame;
+    }
+
+    private void send(String roomId, WebSocketSession session, WebSocketMessage<?> frame) {
+        if (!session.isOpen()) {
+            leave(roomId, session);
+            return;
+        }
+        try {
+            session.sendMessage(frame);
+            framesSent.incrementAndGet();
+        } catch (IOException | IllegalStateException e) {
+            log.debug("Native session {} dropped from room {}: {}", session.getId(), roomId, e.getMessage());
+            leave(roomId, session);
+        }
+    }
+
+    private String envelope(String roomId, String channelName, byte[] body, MimeType contentType) {
+        String data = new String(body, StandardCharsets.UTF_8);
+        boolean json = contentType == null || "json".equals(contentType.getSubtype())
+                || contentType.getSubtype().endsWith("+json");
+        StringBuilder frame = new StringBuilder(data.length() + 64 + roomId.length());
+        frame.append("{\"op\":\"event\",\"channel\":").append(quote(channelName))
+                .append(",\"roomId\":").append(quote(roomId))
+                .append(",\"data\":").append(json ? data : quote(data))
+                .append('}');
+        return frame.toString();
+    }
+
+    private String quote(String value) {
+        try {
+            return objectMapper.writeValueAsString(value);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public String statsName() {
+        return "nativeRooms";
+    }
+
+    @Override
+    public Map<String, Object> stats() {
+        int sessions = 0;
+        for (Set<WebSocketSession> members : rooms.values()) {
+            sessions += members.size();
+        }
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("rooms", rooms.size());
+        stats.put("sessions", sessions);
+        stats.put("broadcasts", broadcasts.get());
+        stats.put("framesSent", framesSent.get());
+        return stats;
+    }
+}
@@ -1,39 +1,276 @@
 package com.watchtogether.Handler;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.springframework.messaging.simp.SimpMessageSendingOperations;
 import org.springframework.stereotype.Component;
+import org.springframework.web.socket.BinaryMessage;
 import org.springframework.web.socket.CloseStatus;
 import org.springframework.web.socket.TextMessage;
 import org.springframework.web.socket.WebSocketSession;
-import org.springframework.web.socket.handler.TextWebSocketHandler;
+import org.springframework.web.socket.handler.AbstractWebSocketHandler;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.watchtogether.Config.InboundRateLimiter;
+import com.watchtogether.Config.WireFormatNegotiator;
+import com.watchtogether.DTO.ChatMessageDTO;
+import com.watchtogether.DTO.Request.VideoEventDto;
+import com.watchtogether.Entity.jpa.ChatMessage.MessageType;
+import com.watchtogether.Service.RoomPresenceService;
+import com.watchtogether.Service.RoomService;
+import com.watchtogether.Service.VideoSyncService;
+import com.watchtogether.util.CompactVideoCodec;
+import com.watchtogether.util.Enum.VideoEventType;
+
+import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 
+/**
+ * Giao thức sync gọn trên /ws-native (không có lớp frame STOMP/SockJS).
+ *
+ * Client → server (JSON text):
+ * - {"op":"join","roomId":"...","participantId":"...","username":"..."} → vào phòng, nhận ngay
+ *   SYNC_STATE (username mặc định = participantId)
+ * - {"op":"leave"}
+ * - {"op":"sync"} → SYNC_STATE hiện tại của phòng
+ * - {"op":"video","type":"SEEK","currentTime":12.5,...} → như /app/rooms/{roomId}/video
+ * - {"op":"ping"} → {"op":"pong","serverTime":...} để client ước lượng lệch đồng hồ
+ * Session CBOR (?format=cbor) có thể gửi video event dạng binary frame (CompactVideoCodec).
+ *
+ * Server → client: {"op":"event","channel":...,"roomId":...,"data":...} (xem NativeRoomRegistry),
+ * {"op":"error","message":...}. Video event đi qua cùng coalescer/sequencer với /ws nên hai
+ * loại client trong cùng phòng luôn thấy cùng một thứ tự. Join/leave cập nhật presence như
+ * /app/room/{roomId}/register (JOIN/LEAVE + members/delta; danh sách đầy đủ chỉ gửi riêng khi
+ * join). Op video chịu cùng giới hạn tần suất với nhóm video của STOMP, join/leave/sync với
+ * nhóm other.
+ */
 @Component
+@RequiredArgsConstructor
 @Slf4j
-public class NativeWebSocketHandler extends TextWebSocketHandler {
+public class NativeWebSocketHandler extends AbstractWebSocketHandler {
+
+    private static final String ROOM_ATTR = "roomId";
+    private static final String PARTICIPANT_ATTR = "participantId";
+    private static final String USERNAME_ATTR = "username";
+
+    private final ObjectMapper objectMapper;
+    private final NativeRoomRegistry roomRegistry;
+    private final VideoSyncService videoSyncService;
+    private final RoomService roomService;
+    private final WireFormatNegotiator wireFormatNegotiator;
+    private final CompactVideoCodec compactVideoCodec;
+    private final RoomPresenceService roomPresenceService;
+    private final InboundRateLimiter inboundRateLimiter;
+    private final SimpMessageSendingOperations messagingTemplate;
 
     @Override
     public void afterConnectionEstablished(WebSocketSession session) throws Exception {
         log.info("✅ WebSocket connected: sessionId={}", session.getId());
 
-        // Gửi welcome message
-        String welcome = String.format("{\"type\":\"CONNECTED\",\"sessionId\":\"%s\"}", session.getId());
-        session.sendMessage(new TextMessage(welcome));
+        // Gửi welcome message, kèm định dạng wire đã thoả thuận lúc handshake (?format=cbor)
+        Map<String, Object> welcome = new LinkedHashMap<>();
+        welcome.put("op", "connected");
+        welcome.put("sessionId", session.getId());
+        welcome.put("wireFormat", session.getAttributes().getOrDefault(WireFormatNegotiator.WIRE_FORMAT_ATTR, "json"));
+        welcome.put("serverTime", System.currentTimeMillis());
+        send(session, welcome);
     }
 
     @Override
     protected void handleTextMessage(WebSocketSession session, TextMessage message) throws Exception {
-        String payload = message.getPayload();
-        log.info("📥 Received from {}: {}", session.getId(), payload);
+        JsonNode frame;
+        try {
+            frame = objectMapper.readTree(message.getPayload());
+        } catch (JsonProcessingException e) {
+            sendError(session, "Invalid JSON frame");
+            return;
+        }
+        String op = frame.path("op").asText("");
+        switch (op) {
+            case "join" -> {
+                String roomId = frame.path("roomId").asText(null);
+                if (acquireOther(session, roomId)) {
+                    join(session, roomId, frame.path("participantId").asText(null), frame.path("username").asText(null));
+                }
+            }
+            case "leave" -> {
+                if (acquireOther(session, currentRoom(session))) {
+                    leave(session);
+                }
+            }
+            case "sync" -> {
+                if (acquireOther(session, currentRoom(session))) {
+                    sync(session);
+                }
+            }
+            case "video" -> {
+                VideoEventDto event;
+                try {
+                    event = objectMapper.treeToValue(frame, VideoEventDto.class);
+                } catch (JsonProcessingException | IllegalArgumentException e) {
+                    sendError(session, "Invalid video event");
+                    return;
+                }
+                video(session, event);
+            }
+            case "ping" -> send(session, Map.of("op", "pong", "serverTime", System.currentTimeMillis()));
+            default -> sendError(session, "Unknown op: " + op);
+        }
+    }
+
+    /**
+     * join/leave/sync tính vào nhóm other của InboundRateLimiter, như /app/room/{roomId}/register
+     * bên STOMP: mỗi lần join là một lần ghi presence và một broadcast cho cả phòng.
+     */
+    private boolean acquireOther(WebSocketSession session, String roomId) throws IOException {
+        if (inboundRateLimiter.tryAcquireOther(session.getId(), roomId)) {
+            return true;
+        }
+        if (inboundRateLimiter.shouldReport(session.getId())) {
+            sendError(session, "Rate limit exceeded");
+        }
+        return false;
+    }
+
+    private String currentRoom(WebSocketSession session) {
+        return (String) session.getAttributes().get(ROOM_ATTR);
+    }
+
+    @Override
+    protected void handleBinaryMessage(WebSocketSession session, BinaryMessage message) throws Exception {
+        if (!wireFormatNegotiator.isCompact(session.getAttributes())) {
+            sendError(session, "Binary frames require ?format=cbor");
+            return;
+        }
+        ByteBuffer payload = message.getPayload();
+        byte[] bytes = new byte[payload.remaining()];
+        payload.get(bytes);
+        VideoEventDto event;
+        try {
+            event = compactVideoCodec.decode(bytes);
+        } catch (IOException e) {
+            sendError(session, "Invalid CBOR frame");
+            return;
+        }
+        video(session, event);
+    }
+
+    private void join(WebSocketSession session, String roomId, String participantId, String username)
+            throws IOException {
+        if (roomId == null || roomId.isBlank() || participantId == null || participantId.isBlank()) {
+            sendError(session, "roomId and participantId are required");
+            return;
+        }
+        if (!roomService.roomExists(roomId)) {
+            sendError(session, "Room not found");
+            return;
+        }
+        String displayName = username != null && !username.isBlank() ? username : participantId;
+        leave(session);
+        session.getAttributes().put(ROOM_ATTR, roomId);
+        session.getAttributes().put(PARTICIPANT_ATTR, participantId);
+        session.getAttributes().put(USERNAME_ATTR, displayName);
+        roomRegistry.join(roomId, session);
+        log.info("Native session {} joined room {} as {}", session.getId(), roomId, participantId);
+
+        // Cùng presence với STOMP: báo JOIN và phần thay đổi thành viên cho cả phòng,
+        // danh sách đầy đủ chỉ gửi riêng cho session này
+        RoomPresenceService.PresenceChange presence = roomPresenceService.addUser(roomId, displayName);
+        ChatMessageDTO joinMsg = new ChatMessageDTO();
+        joinMsg.setType(MessageType.JOIN);
+        joinMsg.setSender(displayName);
+        messagingTemplate.convertAndSend("/topic/room/" + roomId, joinMsg);
+        roomPresenceService.publishDelta(presence);
+        roomRegistry.sendTo(session, roomId, "members",
+                objectMapper.writeValueAsBytes(roomPresenceService.getOnlineUsers(roomId)));
+        sync(session);
+    }
+
+    private void leave(WebSocketSession session) {
+        Object roomId = session.getAttributes().remove(ROOM_ATTR);
+        session.getAttributes().remove(PARTICIPANT_ATTR);
+        Object username = session.getAttributes().remove(USERNAME_ATTR);
+        if (!(roomId instanceof String id)) {
+            return;
+        }
+        roomRegistry.leave(id, session);
+        if (!(username instanceof String name)) {
+            return;
+        }
+        // Như WebSocketEventListener khi session STOMP ngắt
+        RoomPresenceService.PresenceChange presence = roomPresenceService.removeUser(id, name);
+        ChatMessageDTO leaveMsg = new ChatMessageDTO();
+        leaveMsg.setType(MessageType.LEAVE);
+        leaveMsg.setSender(name);
+        messagingTemplate.convertAndSend("/topic/room/" + id, leaveMsg);
+        roomPresenceService.publishDelta(presence);
+        if (presence.count() == 0) {
+            videoSyncService.evictRoom(id);
+        }
+    }
+
+    private void sync(WebSocketSession session) throws IOException {
+        String roomId = (String) session.getAttributes().get(ROOM_ATTR);
+        if (roomId == null) {
+            sendError(session, "Join a room first");
+            return;
+        }
+        videoSyncService.sendCurrentState(roomId, syncEvent -> {
+            try {
+                roomRegistry.sendTo(session, roomId, "video", objectMapper.writeValueAsBytes(syncEvent));
+            } catch (JsonProcessingException e) {
+                log.error("Cannot encode sync state for native session {}: {}", session.getId(), e.getMessage());
+            }
+        });
+    }
+
+    private void video(WebSocketSession session, VideoEventDto event) throws IOException {
+        String roomId = (String) session.getAttributes().get(ROOM_ATTR);
+        String participantId = (String) session.getAttributes().get(PARTICIPANT_ATTR);
+        if (roomId == null || participantId == null) {
+            sendError(session, "Join a room first");
+            return;
+        }
+        if (event.getType() == null) {
+            sendError(session, "Event type is required");
+            return;
+        }
+        // Cùng bucket nhóm video với /app/rooms/{roomId}/video
+        if (!inboundRateLimiter.tryAcquireVideo(session.getId(), roomId)) {
+            if (inboundRateLimiter.shouldReport(session.getId())) {
+                sendError(session, "Rate limit exceeded for video messages");
+            }
+            return;
+        }
+        if (event.getType() == VideoEventType.REQUEST_SYNC) {
+            sync(session);
+            return;
+        }
+        event.setParticipantId(participantId);
+        event.setRoomId(roomId);
+        event.setTimestamp(System.currentTimeMillis());
+
+        // Cùng đường với STOMP: coalescer + sequencer → /topic/rooms/{id}/video → NativeRoomRegistry
+        videoSyncService.broadcastVideoEvent(roomId, event);
+    }
+
+    private void sendError(WebSocketSession session, String errorMessage) throws IOException {
+        send(session, Map.of("op", "error", "message", errorMessage, "timestamp", System.currentTimeMillis()));
+    }
 
-        // Echo back với timestamp
-        String response = String.format(
-                "{\"type\":\"ECHO\",\"message\":\"%s\",\"timestamp\":%d}",
-                payload, System.currentTimeMillis());
-        session.sendMessage(new TextMessage(response));
+    private void send(WebSocketSession session, Object frame) throws IOException {
+        session.sendMessage(new TextMessage(objectMapper.writeValueAsString(frame)));
     }
 
     @Override
     public void afterConnectionClosed(WebSocketSession session, CloseStatus status) throws Exception {
+        leave(session);
+        inboundRateLimiter.forgetSession(session.getId());
         log.info("🔌 WebSocket disconnected: sessionId={}, status={}", session.getId(), status);
     }
 
@@ -41,4 +278,4 @@ public class NativeWebSocketHandler extends TextWebSocketHandler {
     public void handleTransportError(WebSocketSession session, Throwable exception) throws Exception {
         log.error("❌ WebSocket error in session {}: {}", session.getId(), exception.getMessage());
     }
-}
\ No newline at end of file
+}
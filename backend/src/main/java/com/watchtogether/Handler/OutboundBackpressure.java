@@ -0,0 +1,396 @@
+package com.watchtogether.Handler;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.WebSocketSessionDecorator;
+
+import com.watchtogether.util.StatsSource;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Chính sách outbound cho từng session STOMP để một client mạng kém không làm phình heap
+ * hay làm chậm người khác trong phòng.
+ *
+ * sendMessage() chỉ xếp frame vào hàng đợi của session rồi trả về ngay; một virtual thread
+ * riêng của session ghi ra socket. Trong hàng đợi:
+ * - Frame trạng thái (header CONFLATE_HEADER, danh sách /members, /queue/video/sync, frame
+ *   /ws-native bọc trong ConflatedMessage): chỉ giữ bản mới nhất cho mỗi destination / key;
+ *   frame cũ đang chờ bị bỏ, frame mới xếp ở cuối hàng
+ * - Chat (/chat): tối đa chat-limit frame, vượt thì bỏ frame cũ nhất
+ * - Còn lại (CONNECTED, RECEIPT, ERROR, heartbeat, thông báo join/leave...): giữ nguyên thứ tự
+ * Session có số byte chờ vượt max-buffer-bytes liên tục quá over-budget-grace-ms, hoặc một lần
+ * ghi kéo dài quá send-time-limit-ms, bị đóng với SESSION_NOT_RELIABLE.
+ *
+ * sendTimeLimit/sendBufferSizeLimit của Spring không được dùng: ConcurrentWebSocketSessionDecorator
+ * nằm phía trên hàng đợi không chặn này nên giới hạn của nó không bao giờ bị chạm tới.
+ */
+@Component
+@Slf4j
+public class OutboundBackpressure implements StatsSource {
+
+    // Producer gắn header này cho frame mang trạng thái đầy đủ (frame mới thay thế frame cũ)
+    public static final String CONFLATE_HEADER = "wt-conflate";
+
+    /**
+     * Frame không phải STOMP (/ws-native) mang trạng thái đầy đủ: producer bọc frame kèm key,
+     * hàng đợi chỉ giữ bản mới nhất cho mỗi key mà không phải đọc payload. Frame được gỡ bọc
+     * trước khi ghi ra socket.
+     */
+    public record ConflatedMessage<T>(WebSocketMessage<T> message, String key) implements WebSocketMessage<T> {
+
+        @Override
+        public T getPayload() {
+            return message.getPayload();
+        }
+
+        @Override
+        public int getPayloadLength() {
+            return message.getPayloadLength();
+        }
+
+        @Override
+        public boolean isLast() {
+            return message.isLast();
+        }
+    }
+
+    private static final int TOP_SESSIONS = 20;
+    private static final int MAX_HEADER_SCAN = 1024;
+
+    private final int chatLimit;
+    private final long maxBufferBytes;
+    private final long overBudgetGraceMs;
+    private final long sendTimeLimitMs;
+
+    private final Map<String, BackpressureSession> sessions = new ConcurrentHashMap<>();
+
+    private final AtomicLong conflated = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong disconnected = new AtomicLong();
+
+    public OutboundBackpressure(
+            @Value("${websocket.outbound.chat-limit:100}") int chatLimit,
+            @Value("${websocket.outbound.max-buffer-bytes:524288}") long maxBufferBytes,
+            @Value("${websocket.outbound.over-budget-grace-ms:5000}") long overBudgetGraceMs,
+            @Value("${websocket.outbound.send-time-limit-ms:10000}") long sendTimeLimitMs) {
+        this.chatLimit = chatLimit;
+        this.maxBufferBytes = maxBufferBytes;
+        this.overBudgetGraceMs = overBudgetGraceMs;
+        this.sendTimeLimitMs = sendTimeLimitMs;
+    }
+
+    /**
+     * Bọc handler STOMP để mọi session đi qua hàng đợi có giới hạn
+     */
+    public WebSocketHandler decorate(WebSocketHandler handler) {
+        return new SessionDecoratingHandler(handler, session -> {
+            BackpressureSession decorated = new BackpressureSession(session);
+            sessions.put(session.getId(), decorated);
+            return decorated;
+        }) {
+            @Override
+            public void afterConnectionClosed(WebSocketSession session, CloseStatus closeStatus) throws Exception {
+                try {
+                    super.afterConnectionClosed(session, closeStatus);
+                } finally {
+                    BackpressureSession removed = sessions.remove(session.getId());
+                    if (removed != null) {
+                        removed.discard();
+                    }
+                }
+            }
+        };
+    }
+
+    private enum Kind {
+        ORDERED, CONFLATED, CHAT
+    }
+
+    private static final class Frame {
+        final Kind kind;
+        final String key;
+        final WebSocketMessage<?> message;
+        final int length;
+
+        Frame(Kind kind, String key, WebSocketMessage<?> message) {
+            this.kind = kind;
+            this.key = key;
+            this.message = message;
+            this.length = message.getPayloadLength();
+        }
+    }
+
+    private final class BackpressureSession extends WebSocketSessionDecorator {
+
+        private final ReentrantLock lock = new ReentrantLock();
+        private final ArrayDeque<Frame> queue = new ArrayDeque<>();
+        // destination → frame trạng thái đang chờ gửi
+        private final Map<String, Frame> pendingState = new HashMap<>();
+        private int pendingChat;
+        private long pendingBytes;
+        private long overBudgetSince;
+
+        private final AtomicBoolean draining = new AtomicBoolean();
+        private volatile long sendStartedAt;
+        private volatile boolean closed;
+        private final AtomicLong sent = new AtomicLong();
+
+        BackpressureSession(WebSocketSession delegate) {
+            super(delegate);
+        }
+
+        @Override
+        public void sendMessage(WebSocketMessage<?> message) throws IOException {
+            if (closed) {
+                return;
+            }
+            Frame frame = classify(message);
+            long now = System.currentTimeMillis();
+            boolean terminate;
+            lock.lock();
+            try {
+                enqueue(frame);
+                long started = sendStartedAt;
+                boolean stuck = started != 0 && now - started > sendTimeLimitMs;
+                if (pendingBytes > maxBufferBytes) {
+                    if (overBudgetSince == 0) {
+                        overBudgetSince = now;
+                    }
+                } else {
+                    overBudgetSince = 0;
+                }
+                terminate = stuck || (overBudgetSince != 0 && now - overBudgetSince > overBudgetGraceMs);
+            } finally {
+                lock.unlock();
+            }
+            if (terminate) {
+                terminate();
+                return;
+            }
+            scheduleDrain();
+        }
+
+        private void enqueue(Frame frame) {
+            if (frame.kind == Kind.CONFLATED) {
+                // Bỏ bản cũ và xếp bản mới ở cuối: bản mới không được vượt lên trước các frame
+                // ORDERED xếp sau bản cũ (ví dụ PLAY mới không được tới trước CHANGE)
+                Frame pending = pendingState.put(frame.key, frame);
+                if (pending != null) {
+                    queue.removeFirstOccurrence(pending);
+                    pendingBytes -= pending.length;
+                    conflated.incrementAndGet();
+                }
+            }
+            queue.addLast(frame);
+            pendingBytes += frame.length;
+            if (frame.kind == Kind.CHAT && ++pendingChat > chatLimit) {
+                dropOldestChat();
+            }
+        }
+
+        private void dropOldestChat() {
+            Iterator<Frame> it = queue.iterator();
+            while (it.hasNext()) {
+                Frame frame = it.next();
+                if (frame.kind == Kind.CHAT) {
+                    it.remove();
+                    pendingChat--;
+                    pendingBytes -= frame.length;
+                    dropped.incrementAndGet();
+                    return;
+                }
+            }
+        }
+
+        private void scheduleDrain() {
+            if (draining.compareAndSet(false, true)) {
+                Thread.ofVirtual().name("ws-drain-" + getId()).start(this::drain);
+            }
+        }
+
+        private void drain() {
+            try {
+                while (!closed) {
+                    WebSocketMessage<?> message;
+                    lock.lock();
+                    try {
+                        Frame frame = queue.pollFirst();
+                        if (frame == null) {
+                            break;
+                        }
+                        if (frame.kind == Kind.CONFLATED) {
+                            pendingState.remove(frame.key, frame);
+                        } else if (frame.kind == Kind.CHAT) {
+                            pendingChat--;
+                        }
+                        pendingBytes -= frame.length;
+                        message = frame.message;
+                    } finally {
+                        lock.unlock();
+                    }
+                    sendStartedAt = System.currentTimeMillis();
+                    try {
+                        super.sendMessage(message);
+                        sent.incrementAndGet();
+                    } catch (IOException | IllegalStateException e) {
+                        log.debug("Outbound write to session {} failed: {}", getId(), e.getMessage());
+                        discard();
+                        return;
+                    } finally {
+                        sendStartedAt = 0;
+                    }
+                }
+            } finally {
+                draining.set(false);
+            }
+            // Frame đến sau lần poll cuối nhưng trước khi tắt cờ draining
+            if (!closed && depth() > 0) {
+                scheduleDrain();
+            }
+        }
+
+        private void terminate() {
+            if (closed) {
+                return;
+            }
+            disconnected.incrementAndGet();
+            log.warn("Closing slow WebSocket session {}: {} bytes pending", getId(), pendingBytes);
+            discard();
+            try {
+                getDelegate().close(CloseStatus.SESSION_NOT_RELIABLE);
+            } catch (IOException e) {
+                log.debug("Cannot close slow session {}: {}", getId(), e.getMessage());
+            }
+        }
+
+        void discard() {
+            closed = true;
+            lock.lock();
+            try {
+                queue.clear();
+                pendingState.clear();
+                pendingChat = 0;
+                pendingBytes = 0;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        int depth() {
+            lock.lock();
+            try {
+                return queue.size();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        long bytes() {
+            lock.lock();
+            try {
+                return pendingBytes;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Đọc command + header của frame STOMP (text hoặc binary) để phân loại, không đọc body
+     */
+    private static Frame classify(WebSocketMessage<?> message) {
+        if (message instanceof ConflatedMessage<?> conflated) {
+            return new Frame(Kind.CONFLATED, conflated.key(), conflated.message());
+        }
+        String head;
+        if (message instanceof TextMessage text) {
+            String payload = text.getPayload();
+            head = payload.substring(0, Math.min(payload.length(), MAX_HEADER_SCAN));
+        } else if (message instanceof BinaryMessage binary) {
+            ByteBuffer buffer = binary.getPayload().duplicate();
+            byte[] bytes = new byte[Math.min(buffer.remaining(), MAX_HEADER_SCAN)];
+            buffer.get(bytes);
+            head = new String(bytes, StandardCharsets.US_ASCII);
+        } else {
+            return new Frame(Kind.ORDERED, null, message);
+        }
+
+        int end = head.indexOf("\n\n");
+        if (end < 0) {
+            end = head.indexOf("\r\n\r\n");
+        }
+        String[] lines = (end < 0 ? head : head.substring(0, end)).split("\r?\n");
+        if (lines.length == 0 || !"MESSAGE".equals(lines[0])) {
+            return new Frame(Kind.ORDERED, null, message);
+        }
+        String destination = null;
+        boolean conflate = false;
+        for (int i = 1; i < lines.length; i++) {
+            String line = lines[i];
+            if (line.startsWith("destination:")) {
+                destination = line.substring("destination:".length());
+            } else if (line.startsWith(CONFLATE_HEADER + ":")) {
+                conflate = true;
+            }
+        }
+        if (destination == null) {
+            return new Frame(Kind.ORDERED, null, message);
+        }
+        if (conflate || destination.endsWith("/members") || destination.endsWith("/queue/video/sync")) {
+            return new Frame(Kind.CONFLATED, destination, message);
+        }
+        if (destination.endsWith("/chat")) {
+            return new Frame(Kind.CHAT, null, message);
+        }
+        return new Frame(Kind.ORDERED, null, message);
+    }
+
+    @Override
+    public String statsName() {
+        return "outboundBackpressure";
+    }
+
+    @Override
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("sessions", sessions.size());
+        stats.put("conflated", conflated.get());
+        stats.put("droppedChat", dropped.get());
+        stats.put("disconnected", disconnected.get());
+
+        // Các session có hàng đợi sâu nhất
+        Map<String, Object> deepest = new LinkedHashMap<>();
+        sessions.values().stream()
+                .map(s -> Map.entry(s, s.depth()))
+                .filter(e -> e.getValue() > 0)
+                .sorted(Map.Entry.<BackpressureSession, Integer>comparingByValue(Comparator.reverseOrder()))
+                .limit(TOP_SESSIONS)
+                .forEach(e -> deepest.put(e.getKey().getId(), Map.of(
+                        "depth", e.getValue(),
+                        "pendingBytes", e.getKey().bytes(),
+                        "sent", e.getKey().sent.get())));
+        stats.put("deepestQueues", deepest);
+        return stats;
+    }
+}
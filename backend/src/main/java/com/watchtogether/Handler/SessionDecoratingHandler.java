@@ -0,0 +1,49 @@
+package com.watchtogether.Handler;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.UnaryOperator;
+
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.WebSocketHandlerDecorator;
+
+/**
+ * Bọc handler để handler bên trong luôn thấy session đã được decorate
+ * (dùng chung cho STOMP qua WebSocketHandlerDecoratorFactory và cho /ws-native).
+ */
+public class SessionDecoratingHandler extends WebSocketHandlerDecorator {
+
+    private final UnaryOperator<WebSocketSession> sessionDecorator;
+    private final Map<String, WebSocketSession> sessions = new ConcurrentHashMap<>();
+
+    public SessionDecoratingHandler(WebSocketHandler delegate, UnaryOperator<WebSocketSession> sessionDecorator) {
+        super(delegate);
+        this.sessionDecorator = sessionDecorator;
+    }
+
+    @Override
+    public void afterConnectionEstablished(WebSocketSession session) throws Exception {
+        WebSocketSession decorated = sessionDecorator.apply(session);
+        sessions.put(session.getId(), decorated);
+        super.afterConnectionEstablished(decorated);
+    }
+
+    @Override
+    public void handleMessage(WebSocketSession session, WebSocketMessage<?> message) throws Exception {
+        super.handleMessage(sessions.getOrDefault(session.getId(), session), message);
+    }
+
+    @Override
+    public void handleTransportError(WebSocketSession session, Throwable exception) throws Exception {
+        super.handleTransportError(sessions.getOrDefault(session.getId(), session), exception);
+    }
+
+    @Override
+    public void afterConnectionClosed(WebSocketSession session, CloseStatus closeStatus) throws Exception {
+        WebSocketSession decorated = sessions.remove(session.getId());
+        super.afterConnectionClosed(decorated != null ? decorated : session, closeStatus);
+    }
+}
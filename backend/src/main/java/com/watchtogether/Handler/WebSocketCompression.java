@@ -0,0 +1,300 @@
+package com.watchtogether.Handler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketExtension;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.WebSocketSessionDecorator;
+import org.springframework.web.socket.server.support.DefaultHandshakeHandler;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import com.watchtogether.util.StatsSource;
+
+/**
+ * Chính sách nén payload cho các endpoint WebSocket/SockJS.
+ *
+ * - permessage-deflate (RFC 7692): handshakeHandler() quyết định có chấp nhận extension
+ *   khi client đề nghị hay không (websocket.compression.permessage-deflate). Tomcat nén
+ *   mọi frame của session đã thoả thuận, nên không đặt được ngưỡng theo kích thước ở tầng này.
+ * - Nén ở tầng ứng dụng cho /ws-native?compress=deflate: frame text từ min-size byte trở lên
+ *   được gửi thành binary frame deflate-raw (giải nén bằng DecompressionStream("deflate-raw")),
+ *   frame sync nhỏ vẫn gửi text như cũ. Không áp dụng cho session đã chọn CBOR.
+ * - SockJS qua HTTP (xhr-streaming, polling...) được nén bởi server.compression.*
+ *
+ * Mọi session đều được đo: byte gốc, byte thực gửi, tỉ lệ nén và thời gian nén.
+ * compressMicros là thời gian thực (wall time); compressCpuMicros chỉ có khi JVM đo được CPU time
+ * của thread đang nén (không có với virtual thread, nơi phần lớn việc gửi chạy).
+ * Với session permessage-deflate, sentBytes là số byte trước khi container nén.
+ */
+@Component
+public class WebSocketCompression implements StatsSource {
+
+    public static final String PERMESSAGE_DEFLATE = "permessage-deflate";
+    public static final String COMPRESS_PARAM = "compress";
+
+    private static final int TOP_SESSIONS = 20;
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    private final boolean permessageDeflate;
+    private final int minSize;
+    private final int level;
+
+    private final Map<String, CompressingSession> sessions = new ConcurrentHashMap<>();
+
+    private final AtomicLong negotiatedDeflate = new AtomicLong();
+    private final AtomicLong declinedDeflate = new AtomicLong();
+    // Số liệu của các session đã đóng, cộng dồn để stats không bị tụt
+    private final AtomicLong closedRawBytes = new AtomicLong();
+    private final AtomicLong closedSentBytes = new AtomicLong();
+    private final AtomicLong closedWallNanos = new AtomicLong();
+    private final AtomicLong closedCpuNanos = new AtomicLong();
+
+    public WebSocketCompression(
+            @Value("${websocket.compression.permessage-deflate:true}") boolean permessageDeflate,
+            @Value("${websocket.compression.min-size:1024}") int minSize,
+            @Value("${websocket.compression.level:1}") int level) {
+        this.permessageDeflate = permessageDeflate;
+        this.minSize = minSize;
+        this.level = level;
+    }
+
+    /**
+     * HandshakeHandler dùng chung cho /ws, /ws-stomp và /ws-native
+     */
+    public DefaultHandshakeHandler handshakeHandler() {
+        return new DefaultHandshakeHandler() {
+            @Override
+            protected List<WebSocketExtension> filterRequestedExtensions(ServerHttpRequest request,
+                    List<WebSocketExtension> requestedExtensions, List<WebSocketExtension> supportedExtensions) {
+                List<WebSocketExtension> accepted = super.filterRequestedExtensions(request, requestedExtensions,
+                        supportedExtensions);
+                boolean requested = accepted.stream().anyMatch(e -> PERMESSAGE_DEFLATE.equals(e.getName()));
+                if (!requested) {
+                    return accepted;
+                }
+                if (permessageDeflate) {
+                    negotiatedDeflate.incrementAndGet();
+                    return accepted;
+                }
+                declinedDeflate.incrementAndGet();
+                return accepted.stream().filter(e -> !PERMESSAGE_DEFLATE.equals(e.getName())).toList();
+            }
+        };
+    }
+
+    /**
+     * Bọc handler để mọi session đi qua bộ đo / nén
+     */
+    public WebSocketHandler decorate(WebSocketHandler handler) {
+        return new SessionDecoratingHandler(handler, this::decorateSession) {
+            @Override
+            public void afterConnectionClosed(WebSocketSession session, CloseStatus closeStatus) throws Exception {
+                try {
+                    super.afterConnectionClosed(session, closeStatus);
+                } finally {
+                    release(session.getId());
+                }
+            }
+        };
+    }
+
+    private WebSocketSession decorateSession(WebSocketSession session) {
+        boolean extension = session.getExtensions().stream().anyMatch(e -> PERMESSAGE_DEFLATE.equals(e.getName()));
+        boolean appDeflate = "deflate".equalsIgnoreCase(queryParam(session, COMPRESS_PARAM))
+                && !"cbor".equals(session.getAttributes().get("wireFormat"));
+        CompressingSession decorated = new CompressingSession(session, extension, appDeflate);
+        sessions.put(session.getId(), decorated);
+        return decorated;
+    }
+
+    private void release(String sessionId) {
+        CompressingSession session = sessions.remove(sessionId);
+        if (session != null) {
+            closedRawBytes.addAndGet(session.rawBytes.get());
+            closedSentBytes.addAndGet(session.sentBytes.get());
+            closedWallNanos.addAndGet(session.wallNanos.get());
+            closedCpuNanos.addAndGet(session.cpuNanos.get());
+            session.end();
+        }
+    }
+
+    private static String queryParam(WebSocketSession session, String name) {
+        if (session.getUri() == null) {
+            return null;
+        }
+        return UriComponentsBuilder.fromUri(session.getUri()).build().getQueryParams().getFirst(name);
+    }
+
+    // CPU time của thread hiện tại, -1 nếu không đo được (virtual thread, JVM không hỗ trợ)
+    private static long cpuNow() {
+        if (!Thread.currentThread().isVirtual() && THREADS.isCurrentThreadCpuTimeSupported()) {
+            return THREADS.getCurrentThreadCpuTime();
+        }
+        return -1;
+    }
+
+    private final class CompressingSession extends WebSocketSessionDecorator {
+
+        private final boolean extension;
+        private final boolean appDeflate;
+        private Deflater deflater;
+        private final byte[] buffer = new byte[8192];
+
+        private final AtomicLong messages = new AtomicLong();
+        private final AtomicLong compressed = new AtomicLong();
+        private final AtomicLong rawBytes = new AtomicLong();
+        private final AtomicLong sentBytes = new AtomicLong();
+        private final AtomicLong wallNanos = new AtomicLong();
+        private final AtomicLong cpuNanos = new AtomicLong();
+
+        CompressingSession(WebSocketSession delegate, boolean extension, boolean appDeflate) {
+            super(delegate);
+            this.extension = extension;
+            this.appDeflate = appDeflate;
+        }
+
+        @Override
+        public void sendMessage(WebSocketMessage<?> message) throws IOException {
+            int length = message.getPayloadLength();
+            messages.incrementAndGet();
+            rawBytes.addAndGet(length);
+            // Frame native được đánh dấu conflate: nén phần bên trong, giữ key khi bọc lại
+            OutboundBackpressure.ConflatedMessage<?> conflated =
+                    message instanceof OutboundBackpressure.ConflatedMessage<?> c ? c : null;
+            WebSocketMessage<?> payload = conflated != null ? conflated.message() : message;
+            if (appDeflate && length >= minSize && payload instanceof TextMessage text) {
+                byte[] deflated = deflate(text.getPayload().getBytes(StandardCharsets.UTF_8));
+                if (deflated.length < length) {
+                    compressed.incrementAndGet();
+                    sentBytes.addAndGet(deflated.length);
+                    BinaryMessage binary = new BinaryMessage(deflated);
+                    super.sendMessage(conflated != null
+                            ? new OutboundBackpressure.ConflatedMessage<>(binary, conflated.key())
+                            : binary);
+                    return;
+                }
+            }
+            sentBytes.addAndGet(length);
+            super.sendMessage(message);
+        }
+
+        private synchronized byte[] deflate(byte[] input) {
+            long start = System.nanoTime();
+            long cpuStart = cpuNow();
+            if (deflater == null) {
+                deflater = new Deflater(level, true); // nowrap → deflate-raw
+            }
+            deflater.reset();
+            deflater.setInput(input);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, input.length / 3));
+            while (!deflater.finished()) {
+                int n = deflater.deflate(buffer);
+                out.write(buffer, 0, n);
+            }
+            wallNanos.addAndGet(System.nanoTime() - start);
+            long cpuEnd = cpuStart >= 0 ? cpuNow() : -1;
+            if (cpuEnd >= 0) {
+                cpuNanos.addAndGet(cpuEnd - cpuStart);
+            }
+            return out.toByteArray();
+        }
+
+        synchronized void end() {
+            if (deflater != null) {
+                deflater.end();
+                deflater = null;
+            }
+        }
+
+        String mode() {
+            return appDeflate ? "app-deflate" : extension ? PERMESSAGE_DEFLATE : "none";
+        }
+
+        Map<String, Object> stats() {
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("mode", mode());
+            stats.put("messages", messages.get());
+            stats.put("compressedMessages", compressed.get());
+            stats.put("rawBytes", rawBytes.get());
+            stats.put("sentBytes", sentBytes.get());
+            stats.put("ratio", ratio(rawBytes.get(), sentBytes.get()));
+            stats.put("compressMicros", wallNanos.get() / 1000);
+            stats.put("compressCpuMicros", cpuNanos.get() / 1000);
+            return stats;
+        }
+    }
+
+    private static double ratio(long raw, long sent) {
+        return raw == 0 ? 1.0 : Math.round(sent * 1000.0 / raw) / 1000.0;
+    }
+
+    @Override
+    public String statsName() {
+        return "webSocketCompression";
+    }
+
+    @Override
+    public Map<String, Object> stats() {
+        long raw = closedRawBytes.get();
+        long sent = closedSentBytes.get();
+        long wall = closedWallNanos.get();
+        long cpu = closedCpuNanos.get();
+        int extensionSessions = 0;
+        int appSessions = 0;
+        for (CompressingSession session : sessions.values()) {
+            raw += session.rawBytes.get();
+            sent += session.sentBytes.get();
+            wall += session.wallNanos.get();
+            cpu += session.cpuNanos.get();
+            if (session.appDeflate) {
+                appSessions++;
+            } else if (session.extension) {
+                extensionSessions++;
+            }
+        }
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("permessageDeflateEnabled", permessageDeflate);
+        stats.put("minSize", minSize);
+        stats.put("negotiatedPermessageDeflate", negotiatedDeflate.get());
+        stats.put("declinedPermessageDeflate", declinedDeflate.get());
+        stats.put("sessions", sessions.size());
+        stats.put("permessageDeflateSessions", extensionSessions);
+        stats.put("appDeflateSessions", appSessions);
+        stats.put("rawBytes", raw);
+        stats.put("sentBytes", sent);
+        stats.put("ratio", ratio(raw, sent));
+        stats.put("compressMicros", wall / 1000);
+        // Chỉ gồm các lần nén chạy trên platform thread
+        stats.put("compressCpuMicros", cpu / 1000);
+
+        // Các session gửi nhiều dữ liệu nhất, để so sánh giữa các phòng/thiết bị
+        Map<String, Object> top = new LinkedHashMap<>();
+        sessions.entrySet().stream()
+                .sorted(Comparator.comparingLong(
+                        (Map.Entry<String, CompressingSession> e) -> e.getValue().rawBytes.get()).reversed())
+                .limit(TOP_SESSIONS)
+                .forEach(e -> top.put(e.getKey(), e.getValue().stats()));
+        stats.put("topSessions", top);
+        return stats;
+    }
+}
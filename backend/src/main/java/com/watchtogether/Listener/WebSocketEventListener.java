@@ -3,6 +3,7 @@ package com.watchtogether.Listener;
 import com.watchtogether.DTO.ChatMessageDTO;
 import com.watchtogether.Entity.jpa.ChatMessage.MessageType;
 import com.watchtogether.Service.RoomPresenceService;
+import com.watchtogether.Service.VideoSyncService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.context.event.EventListener;
@@ -18,6 +19,7 @@ public class WebSocketEventListener {
 
     private final SimpMessageSendingOperations messagingTemplate;
     private final RoomPresenceService roomPresenceService;
+    private final VideoSyncService videoSyncService;
 
     // Hàm này tự động chạy khi User tắt tab / mất mạng / F5
     @EventListener
@@ -32,7 +34,7 @@ public class WebSocketEventListener {
             log.info("🔴 USER DISCONNECTED: {} from Room: {}", username, roomId);
 
             // 1. Xóa khỏi Redis & Giảm DB
-            roomPresenceService.removeUser(roomId, username);
+            RoomPresenceService.PresenceChange presence = roomPresenceService.removeUser(roomId, username);
 
             // 2. Báo cho mọi người là user này đã thoát
             ChatMessageDTO chatMessage = new ChatMessageDTO();
@@ -40,8 +42,13 @@ public class WebSocketEventListener {
             chatMessage.setSender(username);
             messagingTemplate.convertAndSend("/topic/room/" + roomId, chatMessage);
 
-            // 3. Gửi danh sách thành viên mới (đã trừ người này ra)
-            messagingTemplate.convertAndSend("/topic/room/" + roomId + "/members", roomPresenceService.getOnlineUsers(roomId));
+            // 3. Báo cho cả phòng username vừa rời (chỉ phần thay đổi)
+            roomPresenceService.publishDelta(presence);
+
+            // 4. Phòng hết người: bỏ trạng thái video trong RAM (còn trong Redis cho lần sau)
+            if (presence.count() == 0) {
+                videoSyncService.evictRoom(roomId);
+            }
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,23 @@
+package com.watchtogether.Repository.jpa;
+
+import java.time.LocalDateTime;
+
+import com.watchtogether.Entity.jpa.ChatMessage.MessageType;
+
+/**
+ * Projection cho lịch sử chat: chỉ các cột cần hiển thị, không nạp Room/User
+ */
+public interface ChatMessageView {
+
+    Long getId();
+
+    MessageType getType();
+
+    String getContent();
+
+    String getSenderName();
+
+    String getRoomId();
+
+    LocalDateTime getTimestamp();
+}
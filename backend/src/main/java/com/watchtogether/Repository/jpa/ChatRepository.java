@@ -1,13 +1,65 @@
 package com.watchtogether.Repository.jpa;
 
 import com.watchtogether.Entity.jpa.ChatMessage;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.time.LocalDateTime;
 import java.util.List;
 
 @Repository
 public interface ChatRepository extends JpaRepository<ChatMessage, Long> {
-    // Tìm theo Room Object -> field roomId
-    List<ChatMessage> findByRoomRoomIdOrderByTimestampAsc(String roomId);
-}
\ No newline at end of file
+    // ===== Keyset pagination trên index (room_id, timestamp, id) =====
+    // m.room.roomId đọc thẳng cột khoá ngoại room_id, không join bảng rooms
+    // Điều kiện cursor dạng OR không dùng được làm cận cho index scan, nên kèm thêm cận thừa
+    // m.timestamp <= / >= :timestamp để Postgres bắt đầu quét đúng từ vị trí cursor
+
+    // Trang mới nhất (mới → cũ)
+    @Query("""
+            SELECT m.id AS id, m.type AS type, m.content AS content, m.senderName AS senderName,
+                   m.room.roomId AS roomId, m.timestamp AS timestamp
+            FROM ChatMessage m
+            WHERE m.room.roomId = :roomId
+            ORDER BY m.timestamp DESC, m.id DESC
+            """)
+    List<ChatMessageView> findLatest(@Param("roomId") String roomId, Limit limit);
+
+    // Cũ hơn cursor (mới → cũ)
+    @Query("""
+            SELECT m.id AS id, m.type AS type, m.content AS content, m.senderName AS senderName,
+                   m.room.roomId AS roomId, m.timestamp AS timestamp
+            FROM ChatMessage m
+            WHERE m.room.roomId = :roomId
+              AND m.timestamp <= :timestamp
+              AND (m.timestamp < :timestamp OR (m.timestamp = :timestamp AND m.id < :id))
+            ORDER BY m.timestamp DESC, m.id DESC
+            """)
+    List<ChatMessageView> findBefore(@Param("roomId") String roomId, @Param("timestamp") LocalDateTime timestamp,
+            @Param("id") Long id, Limit limit);
+
+    // Trang cũ nhất (cũ → mới)
+    @Query("""
+            SELECT m.id AS id, m.type AS type, m.content AS content, m.senderName AS senderName,
+                   m.room.roomId AS roomId, m.timestamp AS timestamp
+            FROM ChatMessage m
+            WHERE m.room.roomId = :roomId
+            ORDER BY m.timestamp ASC, m.id ASC
+            """)
+    List<ChatMessageView> findEarliest(@Param("roomId") String roomId, Limit limit);
+
+    // Mới hơn cursor (cũ → mới)
+    @Query("""
+            SELECT m.id AS id, m.type AS type, m.content AS content, m.senderName AS senderName,
+                   m.room.roomId AS roomId, m.timestamp AS timestamp
+            FROM ChatMessage m
+            WHERE m.room.roomId = :roomId
+              AND m.timestamp >= :timestamp
+              AND (m.timestamp > :timestamp OR (m.timestamp = :timestamp AND m.id > :id))
+            ORDER BY m.timestamp ASC, m.id ASC
+            """)
+    List<ChatMessageView> findAfter(@Param("roomId") String roomId, @Param("timestamp") LocalDateTime timestamp,
+            @Param("id") Long id, Limit limit);
+}
@@ -3,14 +3,11 @@ package com.watchtogether.Repository.jpa;
 import java.util.List;
 
 import org.springframework.data.jpa.repository.JpaRepository;
-import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 
 import com.watchtogether.Entity.jpa.Room;
 
-import jakarta.transaction.Transactional;
-
 
 public interface RoomRepository  extends JpaRepository<Room, String> {
      // Kiểm tra xem User (Host) đã có phòng nào tên này chưa
@@ -22,19 +19,5 @@ public interface RoomRepository  extends JpaRepository<Room, String> {
            "ORDER BY r.roomId DESC") // Hoặc order by created_at nếu có
     List<Room> findHistoryByUserId(@Param("userId") String userId);
 
-    @Modifying
-    @Transactional
-    @Query("UPDATE Room r SET r.onlineCount = r.onlineCount + 1 WHERE r.roomId = :roomId")
-    void incrementOnlineCount(@Param("roomId") String roomId);
-
-    @Modifying
-    @Transactional
-    @Query("UPDATE Room r SET r.onlineCount = r.onlineCount - 1 WHERE r.roomId = :roomId AND r.onlineCount > 0")
-    void decrementOnlineCount(@Param("roomId") String roomId);
-    
-    // Reset tất cả về 0 khi khởi động lại server (Optional)
-    @Modifying
-    @Transactional
-    @Query("UPDATE Room r SET r.onlineCount = 0")
-    void resetAllOnlineCounts();
+    // online_count do OnlineCountFlusher ghi theo lô từ Redis (SCARD), không cập nhật theo từng join/leave
 }
@@ -0,0 +1,13 @@
+package com.watchtogether.Repository.jpa;
+
+import com.watchtogether.Entity.jpa.User;
+
+/**
+ * Projection gọn của User (không password, không quan hệ) dùng cho UserIdentityCache
+ */
+public record UserIdentity(String id, String name, String email) {
+
+    public static UserIdentity of(User user) {
+        return new UserIdentity(user.getId(), user.getName(), user.getEmail());
+    }
+}
@@ -16,4 +16,8 @@ public interface UserRepository extends JpaRepository<User, String> {
     boolean existsByEmail(String email);
     Optional<User> findByName(String name);
     boolean existsByName(String name);
+
+    // Projection gọn cho UserIdentityCache (chỉ id, name, email)
+    Optional<UserIdentity> findIdentityByName(String name);
+    Optional<UserIdentity> findIdentityById(String id);
 }
\ No newline at end of file
@@ -0,0 +1,129 @@
+package com.watchtogether.Repository.redis;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Repository;
+
+import com.watchtogether.Entity.redis.Room;
+
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Cập nhật từng field playback của hash "Room:<id>" bằng một Lua script (1 round trip).
+ *
+ * Khác với RoomRedisRepository.save() (ghi lại toàn bộ hash + index phụ), script chỉ HSET
+ * các field playback và tăng field "version" với compare-and-set: nếu version trong Redis
+ * khác version mong đợi thì không ghi gì và báo CONFLICT.
+ * Giá trị được ghi đúng định dạng mà Spring Data Redis dùng khi đọc lại Room.
+ *
+ * Mốc cao nhất của số thứ tự event video (video:seq:<id>) cũng nằm ở đây. Bộ đếm thật nằm trong
+ * RAM của VideoSyncService; Redis chỉ giữ số lớn nhất đã phát để node nạp phòng sau đó
+ * (websocket.broker.mode=redis, phòng bị bỏ khỏi RAM) tiếp tục từ đó, không đánh số lùi.
+ */
+@Repository
+@RequiredArgsConstructor
+public class RoomStateStore {
+
+    // KEYS[1] = Room:<id>
+    // ARGV[1] = version mong đợi ('' = không kiểm tra), ARGV[2..] = field, value, ...
+    // Trả về version mới, -1 nếu phòng không tồn tại, -2 nếu version không khớp
+    private static final RedisScript<Long> UPDATE_PLAYBACK_SCRIPT = new DefaultRedisScript<>("""
+            if redis.call('EXISTS', KEYS[1]) == 0 then
+                return -1
+            end
+            local current = tonumber(redis.call('HGET', KEYS[1], 'version') or '0')
+            if ARGV[1] ~= '' and tonumber(ARGV[1]) ~= current then
+                return -2
+            end
+            local nextVersion = current + 1
+            redis.call('HSET', KEYS[1], 'version', tostring(nextVersion), unpack(ARGV, 2))
+            return nextVersion
+            """, Long.class);
+
+    // KEYS[1] = video:seq:<id>, ARGV[1] = số thứ tự đã phát, ARGV[2] = TTL (giây)
+    // Chỉ ghi khi lớn hơn giá trị hiện có (lần ghi đến muộn không kéo mốc lùi); trả về mốc sau khi ghi
+    private static final RedisScript<Long> RAISE_SEQUENCE_SCRIPT = new DefaultRedisScript<>("""
+            local current = tonumber(redis.call('GET', KEYS[1]) or '0')
+            local value = tonumber(ARGV[1])
+            if value > current then
+                redis.call('SET', KEYS[1], ARGV[1])
+                current = value
+            end
+            redis.call('EXPIRE', KEYS[1], ARGV[2])
+            return current
+            """, Long.class);
+
+    // Sống cùng thời gian với phòng (RoomService tạo Room với TTL 24 giờ)
+    private static final long SEQUENCE_TTL_SECONDS = 86400;
+
+    private final RedisTemplate<String, String> redisTemplate;
+
+    public enum Result {
+        UPDATED, CONFLICT, NOT_FOUND
+    }
+
+    /**
+     * Ghi các field playback của room nếu version trong Redis vẫn bằng expectedVersion.
+     * Thành công thì room.version được đặt thành version mới.
+     *
+     * @param expectedVersion version đã đọc trước đó, null = bỏ qua kiểm tra
+     */
+    public Result updatePlayback(Room room, Long expectedVersion) {
+        List<String> args = new ArrayList<>();
+        args.add(expectedVersion != null ? expectedVersion.toString() : "");
+        addField(args, "currentVideoUrl", room.getCurrentVideoUrl());
+        addField(args, "lastPosition", room.getLastPosition());
+        addField(args, "playbackState", room.getPlaybackState());
+        addField(args, "lastSyncAt", room.getLastSyncAt());
+        addField(args, "playbackRate", room.getPlaybackRate());
+
+        Long result = redisTemplate.execute(UPDATE_PLAYBACK_SCRIPT, List.of(keyOf(room.getId())), args.toArray());
+        if (result == null || result == -1L) {
+            return Result.NOT_FOUND;
+        }
+        if (result == -2L) {
+            return Result.CONFLICT;
+        }
+        room.setVersion(result);
+        return Result.UPDATED;
+    }
+
+    /**
+     * Nâng mốc số thứ tự event video của phòng lên sequence (không đổi nếu mốc đã lớn hơn)
+     */
+    public long raiseSequence(String roomId, long sequence) {
+        Long current = redisTemplate.execute(RAISE_SEQUENCE_SCRIPT, List.of(sequenceKeyOf(roomId)),
+                String.valueOf(sequence), String.valueOf(SEQUENCE_TTL_SECONDS));
+        return current != null ? current : sequence;
+    }
+
+    /**
+     * Số thứ tự event video đã phát gần nhất của phòng (0 nếu chưa có)
+     */
+    public long currentSequence(String roomId) {
+        String value = redisTemplate.opsForValue().get(sequenceKeyOf(roomId));
+        return value != null ? Long.parseLong(value) : 0L;
+    }
+
+    // Không dùng tiền tố "Room:" để không lẫn với key phụ của @RedisHash
+    private String sequenceKeyOf(String roomId) {
+        return "video:seq:" + roomId;
+    }
+
+    // Cùng định dạng key với @RedisHash("Room")
+    private String keyOf(String roomId) {
+        return "Room:" + roomId;
+    }
+
+    private void addField(List<String> args, String field, Object value) {
+        if (value != null) {
+            args.add(field);
+            // Double/Instant/String: toString() trùng với converter mặc định của Spring Data Redis
+            args.add(value.toString());
+        }
+    }
+}
@@ -21,6 +21,7 @@ public class AuthService {
 
     private final UserRepository userRepository;
     private final PasswordEncoder passwordEncoder;
+    private final UserIdentityCache userIdentityCache;
 
     /**
      * Đăng ký người dùng mới
@@ -42,7 +43,10 @@ public class AuthService {
                 .updatedAt(LocalDateTime.now())
                 .build();
 
-        return userRepository.save(user);
+        User saved = userRepository.save(user);
+        // Tên vừa được đăng ký: bỏ mọi định danh cũ theo tên này trên mọi node
+        userIdentityCache.invalidate(saved.getId(), saved.getName());
+        return saved;
     }
 
     /**
@@ -0,0 +1,359 @@
+package com.watchtogether.Service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.watchtogether.Entity.jpa.ChatMessage.MessageType;
+import com.watchtogether.Repository.jpa.ChatMessageView;
+import com.watchtogether.util.ChatCursor;
+import com.watchtogether.util.StatsSource;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Đưa các partition chat cũ ra đĩa dạng NDJSON nén gzip rồi bỏ khỏi Postgres.
+ *
+ * Hằng ngày (chat.archive.cron), mọi partition có cận trên cũ hơn chat.archive.after-days
+ * được ghi thành chat.archive.dir/{partition}/{base64url(roomId)}.ndjson.gz (cùng định dạng với
+ * /api/v1/chat/export), rồi DETACH và DROP. Thư mục được ghi dưới tên .tmp và chỉ đổi tên
+ * khi xong, nên lần chạy sau có thể làm tiếp nếu bị ngắt giữa chừng.
+ *
+ * copyRoom() đọc lại các file của một phòng (cũ → mới) để export trả về cả phần đã lưu trữ;
+ * pageBefore() trả trang lịch sử cũ hơn cursor khi /api/v1/chat/history đã đọc hết Postgres.
+ * Partition chia theo thời gian nên mọi tin đã lưu trữ đều cũ hơn mọi tin còn trong DB.
+ *
+ * Nhiều node: mỗi partition được lưu trữ trong một transaction giữ khoá advisory
+ * ChatPartitionManager.LOCK_KEY (pg_try_advisory_xact_lock), nên chỉ một node làm, node kia bỏ qua.
+ * chat.archive.dir phải là thư mục dùng chung (NFS, volume gắn vào mọi node...): file chỉ được
+ * ghi ở node giữ khoá, còn export / lịch sử trên node nào cũng phải đọc được chúng. Vì vậy
+ * chat.archive.enabled mặc định tắt.
+ */
+@Service
+@Slf4j
+public class ChatArchiver implements StatsSource {
+
+    private static final String SELECT_SQL = "SELECT id, type, content, sender_name, room_id, \"timestamp\" FROM %s "
+            + "ORDER BY room_id, \"timestamp\", id";
+    private static final String FILE_SUFFIX = ".ndjson.gz";
+
+    // legacy chứa mọi thứ trước partition tháng đầu tiên; các partition tháng theo thứ tự tên (yyyyMM)
+    private static final Comparator<Path> ARCHIVE_ORDER = Comparator
+            .comparing((Path dir) -> !dir.getFileName().toString().equals(ChatPartitionManager.LEGACY_PARTITION))
+            .thenComparing(dir -> dir.getFileName().toString());
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate tx;
+    private final ChatPartitionManager partitionManager;
+    private final ObjectMapper objectMapper;
+    private final boolean enabled;
+    private final int afterDays;
+    private final Path archiveDir;
+    private final int fetchSize;
+
+    private final AtomicLong partitionsArchived = new AtomicLong();
+    private final AtomicLong rowsArchived = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    public ChatArchiver(JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager,
+            ChatPartitionManager partitionManager, ObjectMapper objectMapper,
+            @Value("${chat.archive.enabled:false}") boolean enabled,
+            @Value("${chat.archive.after-days:180}") int afterDays,
+            @Value("${chat.archive.dir:./data/chat-archive}") String archiveDir,
+            @Value("${chat.export.fetch-size:1000}") int fetchSize) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.tx = new TransactionTemplate(transactionManager);
+        this.partitionManager = partitionManager;
+        this.objectMapper = objectMapper;
+        this.enabled = enabled;
+        this.afterDays = afterDays;
+        this.archiveDir = Paths.get(archiveDir);
+        this.fetchSize = fetchSize;
+    }
+
+    @Scheduled(cron = "${chat.archive.cron:0 45 3 * * *}")
+    public void archive() {
+        if (!enabled || !partitionManager.isPartitioned()) {
+            return;
+        }
+        LocalDateTime cutoff = LocalDate.now().minusDays(afterDays).atStartOfDay();
+        for (ChatPartitionManager.Partition partition : partitionManager.partitions()) {
+            if (partition.upperBound() == null || partition.upperBound().isAfter(cutoff)) {
+                continue;
+            }
+            try {
+                archivePartition(partition.name());
+            } catch (Exception e) {
+                failures.incrementAndGet();
+                log.error("Cannot archive chat partition {}: {}", partition.name(), e.getMessage());
+            }
+        }
+    }
+
+    private void archivePartition(String partition) {
+        long start = System.currentTimeMillis();
+        // Ghi file, DETACH và DROP trong cùng transaction giữ khoá: node khác đang làm thì bỏ qua
+        Long rows = tx.execute(status -> {
+            Boolean locked = jdbcTemplate.queryForObject(
+                    "SELECT pg_try_advisory_xact_lock(hashtext('" + ChatPartitionManager.LOCK_KEY + "'))", Boolean.class);
+            if (!Boolean.TRUE.equals(locked)) {
+                log.info("Skipping chat partition {}: another node holds the partition lock", partition);
+                return null;
+            }
+            // Node khác có thể vừa lưu trữ xong partition này
+            boolean attached = partitionManager.partitions().stream().anyMatch(p -> p.name().equals(partition));
+            if (!attached) {
+                return null;
+            }
+            long count;
+            try {
+                count = writeArchive(partition);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            // Chỉ bỏ partition sau khi file đã nằm đúng chỗ
+            jdbcTemplate.execute("ALTER TABLE " + ChatPartitionManager.TABLE + " DETACH PARTITION " + partition);
+            jdbcTemplate.execute("DROP TABLE " + partition);
+            return count;
+        });
+        if (rows == null) {
+            return;
+        }
+        rowsArchived.addAndGet(rows);
+        partitionsArchived.incrementAndGet();
+        log.info("Archived {} rows and dropped chat partition {} ({} ms)", rows, partition, System.currentTimeMillis() - start);
+    }
+
+    // Thư mục được ghi dưới tên .tmp rồi mới đổi tên; đã có (lần chạy trước bị ngắt sau bước này) thì giữ nguyên
+    private long writeArchive(String partition) throws IOException {
+        Path target = archiveDir.resolve(partition);
+        if (Files.isDirectory(target)) {
+            return 0;
+        }
+        Path tmp = archiveDir.resolve(partition + ".tmp");
+        deleteRecursively(tmp);
+        Files.createDirectories(tmp);
+        long rows = exportPartition(partition, tmp);
+        Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE);
+        log.info("Wrote {} rows of {} to {}", rows, partition, target);
+        return rows;
+    }
+
+    // Một lượt cursor qua partition theo room_id; đổi file mỗi khi sang phòng khác
+    private long exportPartition(String partition, Path dir) {
+        Long rows = tx.execute(status -> jdbcTemplate.query(con -> {
+            PreparedStatement ps = con.prepareStatement(String.format(SELECT_SQL, partition),
+                    ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            ps.setFetchSize(fetchSize);
+            return ps;
+        }, (ResultSetExtractor<Long>) rs -> {
+            long count = 0;
+            String currentRoom = null;
+            OutputStream out = null;
+            JsonGenerator generator = null;
+            try {
+                while (rs.next()) {
+                    String roomId = rs.getString("room_id");
+                    if (generator == null || !Objects.equals(roomId, currentRoom)) {
+                        if (generator != null) {
+                            generator.close();
+                            out.close();
+                        }
+                        currentRoom = roomId;
+                        out = new GZIPOutputStream(Files.newOutputStream(dir.resolve(fileName(roomId))), 8192);
+                        generator = objectMapper.getFactory().createGenerator(out);
+                        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+                        generator.setRootValueSeparator(null);
+                    }
+                    ChatExportService.writeRow(generator, rs, roomId);
+                    count++;
+                }
+                if (generator != null) {
+                    generator.close();
+                    out.close();
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return count;
+        }));
+        return rows != null ? rows : 0;
+    }
+
+    /**
+     * Ghi các tin đã lưu trữ của phòng ra out (NDJSON, cũ → mới). Không đóng out.
+     *
+     * @param types tên các loại tin cần ghi; null = tất cả
+     * @return số dòng đã ghi
+     */
+    public long copyRoom(String roomId, Set<String> types, OutputStream out) throws IOException {
+        long count = 0;
+        for (Path file : archiveFiles(roomId)) {
+            try (BufferedReader reader = open(file)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.isEmpty() || (types != null && !types.contains(objectMapper.readTree(line).path("type").asText()))) {
+                        continue;
+                    }
+                    out.write(line.getBytes(StandardCharsets.UTF_8));
+                    out.write('\n');
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Tối đa limit tin đã lưu trữ của phòng cũ hơn before (null = tin mới nhất), mới → cũ
+     * như ChatRepository.findBefore. Đọc lại toàn bộ file của phòng mỗi lần gọi: chỉ dùng cho
+     * các trang sâu hơn phần còn trong Postgres.
+     */
+    public List<ChatMessageView> pageBefore(String roomId, ChatCursor before, int limit) throws IOException {
+        if (limit <= 0) {
+            return List.of();
+        }
+        ArrayDeque<ChatMessageView> newest = new ArrayDeque<>(limit + 1);
+        for (Path file : archiveFiles(roomId)) {
+            try (BufferedReader reader = open(file)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.isEmpty()) {
+                        continue;
+                    }
+                    ArchivedMessage message = parse(line);
+                    if (before != null && !isBefore(message, before)) {
+                        continue;
+                    }
+                    // File theo thứ tự cũ → mới: chỉ giữ limit dòng cuối
+                    newest.addLast(message);
+                    if (newest.size() > limit) {
+                        newest.removeFirst();
+                    }
+                }
+            }
+        }
+        List<ChatMessageView> page = new ArrayList<>(newest);
+        Collections.reverse(page);
+        return page;
+    }
+
+    private static boolean isBefore(ChatMessageView message, ChatCursor cursor) {
+        int byTime = message.getTimestamp().compareTo(cursor.timestamp());
+        return byTime < 0 || (byTime == 0 && message.getId() < cursor.id());
+    }
+
+    private ArchivedMessage parse(String line) throws IOException {
+        JsonNode row = objectMapper.readTree(line);
+        return new ArchivedMessage(row.path("id").asLong(),
+                MessageType.valueOf(row.path("type").asText()),
+                row.path("content").asText(null),
+                row.path("sender").asText(null),
+                row.path("roomId").asText(null),
+                LocalDateTime.parse(row.path("timestamp").asText()));
+    }
+
+    // Các file của phòng, partition cũ → mới
+    private List<Path> archiveFiles(String roomId) throws IOException {
+        if (!Files.isDirectory(archiveDir)) {
+            return List.of();
+        }
+        try (Stream<Path> dirs = Files.list(archiveDir)) {
+            return dirs.filter(Files::isDirectory)
+                    .filter(dir -> !dir.getFileName().toString().endsWith(".tmp"))
+                    .sorted(ARCHIVE_ORDER)
+                    .map(dir -> dir.resolve(fileName(roomId)))
+                    .filter(Files::isRegularFile)
+                    .toList();
+        }
+    }
+
+    private static BufferedReader open(Path file) throws IOException {
+        return new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(Files.newInputStream(file)), StandardCharsets.UTF_8));
+    }
+
+    // Một dòng NDJSON đã lưu trữ, cùng dạng với dòng đọc từ Postgres
+    @Getter
+    @RequiredArgsConstructor
+    private static final class ArchivedMessage implements ChatMessageView {
+        private final Long id;
+        private final MessageType type;
+        private final String content;
+        private final String senderName;
+        private final String roomId;
+        private final LocalDateTime timestamp;
+    }
+
+    // base64url của roomId: an toàn cho tên file và không trùng giữa hai phòng khác nhau
+    static String fileName(String roomId) {
+        return roomId == null ? "_" + FILE_SUFFIX
+                : Base64.getUrlEncoder().withoutPadding().encodeToString(roomId.getBytes(StandardCharsets.UTF_8))
+                        + FILE_SUFFIX;
+    }
+
+    private static void deleteRecursively(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return;
+        }
+        try (Stream<Path> walk = Files.walk(path)) {
+            for (Path p : walk.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(p);
+            }
+        }
+    }
+
+    @Override
+    public String statsName() {
+        return "chatArchiver";
+    }
+
+    @Override
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("afterDays", afterDays);
+        stats.put("partitionsArchived", partitionsArchived.get());
+        stats.put("rowsArchived", rowsArchived.get());
+        stats.put("failures", failures.get());
+        return stats;
+    }
+}
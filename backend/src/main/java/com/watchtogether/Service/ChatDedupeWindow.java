@@ -0,0 +1,141 @@
+package com.watchtogether.Service;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.watchtogether.util.StatsSource;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Chống gửi trùng tin nhắn chat theo messageId do client sinh (SockJS reconnect, client gửi lại).
+ *
+ * Mỗi phòng giữ 2 thế hệ tập messageId (hiện tại / trước đó). Sau mỗi nửa cửa sổ
+ * (chat.dedupe.window-seconds / 2), hoặc khi thế hệ hiện tại vượt chat.dedupe.max-per-room,
+ * thế hệ trước bị bỏ và thế hệ hiện tại lùi xuống: một id được nhớ trong khoảng từ nửa cửa sổ
+ * tới một cửa sổ, bộ nhớ mỗi phòng tối đa 2 × max-per-room id.
+ *
+ * chat.dedupe.redis=true: dùng SET NX EX trên Redis (chat:dedupe:{roomId}:{messageId}) thay cho
+ * bộ nhớ cục bộ, để lần gửi lại qua node khác (sau reconnect) vẫn bị nhận ra.
+ */
+@Component
+@Slf4j
+public class ChatDedupeWindow implements StatsSource {
+
+    private static final String KEY_PREFIX = "chat:dedupe:";
+
+    private final RedisTemplate<String, String> redisTemplate;
+    private final long windowMs;
+    private final int maxPerRoom;
+    private final boolean useRedis;
+
+    private final Map<String, RoomWindow> rooms = new ConcurrentHashMap<>();
+
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong duplicates = new AtomicLong();
+
+    private final class RoomWindow {
+        Set<String> current = new HashSet<>();
+        Set<String> previous = new HashSet<>();
+        long rotatedAt;
+
+        RoomWindow(long now) {
+            this.rotatedAt = now;
+        }
+
+        synchronized boolean add(String messageId, long now) {
+            long half = windowMs / 2;
+            if (now - rotatedAt >= windowMs) {
+                // Im lặng quá một cửa sổ: cả hai thế hệ đã hết hạn
+                previous = new HashSet<>();
+                current = new HashSet<>();
+                rotatedAt = now;
+            } else if (now - rotatedAt >= half || current.size() >= maxPerRoom) {
+                previous = current;
+                current = new HashSet<>();
+                rotatedAt = now;
+            }
+            if (previous.contains(messageId)) {
+                return false;
+            }
+            return current.add(messageId);
+        }
+
+        synchronized boolean idleSince(long cutoff) {
+            return rotatedAt < cutoff;
+        }
+    }
+
+    public ChatDedupeWindow(RedisTemplate<String, String> redisTemplate,
+            @Value("${chat.dedupe.window-seconds:120}") long windowSeconds,
+            @Value("${chat.dedupe.max-per-room:2000}") int maxPerRoom,
+            @Value("${chat.dedupe.redis:false}") boolean useRedis) {
+        this.redisTemplate = redisTemplate;
+        this.windowMs = TimeUnit.SECONDS.toMillis(windowSeconds);
+        this.maxPerRoom = maxPerRoom;
+        this.useRedis = useRedis;
+    }
+
+    /**
+     * Ghi nhận messageId của phòng
+     *
+     * @return true nếu đây là lần đầu thấy id trong cửa sổ (tin cần xử lý), false nếu là bản trùng
+     */
+    public boolean firstSeen(String roomId, String messageId) {
+        return firstSeen(roomId, messageId, System.currentTimeMillis());
+    }
+
+    // now: đồng hồ của cửa sổ cục bộ (test truyền thời điểm giả)
+    boolean firstSeen(String roomId, String messageId, long now) {
+        boolean first = useRedis ? firstSeenInRedis(roomId, messageId)
+                : rooms.computeIfAbsent(roomId, id -> new RoomWindow(now)).add(messageId, now);
+        (first ? accepted : duplicates).incrementAndGet();
+        return first;
+    }
+
+    private boolean firstSeenInRedis(String roomId, String messageId) {
+        try {
+            Boolean set = redisTemplate.opsForValue()
+                    .setIfAbsent(KEY_PREFIX + roomId + ":" + messageId, "1", windowMs, TimeUnit.MILLISECONDS);
+            return !Boolean.FALSE.equals(set);
+        } catch (Exception e) {
+            // Redis lỗi: thà broadcast trùng còn hơn làm mất tin
+            log.warn("Cannot check chat dedupe key in Redis: {}", e.getMessage());
+            return true;
+        }
+    }
+
+    /**
+     * Bỏ cửa sổ của các phòng không có tin nhắn trong hơn một cửa sổ
+     */
+    @Scheduled(fixedDelayString = "${chat.dedupe.sweep-interval-ms:60000}")
+    public void sweep() {
+        long cutoff = System.currentTimeMillis() - windowMs;
+        rooms.entrySet().removeIf(e -> e.getValue().idleSince(cutoff));
+    }
+
+    @Override
+    public String statsName() {
+        return "chatDedupe";
+    }
+
+    @Override
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("rooms", rooms.size());
+        stats.put("redis", useRedis);
+        stats.put("accepted", accepted.get());
+        stats.put("duplicates", duplicates.get());
+        return stats;
+    }
+}
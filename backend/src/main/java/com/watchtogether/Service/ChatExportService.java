@@ -0,0 +1,160 @@
+package com.watchtogether.Service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.watchtogether.Entity.jpa.ChatMessage.MessageType;
+import com.watchtogether.util.StatsSource;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Xuất toàn bộ chat_messages của một phòng dạng NDJSON (mỗi dòng một JSON object).
+ *
+ * Đọc bằng cursor JDBC forward-only: driver Postgres chỉ dùng cursor phía server khi
+ * autocommit tắt và có fetchSize, nên truy vấn chạy trong một transaction read-only và mỗi
+ * lượt chỉ kéo chat.export.fetch-size dòng. Mỗi dòng được ghi thẳng ra OutputStream bằng
+ * JsonGenerator, không dựng List nào → bộ nhớ không đổi theo kích thước phòng.
+ * Phần đã được ChatArchiver đưa ra đĩa được ghi trước, theo đúng thứ tự thời gian.
+ */
+@Service
+@Slf4j
+public class ChatExportService implements StatsSource {
+
+    private static final String SELECT_SQL = "SELECT id, type, content, sender_name, timestamp FROM chat_messages "
+            + "WHERE room_id = ? AND type = ANY (?) ORDER BY timestamp, id";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate readOnlyTx;
+    private final ObjectMapper objectMapper;
+    private final ChatArchiver chatArchiver;
+    private final int fetchSize;
+
+    private final AtomicLong exports = new AtomicLong();
+    private final AtomicLong active = new AtomicLong();
+    private final AtomicLong rows = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    public ChatExportService(JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager,
+            ObjectMapper objectMapper, ChatArchiver chatArchiver,
+            @Value("${chat.export.fetch-size:1000}") int fetchSize) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.readOnlyTx = new TransactionTemplate(transactionManager);
+        this.readOnlyTx.setReadOnly(true);
+        this.objectMapper = objectMapper;
+        this.chatArchiver = chatArchiver;
+        this.fetchSize = fetchSize;
+    }
+
+    /**
+     * Ghi lịch sử của phòng (cũ → mới) ra out dạng NDJSON. Không đóng out.
+     *
+     * @param types các loại tin cần xuất (CHAT là chat, JOIN/LEAVE là log sự kiện)
+     * @return số dòng đã ghi
+     */
+    public long exportRoom(String roomId, List<MessageType> types, OutputStream out) throws IOException {
+        exports.incrementAndGet();
+        active.incrementAndGet();
+        String[] typeNames = types.stream().map(MessageType::name).toArray(String[]::new);
+        Set<String> typeSet = Set.copyOf(Arrays.asList(typeNames));
+        long archived;
+        try {
+            archived = chatArchiver.copyRoom(roomId,
+                    typeSet.size() == MessageType.values().length ? null : typeSet, out);
+        } catch (IOException e) {
+            failed.incrementAndGet();
+            active.decrementAndGet();
+            throw e;
+        }
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(out)) {
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            generator.setRootValueSeparator(null); // tự xuống dòng sau mỗi object
+            Long written = readOnlyTx.execute(status -> jdbcTemplate.query(con -> {
+                PreparedStatement ps = con.prepareStatement(SELECT_SQL,
+                        ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+                ps.setFetchSize(fetchSize);
+                ps.setString(1, roomId);
+                ps.setArray(2, con.createArrayOf("varchar", typeNames));
+                return ps;
+            }, (ResultSetExtractor<Long>) rs -> {
+                long count = 0;
+                while (rs.next()) {
+                    writeRow(generator, rs, roomId);
+                    count++;
+                }
+                return count;
+            }));
+            generator.flush();
+            long count = archived + (written != null ? written : 0);
+            rows.addAndGet(count);
+            return count;
+        } catch (UncheckedIOException e) {
+            // Client ngắt giữa chừng: cursor đóng cùng transaction
+            failed.incrementAndGet();
+            log.debug("Chat export of room {} aborted: {}", roomId, e.getMessage());
+            throw e.getCause();
+        } catch (IOException e) {
+            // Ngắt khi flush/đóng generator: phần cuối còn nằm trong buffer
+            failed.incrementAndGet();
+            throw e;
+        } catch (RuntimeException e) {
+            failed.incrementAndGet();
+            throw e;
+        } finally {
+            active.decrementAndGet();
+        }
+    }
+
+    // Dùng chung với ChatArchiver để file lưu trữ có cùng định dạng với export
+    static void writeRow(JsonGenerator generator, ResultSet rs, String roomId) throws SQLException {
+        try {
+            Timestamp timestamp = rs.getTimestamp("timestamp");
+            generator.writeStartObject();
+            generator.writeNumberField("id", rs.getLong("id"));
+            generator.writeStringField("type", rs.getString("type"));
+            generator.writeStringField("content", rs.getString("content"));
+            generator.writeStringField("sender", rs.getString("sender_name"));
+            generator.writeStringField("roomId", roomId);
+            generator.writeStringField("timestamp", timestamp != null ? timestamp.toLocalDateTime().toString() : null);
+            generator.writeEndObject();
+            generator.writeRaw('\n');
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public String statsName() {
+        return "chatExport";
+    }
+
+    @Override
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("exports", exports.get());
+        stats.put("active", active.get());
+        stats.put("rows", rows.get());
+        stats.put("failed", failed.get());
+        return stats;
+    }
+}
@@ -0,0 +1,202 @@
+package com.watchtogether.Service;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import com.watchtogether.DTO.ChatMessageDTO;
+import com.watchtogether.util.StatsSource;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Ghi tin nhắn chat xuống chat_messages ngoài đường broadcast.
+ *
+ * Controller broadcast ngay rồi đưa tin nhắn vào hàng đợi có giới hạn (chat.persist.queue-capacity).
+ * Một writer (virtual thread) gom tối đa chat.persist.batch-size tin hoặc chờ tối đa
+ * chat.persist.flush-latency-ms rồi ghi bằng một JDBC batch insert; với
+ * reWriteBatchedInserts=true driver Postgres gộp thành INSERT nhiều dòng.
+ * sender_id được tra bằng subquery theo tên trong chính câu INSERT (không query riêng).
+ *
+ * Hàng đợi đầy (chat.persist.overflow):
+ * - block: thread gửi chờ tối đa chat.persist.offer-timeout-ms (backpressure), hết thời gian thì bỏ
+ * - drop: bỏ ngay
+ * Tin bị bỏ vẫn đã được broadcast, chỉ không có trong lịch sử. Khi shutdown, writer ghi hết hàng đợi.
+ */
+@Component
+@Slf4j
+public class ChatMessageWriter implements StatsSource {
+
+    private static final String INSERT_SQL = "INSERT INTO chat_messages (type, content, sender_id, sender_name, room_id, timestamp) "
+            + "VALUES (?, ?, (SELECT u.id FROM users u WHERE u.name = ? LIMIT 1), ?, ?, ?)";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final BlockingQueue<ChatMessageDTO> queue;
+    private final int batchSize;
+    private final long flushLatencyMs;
+    private final boolean blockOnOverflow;
+    private final long offerTimeoutMs;
+
+    private volatile boolean running = true;
+    private Thread writer;
+
+    private final AtomicLong enqueued = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+
+    public ChatMessageWriter(JdbcTemplate jdbcTemplate,
+            @Value("${chat.persist.queue-capacity:10000}") int capacity,
+            @Value("${chat.persist.batch-size:200}") int batchSize,
+            @Value("${chat.persist.flush-latency-ms:200}") long flushLatencyMs,
+            @Value("${chat.persist.overflow:block}") String overflow,
+            @Value("${chat.persist.offer-timeout-ms:50}") long offerTimeoutMs) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.batchSize = batchSize;
+        this.flushLatencyMs = flushLatencyMs;
+        this.blockOnOverflow = "block".equalsIgnoreCase(overflow);
+        this.offerTimeoutMs = offerTimeoutMs;
+    }
+
+    @PostConstruct
+    public void start() {
+        writer = Thread.ofVirtual().name("chat-writer").start(this::run);
+    }
+
+    /**
+     * Đưa tin nhắn vào hàng đợi ghi
+     *
+     * @return false nếu hàng đợi đầy và tin nhắn bị bỏ
+     */
+    public boolean enqueue(ChatMessageDTO message) {
+        boolean accepted;
+        try {
+            accepted = blockOnOverflow
+                    ? queue.offer(message, offerTimeoutMs, TimeUnit.MILLISECONDS)
+                    : queue.offer(message);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            accepted = false;
+        }
+        if (accepted) {
+            enqueued.incrementAndGet();
+        } else {
+            dropped.incrementAndGet();
+            log.warn("Chat persist queue full, message in room {} not stored", message.getRoomId());
+        }
+        return accepted;
+    }
+
+    private void run() {
+        List<ChatMessageDTO> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                ChatMessageDTO first = queue.poll(flushLatencyMs, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                // Gom thêm tới batch-size, nhưng không giữ tin đầu tiên quá flush-latency-ms
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushLatencyMs);
+                while (batch.size() < batchSize) {
+                    queue.drainTo(batch, batchSize - batch.size());
+                    long remaining = deadline - System.nanoTime();
+                    if (batch.size() >= batchSize || remaining <= 0 || !running) {
+                        break;
+                    }
+                    ChatMessageDTO next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                // Shutdown: vòng lặp tiếp tục cho tới khi hàng đợi rỗng
+                running = false;
+            }
+            if (!batch.isEmpty()) {
+                write(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    private void write(List<ChatMessageDTO> batch) {
+        try {
+            jdbcTemplate.batchUpdate(INSERT_SQL, batch, batch.size(), (ps, message) -> {
+                ps.setString(1, message.getType() != null ? message.getType().name() : null);
+                ps.setString(2, message.getContent());
+                ps.setString(3, message.getSender());
+                ps.setString(4, message.getSender());
+                ps.setString(5, message.getRoomId());
+                ps.setTimestamp(6, message.getTimestamp() != null ? Timestamp.valueOf(message.getTimestamp()) : null);
+            });
+            batches.incrementAndGet();
+            written.addAndGet(batch.size());
+        } catch (Exception e) {
+            // Một dòng lỗi (ví dụ phòng không tồn tại) làm hỏng cả batch: ghi lại từng dòng
+            log.warn("Chat batch insert of {} rows failed, retrying row by row: {}", batch.size(), e.getMessage());
+            for (ChatMessageDTO message : batch) {
+                writeOne(message);
+            }
+        }
+    }
+
+    private void writeOne(ChatMessageDTO message) {
+        try {
+            jdbcTemplate.update(INSERT_SQL,
+                    message.getType() != null ? message.getType().name() : null,
+                    message.getContent(),
+                    message.getSender(),
+                    message.getSender(),
+                    message.getRoomId(),
+                    message.getTimestamp() != null ? Timestamp.valueOf(message.getTimestamp()) : null);
+            written.incrementAndGet();
+        } catch (Exception e) {
+            failed.incrementAndGet();
+            log.error("Cannot store chat message in room {}: {}", message.getRoomId(), e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        // Không interrupt để không cắt ngang một batch đang ghi; writer thấy running=false
+        // sau tối đa flush-latency-ms và ghi nốt hàng đợi
+        running = false;
+        if (writer != null) {
+            writer.join(TimeUnit.SECONDS.toMillis(30));
+        }
+        log.info("Chat writer stopped: {} messages written, {} left in queue", written.get(), queue.size());
+    }
+
+    @Override
+    public String statsName() {
+        return "chatMessageWriter";
+    }
+
+    @Override
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("queueDepth", queue.size());
+        stats.put("enqueued", enqueued.get());
+        stats.put("dropped", dropped.get());
+        stats.put("written", written.get());
+        stats.put("failed", failed.get());
+        stats.put("batches", batches.get());
+        return stats;
+    }
+}
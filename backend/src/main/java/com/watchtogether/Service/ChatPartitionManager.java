@@ -0,0 +1,234 @@
+package com.watchtogether.Service;
+
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.annotation.Order;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.watchtogether.util.StatsSource;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Chia chat_messages thành partition theo tháng (RANGE trên timestamp).
+ *
+ * Hibernate (ddl-auto=update) tạo chat_messages là bảng thường. Lúc khởi động, nếu bảng chưa
+ * được partition, nó được chuyển đổi một lần (trong một transaction, có advisory lock cho
+ * nhiều node):
+ * - bảng cũ đổi tên thành chat_messages_legacy và gắn làm partition (MINVALUE → đầu tháng sau)
+ * - id chuyển từ IDENTITY sang DEFAULT nextval('chat_messages_id_seq') (bảng partition không
+ *   dùng được identity), khoá chính thành (id, timestamp)
+ * - khoá ngoại room_id → rooms, sender_id → users được tạo trên bảng cha (LIKE không chép FK),
+ *   nên mọi partition tháng đều có
+ * Sau đó và hằng ngày, các partition tháng tiếp theo được tạo trước chat.partition.premake-months.
+ *
+ * Insert chỉ chạm partition của tháng hiện tại; truy vấn lịch sử mới nhất
+ * (ORDER BY timestamp DESC LIMIT) đi qua partition mới nhất trước và dừng sớm.
+ */
+@Service
+@Slf4j
+public class ChatPartitionManager implements StatsSource {
+
+    public static final String TABLE = "chat_messages";
+    public static final String LEGACY_PARTITION = TABLE + "_legacy";
+    // Khoá advisory dùng chung cho chuyển đổi bảng và lưu trữ partition (ChatArchiver) giữa các node
+    public static final String LOCK_KEY = TABLE + "_partitioning";
+
+    private static final DateTimeFormatter SUFFIX = DateTimeFormatter.ofPattern("yyyyMM");
+    private static final DateTimeFormatter BOUND = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private static final Pattern UPPER_BOUND = Pattern.compile("TO \\('([^']+)'\\)");
+
+    // Tên FK, cột, bảng được tham chiếu
+    private static final String[][] FOREIGN_KEYS = {
+            { TABLE + "_room_id_fkey", "room_id", "rooms (room_id)" },
+            { TABLE + "_sender_id_fkey", "sender_id", "users (id)" },
+    };
+
+    /**
+     * Một partition và cận trên (không gồm) của nó
+     */
+    public record Partition(String name, LocalDateTime upperBound) {
+    }
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate tx;
+    private final boolean enabled;
+    private final int premakeMonths;
+
+    private final AtomicLong partitionsCreated = new AtomicLong();
+    private volatile boolean migrated;
+
+    public ChatPartitionManager(JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager,
+            @Value("${chat.partition.enabled:true}") boolean enabled,
+            @Value("${chat.partition.premake-months:2}") int premakeMonths) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.tx = new TransactionTemplate(transactionManager);
+        this.enabled = enabled;
+        this.premakeMonths = premakeMonths;
+    }
+
+    // Chạy trước ChatSearchService.initSchema: cột/index tìm kiếm được tạo trên bảng đã partition
+    @EventListener(ApplicationReadyEvent.class)
+    @Order(0)
+    public void init() {
+        if (!enabled) {
+            return;
+        }
+        migrate();
+        if (isPartitioned()) {
+            try {
+                // Bảng đã chuyển đổi bởi bản cũ (chưa tạo FK trên bảng cha)
+                addMissingForeignKeys();
+            } catch (Exception e) {
+                log.warn("Cannot add foreign keys to {}: {}", TABLE, e.getMessage());
+            }
+        }
+        ensurePartitions();
+    }
+
+    @Scheduled(cron = "${chat.partition.maintenance-cron:0 15 3 * * *}")
+    public void maintain() {
+        if (enabled && isPartitioned()) {
+            ensurePartitions();
+        }
+    }
+
+    private boolean exists(String table) {
+        return Boolean.TRUE.equals(jdbcTemplate.queryForObject("SELECT to_regclass(?) IS NOT NULL", Boolean.class, table));
+    }
+
+    public boolean isPartitioned() {
+        List<String> kind = jdbcTemplate.queryForList(
+                "SELECT relkind::text FROM pg_class WHERE oid = to_regclass('" + TABLE + "')", String.class);
+        return !kind.isEmpty() && "p".equals(kind.get(0));
+    }
+
+    /**
+     * Các partition hiện có (kể cả legacy)
+     */
+    public List<Partition> partitions() {
+        return jdbcTemplate.query("SELECT c.relname, pg_get_expr(c.relpartbound, c.oid) FROM pg_inherits i "
+                + "JOIN pg_class c ON c.oid = i.inhrelid WHERE i.inhparent = to_regclass('" + TABLE + "')",
+                (rs, rowNum) -> {
+                    Matcher matcher = UPPER_BOUND.matcher(rs.getString(2));
+                    LocalDateTime upper = matcher.find() ? LocalDateTime.parse(matcher.group(1), BOUND) : null;
+                    return new Partition(rs.getString(1), upper);
+                });
+    }
+
+    private void migrate() {
+        tx.executeWithoutResult(status -> {
+            jdbcTemplate.execute("SELECT pg_advisory_xact_lock(hashtext('" + LOCK_KEY + "'))");
+            List<String> kind = jdbcTemplate.queryForList(
+                    "SELECT relkind::text FROM pg_class WHERE oid = to_regclass('" + TABLE + "')", String.class);
+            if (kind.isEmpty() || "p".equals(kind.get(0))) {
+                return;
+            }
+            long start = System.currentTimeMillis();
+            String firstMonth = YearMonth.now().plusMonths(1).atDay(1).atStartOfDay().format(BOUND);
+
+            // Tên index là toàn cục trong schema: đổi tên để bảng cha dùng được tên gốc
+            jdbcTemplate.execute("ALTER TABLE " + TABLE + " RENAME TO " + LEGACY_PARTITION);
+            jdbcTemplate.execute("ALTER INDEX IF EXISTS idx_chat_messages_room_ts_id RENAME TO "
+                    + LEGACY_PARTITION + "_room_ts_id_idx");
+            jdbcTemplate.execute("ALTER INDEX IF EXISTS idx_chat_messages_content_tsv RENAME TO "
+                    + LEGACY_PARTITION + "_content_tsv_idx");
+            jdbcTemplate.execute("ALTER TABLE " + LEGACY_PARTITION + " ALTER COLUMN id DROP IDENTITY IF EXISTS");
+            jdbcTemplate.execute("ALTER TABLE " + LEGACY_PARTITION + " DROP CONSTRAINT IF EXISTS " + TABLE + "_pkey");
+            jdbcTemplate.execute("UPDATE " + LEGACY_PARTITION + " SET \"timestamp\" = '1970-01-01' WHERE \"timestamp\" IS NULL");
+            jdbcTemplate.execute("ALTER TABLE " + LEGACY_PARTITION + " ALTER COLUMN \"timestamp\" SET NOT NULL");
+
+            jdbcTemplate.execute("CREATE SEQUENCE IF NOT EXISTS " + TABLE + "_id_seq");
+            jdbcTemplate.queryForObject("SELECT setval('" + TABLE + "_id_seq', COALESCE((SELECT max(id) FROM "
+                    + LEGACY_PARTITION + "), 0) + 1, false)", Long.class);
+            jdbcTemplate.execute("CREATE TABLE " + TABLE + " (LIKE " + LEGACY_PARTITION
+                    + " INCLUDING DEFAULTS INCLUDING GENERATED) PARTITION BY RANGE (\"timestamp\")");
+            jdbcTemplate.execute("ALTER TABLE " + TABLE + " ALTER COLUMN id SET DEFAULT nextval('" + TABLE + "_id_seq')");
+            jdbcTemplate.execute("ALTER SEQUENCE " + TABLE + "_id_seq OWNED BY " + TABLE + ".id");
+            jdbcTemplate.execute("ALTER TABLE " + TABLE + " ADD PRIMARY KEY (id, \"timestamp\")");
+            jdbcTemplate.execute("ALTER TABLE " + TABLE + " ATTACH PARTITION " + LEGACY_PARTITION
+                    + " FOR VALUES FROM (MINVALUE) TO ('" + firstMonth + "')");
+            addMissingForeignKeys();
+            // Index cùng định nghĩa trên legacy được gắn vào thay vì dựng lại
+            jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS idx_chat_messages_room_ts_id ON " + TABLE
+                    + " (room_id, \"timestamp\", id)");
+            migrated = true;
+            log.info("Converted {} to monthly partitions in {} ms (legacy rows until {})",
+                    TABLE, System.currentTimeMillis() - start, firstMonth);
+        });
+    }
+
+    // FK trên bảng cha được Postgres nhân bản xuống mọi partition (kể cả partition tạo sau)
+    private void addMissingForeignKeys() {
+        for (String[] fk : FOREIGN_KEYS) {
+            Integer existing = jdbcTemplate.queryForObject("SELECT count(*) FROM pg_constraint c "
+                    + "JOIN pg_attribute a ON a.attrelid = c.conrelid AND a.attnum = c.conkey[1] "
+                    + "WHERE c.conrelid = to_regclass('" + TABLE + "') AND c.contype = 'f' AND a.attname = ?",
+                    Integer.class, fk[1]);
+            if (existing != null && existing > 0) {
+                continue;
+            }
+            jdbcTemplate.execute("ALTER TABLE " + TABLE + " ADD CONSTRAINT " + fk[0]
+                    + " FOREIGN KEY (" + fk[1] + ") REFERENCES " + fk[2]);
+            log.info("Added foreign key {} on {}", fk[0], TABLE);
+        }
+    }
+
+    /**
+     * Tạo các partition tháng còn thiếu, từ cận trên lớn nhất hiện có tới tháng này + premake-months
+     */
+    public void ensurePartitions() {
+        LocalDateTime maxUpper = partitions().stream()
+                .map(Partition::upperBound)
+                .filter(upper -> upper != null)
+                .max(LocalDateTime::compareTo)
+                .orElse(null);
+        YearMonth month = maxUpper != null ? YearMonth.from(maxUpper) : YearMonth.now();
+        YearMonth last = YearMonth.now().plusMonths(premakeMonths);
+        for (; !month.isAfter(last); month = month.plusMonths(1)) {
+            String name = TABLE + "_p" + month.format(SUFFIX);
+            if (exists(name)) {
+                continue;
+            }
+            try {
+                jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS " + name + " PARTITION OF " + TABLE
+                        + " FOR VALUES FROM ('" + month.atDay(1).atStartOfDay().format(BOUND) + "') TO ('"
+                        + month.plusMonths(1).atDay(1).atStartOfDay().format(BOUND) + "')");
+                partitionsCreated.incrementAndGet();
+                log.info("Created chat partition {}", name);
+            } catch (Exception e) {
+                // Node khác vừa tạo cùng partition; lần bảo trì sau sẽ thấy nó
+                log.warn("Cannot create chat partition {}: {}", name, e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public String statsName() {
+        return "chatPartitions";
+    }
+
+    @Override
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("migratedThisRun", migrated);
+        stats.put("partitionsCreated", partitionsCreated.get());
+        return stats;
+    }
+}
@@ -0,0 +1,156 @@
+package com.watchtogether.Service;
+
+import java.sql.Timestamp;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.annotation.Order;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Service;
+
+import com.watchtogether.DTO.ChatMessageDTO;
+import com.watchtogether.Entity.jpa.ChatMessage.MessageType;
+import com.watchtogether.util.ChatCursor;
+import com.watchtogether.util.StatsSource;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Tìm kiếm full-text trong chat của một phòng.
+ *
+ * chat_messages có thêm cột content_tsv là tsvector GENERATED ... STORED từ content, nên
+ * Postgres tự cập nhật khi ChatMessageWriter insert, không cần ghi thêm từ ứng dụng.
+ * Index GIN (room_id, content_tsv) (cần extension btree_gin; không có thì chỉ GIN content_tsv)
+ * cho phép lọc phòng và từ khoá trong cùng một index thay vì LIKE '%term%' quét cả bảng.
+ *
+ * Hibernate (ddl-auto=update) không biết cột và index này: chúng được tạo lúc khởi động,
+ * idempotent (IF NOT EXISTS). Lần đầu trên bảng lớn, ADD COLUMN ... STORED ghi lại cả bảng.
+ *
+ * Kết quả sắp mới → cũ và phân trang bằng ChatCursor như lịch sử chat.
+ */
+@Service
+@Slf4j
+public class ChatSearchService implements StatsSource {
+
+    private static final String SELECT_SQL = "SELECT id, type, content, sender_name, timestamp FROM chat_messages "
+            + "WHERE room_id = ? AND content_tsv @@ websearch_to_tsquery(CAST(? AS regconfig), ?) ";
+    private static final String ORDER_SQL = "ORDER BY timestamp DESC, id DESC LIMIT ?";
+
+    /**
+     * Một trang kết quả (mới → cũ); nextCursor null khi đã hết
+     */
+    public record Page(List<ChatMessageDTO> messages, ChatCursor nextCursor) {
+    }
+
+    // ChatMessageDTO không mang id: giữ riêng để dựng cursor
+    private record Hit(long id, ChatMessageDTO message) {
+    }
+
+    private final JdbcTemplate jdbcTemplate;
+    private final String tsConfig;
+    private final boolean manageSchema;
+
+    private final AtomicLong searches = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    public ChatSearchService(JdbcTemplate jdbcTemplate,
+            @Value("${chat.search.ts-config:simple}") String tsConfig,
+            @Value("${chat.search.init-schema:true}") boolean initSchema) {
+        if (!tsConfig.matches("[a-z_]+")) {
+            throw new IllegalArgumentException("Invalid chat.search.ts-config: " + tsConfig);
+        }
+        this.jdbcTemplate = jdbcTemplate;
+        this.tsConfig = tsConfig;
+        this.manageSchema = initSchema;
+    }
+
+    /**
+     * Tạo cột content_tsv và index GIN nếu chưa có (sau khi Hibernate đã cập nhật schema)
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Order(1)
+    public void initSchema() {
+        if (!manageSchema) {
+            return;
+        }
+        long start = System.nanoTime();
+        // Cấu hình ghi cứng trong biểu thức để cột generated là IMMUTABLE
+        jdbcTemplate.execute("ALTER TABLE chat_messages ADD COLUMN IF NOT EXISTS content_tsv tsvector "
+                + "GENERATED ALWAYS AS (to_tsvector('" + tsConfig + "'::regconfig, coalesce(content, ''))) STORED");
+        String indexColumns;
+        try {
+            jdbcTemplate.execute("CREATE EXTENSION IF NOT EXISTS btree_gin");
+            indexColumns = "room_id, content_tsv";
+        } catch (Exception e) {
+            log.warn("btree_gin not available, chat search index covers content only: {}", e.getMessage());
+            indexColumns = "content_tsv";
+        }
+        // CONCURRENTLY: không khoá ghi trong lúc dựng index (JdbcTemplate chạy autocommit).
+        // Postgres không hỗ trợ CONCURRENTLY trên bảng partition: khi đó index được dựng
+        // cho từng partition, partition mới tự có index
+        boolean partitioned = !jdbcTemplate.queryForList(
+                "SELECT 1 FROM pg_class WHERE oid = to_regclass('chat_messages') AND relkind = 'p'").isEmpty();
+        jdbcTemplate.execute("CREATE INDEX " + (partitioned ? "" : "CONCURRENTLY ")
+                + "IF NOT EXISTS idx_chat_messages_content_tsv ON chat_messages USING GIN (" + indexColumns + ")");
+        log.info("Chat search schema ready in {} ms", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    /**
+     * @param query cú pháp websearch: từ khoá, "cụm từ", -loại trừ, or
+     * @param before cursor của trang trước, null = trang mới nhất
+     */
+    public Page search(String roomId, String query, int size, ChatCursor before) {
+        long start = System.nanoTime();
+        RowMapper<Hit> mapper = (rs, rowNum) -> {
+            ChatMessageDTO dto = new ChatMessageDTO();
+            dto.setType(MessageType.valueOf(rs.getString("type")));
+            dto.setContent(rs.getString("content"));
+            dto.setSender(rs.getString("sender_name"));
+            dto.setRoomId(roomId);
+            Timestamp timestamp = rs.getTimestamp("timestamp");
+            dto.setTimestamp(timestamp != null ? timestamp.toLocalDateTime() : null);
+            return new Hit(rs.getLong("id"), dto);
+        };
+        // Lấy thêm 1 dòng để biết còn trang sau hay không
+        List<Hit> rows = before == null
+                ? jdbcTemplate.query(SELECT_SQL + ORDER_SQL, mapper, roomId, tsConfig, query, size + 1)
+                : jdbcTemplate.query(SELECT_SQL + "AND (timestamp, id) < (?, ?) " + ORDER_SQL, mapper,
+                        roomId, tsConfig, query, Timestamp.valueOf(before.timestamp()), before.id(), size + 1);
+        recordLatency(System.nanoTime() - start);
+
+        boolean hasMore = rows.size() > size;
+        List<Hit> page = hasMore ? rows.subList(0, size) : rows;
+        Hit last = hasMore ? page.get(page.size() - 1) : null;
+        return new Page(page.stream().map(Hit::message).toList(),
+                last != null ? new ChatCursor(last.message().getTimestamp(), last.id()) : null);
+    }
+
+    private void recordLatency(long nanos) {
+        searches.incrementAndGet();
+        totalNanos.addAndGet(nanos);
+        maxNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    @Override
+    public String statsName() {
+        return "chatSearch";
+    }
+
+    @Override
+    public Map<String, Object> stats() {
+        long count = searches.get();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("searches", count);
+        stats.put("avgMs", count == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalNanos.get() / count));
+        stats.put("maxMs", TimeUnit.NANOSECONDS.toMillis(maxNanos.get()));
+        return stats;
+    }
+}
@@ -0,0 +1,164 @@
+package com.watchtogether.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.watchtogether.util.StatsSource;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Ghi rooms.online_count từ Redis theo lô.
+ *
+ * Nguồn sự thật là SCARD room:{id}:users; join/leave chỉ đánh dấu phòng "dirty" trên RAM.
+ * Mỗi room.online.flush-interval-ms, flusher đọc SCARD của các phòng dirty trong một pipeline
+ * rồi ghi bằng một câu UPDATE ... FROM unnest(...) duy nhất (bỏ qua dòng không đổi), nên
+ * join/leave/F5 không còn khoá dòng rooms trong Postgres.
+ *
+ * Lúc khởi động, reconcile() thay cho resetAllOnlineCounts: đặt online_count theo SCARD cho
+ * mọi phòng đang có count khác 0 trong DB hoặc có set presence trong Redis.
+ */
+@Component
+@Slf4j
+public class OnlineCountFlusher implements StatsSource {
+
+    private static final String UPDATE_SQL = "UPDATE rooms r SET online_count = v.cnt "
+            + "FROM unnest(?::varchar[], ?::int[]) AS v(room_id, cnt) "
+            + "WHERE r.room_id = v.room_id AND r.online_count IS DISTINCT FROM v.cnt";
+
+    private final RedisTemplate<String, String> redisTemplate;
+    private final JdbcTemplate jdbcTemplate;
+
+    private final Set<String> dirty = ConcurrentHashMap.newKeySet();
+    private final Object flushLock = new Object();
+
+    private final AtomicLong marks = new AtomicLong();
+    private final AtomicLong flushes = new AtomicLong();
+    private final AtomicLong rowsWritten = new AtomicLong();
+    private final AtomicLong reconciled = new AtomicLong();
+
+    public OnlineCountFlusher(RedisTemplate<String, String> redisTemplate, JdbcTemplate jdbcTemplate) {
+        this.redisTemplate = redisTemplate;
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * Số người trong phòng đã đổi (Redis đã cập nhật); DB được ghi ở lần flush tới
+     */
+    public void markDirty(String roomId) {
+        dirty.add(roomId);
+        marks.incrementAndGet();
+    }
+
+    @Scheduled(fixedDelayString = "${room.online.flush-interval-ms:2000}")
+    public void flush() {
+        synchronized (flushLock) {
+            if (dirty.isEmpty()) {
+                return;
+            }
+            List<String> roomIds = new ArrayList<>(dirty);
+            dirty.removeAll(roomIds);
+            try {
+                rowsWritten.addAndGet(write(roomIds));
+                flushes.incrementAndGet();
+            } catch (Exception e) {
+                // Giữ lại để lần flush sau thử lại
+                dirty.addAll(roomIds);
+                log.error("ONLINE COUNT FLUSH FAILED | {} rooms: {}", roomIds.size(), e.getMessage());
+            }
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void reconcile() {
+        try {
+            reconcileAll();
+        } catch (Exception e) {
+            // Không chặn khởi động: các phòng sẽ đúng lại khi có join/leave tiếp theo
+            log.error("ONLINE COUNT RECONCILE FAILED | {}", e.getMessage());
+        }
+    }
+
+    private void reconcileAll() {
+        Set<String> roomIds = new LinkedHashSet<>(
+                jdbcTemplate.queryForList("SELECT room_id FROM rooms WHERE online_count <> 0", String.class));
+        ScanOptions options = ScanOptions.scanOptions()
+                .match(RoomPresenceService.roomKey("*"))
+                .count(1000)
+                .build();
+        try (Cursor<String> keys = redisTemplate.scan(options)) {
+            while (keys.hasNext()) {
+                roomIds.add(RoomPresenceService.roomIdOf(keys.next()));
+            }
+        }
+        if (roomIds.isEmpty()) {
+            return;
+        }
+        synchronized (flushLock) {
+            int rows = write(new ArrayList<>(roomIds));
+            reconciled.addAndGet(rows);
+            log.info("ONLINE COUNT RECONCILE | {} rooms checked, {} rows corrected", roomIds.size(), rows);
+        }
+    }
+
+    // SCARD trong một pipeline rồi một câu UPDATE cho cả lô; trả về số dòng thay đổi
+    private int write(List<String> roomIds) {
+        List<Object> counts = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (String roomId : roomIds) {
+                connection.setCommands().sCard(RoomPresenceService.roomKey(roomId).getBytes(StandardCharsets.UTF_8));
+            }
+            return null;
+        });
+        Integer[] values = new Integer[roomIds.size()];
+        for (int i = 0; i < values.length; i++) {
+            Object count = counts.get(i);
+            values[i] = count instanceof Long n ? n.intValue() : 0;
+        }
+        return jdbcTemplate.update(con -> {
+            PreparedStatement ps = con.prepareStatement(UPDATE_SQL);
+            ps.setArray(1, con.createArrayOf("varchar", roomIds.toArray()));
+            ps.setArray(2, con.createArrayOf("int4", values));
+            return ps;
+        });
+    }
+
+    @PreDestroy
+    public void flushOnShutdown() {
+        flush();
+    }
+
+    @Override
+    public String statsName() {
+        return "onlineCountFlusher";
+    }
+
+    @Override
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("dirtyRooms", dirty.size());
+        stats.put("marks", marks.get());
+        stats.put("flushes", flushes.get());
+        stats.put("rowsWritten", rowsWritten.get());
+        stats.put("reconciled", reconciled.get());
+        return stats;
+    }
+}
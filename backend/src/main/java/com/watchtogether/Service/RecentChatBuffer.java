@@ -0,0 +1,259 @@
+package com.watchtogether.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.watchtogether.DTO.ChatMessageDTO;
+import com.watchtogether.util.StatsSource;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Vòng đệm tin nhắn gần nhất của từng phòng, để lịch sử lúc join không cần xuống Postgres.
+ *
+ * - Được ghi từ ChatController.sendMessage ngay khi broadcast (trước cả khi tin được lưu DB)
+ * - Mỗi phòng giữ tối đa chat.recent.capacity tin; số phòng giữ trên RAM giới hạn bởi
+ *   chat.recent.max-rooms (LRU)
+ * - chat.recent.redis-mirror=true: mọi node đẩy thêm vào list Redis có giới hạn
+ *   (chat:recent:{roomId}), và đọc từ đó thay vì RAM cục bộ, vì node này không thấy
+ *   tin nhắn gửi qua node khác
+ *
+ * recent() trả null khi không chắc đủ dữ liệu; caller khi đó đọc Postgres.
+ */
+@Component
+@Slf4j
+public class RecentChatBuffer implements StatsSource {
+
+    private static final String KEY_PREFIX = "chat:recent:";
+
+    private final RedisTemplate<String, String> redisTemplate;
+    private final ObjectMapper objectMapper;
+    private final int capacity;
+    private final int maxRooms;
+    private final boolean redisMirror;
+    private final long redisTtlSeconds;
+
+    private final LinkedHashMap<String, Ring> rooms;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Tin nhắn trong vòng đệm. timestamp giữ đủ độ chính xác cho cursor
+     * (ChatMessageDTO serialize timestamp chỉ tới giây).
+     */
+    public record Entry(LocalDateTime timestamp, ChatMessageDTO message) {
+    }
+
+    // Vòng đệm của một phòng; complete = chứa toàn bộ lịch sử của phòng
+    private static final class Ring {
+        final Entry[] entries;
+        int head; // vị trí ghi tiếp theo
+        int size;
+        boolean complete;
+
+        Ring(int capacity) {
+            this.entries = new Entry[capacity];
+        }
+
+        void add(Entry entry) {
+            entries[head] = entry;
+            head = (head + 1) % entries.length;
+            if (size < entries.length) {
+                size++;
+            } else {
+                complete = false; // đã ghi đè tin cũ nhất
+            }
+        }
+
+        // i = 0 là tin cũ nhất
+        Entry get(int i) {
+            return entries[(head - size + i + entries.length) % entries.length];
+        }
+
+        List<Entry> last(int count) {
+            int n = Math.min(count, size);
+            List<Entry> result = new ArrayList<>(n);
+            for (int i = size - n; i < size; i++) {
+                result.add(get(i));
+            }
+            return result;
+        }
+    }
+
+    public RecentChatBuffer(RedisTemplate<String, String> redisTemplate, ObjectMapper objectMapper,
+            @Value("${chat.recent.capacity:100}") int capacity,
+            @Value("${chat.recent.max-rooms:5000}") int maxRooms,
+            @Value("${chat.recent.redis-mirror:false}") boolean redisMirror,
+            @Value("${chat.recent.redis-ttl-seconds:86400}") long redisTtlSeconds) {
+        this.redisTemplate = redisTemplate;
+        this.objectMapper = objectMapper;
+        this.capacity = capacity;
+        this.maxRooms = maxRooms;
+        this.redisMirror = redisMirror;
+        this.redisTtlSeconds = redisTtlSeconds;
+        this.rooms = new LinkedHashMap<>(256, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Ring> eldest) {
+                return size() > RecentChatBuffer.this.maxRooms;
+            }
+        };
+    }
+
+    /**
+     * Ghi tin vừa broadcast vào vòng đệm của phòng
+     */
+    public void append(ChatMessageDTO message) {
+        if (message.getRoomId() == null || message.getTimestamp() == null) {
+            return;
+        }
+        Entry entry = new Entry(message.getTimestamp(), message);
+        synchronized (rooms) {
+            Ring ring = rooms.get(message.getRoomId());
+            if (ring == null) {
+                // Phòng chưa có trong RAM: chưa biết lịch sử cũ hơn → không complete
+                ring = new Ring(capacity);
+                rooms.put(message.getRoomId(), ring);
+            }
+            ring.add(entry);
+        }
+        if (redisMirror) {
+            mirror(message.getRoomId(), entry);
+        }
+    }
+
+    /**
+     * limit tin mới nhất (cũ → mới), hoặc null nếu vòng đệm không đủ để trả lời chắc chắn.
+     * Trả về ít hơn limit tin chỉ khi đó là toàn bộ lịch sử của phòng.
+     */
+    public List<Entry> recent(String roomId, int limit) {
+        List<Entry> result = redisMirror ? readMirror(roomId, limit) : readLocal(roomId, limit);
+        if (result == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return result;
+    }
+
+    /**
+     * @return true nếu vòng đệm còn tin cũ hơn những tin đã trả về (hoặc chưa biết)
+     */
+    public boolean mayHaveOlder(String roomId, int returned) {
+        if (redisMirror) {
+            return true;
+        }
+        synchronized (rooms) {
+            Ring ring = rooms.get(roomId);
+            return ring == null || !ring.complete || ring.size > returned;
+        }
+    }
+
+    /**
+     * Nạp trang mới nhất vừa đọc từ Postgres vào vòng đệm (cũ → mới).
+     * Chỉ thêm các tin cũ hơn tin cũ nhất đang có, tránh trùng với tin vừa broadcast.
+     *
+     * @param complete true nếu rows là toàn bộ lịch sử của phòng
+     */
+    public void seed(String roomId, List<Entry> rows, boolean complete) {
+        if (redisMirror) {
+            return;
+        }
+        synchronized (rooms) {
+            Ring existing = rooms.get(roomId);
+            if (existing != null && existing.complete) {
+                return;
+            }
+            LocalDateTime oldest = existing != null && existing.size > 0 ? existing.get(0).timestamp() : null;
+            Ring ring = new Ring(capacity);
+            // Nếu phải ghi đè tin cũ trong lúc nạp, Ring.add tự hạ complete
+            ring.complete = complete;
+            for (Entry row : rows) {
+                if (oldest == null || row.timestamp().isBefore(oldest)) {
+                    ring.add(row);
+                }
+            }
+            if (existing != null) {
+                for (int i = 0; i < existing.size; i++) {
+                    ring.add(existing.get(i));
+                }
+            }
+            rooms.put(roomId, ring);
+        }
+    }
+
+    private List<Entry> readLocal(String roomId, int limit) {
+        synchronized (rooms) {
+            Ring ring = rooms.get(roomId);
+            if (ring == null || (ring.size < limit && !ring.complete)) {
+                return null;
+            }
+            return ring.last(limit);
+        }
+    }
+
+    private void mirror(String roomId, Entry entry) {
+        try {
+            byte[] key = (KEY_PREFIX + roomId).getBytes(StandardCharsets.UTF_8);
+            byte[] value = (entry.timestamp() + "|" + objectMapper.writeValueAsString(entry.message()))
+                    .getBytes(StandardCharsets.UTF_8);
+            redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                connection.listCommands().rPush(key, value);
+                connection.listCommands().lTrim(key, -capacity, -1);
+                connection.keyCommands().expire(key, redisTtlSeconds);
+                return null;
+            });
+        } catch (Exception e) {
+            log.warn("Cannot mirror chat message of room {} to Redis: {}", roomId, e.getMessage());
+        }
+    }
+
+    private List<Entry> readMirror(String roomId, int limit) {
+        try {
+            List<String> raw = redisTemplate.opsForList().range(KEY_PREFIX + roomId, -limit, -1);
+            // List Redis không biết lịch sử cũ hơn: chỉ dùng khi đủ limit tin
+            if (raw == null || raw.size() < limit) {
+                return null;
+            }
+            List<Entry> result = new ArrayList<>(raw.size());
+            for (String item : raw) {
+                int sep = item.indexOf('|');
+                result.add(new Entry(LocalDateTime.parse(item.substring(0, sep)),
+                        objectMapper.readValue(item.substring(sep + 1), ChatMessageDTO.class)));
+            }
+            return result;
+        } catch (Exception e) {
+            log.warn("Cannot read recent chat of room {} from Redis: {}", roomId, e.getMessage());
+            return null;
+        }
+    }
+
+    @Override
+    public String statsName() {
+        return "recentChatBuffer";
+    }
+
+    @Override
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        synchronized (rooms) {
+            stats.put("rooms", rooms.size());
+        }
+        stats.put("capacity", capacity);
+        stats.put("redisMirror", redisMirror);
+        stats.put("hits", hits.get());
+        stats.put("misses", misses.get());
+        return stats;
+    }
+}
@@ -0,0 +1,87 @@
+package com.watchtogether.Service;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Bộ tuần tự hoá sự kiện theo phòng (per-room single writer).
+ *
+ * Mỗi key (thường là roomId) có một mailbox riêng. Các task của cùng một key luôn
+ * chạy lần lượt theo đúng thứ tự submit, trên một virtual thread tại một thời điểm.
+ * Các key khác nhau chạy song song, không có lock toàn cục.
+ * Mailbox rỗng sẽ tự bị gỡ khỏi map để không giữ bộ nhớ cho phòng đã im lặng.
+ */
+@Component
+@Slf4j
+public class RoomEventSequencer {
+
+    private final ConcurrentHashMap<String, Mailbox> mailboxes = new ConcurrentHashMap<>();
+    private final ExecutorService workers = Executors.newVirtualThreadPerTaskExecutor();
+
+    /**
+     * Đưa task vào hàng đợi của key, đảm bảo thứ tự với các task trước đó cùng key
+     */
+    public void submit(String key, Runnable task) {
+        // Offer bên trong compute để không lọt task vào mailbox vừa bị gỡ
+        Mailbox box = mailboxes.compute(key, (k, existing) -> {
+            Mailbox b = existing != null ? existing : new Mailbox(k);
+            b.queue.offer(task);
+            return b;
+        });
+        box.schedule();
+    }
+
+    public int activeMailboxes() {
+        return mailboxes.size();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        workers.shutdown();
+    }
+
+    private final class Mailbox {
+        private final String key;
+        private final Queue<Runnable> queue = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+        Mailbox(String key) {
+            this.key = key;
+        }
+
+        void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                workers.execute(this::drain);
+            }
+        }
+
+        void drain() {
+            while (true) {
+                Runnable task;
+                while ((task = queue.poll()) != null) {
+                    try {
+                        task.run();
+                    } catch (Exception e) {
+                        log.error("Sequenced task failed for {}: {}", key, e.getMessage(), e);
+                    }
+                }
+                scheduled.set(false);
+
+                // Có task mới lọt vào sau lần poll cuối → tự giành lại quyền drain
+                if (queue.isEmpty() || !scheduled.compareAndSet(false, true)) {
+                    break;
+                }
+            }
+            mailboxes.computeIfPresent(key, (k, b) -> b == this && b.queue.isEmpty() && !b.scheduled.get() ? null : b);
+        }
+    }
+}
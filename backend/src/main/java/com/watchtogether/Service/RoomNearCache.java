@@ -0,0 +1,191 @@
+package com.watchtogether.Service;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import com.watchtogether.Entity.redis.Room;
+import com.watchtogether.util.StatsSource;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Near-cache cục bộ cho Redis Room (Entity.redis.Room) trên đường sync nóng.
+ *
+ * - Giới hạn kích thước (LRU), entry hết hạn sau min(room.cache.ttl-seconds, timeToLive của phòng)
+ * - Khi một node ghi phòng, node đó publish roomId lên kênh Redis ROOM_CACHE_CHANNEL;
+ *   các node khác xoá entry tương ứng khỏi cache của mình
+ * - Luôn trả về bản sao để caller sửa thoải mái mà không làm bẩn cache
+ * - Thành phần giữ trạng thái phòng riêng (VideoSyncService) đăng ký onRemoteInvalidation để
+ *   bỏ bản của mình cùng lúc
+ */
+@Component
+@Slf4j
+public class RoomNearCache implements StatsSource {
+
+    public static final String ROOM_CACHE_CHANNEL = "room-cache:invalidate";
+
+    private final RedisTemplate<String, String> redisTemplate;
+    private final RedisMessageListenerContainer listenerContainer;
+    private final int maxEntries;
+    private final long ttlMs;
+
+    // Id của node hiện tại, để bỏ qua message invalidate do chính mình gửi
+    private final String nodeId = UUID.randomUUID().toString();
+
+    private final LinkedHashMap<String, Entry> entries;
+
+    private final List<Consumer<String>> remoteListeners = new CopyOnWriteArrayList<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong expirations = new AtomicLong();
+    private final AtomicLong remoteInvalidations = new AtomicLong();
+
+    private record Entry(Room room, long expiresAt) {
+    }
+
+    public RoomNearCache(RedisTemplate<String, String> redisTemplate,
+            RedisMessageListenerContainer listenerContainer,
+            @Value("${room.cache.max-entries:10000}") int maxEntries,
+            @Value("${room.cache.ttl-seconds:30}") long ttlSeconds) {
+        this.redisTemplate = redisTemplate;
+        this.listenerContainer = listenerContainer;
+        this.maxEntries = maxEntries;
+        this.ttlMs = ttlSeconds * 1000;
+        // accessOrder = true → LinkedHashMap hoạt động như LRU
+        this.entries = new LinkedHashMap<>(256, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if (size() > RoomNearCache.this.maxEntries) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    @PostConstruct
+    public void subscribe() {
+        listenerContainer.addMessageListener((message, pattern) -> {
+            String body = new String(message.getBody());
+            int sep = body.indexOf('|');
+            if (sep < 0 || body.substring(0, sep).equals(nodeId)) {
+                return;
+            }
+            String roomId = body.substring(sep + 1);
+            evictLocal(roomId);
+            remoteInvalidations.incrementAndGet();
+            for (Consumer<String> listener : remoteListeners) {
+                listener.accept(roomId);
+            }
+        }, new ChannelTopic(ROOM_CACHE_CHANNEL));
+    }
+
+    /**
+     * Gọi listener (trên thread của listener container, không được chặn lâu) mỗi khi node khác
+     * ghi một phòng
+     */
+    public void onRemoteInvalidation(Consumer<String> listener) {
+        remoteListeners.add(listener);
+    }
+
+    /**
+     * @return bản sao của room trong cache, hoặc null nếu chưa có / đã hết hạn
+     */
+    public Room get(String roomId) {
+        synchronized (entries) {
+            Entry entry = entries.get(roomId);
+            if (entry == null) {
+                misses.incrementAndGet();
+                return null;
+            }
+            if (entry.expiresAt() <= System.currentTimeMillis()) {
+                entries.remove(roomId);
+                expirations.incrementAndGet();
+                misses.incrementAndGet();
+                return null;
+            }
+            hits.incrementAndGet();
+            return entry.room().toBuilder().build();
+        }
+    }
+
+    /**
+     * Đưa room vào cache sau khi đọc từ Redis (không thông báo node khác)
+     */
+    public void put(Room room) {
+        if (room == null || room.getId() == null) {
+            return;
+        }
+        long ttl = ttlMs;
+        if (room.getTimeToLive() != null && room.getTimeToLive() > 0) {
+            ttl = Math.min(ttl, room.getTimeToLive() * 1000);
+        }
+        Entry entry = new Entry(room.toBuilder().build(), System.currentTimeMillis() + ttl);
+        synchronized (entries) {
+            entries.put(room.getId(), entry);
+        }
+    }
+
+    /**
+     * Gọi sau khi node này ghi room xuống Redis: cập nhật cache và báo các node khác xoá bản cũ
+     */
+    public void putAndPublish(Room room) {
+        put(room);
+        publishInvalidation(room.getId());
+    }
+
+    public void invalidate(String roomId) {
+        evictLocal(roomId);
+        publishInvalidation(roomId);
+    }
+
+    private void evictLocal(String roomId) {
+        synchronized (entries) {
+            entries.remove(roomId);
+        }
+    }
+
+    private void publishInvalidation(String roomId) {
+        try {
+            redisTemplate.convertAndSend(ROOM_CACHE_CHANNEL, nodeId + "|" + roomId);
+        } catch (Exception e) {
+            // Node khác sẽ tự làm mới khi entry hết TTL
+            log.warn("Cannot publish room cache invalidation for {}: {}", roomId, e.getMessage());
+        }
+    }
+
+    @Override
+    public String statsName() {
+        return "roomNearCache";
+    }
+
+    @Override
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        synchronized (entries) {
+            stats.put("size", entries.size());
+        }
+        stats.put("maxEntries", maxEntries);
+        stats.put("hits", hits.get());
+        stats.put("misses", misses.get());
+        stats.put("evictions", evictions.get());
+        stats.put("expirations", expirations.get());
+        stats.put("remoteInvalidations", remoteInvalidations.get());
+        return stats;
+    }
+}
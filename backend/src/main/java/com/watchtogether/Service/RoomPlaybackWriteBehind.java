@@ -0,0 +1,186 @@
+package com.watchtogether.Service;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.watchtogether.Entity.jpa.Room;
+import com.watchtogether.Repository.jpa.RoomRepository;
+import com.watchtogether.util.StatsSource;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Trạng thái phát video (JPA rooms) nằm trên RAM, ghi xuống Postgres theo lô (write-behind).
+ *
+ * Mỗi play/pause/seek chỉ cập nhật map trong bộ nhớ và đánh dấu phòng "dirty".
+ * Flusher chạy mỗi room.state.flush-interval-ms, gom mọi phòng dirty thành một
+ * batch UPDATE duy nhất. Số lần ghi Postgres vì vậy không phụ thuộc số lần user bấm.
+ *
+ * Giới hạn mất dữ liệu: nếu process chết đột ngột, chỉ mất các thay đổi trong
+ * khoảng một chu kỳ flush. Flush thêm khi số phòng dirty vượt room.state.max-dirty
+ * (trên virtual thread riêng, không chặn thread STOMP inbound), khi phòng trống (đóng phòng)
+ * và khi shutdown.
+ *
+ * Chỉ phòng có trong bảng rooms mới được theo dõi: roomId lạ từ client bị bỏ, không tạo
+ * entry trong map. Phòng đã có entry thì không kiểm tra lại (entry chỉ mất khi flushAndForget).
+ */
+@Component
+@Slf4j
+public class RoomPlaybackWriteBehind implements StatsSource {
+
+    private static final String UPDATE_SQL = "UPDATE rooms SET current_video_id = ?, current_time_value = ?, is_playing = ? WHERE room_id = ?";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final RoomRepository roomRepository;
+    private final int maxDirty;
+
+    private final Map<String, PlaybackState> states = new ConcurrentHashMap<>();
+    private final Set<String> dirty = ConcurrentHashMap.newKeySet();
+    private final Object flushLock = new Object();
+    // Đã có một lần flush sớm (vượt max-dirty) đang chờ chạy
+    private final AtomicBoolean earlyFlushPending = new AtomicBoolean();
+
+    private final AtomicLong updates = new AtomicLong();
+    private final AtomicLong unknownRooms = new AtomicLong();
+    private final AtomicLong flushes = new AtomicLong();
+    private final AtomicLong rowsWritten = new AtomicLong();
+
+    public record PlaybackState(String videoId, double currentTime, boolean playing) {
+    }
+
+    public RoomPlaybackWriteBehind(JdbcTemplate jdbcTemplate, RoomRepository roomRepository,
+            @Value("${room.state.max-dirty:500}") int maxDirty) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.roomRepository = roomRepository;
+        this.maxDirty = maxDirty;
+    }
+
+    /**
+     * Ghi nhận trạng thái mới của phòng (chỉ trên RAM)
+     *
+     * @return false nếu phòng không tồn tại (không ghi nhận gì)
+     */
+    public boolean update(String roomId, String videoId, double time, boolean isPlaying) {
+        if (roomId == null || (!states.containsKey(roomId) && !roomRepository.existsById(roomId))) {
+            unknownRooms.incrementAndGet();
+            return false;
+        }
+        states.compute(roomId, (id, old) -> new PlaybackState(
+                videoId != null ? videoId : (old != null ? old.videoId() : null),
+                time,
+                isPlaying));
+        dirty.add(roomId);
+        updates.incrementAndGet();
+
+        if (dirty.size() >= maxDirty && earlyFlushPending.compareAndSet(false, true)) {
+            Thread.ofVirtual().name("playback-flush").start(() -> {
+                try {
+                    flush();
+                } finally {
+                    earlyFlushPending.set(false);
+                }
+            });
+        }
+        return true;
+    }
+
+    /**
+     * Ghi đè trạng thái trên RAM (mới hơn DB) lên entity trước khi entity được đọc/lưu,
+     * tránh việc save() toàn entity ghi lại giá trị cũ.
+     */
+    public void applyTo(Room room) {
+        if (room == null) {
+            return;
+        }
+        PlaybackState state = states.get(room.getRoomId());
+        if (state != null) {
+            if (state.videoId() != null) {
+                room.setCurrentVideoId(state.videoId());
+            }
+            room.setCurrentTime(state.currentTime());
+            room.setPlaying(state.playing());
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${room.state.flush-interval-ms:1000}")
+    public void flush() {
+        synchronized (flushLock) {
+            if (dirty.isEmpty()) {
+                return;
+            }
+            List<String> roomIds = new ArrayList<>(dirty);
+            dirty.removeAll(roomIds);
+            writeBatch(roomIds);
+        }
+    }
+
+    /**
+     * Flush ngay một phòng (ví dụ khi phòng trống) và bỏ trạng thái khỏi RAM
+     */
+    public void flushAndForget(String roomId) {
+        synchronized (flushLock) {
+            if (dirty.remove(roomId)) {
+                writeBatch(List.of(roomId));
+            }
+            states.remove(roomId);
+        }
+    }
+
+    private void writeBatch(List<String> roomIds) {
+        List<Object[]> args = new ArrayList<>(roomIds.size());
+        for (String roomId : roomIds) {
+            PlaybackState state = states.get(roomId);
+            if (state != null && state.videoId() != null) {
+                args.add(new Object[] { state.videoId(), state.currentTime(), state.playing(), roomId });
+            }
+        }
+        if (args.isEmpty()) {
+            return;
+        }
+        try {
+            jdbcTemplate.batchUpdate(UPDATE_SQL, args);
+            flushes.incrementAndGet();
+            rowsWritten.addAndGet(args.size());
+            log.debug("PLAYBACK FLUSH | {} rooms written", args.size());
+        } catch (Exception e) {
+            // Giữ lại để lần flush sau thử lại
+            dirty.addAll(roomIds);
+            log.error("PLAYBACK FLUSH FAILED | {} rooms: {}", roomIds.size(), e.getMessage(), e);
+        }
+    }
+
+    @PreDestroy
+    public void flushOnShutdown() {
+        log.info("PLAYBACK FLUSH | Shutdown, writing {} dirty rooms", dirty.size());
+        flush();
+    }
+
+    @Override
+    public String statsName() {
+        return "playbackWriteBehind";
+    }
+
+    @Override
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("trackedRooms", states.size());
+        stats.put("dirtyRooms", dirty.size());
+        stats.put("updates", updates.get());
+        stats.put("unknownRooms", unknownRooms.get());
+        stats.put("flushes", flushes.get());
+        stats.put("rowsWritten", rowsWritten.get());
+        return stats;
+    }
+}
@@ -1,46 +1,297 @@
 package com.watchtogether.Service;
 
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 
+import org.springframework.context.event.ContextClosedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.messaging.simp.SimpMessageSendingOperations;
 import org.springframework.stereotype.Service;
 
-import com.watchtogether.Repository.jpa.RoomRepository;
+import com.watchtogether.DTO.Response.MembersDelta;
 
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
 
+/**
+ * Presence của phòng trên Redis (set room:{id}:users).
+ *
+ * Mỗi thay đổi là một lần chạy PRESENCE_SCRIPT: SADD + EXPIRE (hoặc SREM) trong một round trip,
+ * trả về các username thực sự được thêm/xoá và số người (SCARD). Cả phòng chỉ nhận phần thay đổi
+ * (/topic/room/{id}/members/delta, xem publishDelta); danh sách đầy đủ (SMEMBERS) chỉ được đọc
+ * khi gửi riêng cho người vừa join (getOnlineUsers → /user/queue/members).
+ * Bản bulk gửi các script của nhiều phòng trong một pipeline (node drain). Danh sách username
+ * được chia thành từng lô USERNAMES_PER_CALL để một lần chạy script không chặn Redis quá lâu.
+ *
+ * Không có bản bulk add: client kết nối lại đăng ký từng session qua /app/room/{id}/register,
+ * không có chỗ nào có sẵn cả lô để gộp, và mỗi lần join giờ chỉ trả về một username.
+ */
 @Service
+@Slf4j
 @RequiredArgsConstructor
 public class RoomPresenceService {
-    private final RoomRepository roomRepository;
+    private static final String KEY_PREFIX = "room:";
+    private static final String KEY_SUFFIX = ":users";
+    private static final long KEY_TTL_SECONDS = TimeUnit.HOURS.toSeconds(24);
+    // Số username tối đa trong một lần chạy script
+    static final int USERNAMES_PER_CALL = 1000;
+
+    // KEYS[1] = room:{id}:users, ARGV[1] = add|rem, ARGV[2] = TTL (giây), ARGV[3..] = username
+    // Trả về {SCARD, các username thực sự được thêm/xoá}
+    static final String PRESENCE_SCRIPT = """
+            local op = ARGV[1] == 'add' and 'SADD' or 'SREM'
+            local changed = {}
+            for i = 3, #ARGV do
+              if redis.call(op, KEYS[1], ARGV[i]) == 1 then
+                changed[#changed + 1] = ARGV[i]
+              end
+            end
+            if ARGV[1] == 'add' then
+              redis.call('EXPIRE', KEYS[1], ARGV[2])
+            end
+            return {redis.call('SCARD', KEYS[1]), changed}
+            """;
+    private static final RedisScript<List> PRESENCE = new DefaultRedisScript<>(PRESENCE_SCRIPT, List.class);
+
+    /**
+     * Kết quả một lần thay đổi presence
+     *
+     * @param added   username thực sự được thêm (chưa có trong phòng)
+     * @param removed username thực sự được xoá
+     * @param count   số người trong phòng sau thay đổi (SCARD)
+     */
+    public record PresenceChange(String roomId, List<String> added, List<String> removed, long count) {
+
+        public boolean isChanged() {
+            return !added.isEmpty() || !removed.isEmpty();
+        }
+    }
+
     private final RedisTemplate<String, String> redisTemplate;
+    private final OnlineCountFlusher onlineCountFlusher;
+    private final SimpMessageSendingOperations messagingTemplate;
+
+    // Các username đã đăng ký qua node này, để gỡ hàng loạt khi node dừng
+    private final Map<String, Set<String>> localMembers = new ConcurrentHashMap<>();
 
     // Key chuẩn: room:{id}:users
+    public static String roomKey(String roomId) {
+        return KEY_PREFIX + roomId + KEY_SUFFIX;
+    }
+
+    public static String roomIdOf(String roomKey) {
+        return roomKey.substring(KEY_PREFIX.length(), roomKey.length() - KEY_SUFFIX.length());
+    }
+
     private String getRoomKey(String roomId) {
-        return "room:" + roomId + ":users";
+        return roomKey(roomId);
+    }
+
+    public PresenceChange addUser(String roomId, String username) {
+        PresenceChange change = apply(roomId, true, List.of(username));
+        localMembers.computeIfAbsent(roomId, id -> ConcurrentHashMap.newKeySet()).add(username);
+        return change;
+    }
+
+    public PresenceChange removeUser(String roomId, String username) {
+        PresenceChange change = apply(roomId, false, List.of(username));
+        forgetLocal(roomId, List.of(username));
+        return change;
+    }
+
+    /**
+     * Gỡ nhiều user khỏi nhiều phòng trong một pipeline
+     */
+    public Map<String, PresenceChange> removeUsers(Map<String, ? extends Collection<String>> usersByRoom) {
+        Map<String, PresenceChange> changes = applyBulk(usersByRoom, false);
+        usersByRoom.forEach(this::forgetLocal);
+        return changes;
+    }
+
+    // Context bắt đầu đóng: broker còn chạy nên /members vẫn tới được client (khác @PreDestroy)
+    @EventListener(ContextClosedEvent.class)
+    public void onContextClosed() {
+        drain();
+    }
+
+    /**
+     * Gỡ mọi user đã đăng ký qua node này (node drain / shutdown) và gửi /members mới cho các
+     * phòng bị ảnh hưởng
+     */
+    public Map<String, PresenceChange> drain() {
+        Map<String, List<String>> snapshot = new LinkedHashMap<>();
+        localMembers.forEach((roomId, usernames) -> {
+            if (!usernames.isEmpty()) {
+                snapshot.put(roomId, new ArrayList<>(usernames));
+            }
+        });
+        if (snapshot.isEmpty()) {
+            return Map.of();
+        }
+        try {
+            Map<String, PresenceChange> changes = removeUsers(snapshot);
+            log.info("PRESENCE DRAIN | Removed local users from {} rooms", changes.size());
+            changes.values().forEach(this::publishDelta);
+            return changes;
+        } catch (Exception e) {
+            log.error("PRESENCE DRAIN FAILED | {} rooms: {}", snapshot.size(), e.getMessage());
+            return Map.of();
+        }
+    }
+
+    /**
+     * Gửi phần thay đổi thành viên cho cả phòng (bỏ qua nếu không có gì thay đổi, ví dụ cùng
+     * username join từ tab thứ hai)
+     */
+    public void publishDelta(PresenceChange change) {
+        if (!change.isChanged()) {
+            return;
+        }
+        try {
+            messagingTemplate.convertAndSend("/topic/room/" + change.roomId() + "/members/delta",
+                    new MembersDelta(change.added(), change.removed(), change.count()));
+        } catch (Exception e) {
+            log.warn("PRESENCE | Cannot publish members delta of room {}: {}", change.roomId(), e.getMessage());
+        }
+    }
+
+    private PresenceChange apply(String roomId, boolean add, List<String> usernames) {
+        PresenceChange change = null;
+        for (List<String> chunk : chunks(usernames)) {
+            List<String> args = new ArrayList<>(chunk.size() + 2);
+            args.add(add ? "add" : "rem");
+            args.add(String.valueOf(KEY_TTL_SECONDS));
+            args.addAll(chunk);
+            List<?> result = redisTemplate.execute(PRESENCE, List.of(getRoomKey(roomId)), args.toArray());
+            change = merge(change, toChange(roomId, add, result));
+        }
+        return change;
+    }
+
+    private Map<String, PresenceChange> applyBulk(Map<String, ? extends Collection<String>> usersByRoom, boolean add) {
+        List<String> roomIds = new ArrayList<>();
+        usersByRoom.forEach((roomId, usernames) -> {
+            if (!usernames.isEmpty()) {
+                roomIds.add(roomId);
+            }
+        });
+        if (roomIds.isEmpty()) {
+            return Map.of();
+        }
+        byte[] script = PRESENCE_SCRIPT.getBytes(StandardCharsets.UTF_8);
+        byte[] op = (add ? "add" : "rem").getBytes(StandardCharsets.UTF_8);
+        byte[] ttl = String.valueOf(KEY_TTL_SECONDS).getBytes(StandardCharsets.UTF_8);
+        // Mỗi lô là một script; SCARD của lô cuối là số người sau mọi thay đổi
+        List<String> callRooms = new ArrayList<>();
+        List<List<String>> callUsernames = new ArrayList<>();
+        for (String roomId : roomIds) {
+            for (List<String> chunk : chunks(usersByRoom.get(roomId))) {
+                callRooms.add(roomId);
+                callUsernames.add(chunk);
+            }
+        }
+        List<Object> results = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (int call = 0; call < callRooms.size(); call++) {
+                List<String> usernames = callUsernames.get(call);
+                byte[][] keysAndArgs = new byte[usernames.size() + 3][];
+                keysAndArgs[0] = getRoomKey(callRooms.get(call)).getBytes(StandardCharsets.UTF_8);
+                keysAndArgs[1] = op;
+                keysAndArgs[2] = ttl;
+                int i = 3;
+                for (String username : usernames) {
+                    keysAndArgs[i++] = username.getBytes(StandardCharsets.UTF_8);
+                }
+                connection.scriptingCommands().eval(script, ReturnType.MULTI, 1, keysAndArgs);
+            }
+            return null;
+        });
+        Map<String, PresenceChange> changes = new LinkedHashMap<>();
+        for (int call = 0; call < callRooms.size(); call++) {
+            String roomId = callRooms.get(call);
+            changes.put(roomId, merge(changes.get(roomId), toChange(roomId, add, (List<?>) results.get(call))));
+        }
+        return changes;
+    }
+
+    private static List<List<String>> chunks(Collection<String> usernames) {
+        List<String> all = new ArrayList<>(usernames);
+        List<List<String>> chunks = new ArrayList<>((all.size() + USERNAMES_PER_CALL - 1) / USERNAMES_PER_CALL);
+        for (int from = 0; from < all.size(); from += USERNAMES_PER_CALL) {
+            chunks.add(all.subList(from, Math.min(all.size(), from + USERNAMES_PER_CALL)));
+        }
+        return chunks;
+    }
+
+    // Nối các username thay đổi; count lấy theo lần chạy sau cùng
+    static PresenceChange merge(PresenceChange previous, PresenceChange next) {
+        if (previous == null) {
+            return next;
+        }
+        return new PresenceChange(next.roomId(), concat(previous.added(), next.added()),
+                concat(previous.removed(), next.removed()), next.count());
     }
 
-    public void addUser(String roomId, String username) {
-        String key = getRoomKey(roomId);
-        // add to redis
-        Long added = redisTemplate.opsForSet().add(key, username);
-        if (added != null && added > 0) {
-            roomRepository.incrementOnlineCount(roomId);
+    private static List<String> concat(List<String> a, List<String> b) {
+        if (a.isEmpty()) {
+            return b;
+        }
+        if (b.isEmpty()) {
+            return a;
         }
-        redisTemplate.expire(key, 24, TimeUnit.HOURS);
+        List<String> all = new ArrayList<>(a.size() + b.size());
+        all.addAll(a);
+        all.addAll(b);
+        return all;
     }
 
-    public void removeUser(String roomId, String username) {
-        String key = getRoomKey(roomId);
-        Long removed = redisTemplate.opsForSet().remove(key, username);
-        // Chỉ giảm DB nếu xóa thành công
-        if (removed != null && removed > 0) {
-            roomRepository.decrementOnlineCount(roomId);
+    // {card, changed}; username có thể là String (đã qua serializer) hoặc byte[] (pipeline)
+    PresenceChange toChange(String roomId, boolean add, List<?> result) {
+        if (result == null || result.size() < 2) {
+            return new PresenceChange(roomId, List.of(), List.of(), 0);
         }
+        List<String> changed = new ArrayList<>();
+        for (Object username : (List<?>) result.get(1)) {
+            changed.add(username instanceof byte[] bytes ? new String(bytes, StandardCharsets.UTF_8) : String.valueOf(username));
+        }
+        long count = ((Number) result.get(0)).longValue();
+        PresenceChange change = add ? new PresenceChange(roomId, changed, List.of(), count)
+                : new PresenceChange(roomId, List.of(), changed, count);
+        // online_count trong DB được ghi theo lô từ SCARD (OnlineCountFlusher)
+        if (change.isChanged()) {
+            onlineCountFlusher.markDirty(roomId);
+        }
+        return change;
+    }
+
+    private void forgetLocal(String roomId, Collection<String> usernames) {
+        localMembers.computeIfPresent(roomId, (id, members) -> {
+            members.removeAll(usernames);
+            return members.isEmpty() ? null : members;
+        });
+    }
+
+    // Số người online hiện tại (nguồn sự thật; rooms.online_count có thể trễ một chu kỳ flush)
+    public long getOnlineCount(String roomId) {
+        Long count = redisTemplate.opsForSet().size(getRoomKey(roomId));
+        return count != null ? count : 0;
     }
 
+    /**
+     * Danh sách đầy đủ (SMEMBERS): chỉ dùng cho bản chụp gửi riêng một session, không broadcast
+     */
     public Set<String> getOnlineUsers(String roomId) {
         Set<String> members = redisTemplate.opsForSet().members(getRoomKey(roomId));
         return members != null ? members : Collections.emptySet();
@@ -29,6 +29,7 @@ public class RoomService {
         private final ParticipantRepository participantRepository; // Dùng để tương tác với postgreSQL
         private final JwtService jwtService;
         private final RoomEventPublisher eventPublisher;
+        private final RoomNearCache roomNearCache;
 
         private static final String CHARS = "ABCDEFGHJKLMNPQRSTUVWXYZ23456789";
         private static final SecureRandom RANDOM = new SecureRandom();
@@ -44,11 +45,13 @@ public class RoomService {
                                 .inviteCode(inviteCode)
                                 .playbackState("PAUSED")
                                 .lastPosition(0.0)
+                                .playbackRate(1.0)
                                 .createdAt(Instant.now())
                                 .lastSyncAt(Instant.now())
                                 .timeToLive(86400L) // Set phòng tự hủy sau 24 giờ
                                 .build();
                 roomRedisRepository.save(newRoom); // Thao tác này sẽ lưu object vào Redis.
+                roomNearCache.put(newRoom);
 
                 // --- BƯỚC 2: TẠO DỮ LIỆU HOST VÀ LƯU VÀO MYSQL ---
                 String hostId = UUID.randomUUID().toString();
@@ -172,33 +175,49 @@ public class RoomService {
         }
 
         /**
-         * Check if room exists in Redis
+         * Check if room exists (near-cache first, then Redis)
          * 
          * @param roomId the room ID to check
          * @return true if room exists, false otherwise
          */
         public boolean roomExists(String roomId) {
-                if (roomId == null || roomId.isEmpty()) {
-                        return false;
-                }
-                return roomRedisRepository.existsById(roomId);
+                // getRoom nạp luôn room vào near-cache, lần kiểm tra sau không cần Redis
+                return getRoom(roomId) != null;
         }
 
         /**
-         * Get room data from Redis
+         * Get room data (near-cache first, then Redis)
          * 
          * @param roomId the room ID
-         * @return Room object or null if not found
+         * @return Room object (a private copy) or null if not found
          */
         public Room getRoom(String roomId) {
                 if (roomId == null || roomId.isEmpty()) {
                         return null;
                 }
-                return roomRedisRepository.findById(roomId).orElse(null);
+                Room cached = roomNearCache.get(roomId);
+                if (cached != null) {
+                        return cached;
+                }
+                Room room = roomRedisRepository.findById(roomId).orElse(null);
+                roomNearCache.put(room);
+                return room;
+        }
+
+        /**
+         * Read room straight from Redis (bypassing the near-cache), e.g. after a version conflict
+         * 
+         * @param roomId the room ID
+         * @return Room object or null if not found
+         */
+        public Room reloadRoom(String roomId) {
+                Room room = roomRedisRepository.findById(roomId).orElse(null);
+                roomNearCache.put(room);
+                return room;
         }
 
         /**
-         * Save room data to Redis
+         * Save room data to Redis and refresh near-caches on every node
          * 
          * @param room the room object to save
          * @return saved room object
@@ -207,7 +226,9 @@ public class RoomService {
                 if (room == null) {
                         throw new IllegalArgumentException("Room cannot be null");
                 }
-                return roomRedisRepository.save(room);
+                Room saved = roomRedisRepository.save(room);
+                roomNearCache.putAndPublish(saved);
+                return saved;
         }
 
         // Sanitize list: remove nulls, distinct by id
@@ -6,6 +6,7 @@ import com.watchtogether.Entity.jpa.User;
 import com.watchtogether.Entity.jpa.VideoItem;
 import com.watchtogether.Repository.jpa.RoomParticipantRepository;
 import com.watchtogether.Repository.jpa.RoomRepository;
+import com.watchtogether.Repository.jpa.UserIdentity;
 import com.watchtogether.Repository.jpa.UserRepository;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -27,10 +28,15 @@ public class RoomServiceJPA {
     private UserRepository userRepository;
     @Autowired
     private RoomParticipantRepository participantRepository;
+    @Autowired
+    private RoomPlaybackWriteBehind playbackWriteBehind;
+    @Autowired
+    private UserIdentityCache userIdentityCache;
 
     // --- LOGIC TẠO PHÒNG MỚI ---
     public Room createRoom(String roomName, String username) {
-        // 1. Kiểm tra User có tồn tại không
+        // 1. Kiểm tra User có tồn tại không. Không qua cache định danh: Room được trả thẳng ra JSON
+        // nên host phải là entity thật, đằng nào cũng một SELECT users
         User host = userRepository.findByName(username)
                 .orElseThrow(() -> new RuntimeException("User not found: " + username));
 
@@ -58,21 +64,29 @@ public class RoomServiceJPA {
         // 1. Tìm Room trong DB, nếu chưa có thì tạo mới
         Room room = roomRepository.findById(roomId)
                 .orElseThrow(() -> new RuntimeException("Room not found: " + roomId));
-
-        // 2. Tìm User trong DB. Nếu là Guest (chưa có), tự động tạo User tạm
-        User user = userRepository.findByName(username).orElseGet(() -> {
-            User newUser = User.builder()
-                    .name(username)
-                    .email(username + "@guest.com") // Tạo email giả để thỏa mãn Unique constraint
-                    .password("guest_pass") // Password giả
-                    .build();
-            return userRepository.save(newUser);
-        });
+        // Trạng thái video mới nhất nằm trên RAM (write-behind), ghi đè lên bản đọc từ DB
+        playbackWriteBehind.applyTo(room);
+
+        // 2. Tìm User qua cache định danh; chỉ cần id nên dùng reference (không SELECT users).
+        // Nếu là Guest (chưa có), tự động tạo User tạm
+        User user = userIdentityCache.findByName(username)
+                .map(identity -> userRepository.getReferenceById(identity.id()))
+                .orElseGet(() -> {
+                    User newUser = User.builder()
+                            .name(username)
+                            .email(username + "@guest.com") // Tạo email giả để thỏa mãn Unique constraint
+                            .password("guest_pass") // Password giả
+                            .build();
+                    User saved = userRepository.save(newUser);
+                    userIdentityCache.put(UserIdentity.of(saved));
+                    return saved;
+                });
 
         RoomParticipant.Role role = RoomParticipant.Role.GUEST;
         // Nếu phòng chưa có host -> Người đầu tiên vào là Host
+        // (nạp entity thật: tên host được đọc sau khi transaction đã đóng)
         if (room.getHost() == null) {
-            room.setHost(user);
+            room.setHost(userRepository.findById(user.getId()).orElseThrow());
             role = RoomParticipant.Role.HOST;
         }
         // Nếu người vào chính là Host đã được set từ trước (lúc createRoom)
@@ -92,6 +106,8 @@ public class RoomServiceJPA {
             participant.setRole(role); // Set Role đã xác định ở trên
 
             room.addParticipant(participant);
+            // persist trực tiếp: merge qua cascade của Room sẽ nạp lại User từ reference
+            participantRepository.save(participant);
         } else {
             // Update session ID và Role (đề phòng trường hợp F5)
             RoomParticipant.Role finalRole = role;
@@ -109,28 +125,14 @@ public class RoomServiceJPA {
     }
 
     // --- XỬ LÝ LOGIC UPDATE VIDEO ---
+    // Không đọc/ghi DB ở đây: trạng thái nằm trên RAM và được flush theo lô
+    // (xem RoomPlaybackWriteBehind)
     public void updateVideoState(String roomId, String videoId, double time, boolean isPlaying) {
-        Room room = roomRepository.findById(roomId).orElse(null);
-
-        if (room == null) {
+        log.debug("STATE UPDATE | Room: {} | Video: {} | Time: {} | Playing: {}",
+                roomId, videoId, time, isPlaying);
+        if (!playbackWriteBehind.update(roomId, videoId, time, isPlaying)) {
             log.error("SYNC ERROR | Room not found: {}", roomId);
-            return;
         }
-
-        // Log kiểm tra độ lệch pha
-        log.debug("STATE UPDATE | Room: {} | Time: {} -> {} | Playing: {} -> {}",
-                roomId, room.getCurrentTime(), time, room.isPlaying(), isPlaying);
-
-        if (videoId != null && !videoId.equals(room.getCurrentVideoId())) {
-            log.info("VIDEO CHANGED | Room: {} | New Video: {}", roomId, videoId);
-            room.setCurrentVideoId(videoId);
-        }
-
-        room.setCurrentTime(time);
-        room.setPlaying(isPlaying);
-
-        // Lưu trạng thái mới xuống DB
-        roomRepository.save(room);
     }
 
     // --- XỬ LÝ QUEUE (RAM ONLY - VÌ @TRANSIENT) ---
@@ -153,6 +155,7 @@ public class RoomServiceJPA {
         if (participantOpt.isPresent()) {
             RoomParticipant participant = participantOpt.get();
             Room room = participant.getRoom();
+            playbackWriteBehind.applyTo(room);
             User user = participant.getUser();
 
             // 2. Xóa Participant khỏi phòng
@@ -174,6 +177,8 @@ public class RoomServiceJPA {
                     log.info("NEW HOST AUTO-ASSIGNED: {}", newHostPart.getUser().getName());
                 } else {
                     log.info("ROOM EMPTY | Room: {}", room.getRoomId());
+                    // Phòng trống → entity (đã mang trạng thái RAM) được save bên dưới, bỏ bản RAM
+                    playbackWriteBehind.flushAndForget(room.getRoomId());
                     // Tùy chọn: roomRepository.delete(room); // Xóa phòng nếu không còn ai
                 }
             }
@@ -184,7 +189,9 @@ public class RoomServiceJPA {
     }
 
     public Room getRoom(String roomId) {
-        return roomRepository.findById(roomId).orElse(null);
+        Room room = roomRepository.findById(roomId).orElse(null);
+        playbackWriteBehind.applyTo(room);
+        return room;
     }
      public List<Room> getRoomHistory(String userId) {
         return roomRepository.findHistoryByUserId(userId);
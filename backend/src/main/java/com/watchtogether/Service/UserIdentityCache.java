@@ -0,0 +1,203 @@
+package com.watchtogether.Service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import com.watchtogether.Repository.jpa.UserIdentity;
+import com.watchtogether.Repository.jpa.UserRepository;
+import com.watchtogether.util.StatsSource;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Cache cục bộ cho định danh người dùng (UserIdentity: id, name, email) theo tên và theo id,
+ * để join/tạo phòng không phải tra bảng users mỗi lần.
+ *
+ * - Giới hạn kích thước (LRU, user.cache.max-entries cho mỗi chỉ mục), hết hạn sau
+ *   user.cache.ttl-seconds
+ * - Chỉ cache user tìm thấy; tên chưa có (guest mới) luôn xuống DB
+ * - invalidate() xoá cục bộ và publish lên USER_CACHE_CHANNEL để các node khác xoá theo,
+ *   giống RoomNearCache
+ */
+@Component
+@Slf4j
+public class UserIdentityCache implements StatsSource {
+
+    public static final String USER_CACHE_CHANNEL = "user-cache:invalidate";
+
+    private final UserRepository userRepository;
+    private final RedisTemplate<String, String> redisTemplate;
+    private final RedisMessageListenerContainer listenerContainer;
+    private final int maxEntries;
+    private final long ttlMs;
+
+    // Id của node hiện tại, để bỏ qua message invalidate do chính mình gửi
+    private final String nodeId = UUID.randomUUID().toString();
+
+    // Cả hai map dùng chung lock là byId
+    private final LinkedHashMap<String, Entry> byId;
+    private final LinkedHashMap<String, Entry> byName;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+    private final AtomicLong remoteInvalidations = new AtomicLong();
+
+    private record Entry(UserIdentity identity, long expiresAt) {
+    }
+
+    public UserIdentityCache(UserRepository userRepository, RedisTemplate<String, String> redisTemplate,
+            RedisMessageListenerContainer listenerContainer,
+            @Value("${user.cache.max-entries:20000}") int maxEntries,
+            @Value("${user.cache.ttl-seconds:600}") long ttlSeconds) {
+        this.userRepository = userRepository;
+        this.redisTemplate = redisTemplate;
+        this.listenerContainer = listenerContainer;
+        this.maxEntries = maxEntries;
+        this.ttlMs = ttlSeconds * 1000;
+        this.byId = lru();
+        this.byName = lru();
+    }
+
+    // accessOrder = true → LinkedHashMap hoạt động như LRU
+    private LinkedHashMap<String, Entry> lru() {
+        return new LinkedHashMap<>(256, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > UserIdentityCache.this.maxEntries;
+            }
+        };
+    }
+
+    @PostConstruct
+    public void subscribe() {
+        listenerContainer.addMessageListener((message, pattern) -> {
+            // nodeId|id|name
+            String[] parts = new String(message.getBody()).split("\\|", 3);
+            if (parts.length < 3 || parts[0].equals(nodeId)) {
+                return;
+            }
+            evictLocal(parts[1], parts[2]);
+            remoteInvalidations.incrementAndGet();
+        }, new ChannelTopic(USER_CACHE_CHANNEL));
+    }
+
+    public Optional<UserIdentity> findByName(String name) {
+        if (name == null) {
+            return Optional.empty();
+        }
+        UserIdentity cached = lookup(byName, name);
+        if (cached != null) {
+            return Optional.of(cached);
+        }
+        Optional<UserIdentity> loaded = userRepository.findIdentityByName(name);
+        loaded.ifPresent(this::put);
+        return loaded;
+    }
+
+    public Optional<UserIdentity> findById(String id) {
+        if (id == null) {
+            return Optional.empty();
+        }
+        UserIdentity cached = lookup(byId, id);
+        if (cached != null) {
+            return Optional.of(cached);
+        }
+        Optional<UserIdentity> loaded = userRepository.findIdentityById(id);
+        loaded.ifPresent(this::put);
+        return loaded;
+    }
+
+    private UserIdentity lookup(LinkedHashMap<String, Entry> index, String key) {
+        synchronized (byId) {
+            Entry entry = index.get(key);
+            if (entry == null || entry.expiresAt() <= System.currentTimeMillis()) {
+                if (entry != null) {
+                    index.remove(key);
+                }
+                misses.incrementAndGet();
+                return null;
+            }
+            hits.incrementAndGet();
+            return entry.identity();
+        }
+    }
+
+    /**
+     * Đưa user vừa đọc/tạo vào cache (không thông báo node khác)
+     */
+    public void put(UserIdentity identity) {
+        if (identity == null || identity.id() == null) {
+            return;
+        }
+        Entry entry = new Entry(identity, System.currentTimeMillis() + ttlMs);
+        synchronized (byId) {
+            byId.put(identity.id(), entry);
+            if (identity.name() != null) {
+                byName.put(identity.name(), entry);
+            }
+        }
+    }
+
+    /**
+     * Gọi khi user đăng ký hoặc đổi thông tin: xoá cục bộ và báo các node khác
+     *
+     * @param id có thể null (ví dụ tên vừa bị chiếm khi đăng ký)
+     */
+    public void invalidate(String id, String name) {
+        invalidations.incrementAndGet();
+        evictLocal(id, name);
+        try {
+            redisTemplate.convertAndSend(USER_CACHE_CHANNEL,
+                    nodeId + "|" + (id != null ? id : "") + "|" + (name != null ? name : ""));
+        } catch (Exception e) {
+            // Node khác sẽ tự làm mới khi entry hết TTL
+            log.warn("Cannot publish user cache invalidation for {}: {}", name, e.getMessage());
+        }
+    }
+
+    private void evictLocal(String id, String name) {
+        synchronized (byId) {
+            Entry removed = id != null && !id.isEmpty() ? byId.remove(id) : null;
+            if (removed != null && removed.identity().name() != null) {
+                byName.remove(removed.identity().name());
+            }
+            if (name != null && !name.isEmpty()) {
+                Entry named = byName.remove(name);
+                if (named != null) {
+                    byId.remove(named.identity().id());
+                }
+            }
+        }
+    }
+
+    @Override
+    public String statsName() {
+        return "userIdentityCache";
+    }
+
+    @Override
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        synchronized (byId) {
+            stats.put("sizeById", byId.size());
+            stats.put("sizeByName", byName.size());
+        }
+        stats.put("maxEntries", maxEntries);
+        stats.put("hits", hits.get());
+        stats.put("misses", misses.get());
+        stats.put("invalidations", invalidations.get());
+        stats.put("remoteInvalidations", remoteInvalidations.get());
+        return stats;
+    }
+}
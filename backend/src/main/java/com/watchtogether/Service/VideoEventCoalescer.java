@@ -0,0 +1,169 @@
+package com.watchtogether.Service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.watchtogether.DTO.Request.VideoEventDto;
+import com.watchtogether.util.StatsSource;
+import com.watchtogether.util.Enum.VideoEventType;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Gộp "bão" SEEK (và PLAY/PAUSE bật tắt liên tục) của một phòng trong một cửa sổ ngắn.
+ *
+ * Event đầu tiên của một đợt được phát ngay (không thêm độ trễ), sau đó mở cửa sổ
+ * windowMs. Các event đến trong cửa sổ chỉ giữ lại trạng thái mới nhất (vị trí cuối cùng và
+ * PLAY/PAUSE cuối cùng, xem merge); khi cửa sổ đóng, trạng thái đó được phát một lần.
+ * CHANGE và các loại khác không bị gộp: phần đang chờ được phát trước để giữ đúng thứ tự.
+ *
+ * Mọi hàm (trừ timer) chạy bên trong sequencer của phòng, nên không cần lock theo phòng.
+ */
+@Component
+@Slf4j
+public class VideoEventCoalescer implements StatsSource {
+
+    private final RoomEventSequencer sequencer;
+    private final long windowMs;
+
+    private final Map<String, Window> windows = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(
+            Thread.ofPlatform().name("video-coalescer").daemon().factory());
+
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong absorbed = new AtomicLong();
+    private final AtomicLong emitted = new AtomicLong();
+
+    public VideoEventCoalescer(RoomEventSequencer sequencer,
+            @Value("${video.sync.coalesce-window-ms:75}") long windowMs) {
+        this.sequencer = sequencer;
+        this.windowMs = windowMs;
+    }
+
+    /**
+     * Nhận event của phòng (gọi từ sequencer của phòng), chuyển tiếp cho sink
+     * ngay hoặc sau khi cửa sổ gộp đóng lại.
+     */
+    public void offer(String roomId, VideoEventDto event, Consumer<VideoEventDto> sink) {
+        received.incrementAndGet();
+
+        if (windowMs <= 0 || !isCoalescible(event.getType())) {
+            flushPending(roomId, sink);
+            emit(event, sink);
+            return;
+        }
+
+        Window window = windows.get(roomId);
+        if (window == null) {
+            // Đầu đợt: phát ngay và mở cửa sổ
+            emit(event, sink);
+            openWindow(roomId, new Window(sink));
+            return;
+        }
+
+        // Trong cửa sổ: chỉ giữ trạng thái mới nhất
+        if (window.pending != null) {
+            absorbed.incrementAndGet();
+        }
+        window.pending = merge(window.pending, event);
+        window.sink = sink;
+    }
+
+    private boolean isCoalescible(VideoEventType type) {
+        return type == VideoEventType.SEEK || type == VideoEventType.PLAY || type == VideoEventType.PAUSE;
+    }
+
+    private void openWindow(String roomId, Window window) {
+        windows.put(roomId, window);
+        timer.schedule(() -> sequencer.submit(roomId, () -> closeWindow(roomId, window)),
+                windowMs, TimeUnit.MILLISECONDS);
+    }
+
+    // Chạy trong sequencer: phát trạng thái đang chờ (nếu có) và mở tiếp cửa sổ mới
+    private void closeWindow(String roomId, Window window) {
+        if (windows.get(roomId) != window) {
+            return; // cửa sổ đã bị flush bởi một event không gộp được
+        }
+        windows.remove(roomId);
+        if (window.pending != null) {
+            VideoEventDto latest = window.pending;
+            emit(latest, window.sink);
+            openWindow(roomId, new Window(window.sink));
+        }
+    }
+
+    private void flushPending(String roomId, Consumer<VideoEventDto> sink) {
+        Window window = windows.remove(roomId);
+        if (window != null && window.pending != null) {
+            emit(window.pending, window.sink);
+        }
+    }
+
+    private void emit(VideoEventDto event, Consumer<VideoEventDto> sink) {
+        emitted.incrementAndGet();
+        sink.accept(event);
+    }
+
+    /**
+     * Gộp event mới vào trạng thái đang chờ của cửa sổ:
+     * - vị trí / URL: của event mới nhất có mang giá trị (SEEK tới 120s rồi PAUSE không kèm
+     *   currentTime → PAUSE tại 120s)
+     * - loại: PLAY/PAUSE cuối cùng trong cửa sổ thắng SEEK đến sau nó (PAUSE rồi SEEK → PAUSE tại
+     *   vị trí SEEK), vì SEEK giữ nguyên trạng thái phát của phòng mà PAUSE chưa kịp áp dụng
+     */
+    static VideoEventDto merge(VideoEventDto older, VideoEventDto newer) {
+        if (older == null) {
+            return newer;
+        }
+        if (newer.getCurrentTime() == null) {
+            newer.setCurrentTime(older.getCurrentTime());
+        }
+        if (newer.getVideoUrl() == null) {
+            newer.setVideoUrl(older.getVideoUrl());
+        }
+        if (newer.getType() == VideoEventType.SEEK && older.getType() != VideoEventType.SEEK) {
+            newer.setType(older.getType());
+        }
+        return newer;
+    }
+
+    @Override
+    public String statsName() {
+        return "videoCoalescer";
+    }
+
+    @Override
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("windowMs", windowMs);
+        stats.put("received", received.get());
+        stats.put("absorbed", absorbed.get());
+        stats.put("emitted", emitted.get());
+        stats.put("openWindows", windows.size());
+        return stats;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        timer.shutdownNow();
+    }
+
+    private static final class Window {
+        private VideoEventDto pending;
+        private Consumer<VideoEventDto> sink;
+
+        Window(Consumer<VideoEventDto> sink) {
+            this.sink = sink;
+        }
+    }
+}
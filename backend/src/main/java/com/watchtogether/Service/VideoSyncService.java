@@ -1,12 +1,22 @@
 package com.watchtogether.Service;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
 import com.watchtogether.DTO.Request.VideoEventDto;
 import com.watchtogether.Entity.redis.Room;
+import com.watchtogether.Handler.OutboundBackpressure;
+import com.watchtogether.Repository.redis.RoomStateStore;
+import com.watchtogether.util.PlaybackClock;
 import com.watchtogether.util.Enum.VideoEventType;
 
+import jakarta.annotation.PostConstruct;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 
@@ -14,128 +24,459 @@ import lombok.extern.slf4j.Slf4j;
 @RequiredArgsConstructor
 @Slf4j
 public class VideoSyncService {
+    // Số lần ghi lại khi CAS thua nhưng event của node này vẫn là mới nhất
+    private static final int MAX_PERSIST_ATTEMPTS = 3;
+
     private final SimpMessagingTemplate messagingTemplate;
     private final RoomService roomService;
+    private final RoomEventSequencer sequencer;
+    private final VideoEventCoalescer coalescer;
+    private final RoomStateStore roomStateStore;
+    private final RoomNearCache roomNearCache;
+
+    // Phòng không có event / SYNC_STATE trong khoảng này bị bỏ khỏi RAM (nạp lại từ Redis khi cần)
+    @Value("${video.sync.idle-evict-ms:600000}")
+    private long idleEvictMs;
+
+    // Trạng thái phòng đang hoạt động, chỉ được đọc/ghi bên trong sequencer của phòng đó
+    private final Map<String, Room> liveRooms = new ConcurrentHashMap<>();
+
+    // Lần cuối trạng thái phòng được dùng trên node này (ms)
+    private final Map<String, Long> lastActive = new ConcurrentHashMap<>();
+
+    // Bản chụp mới nhất đang chờ ghi xuống Redis (gộp nhiều lần ghi liên tiếp thành một)
+    private final Map<String, Room> pendingWrites = new ConcurrentHashMap<>();
+
+    // Version đã ghi thành công gần nhất của mỗi phòng, chỉ dùng trong lane "persist:<roomId>"
+    private final Map<String, Long> persistedVersions = new ConcurrentHashMap<>();
+
+    // Số thứ tự event đã phát gần nhất của phòng, chỉ được đọc/ghi bên trong sequencer của phòng
+    private final Map<String, Long> sequences = new ConcurrentHashMap<>();
+
+    // Mốc số thứ tự đang chờ ghi xuống Redis (lane "persist:<roomId>", gộp như pendingWrites)
+    private final Map<String, Long> pendingSequences = new ConcurrentHashMap<>();
+
+    // Số thứ tự của phòng vừa bị bỏ khỏi RAM, giữ tới khi lane persist ghi xong mốc của nó
+    private final Map<String, Long> droppedSequences = new ConcurrentHashMap<>();
 
     /**
      * Broadcast video event tới tất cả clients trong phòng
-     * và lưu state vào Redis để sync cho user mới join
-     * 
+     * và lưu state vào Redis để sync cho user mới join.
+     *
+     * Event được đưa vào sequencer của phòng: mọi event của cùng một phòng được xử lý
+     * tuần tự theo thứ tự nhận, các phòng khác nhau chạy song song.
+     * Trước khi áp dụng, event đi qua VideoEventCoalescer để gộp các đợt SEEK dồn dập.
+     *
      * @param roomId ID của phòng
      * @param event  Video event (play/pause/seek/change)
      */
     public void broadcastVideoEvent(String roomId, VideoEventDto event) {
+        sequencer.submit(roomId,
+                () -> coalescer.offer(roomId, event, latest -> applyAndBroadcast(roomId, latest)));
+    }
+
+    /**
+     * Chạy trên sequencer của phòng: cập nhật đồng hồ trong bộ nhớ rồi broadcast ngay.
+     * Việc ghi Redis diễn ra sau, ngoài đường xử lý thứ tự.
+     */
+    private void applyAndBroadcast(String roomId, VideoEventDto event) {
         String destination = "/topic/rooms/" + roomId + "/video";
 
         log.info("Broadcasting video event to {}: type = {}, time = {}, url = {}",
                 destination, event.getType(), event.getCurrentTime(), event.getVideoUrl());
 
-        // 1. Update room state in Redis
-        updateRoomVideoState(roomId, event);
+        // 1. Cấp số thứ tự trước khi ghi đồng hồ: lane persist ghi mốc số thứ tự trước trạng thái
+        // phòng, nên node nhận invalidation của lần ghi đó nạp lại được mốc mới
+        event.setSequence(nextSequence(roomId));
 
-        // 2. Broadcast to all subscribers in this room
-        messagingTemplate.convertAndSend(destination, event);
+        // 2. Update room clock (in memory, persisted asynchronously)
+        long now = System.currentTimeMillis();
+        Room room = updateRoomVideoState(roomId, event, now);
+
+        // 3. Gắn vị trí do server tính (không dùng số client gửi lên) vào event
+        if (room != null) {
+            stampWithClock(event, room, now);
+        }
+
+        // 4. Broadcast to all subscribers in this room
+        if (isFullState(event.getType())) {
+            // Client chậm chỉ cần trạng thái mới nhất: frame chờ gửi cũ hơn được thay thế
+            messagingTemplate.convertAndSend(destination, event, Map.<String, Object>of(OutboundBackpressure.CONFLATE_HEADER, "true"));
+        } else {
+            messagingTemplate.convertAndSend(destination, event);
+        }
     }
 
     /**
-     * Cập nhật trạng thái video trong Redis Room
+     * Cập nhật đồng hồ phát video của Room
      * Method này được gọi khi có sự kiện video từ client (play, pause, seek, change
-     * video)
+     * video). Vị trí client gửi lên chỉ dùng để đặt lại mốc (anchor), còn vị trí
+     * hiện tại luôn được tính lại từ mốc khi đọc (xem PlaybackClock).
+     *
+     * @return room sau khi cập nhật, hoặc null nếu không tìm thấy / lỗi
      */
-    private void updateRoomVideoState(String roomId, VideoEventDto event) {
+    private Room updateRoomVideoState(String roomId, VideoEventDto event, long now) {
         try {
-            // 1. Lấy thông tin room từ Redis
-            Room room = roomService.getRoom(roomId);
+            // 1. Lấy trạng thái phòng (bộ nhớ trước, Redis nếu chưa có)
+            Room room = liveRoom(roomId);
             if (room == null) {
                 log.warn("Cannot update video state: Room {} not found", roomId);
-                return;
+                return null;
             }
 
-            // 2. Cập nhật trạng thái room dựa trên loại sự kiện
+            // Vị trí hiện tại theo đồng hồ server, dùng khi client không gửi currentTime
+            double derived = PlaybackClock.positionAt(room, now);
+            double position = event.getCurrentTime() != null ? event.getCurrentTime() : derived;
+
+            // 2. Đặt lại mốc đồng hồ dựa trên loại sự kiện
             switch (event.getType()) {
                 case PLAY:
-                    // Khi user nhấn play: đặt trạng thái PLAYING và cập nhật thời gian hiện tại
-                    room.setPlaybackState("PLAYING");
-                    if (event.getCurrentTime() != null) {
-                        room.setLastPosition(event.getCurrentTime());
-                    }
+                    // Khi user nhấn play: đồng hồ bắt đầu chạy từ vị trí hiện tại
+                    PlaybackClock.reanchor(room, position, PlaybackClock.PLAYING, now);
                     break;
 
                 case PAUSE:
-                    // Khi user nhấn pause: đặt trạng thái PAUSED và lưu thời gian dừng
-                    room.setPlaybackState("PAUSED");
-                    if (event.getCurrentTime() != null) {
-                        room.setLastPosition(event.getCurrentTime());
-                    }
+                    // Khi user nhấn pause: đồng hồ dừng tại vị trí hiện tại
+                    PlaybackClock.reanchor(room, position, PlaybackClock.PAUSED, now);
                     break;
 
                 case SEEK:
-                    // Khi user tua video: chỉ cập nhật thời gian hiện tại, không đổi trạng thái
-                    // play/pause
-                    if (event.getCurrentTime() != null) {
-                        room.setLastPosition(event.getCurrentTime());
-                    }
+                    // Khi user tua video: đổi vị trí, giữ nguyên trạng thái play/pause
+                    PlaybackClock.reanchor(room, position, currentStateOf(room), now);
                     break;
 
                 case CHANGE:
                     // Khi user chuyển video mới: đặt URL mới, reset thời gian về 0, và pause
                     if (event.getVideoUrl() != null) {
                         room.setCurrentVideoUrl(event.getVideoUrl());
-                        room.setLastPosition(0.0); // Reset về đầu video
-                        room.setPlaybackState("PAUSED"); // Pause để user có thể chuẩn bị
+                        PlaybackClock.reanchor(room, 0.0, PlaybackClock.PAUSED, now);
                     }
                     break;
+
+                default:
+                    // SYNC_STATE / REQUEST_SYNC không làm thay đổi đồng hồ
+                    return room;
             }
 
-            // 3. Cập nhật thời gian đồng bộ cuối cùng và lưu vào Redis
-            room.setLastSyncAt(java.time.Instant.now());
-            roomService.saveRoom(room);
+            // 3. Lưu mốc mới vào Redis (bất đồng bộ)
+            persistLater(room);
 
             // 4. Log để debug
-            log.debug("Updated room {} video state: {} at position {}",
-                    roomId, room.getPlaybackState(), room.getLastPosition());
+            log.debug("Updated room {} clock: {} at anchor {} ({})",
+                    roomId, room.getPlaybackState(), room.getLastPosition(), room.getLastSyncAt());
+            return room;
 
         } catch (Exception e) {
             // Xử lý lỗi nếu có vấn đề khi cập nhật
             log.error("Error updating room video state for room {}: {}", roomId, e.getMessage(), e);
+            return null;
         }
     }
 
     /**
-     * Send current video state to specific user (khi mới join)
+     * Trạng thái phòng trong bộ nhớ; lần đầu sẽ nạp từ Redis.
+     * Chỉ gọi từ bên trong sequencer của phòng.
      */
-    public void sendCurrentStateToUser(String roomId, String sessionId) {
+    private Room liveRoom(String roomId) {
+        Room room = liveRooms.get(roomId);
+        if (room == null) {
+            room = roomService.getRoom(roomId);
+            if (room != null) {
+                liveRooms.put(roomId, room);
+            }
+        }
+        if (room != null) {
+            lastActive.put(roomId, System.currentTimeMillis());
+        }
+        return room;
+    }
+
+    @PostConstruct
+    public void subscribeRemoteWrites() {
+        // Node khác vừa ghi trạng thái phòng: đồng hồ trong RAM đã cũ, event sau nạp lại từ Redis
+        roomNearCache.onRemoteInvalidation(roomId -> {
+            if (liveRooms.containsKey(roomId)) {
+                evictRoom(roomId);
+            }
+        });
+    }
+
+    /**
+     * Bỏ trạng thái phòng khỏi RAM của node này (phòng hết người, bị xoá, hay node khác vừa ghi).
+     * Event sau của phòng sẽ nạp lại từ Redis.
+     */
+    public void evictRoom(String roomId) {
+        sequencer.submit(roomId, () -> dropLive(roomId));
+    }
+
+    @Scheduled(fixedDelayString = "${video.sync.idle-sweep-ms:60000}")
+    public void evictIdleRooms() {
+        long cutoff = System.currentTimeMillis() - idleEvictMs;
+        lastActive.forEach((roomId, at) -> {
+            if (at < cutoff) {
+                sequencer.submit(roomId, () -> {
+                    // Kiểm tra lại trong lane: có thể vừa có event mới
+                    Long last = lastActive.get(roomId);
+                    if (last == null || last < cutoff) {
+                        dropLive(roomId);
+                    }
+                });
+            }
+        });
+    }
+
+    // Chạy trên sequencer của phòng
+    private void dropLive(String roomId) {
+        liveRooms.remove(roomId);
+        lastActive.remove(roomId);
+        Long dropped = sequences.remove(roomId);
+        if (dropped != null) {
+            // Mốc có thể chưa kịp ghi: lần nạp lại trước khi lane persist chạy tới đây vẫn thấy nó
+            droppedSequences.put(roomId, dropped);
+        }
+        // Version đã ghi chỉ đúng với trạng thái vừa bỏ; lần nạp sau dùng version mới từ Redis
+        sequencer.submit("persist:" + roomId, () -> {
+            persistedVersions.remove(roomId);
+            if (dropped != null) {
+                droppedSequences.remove(roomId, dropped);
+            }
+        });
+    }
+
+    /**
+     * Ghi Redis trên một lane riêng của sequencer ("persist:<roomId>"), nên các lần ghi
+     * của cùng phòng vẫn đúng thứ tự nhưng không chặn event tiếp theo.
+     * Nhiều thay đổi dồn dập chỉ tạo ra một lần ghi với bản chụp mới nhất.
+     * Chỉ các field playback được ghi (RoomStateStore), kèm compare-and-set trên version.
+     */
+    private void persistLater(Room room) {
+        String roomId = room.getId();
+        if (pendingWrites.put(roomId, room.toBuilder().build()) == null) {
+            sequencer.submit("persist:" + roomId, () -> persistPending(roomId));
+        }
+    }
+
+    private void persistPending(String roomId) {
+        Room latest = pendingWrites.remove(roomId);
+        if (latest == null) {
+            return;
+        }
         try {
-            Room room = roomService.getRoom(roomId);
-            if (room == null) {
-                log.warn("Cannot send state: Room {} not found", roomId);
+            // Lần ghi đầu tiên so với version đã nạp từ Redis (chưa có version = 0)
+            long expected = persistedVersions.getOrDefault(roomId, versionOf(latest));
+            for (int attempt = 1;; attempt++) {
+                switch (roomStateStore.updatePlayback(latest, expected)) {
+                    case UPDATED:
+                        persistedVersions.put(roomId, latest.getVersion());
+                        roomNearCache.putAndPublish(latest);
+                        return;
+
+                    case NOT_FOUND:
+                        log.warn("Cannot persist video state: Room {} no longer exists", roomId);
+                        forgetRoom(roomId);
+                        return;
+
+                    case CONFLICT:
+                        // Node khác đã ghi phòng này: client đã nhận broadcast của mình nên không
+                        // được bỏ qua, mà phải thống nhất lại với Redis
+                        Room current = roomService.reloadRoom(roomId);
+                        if (current == null) {
+                            forgetRoom(roomId);
+                            return;
+                        }
+                        if (isNewer(current, latest) || attempt >= MAX_PERSIST_ATTEMPTS) {
+                            // Trạng thái trong Redis mới hơn: nhận nó và gửi lại cho cả phòng
+                            log.warn("Video state version conflict for room {} (expected {}, found {}), adopting Redis state",
+                                    roomId, expected, versionOf(current));
+                            persistedVersions.put(roomId, versionOf(current));
+                            adopt(roomId, current);
+                            return;
+                        }
+                        // Event của mình mới hơn: áp lại lên version hiện tại rồi ghi lại
+                        log.info("Video state version conflict for room {} (expected {}, found {}), retrying",
+                                roomId, expected, versionOf(current));
+                        expected = versionOf(current);
+                        break;
+                }
+            }
+        } catch (Exception e) {
+            log.error("Error persisting video state for room {}: {}", roomId, e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Chạy trên sequencer của phòng: thay trạng thái trong RAM bằng bản trong Redis và
+     * broadcast SYNC_STATE để client khớp lại. Nếu phòng đã có event mới hơn đang chờ ghi
+     * thì bỏ qua: lần ghi đó dùng version vừa nạp và sẽ ghi đè Redis bằng trạng thái client đang thấy.
+     */
+    private void adopt(String roomId, Room current) {
+        sequencer.submit(roomId, () -> {
+            if (pendingWrites.containsKey(roomId)) {
                 return;
             }
+            liveRooms.put(roomId, current);
+            lastActive.put(roomId, System.currentTimeMillis());
+            long now = System.currentTimeMillis();
+            VideoEventDto syncEvent = syncStateOf(roomId, current, now);
+            syncEvent.setSequence(nextSequence(roomId));
+            messagingTemplate.convertAndSend("/topic/rooms/" + roomId + "/video", syncEvent,
+                    Map.<String, Object>of(OutboundBackpressure.CONFLATE_HEADER, "true"));
+        });
+    }
+
+    private static long versionOf(Room room) {
+        return room.getVersion() != null ? room.getVersion() : 0L;
+    }
 
-            // Tạo SYNC_STATE event với current state
-            VideoEventDto syncEvent = VideoEventDto.builder()
-                    .type(VideoEventType.SYNC_STATE)
-                    .videoUrl(room.getCurrentVideoUrl())
-                    .currentTime(room.getLastPosition())
-                    .roomId(roomId)
-                    .timestamp(System.currentTimeMillis())
-                    .build();
+    // a có mốc đồng hồ (lastSyncAt) muộn hơn b
+    private static boolean isNewer(Room a, Room b) {
+        return a.getLastSyncAt() != null
+                && (b.getLastSyncAt() == null || a.getLastSyncAt().isAfter(b.getLastSyncAt()));
+    }
 
-            // Thêm playback state vào syncEvent để khi user mới join vào phòng, họ sẽ nhận được trạng thái phát video hiện tại (PAUSED/PLAYING)
-            syncEvent.setPlaybackState(room.getPlaybackState());
+    private void forgetRoom(String roomId) {
+        persistedVersions.remove(roomId);
+        droppedSequences.remove(roomId);
+        roomNearCache.invalidate(roomId);
+        sequencer.submit(roomId, () -> {
+            liveRooms.remove(roomId);
+            lastActive.remove(roomId);
+            sequences.remove(roomId);
+        });
+    }
+
+    // PLAY/PAUSE/SEEK/SYNC_STATE mang đủ trạng thái phát; CHANGE thì không được bỏ qua
+    private boolean isFullState(VideoEventType type) {
+        return type == VideoEventType.PLAY || type == VideoEventType.PAUSE
+                || type == VideoEventType.SEEK || type == VideoEventType.SYNC_STATE;
+    }
 
+    /**
+     * Ghi vị trí tính từ đồng hồ server vào event trước khi gửi đi
+     */
+    private void stampWithClock(VideoEventDto event, Room room, long now) {
+        event.setCurrentTime(PlaybackClock.positionAt(room, now));
+        event.setPlaybackState(currentStateOf(room));
+        event.setIsPlaying(PlaybackClock.PLAYING.equals(room.getPlaybackState()));
+        event.setPlaybackRate(PlaybackClock.rateOf(room));
+        event.setServerTime(now);
+    }
+
+    private String currentStateOf(Room room) {
+        return room.getPlaybackState() != null ? room.getPlaybackState() : PlaybackClock.PAUSED;
+    }
+
+    /**
+     * Send current video state to specific user (khi mới join).
+     * Cũng chạy qua sequencer để đọc đúng trạng thái sau các event đã nhận trước đó.
+     */
+    public void sendCurrentStateToUser(String roomId, String sessionId) {
+        sendCurrentState(roomId, syncEvent -> {
             log.info("Sending current state to user {}: url={}, time={}, state={}",
-                    sessionId, room.getCurrentVideoUrl(), room.getLastPosition(), room.getPlaybackState());
+                    sessionId, syncEvent.getVideoUrl(), syncEvent.getCurrentTime(), syncEvent.getPlaybackState());
 
             // Send tới specific user session
             messagingTemplate.convertAndSendToUser(
                     sessionId,
                     "/queue/video/sync",
                     syncEvent);
+        });
+    }
+
+    /**
+     * Tạo SYNC_STATE trên sequencer của phòng rồi giao cho sink (STOMP user queue, /ws-native...)
+     */
+    public void sendCurrentState(String roomId, Consumer<VideoEventDto> sink) {
+        sequencer.submit(roomId, () -> {
+            try {
+                VideoEventDto syncEvent = buildSyncState(roomId);
+                if (syncEvent != null) {
+                    sink.accept(syncEvent);
+                }
+            } catch (Exception e) {
+                log.error("Error sending current state of room {}: {}", roomId, e.getMessage(), e);
+            }
+        });
+    }
+
+    private VideoEventDto buildSyncState(String roomId) {
+        Room room = liveRoom(roomId);
+        if (room == null) {
+            log.warn("Cannot send state: Room {} not found", roomId);
+            return null;
+        }
+
+        VideoEventDto syncEvent = syncStateOf(roomId, room, System.currentTimeMillis());
+        syncEvent.setSequence(currentSequence(roomId));
+        return syncEvent;
+    }
+
+    /**
+     * Số thứ tự tiếp theo của phòng, cấp từ bộ đếm trong RAM (không round trip Redis trên lane
+     * của phòng). Mốc cao nhất được ghi xuống Redis trên lane "persist:<roomId>".
+     * Chưa nạp được mốc từ Redis thì gửi không kèm số thứ tự (client không bỏ qua event đó).
+     */
+    private Long nextSequence(String roomId) {
+        Long current = currentSequence(roomId);
+        if (current == null) {
+            return null;
+        }
+        long next = current + 1;
+        sequences.put(roomId, next);
+        persistSequenceLater(roomId, next);
+        return next;
+    }
 
+    /**
+     * Số thứ tự đã phát gần nhất của phòng. Lần đầu (phòng mới vào RAM) nạp một lần từ Redis:
+     * node khác ghi phòng thì phòng bị bỏ khỏi RAM (subscribeRemoteWrites) và lần sau nạp lại,
+     * nên frame relay giữa các node vẫn so sánh được với nhau.
+     */
+    private Long currentSequence(String roomId) {
+        Long current = sequences.get(roomId);
+        if (current != null) {
+            return current;
+        }
+        try {
+            long seed = Math.max(roomStateStore.currentSequence(roomId), droppedSequences.getOrDefault(roomId, 0L));
+            sequences.put(roomId, seed);
+            return seed;
         } catch (Exception e) {
-            log.error("Error sending current state to user {} in room {}: {}",
-                    sessionId, roomId, e.getMessage(), e);
+            log.warn("Cannot read video sequence of room {}: {}", roomId, e.getMessage());
+            return null;
+        }
+    }
+
+    private void persistSequenceLater(String roomId, long sequence) {
+        if (pendingSequences.put(roomId, sequence) == null) {
+            sequencer.submit("persist:" + roomId, () -> persistSequence(roomId));
+        }
+    }
+
+    private void persistSequence(String roomId) {
+        Long sequence = pendingSequences.remove(roomId);
+        if (sequence == null) {
+            return;
         }
+        try {
+            roomStateStore.raiseSequence(roomId, sequence);
+        } catch (Exception e) {
+            log.warn("Cannot persist video sequence of room {}: {}", roomId, e.getMessage());
+        }
+    }
+
+    // SYNC_STATE với vị trí tính từ đồng hồ server (không phải lastPosition cũ)
+    private VideoEventDto syncStateOf(String roomId, Room room, long now) {
+        VideoEventDto syncEvent = VideoEventDto.builder()
+                .type(VideoEventType.SYNC_STATE)
+                .videoUrl(room.getCurrentVideoUrl())
+                .roomId(roomId)
+                .timestamp(now)
+                .build();
+
+        // Thêm playback state + vị trí hiện tại để khi user mới join vào phòng, họ sẽ nhận được
+        // trạng thái phát video hiện tại (PAUSED/PLAYING) và nhảy đúng tới vị trí của cả phòng
+        stampWithClock(syncEvent, room, now);
+        return syncEvent;
     }
 }
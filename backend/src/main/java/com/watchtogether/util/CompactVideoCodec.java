@@ -0,0 +1,80 @@
+package com.watchtogether.util;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import com.watchtogether.DTO.Request.VideoEventDto;
+import com.watchtogether.util.Enum.VideoEventType;
+
+/**
+ * Mã hoá gọn (CBOR, key 1-2 ký tự) cho VideoEventDto trên kênh sync.
+ *
+ * Bỏ roomId (đã nằm trong destination), enum gửi dạng mã số cố định (VideoEventType.code),
+ * videoUrl chỉ gửi khi có.
+ * Key: t=type, p=currentTime, u=videoUrl, pl=isPlaying, r=playbackRate,
+ * ts=serverTime, q=sequence, by=participantId
+ */
+@Component
+public class CompactVideoCodec {
+
+    public static final String FORMAT_CBOR = "cbor";
+
+    private final CBORMapper cborMapper = new CBORMapper();
+
+    public byte[] encode(VideoEventDto event) throws IOException {
+        Map<String, Object> frame = new LinkedHashMap<>();
+        frame.put("t", event.getType() != null ? event.getType().code() : -1);
+        putIfPresent(frame, "p", event.getCurrentTime());
+        putIfPresent(frame, "u", event.getVideoUrl());
+        putIfPresent(frame, "pl", event.getIsPlaying());
+        if (event.getPlaybackRate() != null && event.getPlaybackRate() != 1.0) {
+            frame.put("r", event.getPlaybackRate());
+        }
+        putIfPresent(frame, "ts", event.getServerTime());
+        putIfPresent(frame, "q", event.getSequence());
+        putIfPresent(frame, "by", event.getParticipantId());
+        return cborMapper.writeValueAsBytes(frame);
+    }
+
+    public VideoEventDto decode(byte[] bytes) throws IOException {
+        Map<String, Object> frame = cborMapper.readValue(bytes, new TypeReference<Map<String, Object>>() {
+        });
+        VideoEventDto event = new VideoEventDto();
+        if (frame.get("t") instanceof Number t) {
+            event.setType(VideoEventType.fromCode(t.intValue()));
+        }
+        if (frame.get("p") instanceof Number p) {
+            event.setCurrentTime(p.doubleValue());
+        }
+        if (frame.get("u") instanceof String u) {
+            event.setVideoUrl(u);
+        }
+        if (frame.get("pl") instanceof Boolean pl) {
+            event.setIsPlaying(pl);
+        }
+        if (frame.get("r") instanceof Number r) {
+            event.setPlaybackRate(r.doubleValue());
+        }
+        if (frame.get("ts") instanceof Number ts) {
+            event.setServerTime(ts.longValue());
+        }
+        if (frame.get("q") instanceof Number q) {
+            event.setSequence(q.longValue());
+        }
+        if (frame.get("by") instanceof String by) {
+            event.setParticipantId(by);
+        }
+        return event;
+    }
+
+    private void putIfPresent(Map<String, Object> frame, String key, Object value) {
+        if (value != null) {
+            frame.put(key, value);
+        }
+    }
+}
@@ -1,10 +1,33 @@
 package com.watchtogether.util.Enum;
 
 public enum VideoEventType {
-    PLAY,           // Play video
-    PAUSE,          // Pause video  
-    SEEK,           // Seek to specific time
-    CHANGE,         // Change video URL
-    SYNC_STATE,     // Full state sync for new users
-    REQUEST_SYNC    // Request current state from server
-}
\ No newline at end of file
+    PLAY(0),           // Play video
+    PAUSE(1),          // Pause video  
+    SEEK(2),           // Seek to specific time
+    CHANGE(3),         // Change video URL
+    SYNC_STATE(4),     // Full state sync for new users
+    REQUEST_SYNC(5);   // Request current state from server
+
+    // Mã cố định trên wire nhị phân (CompactVideoCodec): không đổi mã đã dùng, loại mới lấy mã mới
+    private final int code;
+
+    VideoEventType(int code) {
+        this.code = code;
+    }
+
+    public int code() {
+        return code;
+    }
+
+    /**
+     * @return loại event có mã code, hoặc null nếu không biết
+     */
+    public static VideoEventType fromCode(int code) {
+        for (VideoEventType type : values()) {
+            if (type.code == code) {
+                return type;
+            }
+        }
+        return null;
+    }
+}
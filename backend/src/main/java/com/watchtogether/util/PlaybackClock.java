@@ -0,0 +1,48 @@
+package com.watchtogether.util;
+
+import java.time.Instant;
+
+import com.watchtogether.Entity.redis.Room;
+
+/**
+ * Đồng hồ phát video phía server cho mỗi phòng.
+ *
+ * Room chỉ lưu một mốc (anchor): lastPosition tại thời điểm lastSyncAt,
+ * cùng với playbackRate và playbackState. Vị trí hiện tại luôn được tính khi đọc:
+ * position = anchorPosition + (now - anchorServerTime) * rate (nếu đang PLAYING).
+ * Nhờ vậy client không cần liên tục gửi vị trí lên chỉ để giữ cho server "tươi".
+ */
+public final class PlaybackClock {
+
+    public static final String PLAYING = "PLAYING";
+    public static final String PAUSED = "PAUSED";
+
+    private PlaybackClock() {
+    }
+
+    /**
+     * Tính vị trí phát (seconds) của phòng tại thời điểm nowMillis
+     */
+    public static double positionAt(Room room, long nowMillis) {
+        double anchor = room.getLastPosition() != null ? room.getLastPosition() : 0.0;
+        if (!PLAYING.equals(room.getPlaybackState()) || room.getLastSyncAt() == null) {
+            return anchor;
+        }
+        long elapsedMs = Math.max(0L, nowMillis - room.getLastSyncAt().toEpochMilli());
+        return anchor + (elapsedMs / 1000.0) * rateOf(room);
+    }
+
+    /**
+     * Đặt lại mốc của đồng hồ: từ nowMillis, phòng ở vị trí position với trạng thái state
+     */
+    public static void reanchor(Room room, double position, String state, long nowMillis) {
+        room.setLastPosition(Math.max(0.0, position));
+        room.setPlaybackState(state);
+        room.setLastSyncAt(Instant.ofEpochMilli(nowMillis));
+    }
+
+    public static double rateOf(Room room) {
+        Double rate = room.getPlaybackRate();
+        return rate != null && rate > 0 ? rate : 1.0;
+    }
+}
@@ -0,0 +1,15 @@
+package com.watchtogether.util;
+
+import java.util.Map;
+
+/**
+ * Thành phần có số liệu vận hành (counter, kích thước hàng đợi...) muốn hiển thị
+ * qua GET /api/v1/stats. Chỉ cần implement interface và là Spring bean.
+ */
+public interface StatsSource {
+
+    // Tên nhóm số liệu, ví dụ "videoCoalescer"
+    String statsName();
+
+    Map<String, Object> stats();
+}
@@ -0,0 +1,144 @@
+package com.watchtogether.Broker;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.util.MimeTypeUtils;
+
+class RoomBroadcastBridgeTests {
+
+	// Mạng InMemoryRoomMessageBus là static: mỗi test dùng phòng riêng
+	private final String room = UUID.randomUUID().toString();
+	private final Node a = new Node();
+	private final Node b = new Node();
+
+	/**
+	 * Một node: bus riêng trên mạng in-memory chung, brokerChannel cục bộ ghi lại message nhận được
+	 */
+	private static final class Node {
+		final InMemoryRoomMessageBus bus = spy(new InMemoryRoomMessageBus());
+		final List<Message<?>> delivered = new ArrayList<>();
+		final RoomBroadcastBridge bridge = new RoomBroadcastBridge(bus, (message, timeout) -> delivered.add(message));
+		final MessageChannel inbound = mock(MessageChannel.class);
+
+		void client(SimpMessageType type, String sessionId, String subscriptionId, String destination) {
+			SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(type);
+			accessor.setSessionId(sessionId);
+			accessor.setSubscriptionId(subscriptionId);
+			accessor.setDestination(destination);
+			Message<byte[]> message = MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders());
+			bridge.inboundInterceptor().afterSendCompletion(message, inbound, true, null);
+		}
+
+		void broadcast(String destination, String body) {
+			SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+			accessor.setDestination(destination);
+			accessor.setContentType(MimeTypeUtils.APPLICATION_JSON);
+			Message<byte[]> message = MessageBuilder.createMessage(body.getBytes(StandardCharsets.UTF_8),
+					accessor.getMessageHeaders());
+			bridge.brokerInterceptor().preSend(message, inbound);
+		}
+	}
+
+	private String topic() {
+		return "/topic/room/" + room + "/chat";
+	}
+
+	@Test
+	void nodeSubscribesOnItsFirstLocalSubscriberOnly() {
+		b.client(SimpMessageType.SUBSCRIBE, "s1", "sub-1", topic());
+		b.client(SimpMessageType.SUBSCRIBE, "s2", "sub-1", "/topic/room/" + room + "/video");
+		b.client(SimpMessageType.SUBSCRIBE, "s2", "sub-2", topic());
+
+		verify(b.bus, times(1)).subscribe(eq(room), any());
+		assertEquals(1, b.bridge.stats().get("subscribedRooms"));
+	}
+
+	@Test
+	void nodeUnsubscribesAfterItsLastLocalSubscriberLeaves() {
+		b.client(SimpMessageType.SUBSCRIBE, "s1", "sub-1", topic());
+		b.client(SimpMessageType.SUBSCRIBE, "s2", "sub-1", topic());
+		b.client(SimpMessageType.SUBSCRIBE, "s2", "sub-2", "/topic/rooms/" + room + "/video");
+
+		b.client(SimpMessageType.UNSUBSCRIBE, "s1", "sub-1", null);
+		verify(b.bus, never()).unsubscribe(anyString());
+
+		b.client(SimpMessageType.DISCONNECT, "s2", null, null);
+		verify(b.bus, times(1)).unsubscribe(room);
+		assertEquals(0, b.bridge.stats().get("subscribedRooms"));
+
+		// Không còn subscriber: message của node khác không tới nữa
+		a.broadcast(topic(), "{\"content\":\"hi\"}");
+		assertTrue(b.delivered.isEmpty());
+	}
+
+	@Test
+	void roomMessageReachesTheOtherNodeWithDestinationAndContentType() {
+		b.client(SimpMessageType.SUBSCRIBE, "s1", "sub-1", topic());
+
+		a.broadcast(topic(), "{\"content\":\"hi\"}");
+
+		assertEquals(1, b.delivered.size());
+		Message<?> relayed = b.delivered.get(0);
+		SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.wrap(relayed);
+		assertEquals(topic(), accessor.getDestination());
+		assertEquals(MimeTypeUtils.APPLICATION_JSON, accessor.getContentType());
+		assertEquals(Boolean.TRUE, accessor.getHeader(RoomBroadcastBridge.RELAYED_HEADER));
+		assertArrayEquals("{\"content\":\"hi\"}".getBytes(StandardCharsets.UTF_8), (byte[]) relayed.getPayload());
+	}
+
+	@Test
+	void nodeDoesNotEchoItsOwnPublish() {
+		a.client(SimpMessageType.SUBSCRIBE, "s1", "sub-1", topic());
+		b.client(SimpMessageType.SUBSCRIBE, "s2", "sub-1", topic());
+
+		a.broadcast(topic(), "{}");
+
+		assertTrue(a.delivered.isEmpty());
+		assertEquals(1, b.delivered.size());
+	}
+
+	@Test
+	void relayedMessageIsNotPublishedAgain() {
+		a.client(SimpMessageType.SUBSCRIBE, "s1", "sub-1", topic());
+		b.client(SimpMessageType.SUBSCRIBE, "s2", "sub-1", topic());
+		a.broadcast(topic(), "{}");
+
+		// brokerChannel của B đưa message relay qua interceptor của chính nó
+		b.bridge.brokerInterceptor().preSend(b.delivered.get(0), b.inbound);
+
+		assertTrue(a.delivered.isEmpty());
+		assertEquals(0L, b.bridge.stats().get("published"));
+	}
+
+	@Test
+	void roomIdIsTakenFromRoomTopicsOnly() {
+		assertEquals("r1", RoomBroadcastBridge.roomIdOf("/topic/room/r1/chat"));
+		assertEquals("r1", RoomBroadcastBridge.roomIdOf("/topic/rooms/r1/video"));
+		assertEquals("r1", RoomBroadcastBridge.roomIdOf("/topic/room/r1"));
+		assertNull(RoomBroadcastBridge.roomIdOf("/topic/room/"));
+		assertNull(RoomBroadcastBridge.roomIdOf("/queue/video/sync"));
+		assertNull(RoomBroadcastBridge.roomIdOf(null));
+	}
+}
@@ -0,0 +1,142 @@
+package com.watchtogether.Broker;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.util.MultiValueMap;
+
+class RoomSubscriptionRegistryTests {
+
+	private static final String CHAT = "/topic/room/r1/chat";
+
+	private final RoomSubscriptionRegistry registry = new RoomSubscriptionRegistry();
+
+	private static Message<byte[]> message(SimpMessageType type, String sessionId, String subscriptionId,
+			String destination) {
+		SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(type);
+		accessor.setSessionId(sessionId);
+		accessor.setSubscriptionId(subscriptionId);
+		accessor.setDestination(destination);
+		return MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders());
+	}
+
+	private void subscribe(String sessionId, String subscriptionId, String destination) {
+		registry.registerSubscription(message(SimpMessageType.SUBSCRIBE, sessionId, subscriptionId, destination));
+	}
+
+	private void unsubscribe(String sessionId, String subscriptionId) {
+		registry.unregisterSubscription(message(SimpMessageType.UNSUBSCRIBE, sessionId, subscriptionId, null));
+	}
+
+	private MultiValueMap<String, String> find(String destination) {
+		return registry.findSubscriptions(message(SimpMessageType.MESSAGE, null, null, destination));
+	}
+
+	@Test
+	void roomDestinationMatchesExactlyOnly() {
+		subscribe("s1", "sub-1", CHAT);
+		subscribe("s2", "sub-7", CHAT);
+		subscribe("s3", "sub-1", "/topic/room/r1/video");
+
+		MultiValueMap<String, String> found = find(CHAT);
+		assertEquals(Map.of("s1", List.of("sub-1"), "s2", List.of("sub-7")), found);
+		assertTrue(find("/topic/room/r2/chat").isEmpty());
+	}
+
+	@Test
+	void unsubscribeAndDisconnectRemoveTheRoomEntry() {
+		subscribe("s1", "sub-1", CHAT);
+		subscribe("s1", "sub-2", "/topic/rooms/r1/video");
+		subscribe("s2", "sub-1", CHAT);
+
+		unsubscribe("s1", "sub-1");
+		assertEquals(Map.of("s2", List.of("sub-1")), find(CHAT));
+
+		registry.unregisterAllSubscriptions("s1");
+		registry.unregisterAllSubscriptions("s2");
+		assertTrue(find(CHAT).isEmpty());
+		assertEquals(0, registry.stats().get("roomDestinations"));
+		assertEquals(0, registry.stats().get("sessions"));
+	}
+
+	@Test
+	void otherDestinationsUseTheDefaultRegistry() {
+		subscribe("s1", "sub-1", "/topic/lobby");
+
+		assertEquals(Map.of("s1", List.of("sub-1")), find("/topic/lobby"));
+		assertEquals(0, registry.stats().get("roomDestinations"));
+
+		unsubscribe("s1", "sub-1");
+		assertTrue(find("/topic/lobby").isEmpty());
+	}
+
+	@Test
+	void wildcardSubscriptionReceivesRoomMessages() {
+		subscribe("s1", "sub-1", CHAT);
+		subscribe("s2", "all", "/topic/**");
+		subscribe("s3", "chats", "/topic/room/*/chat");
+
+		MultiValueMap<String, String> found = find(CHAT);
+		assertEquals(List.of("sub-1"), found.get("s1"));
+		assertEquals(List.of("all"), found.get("s2"));
+		assertEquals(List.of("chats"), found.get("s3"));
+		assertEquals(Map.of("s2", List.of("all")), find("/topic/room/r1/video"));
+	}
+
+	@Test
+	void wildcardFallbackStopsAfterThePatternIsGone() {
+		subscribe("s1", "sub-1", CHAT);
+		subscribe("s2", "all", "/topic/**");
+		subscribe("s3", "chats", "/topic/room/*/chat");
+
+		unsubscribe("s2", "all");
+		registry.unregisterAllSubscriptions("s3");
+
+		assertEquals(Map.of("s1", List.of("sub-1")), find(CHAT));
+		assertEquals(0, registry.stats().get("patternSessions"));
+	}
+
+	@Test
+	void concurrentSubscribeAndUnsubscribeKeepTheArrayConsistent() throws InterruptedException {
+		int threads = 8;
+		int perThread = 200;
+		CountDownLatch start = new CountDownLatch(1);
+		List<Thread> workers = new ArrayList<>();
+		for (int t = 0; t < threads; t++) {
+			String sessionId = "s" + t;
+			workers.add(Thread.ofVirtual().start(() -> {
+				try {
+					start.await();
+				} catch (InterruptedException e) {
+					return;
+				}
+				for (int i = 0; i < perThread; i++) {
+					subscribe(sessionId, "sub-" + i, CHAT);
+					// Giữ lại subscription chẵn
+					if (i % 2 == 1) {
+						unsubscribe(sessionId, "sub-" + i);
+					}
+				}
+			}));
+		}
+		start.countDown();
+		for (Thread worker : workers) {
+			worker.join();
+		}
+
+		MultiValueMap<String, String> found = find(CHAT);
+		assertEquals(threads, found.size());
+		found.values().forEach(ids -> assertEquals(perThread / 2, ids.size()));
+		assertEquals(threads * perThread / 2, registry.stats().get("roomSubscriptions"));
+	}
+}
@@ -0,0 +1,157 @@
+package com.watchtogether.Config;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.MessageBuilder;
+
+class InboundRateLimiterTests {
+
+	private static InboundRateLimiter limiter(String chatSession, String chatRoom, String videoSession,
+			String videoRoom) {
+		return new InboundRateLimiter(chatSession, chatRoom, videoSession, videoRoom, "0", "0", false, null);
+	}
+
+	private static Message<byte[]> send(String sessionId, String destination) {
+		SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+		accessor.setSessionId(sessionId);
+		accessor.setDestination(destination);
+		return MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders());
+	}
+
+	private static Message<byte[]> disconnect(String sessionId) {
+		SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.DISCONNECT);
+		accessor.setSessionId(sessionId);
+		return MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders());
+	}
+
+	@SuppressWarnings("unchecked")
+	private static long stat(InboundRateLimiter limiter, String group, String counter) {
+		return (Long) ((Map<String, Object>) limiter.stats().get(group)).get(counter);
+	}
+
+	@Test
+	void sessionBucketAllowsBurstThenRejects() {
+		InboundRateLimiter limiter = limiter("0", "0", "1,3", "0");
+
+		for (int i = 0; i < 3; i++) {
+			assertTrue(limiter.tryAcquireVideo("s1", "room"), "message " + i + " is within the burst");
+		}
+		assertFalse(limiter.tryAcquireVideo("s1", "room"));
+		assertEquals(3, stat(limiter, "video", "allowed"));
+		assertEquals(1, stat(limiter, "video", "rejectedBySession"));
+	}
+
+	@Test
+	void sessionBucketsAreIndependent() {
+		InboundRateLimiter limiter = limiter("0", "0", "1,1", "0");
+
+		assertTrue(limiter.tryAcquireVideo("s1", "room"));
+		assertFalse(limiter.tryAcquireVideo("s1", "room"));
+		assertTrue(limiter.tryAcquireVideo("s2", "room"));
+	}
+
+	@Test
+	void bucketRefillsAfterInterval() throws InterruptedException {
+		// 100 message/giây: một token mới sau mỗi 10 ms
+		InboundRateLimiter limiter = limiter("0", "0", "100,1", "0");
+
+		assertTrue(limiter.tryAcquireVideo("s1", "room"));
+		assertFalse(limiter.tryAcquireVideo("s1", "room"));
+		Thread.sleep(50);
+		assertTrue(limiter.tryAcquireVideo("s1", "room"));
+	}
+
+	@Test
+	void roomBucketIsSharedBySessions() {
+		InboundRateLimiter limiter = limiter("0", "0", "0", "1,2");
+
+		assertTrue(limiter.tryAcquireVideo("s1", "room"));
+		assertTrue(limiter.tryAcquireVideo("s2", "room"));
+		assertFalse(limiter.tryAcquireVideo("s3", "room"));
+		assertTrue(limiter.tryAcquireVideo("s3", "other-room"));
+		assertEquals(1, stat(limiter, "video", "rejectedByRoom"));
+	}
+
+	@Test
+	void roomRejectionDoesNotChargeTheSession() {
+		InboundRateLimiter limiter = limiter("0", "0", "1,2", "1,1");
+
+		assertTrue(limiter.tryAcquireVideo("s1", "busy"));
+		// Phòng "busy" đã hết token: session không mất token cho message bị chặn
+		for (int i = 0; i < 5; i++) {
+			assertFalse(limiter.tryAcquireVideo("s1", "busy"));
+		}
+		assertTrue(limiter.tryAcquireVideo("s1", "quiet"));
+		assertEquals(5, stat(limiter, "video", "rejectedByRoom"));
+		assertEquals(0, stat(limiter, "video", "rejectedBySession"));
+	}
+
+	@Test
+	void interceptorDropsMessagesOverBudgetPerGroup() {
+		InboundRateLimiter limiter = limiter("1,1", "0", "1,1", "0");
+		ChannelInterceptor interceptor = limiter.inboundInterceptor();
+
+		assertNotNull(interceptor.preSend(send("s1", "/app/chat.sendMessage"), null));
+		assertNull(interceptor.preSend(send("s1", "/app/chat.sendMessage"), null));
+		// Nhóm video có bucket riêng
+		assertNotNull(interceptor.preSend(send("s1", "/app/rooms/r1/video"), null));
+		assertNull(interceptor.preSend(send("s1", "/app/video/action"), null));
+		// Destination ngoài /app không bị giới hạn
+		assertNotNull(interceptor.preSend(send("s1", "/topic/room/r1"), null));
+	}
+
+	@Test
+	void roomIdIsTakenFromDestination() {
+		InboundRateLimiter limiter = limiter("0", "0", "0", "1,1");
+		ChannelInterceptor interceptor = limiter.inboundInterceptor();
+
+		assertNotNull(interceptor.preSend(send("s1", "/app/rooms/r1/video"), null));
+		assertNull(interceptor.preSend(send("s2", "/app/rooms/r1/video"), null));
+		assertNotNull(interceptor.preSend(send("s2", "/app/rooms/r2/video"), null));
+	}
+
+	@Test
+	void disconnectForgetsSessionBuckets() {
+		InboundRateLimiter limiter = limiter("0", "0", "1,1", "0");
+		ChannelInterceptor interceptor = limiter.inboundInterceptor();
+
+		assertTrue(limiter.tryAcquireVideo("s1", "room"));
+		assertFalse(limiter.tryAcquireVideo("s1", "room"));
+		interceptor.preSend(disconnect("s1"), null);
+		assertTrue(limiter.tryAcquireVideo("s1", "room"));
+	}
+
+	@Test
+	void zeroBudgetMeansUnlimited() {
+		InboundRateLimiter limiter = limiter("0", "0", "0", "0");
+
+		for (int i = 0; i < 1000; i++) {
+			assertTrue(limiter.tryAcquireVideo("s1", "room"));
+		}
+	}
+
+	@Test
+	void nativeJoinSharesTheOtherBucketWithStompRegister() {
+		InboundRateLimiter limiter = new InboundRateLimiter("0", "0", "0", "0", "1,2", "0", false, null);
+		ChannelInterceptor interceptor = limiter.inboundInterceptor();
+
+		assertTrue(limiter.tryAcquireOther("s1", "room"));
+		assertNotNull(interceptor.preSend(send("s1", "/app/room/room/register"), null));
+		assertFalse(limiter.tryAcquireOther("s1", "room"));
+		assertNull(interceptor.preSend(send("s1", "/app/room/room/register"), null));
+		// Nhóm video không bị ảnh hưởng
+		assertTrue(limiter.tryAcquireVideo("s1", "room"));
+		assertEquals(2, stat(limiter, "other", "rejectedBySession"));
+	}
+}
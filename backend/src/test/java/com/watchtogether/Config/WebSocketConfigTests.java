@@ -0,0 +1,85 @@
+package com.watchtogether.Config;
+
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.messaging.simp.config.ChannelRegistration;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.watchtogether.Broker.RoomBroadcastBridge;
+import com.watchtogether.Handler.IdleSessionReaper;
+import com.watchtogether.Handler.NativeRelaySubscriber;
+import com.watchtogether.Handler.NativeRoomRegistry;
+import com.watchtogether.Handler.NativeWebSocketHandler;
+import com.watchtogether.Handler.OutboundBackpressure;
+import com.watchtogether.Handler.WebSocketCompression;
+import com.watchtogether.util.CompactVideoCodec;
+
+class WebSocketConfigTests {
+
+	// Đọc executor đã đăng ký (API protected của ChannelRegistration)
+	private static final class Registration extends ChannelRegistration {
+		Executor registeredExecutor() {
+			return hasExecutor() ? getExecutor(() -> null, executor -> {
+			}) : null;
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static WebSocketConfig config(boolean virtualThreads) {
+		WebSocketConfig config = new WebSocketConfig(
+				mock(ObjectProvider.class),
+				mock(NativeRoomRegistry.class),
+				(ObjectProvider<RoomBroadcastBridge>) mock(ObjectProvider.class),
+				(ObjectProvider<NativeRelaySubscriber>) mock(ObjectProvider.class),
+				mock(WireFormatNegotiator.class),
+				mock(CompactVideoCodec.class),
+				mock(WebSocketCompression.class),
+				mock(OutboundBackpressure.class),
+				mock(IdleSessionReaper.class),
+				mock(InboundRateLimiter.class));
+		ReflectionTestUtils.setField(config, "virtualThreads", virtualThreads);
+		return config;
+	}
+
+	private static boolean runsOnVirtualThread(Executor executor) throws Exception {
+		CompletableFuture<Boolean> virtual = new CompletableFuture<>();
+		executor.execute(() -> virtual.complete(Thread.currentThread().isVirtual()));
+		return virtual.get(5, TimeUnit.SECONDS);
+	}
+
+	@Test
+	void channelsRunOnVirtualThreadsWhenEnabled() throws Exception {
+		WebSocketConfig config = config(true);
+		Registration inbound = new Registration();
+		Registration outbound = new Registration();
+
+		config.configureClientInboundChannel(inbound);
+		config.configureClientOutboundChannel(outbound);
+
+		assertNotNull(inbound.registeredExecutor());
+		assertTrue(runsOnVirtualThread(inbound.registeredExecutor()));
+		assertTrue(runsOnVirtualThread(outbound.registeredExecutor()));
+	}
+
+	@Test
+	void springDefaultPoolIsKeptWhenDisabled() {
+		WebSocketConfig config = config(false);
+		Registration inbound = new Registration();
+		Registration outbound = new Registration();
+
+		config.configureClientInboundChannel(inbound);
+		config.configureClientOutboundChannel(outbound);
+
+		assertNull(inbound.registeredExecutor());
+		assertNull(outbound.registeredExecutor());
+	}
+}
@@ -0,0 +1,131 @@
+package com.watchtogether.Handler;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.WebSocketSession;
+
+class IdleSessionReaperTests {
+
+	private static final long TICK_MS = 10;
+
+	// Wheel 8 bucket × 10 ms, đồng hồ do test điều khiển
+	private static final class FakeClockReaper extends IdleSessionReaper {
+		long clock;
+
+		FakeClockReaper(long idleTimeoutMs) {
+			super(TICK_MS, 8, idleTimeoutMs, 10, 3);
+		}
+
+		@Override
+		long now() {
+			return clock;
+		}
+
+		void advance(long ms) {
+			for (long elapsed = 0; elapsed < ms; elapsed += TICK_MS) {
+				clock += TICK_MS;
+				tick();
+			}
+		}
+
+		long reaped() {
+			return (Long) stats().get("reaped");
+		}
+	}
+
+	private static WebSocketSession session(String id) {
+		WebSocketSession session = mock(WebSocketSession.class);
+		when(session.getId()).thenReturn(id);
+		return session;
+	}
+
+	@Test
+	void idleSessionIsClosedAtItsDeadline() throws Exception {
+		FakeClockReaper reaper = new FakeClockReaper(50);
+		WebSocketSession session = session("s1");
+		reaper.decorate(mock(WebSocketHandler.class)).afterConnectionEstablished(session);
+
+		reaper.advance(40);
+		assertEquals(0, reaper.reaped());
+
+		reaper.advance(10);
+		assertEquals(1, reaper.reaped());
+		verify(session, timeout(1000)).close(CloseStatus.SESSION_NOT_RELIABLE);
+	}
+
+	@Test
+	void activityPushesTheDeadlineBack() throws Exception {
+		FakeClockReaper reaper = new FakeClockReaper(50);
+		WebSocketSession session = session("s1");
+		WebSocketHandler handler = reaper.decorate(mock(WebSocketHandler.class));
+		handler.afterConnectionEstablished(session);
+
+		reaper.advance(30);
+		handler.handleMessage(session, new TextMessage("ping"));
+
+		// Bucket ban đầu tới hạn ở 50 ms: entry được đặt lại theo hoạt động cuối (30 + 50)
+		reaper.advance(40);
+		assertEquals(0, reaper.reaped());
+		assertEquals(1L, reaper.stats().get("rescheduled"));
+
+		reaper.advance(10);
+		assertEquals(1, reaper.reaped());
+	}
+
+	@Test
+	void timeoutLongerThanOneRevolutionIsRescheduled() throws Exception {
+		// 200 ms > 8 bucket × 10 ms
+		FakeClockReaper reaper = new FakeClockReaper(200);
+		WebSocketSession session = session("s1");
+		reaper.decorate(mock(WebSocketHandler.class)).afterConnectionEstablished(session);
+
+		reaper.advance(190);
+		assertEquals(0, reaper.reaped());
+
+		reaper.advance(10);
+		assertEquals(1, reaper.reaped());
+	}
+
+	@Test
+	void negotiatedHeartbeatShortensTheTimeout() throws Exception {
+		FakeClockReaper reaper = new FakeClockReaper(500);
+		WebSocketSession session = session("s1");
+		reaper.decorate(mock(WebSocketHandler.class)).afterConnectionEstablished(session);
+
+		StompHeaderAccessor connect = StompHeaderAccessor.create(StompCommand.CONNECT);
+		connect.setSessionId("s1");
+		connect.setHeartbeat(10, 0);
+		reaper.inboundInterceptor().preSend(MessageBuilder.createMessage(new byte[0], connect.getMessageHeaders()),
+				null);
+
+		// max(10, 10) × 3 lần lỡ = 30 ms
+		reaper.advance(20);
+		assertEquals(0, reaper.reaped());
+		reaper.advance(10);
+		assertEquals(1, reaper.reaped());
+	}
+
+	@Test
+	void closedSessionIsNotReaped() throws Exception {
+		FakeClockReaper reaper = new FakeClockReaper(50);
+		WebSocketSession session = session("s1");
+		WebSocketHandler handler = reaper.decorate(mock(WebSocketHandler.class));
+		handler.afterConnectionEstablished(session);
+		handler.afterConnectionClosed(session, CloseStatus.NORMAL);
+
+		reaper.advance(100);
+		assertEquals(0, reaper.reaped());
+		assertEquals(0, reaper.stats().get("trackedSessions"));
+	}
+}
@@ -0,0 +1,168 @@
+package com.watchtogether.Handler;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.util.MimeTypeUtils;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.watchtogether.Config.WireFormatNegotiator;
+
+class NativeRoomRegistryTests {
+
+	private final WireFormatNegotiator wireFormat = mock(WireFormatNegotiator.class);
+	private final NativeRoomRegistry registry = new NativeRoomRegistry(new ObjectMapper(), wireFormat);
+
+	private static WebSocketSession session(String id) {
+		WebSocketSession session = mock(WebSocketSession.class);
+		when(session.getId()).thenReturn(id);
+		when(session.isOpen()).thenReturn(true);
+		when(session.getAttributes()).thenReturn(new HashMap<>());
+		return session;
+	}
+
+	private static WebSocketMessage<?> sent(WebSocketSession session) throws IOException {
+		ArgumentCaptor<WebSocketMessage<?>> captor = ArgumentCaptor.forClass(WebSocketMessage.class);
+		verify(session).sendMessage(captor.capture());
+		return captor.getValue();
+	}
+
+	private static byte[] utf8(String value) {
+		return value.getBytes(StandardCharsets.UTF_8);
+	}
+
+	@Test
+	void roomMessageIsEnvelopedOnceForEverySession() throws IOException {
+		WebSocketSession a = session("a");
+		WebSocketSession b = session("b");
+		registry.join("r1", a);
+		registry.join("r1", b);
+		registry.join("r2", session("c"));
+
+		registry.deliver("/topic/room/r1/chat", utf8("{\"content\":\"hi\"}"), MimeTypeUtils.APPLICATION_JSON, false);
+
+		WebSocketMessage<?> frame = sent(a);
+		assertSame(frame, sent(b));
+		assertEquals("{\"op\":\"event\",\"channel\":\"chat\",\"roomId\":\"r1\",\"data\":{\"content\":\"hi\"}}",
+				frame.getPayload());
+	}
+
+	@Test
+	void nonJsonBodyIsSentAsAString() throws IOException {
+		WebSocketSession a = session("a");
+		registry.join("r1", a);
+
+		registry.deliver("/topic/room/r1", utf8("plain \"text\""), MimeTypeUtils.TEXT_PLAIN, false);
+
+		assertEquals("{\"op\":\"event\",\"channel\":\"\",\"roomId\":\"r1\",\"data\":\"plain \\\"text\\\"\"}",
+				sent(a).getPayload());
+	}
+
+	@Test
+	void stateFramesAreTaggedForConflationByRoomAndChannel() throws IOException {
+		WebSocketSession a = session("a");
+		WebSocketSession b = session("b");
+		WebSocketSession c = session("c");
+		registry.join("r1", a);
+		registry.join("r1", b);
+		registry.join("r1", c);
+
+		registry.deliver("/topic/rooms/r1/video", utf8("{}"), null, true);
+		registry.deliver("/topic/room/r1/members/delta", utf8("{}"), null, false);
+		registry.sendTo(c, "r1", "members", utf8("[\"a\"]"));
+
+		ArgumentCaptor<WebSocketMessage<?>> captor = ArgumentCaptor.forClass(WebSocketMessage.class);
+		verify(a, times(2)).sendMessage(captor.capture());
+		List<WebSocketMessage<?>> frames = captor.getAllValues();
+		assertEquals("r1/video", assertInstanceOf(OutboundBackpressure.ConflatedMessage.class, frames.get(0)).key());
+		// Delta phải đến đủ, không được gộp
+		assertInstanceOf(TextMessage.class, frames.get(1));
+
+		verify(c, times(3)).sendMessage(captor.capture());
+		WebSocketMessage<?> members = captor.getValue();
+		assertEquals("r1/members", assertInstanceOf(OutboundBackpressure.ConflatedMessage.class, members).key());
+	}
+
+	@Test
+	void cborSessionGetsTheCompactVideoFrame() throws IOException {
+		WebSocketSession json = session("json");
+		WebSocketSession cbor = session("cbor");
+		cbor.getAttributes().put(WireFormatNegotiator.WIRE_FORMAT_ATTR, "cbor");
+		when(wireFormat.isCompact(cbor.getAttributes())).thenReturn(true);
+		byte[] compact = { 1, 2, 3 };
+		when(wireFormat.compactVideoFrame(any())).thenReturn(compact);
+		registry.join("r1", json);
+		registry.join("r1", cbor);
+
+		registry.deliver("/topic/rooms/r1/video", utf8("{\"type\":\"PLAY\"}"), null, false);
+
+		assertInstanceOf(TextMessage.class, sent(json));
+		BinaryMessage binary = assertInstanceOf(BinaryMessage.class, sent(cbor));
+		assertEquals(3, binary.getPayloadLength());
+	}
+
+	@Test
+	void listenersSeeFirstJoinAndLastLeave() {
+		List<String> events = new ArrayList<>();
+		registry.addRoomListener(new NativeRoomRegistry.RoomListener() {
+			@Override
+			public void roomOpened(String roomId) {
+				events.add("open " + roomId);
+			}
+
+			@Override
+			public void roomClosed(String roomId) {
+				events.add("close " + roomId);
+			}
+		});
+		WebSocketSession a = session("a");
+		WebSocketSession b = session("b");
+
+		registry.join("r1", a);
+		registry.join("r1", b);
+		registry.leave("r1", a);
+		registry.leave("r1", b);
+
+		assertEquals(List.of("open r1", "close r1"), events);
+		assertTrue(registry.roomIds().isEmpty());
+	}
+
+	@Test
+	void brokenOrClosedSessionIsDroppedFromTheRoom() throws IOException {
+		WebSocketSession broken = session("broken");
+		WebSocketSession closed = session("closed");
+		when(closed.isOpen()).thenReturn(false);
+		doThrow(new IOException("reset")).when(broken).sendMessage(any());
+		registry.join("r1", broken);
+		registry.join("r1", closed);
+
+		registry.deliver("/topic/room/r1/chat", utf8("{}"), null, false);
+
+		verify(closed, never()).sendMessage(any());
+		assertTrue(registry.roomIds().isEmpty());
+		Map<String, Object> stats = registry.stats();
+		assertEquals(0, stats.get("sessions"));
+	}
+}
@@ -0,0 +1,181 @@
+package com.watchtogether.Handler;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.messaging.simp.SimpMessageSendingOperations;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.watchtogether.Config.InboundRateLimiter;
+import com.watchtogether.Config.WireFormatNegotiator;
+import com.watchtogether.Service.RoomPresenceService;
+import com.watchtogether.Service.RoomService;
+import com.watchtogether.Service.VideoSyncService;
+import com.watchtogether.util.CompactVideoCodec;
+import com.watchtogether.util.Enum.VideoEventType;
+
+class NativeWebSocketHandlerTests {
+
+	private static final String ROOM = "room";
+
+	// Cấu hình như ObjectMapper của Spring Boot: bỏ qua field lạ ("op" trong frame video)
+	private final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+	private final NativeRoomRegistry roomRegistry = mock(NativeRoomRegistry.class);
+	private final VideoSyncService videoSyncService = mock(VideoSyncService.class);
+	private final RoomService roomService = mock(RoomService.class);
+	private final RoomPresenceService roomPresenceService = mock(RoomPresenceService.class);
+	private final InboundRateLimiter rateLimiter = mock(InboundRateLimiter.class);
+	private final NativeWebSocketHandler handler = new NativeWebSocketHandler(objectMapper, roomRegistry,
+			videoSyncService, roomService, mock(WireFormatNegotiator.class), new CompactVideoCodec(),
+			roomPresenceService, rateLimiter, mock(SimpMessageSendingOperations.class));
+
+	private final WebSocketSession session = mock(WebSocketSession.class);
+	private final Map<String, Object> attributes = new HashMap<>();
+	private final List<JsonNode> replies = new ArrayList<>();
+
+	@BeforeEach
+	void setUp() throws Exception {
+		when(session.getId()).thenReturn("s1");
+		when(session.getAttributes()).thenReturn(attributes);
+		doAnswer(invocation -> replies.add(
+				objectMapper.readTree(((TextMessage) invocation.getArgument(0)).getPayload())))
+				.when(session).sendMessage(any());
+		when(rateLimiter.tryAcquireOther(anyString(), any())).thenReturn(true);
+		when(rateLimiter.tryAcquireVideo(anyString(), any())).thenReturn(true);
+		when(rateLimiter.shouldReport(anyString())).thenReturn(true);
+		when(roomService.roomExists(ROOM)).thenReturn(true);
+		RoomPresenceService.PresenceChange change = new RoomPresenceService.PresenceChange(ROOM, List.of("p1"), List.of(), 1);
+		when(roomPresenceService.addUser(eq(ROOM), anyString())).thenReturn(change);
+		when(roomPresenceService.removeUser(eq(ROOM), anyString()))
+				.thenReturn(new RoomPresenceService.PresenceChange(ROOM, List.of(), List.of("p1"), 0));
+	}
+
+	private void receive(String json) throws Exception {
+		handler.handleTextMessage(session, new TextMessage(json));
+	}
+
+	private String lastError() {
+		JsonNode reply = replies.get(replies.size() - 1);
+		assertEquals("error", reply.path("op").asText());
+		return reply.path("message").asText();
+	}
+
+	private void join() throws Exception {
+		receive("{\"op\":\"join\",\"roomId\":\"room\",\"participantId\":\"p1\"}");
+	}
+
+	@Test
+	void joinRegistersTheSessionAndSendsTheCurrentState() throws Exception {
+		join();
+
+		verify(roomRegistry).join(ROOM, session);
+		verify(videoSyncService).sendCurrentState(eq(ROOM), any());
+		assertEquals(ROOM, attributes.get("roomId"));
+	}
+
+	@Test
+	void unknownRoomIsRejected() throws Exception {
+		when(roomService.roomExists(ROOM)).thenReturn(false);
+
+		join();
+
+		assertEquals("Room not found", lastError());
+		verify(roomRegistry, never()).join(anyString(), any());
+	}
+
+	@Test
+	void malformedVideoFrameGetsAnErrorInsteadOfAnException() throws Exception {
+		join();
+
+		receive("{\"op\":\"video\",\"type\":\"REWIND\"}");
+		assertEquals("Invalid video event", lastError());
+
+		receive("{\"op\":\"video\",\"type\":\"SEEK\",\"currentTime\":\"soon\"}");
+		assertEquals("Invalid video event", lastError());
+
+		verify(videoSyncService, never()).broadcastVideoEvent(anyString(), any());
+	}
+
+	@Test
+	void videoEventIsStampedWithTheSessionRoomAndParticipant() throws Exception {
+		join();
+
+		receive("{\"op\":\"video\",\"type\":\"SEEK\",\"currentTime\":12.5}");
+
+		verify(videoSyncService).broadcastVideoEvent(eq(ROOM), argThat(event -> event.getType() == VideoEventType.SEEK
+				&& "p1".equals(event.getParticipantId()) && ROOM.equals(event.getRoomId())
+				&& event.getCurrentTime() == 12.5));
+	}
+
+	@Test
+	void videoBeforeJoinIsRejected() throws Exception {
+		receive("{\"op\":\"video\",\"type\":\"PLAY\"}");
+
+		assertEquals("Join a room first", lastError());
+	}
+
+	@Test
+	void joinLeaveAndSyncAreChargedToTheOtherGroup() throws Exception {
+		when(rateLimiter.tryAcquireOther("s1", ROOM)).thenReturn(false);
+
+		join();
+
+		assertEquals("Rate limit exceeded", lastError());
+		verifyNoInteractions(roomRegistry);
+		verify(roomPresenceService, never()).addUser(anyString(), anyString());
+	}
+
+	@Test
+	void rateLimitedVideoIsDroppedSilentlyOnceReported() throws Exception {
+		join();
+		when(rateLimiter.tryAcquireVideo("s1", ROOM)).thenReturn(false);
+		when(rateLimiter.shouldReport("s1")).thenReturn(false);
+		int before = replies.size();
+
+		receive("{\"op\":\"video\",\"type\":\"PLAY\"}");
+
+		assertEquals(before, replies.size());
+		verify(videoSyncService, never()).broadcastVideoEvent(anyString(), any());
+	}
+
+	@Test
+	void invalidJsonAndUnknownOpsGetErrors() throws Exception {
+		receive("{not json");
+		assertEquals("Invalid JSON frame", lastError());
+
+		receive("{\"op\":\"dance\"}");
+		assertEquals("Unknown op: dance", lastError());
+	}
+
+	@Test
+	void closingTheLastSessionLeavesAndEvictsTheRoom() throws Exception {
+		join();
+
+		handler.afterConnectionClosed(session, CloseStatus.NORMAL);
+
+		verify(roomRegistry).leave(ROOM, session);
+		verify(videoSyncService).evictRoom(ROOM);
+		verify(rateLimiter).forgetSession("s1");
+	}
+}
@@ -0,0 +1,153 @@
+package com.watchtogether.Handler;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+class OutboundBackpressureTests {
+
+	// Socket giả: frame đầu tiên bị giữ lại tới khi release, để các frame sau nằm trong hàng đợi
+	private final CountDownLatch release = new CountDownLatch(1);
+	private final CountDownLatch firstWrite = new CountDownLatch(1);
+	private final List<WebSocketMessage<?>> written = Collections.synchronizedList(new ArrayList<>());
+	private final WebSocketSession raw = mock(WebSocketSession.class);
+	private final WebSocketHandler handler = mock(WebSocketHandler.class);
+
+	private WebSocketSession connect(OutboundBackpressure backpressure) throws Exception {
+		when(raw.getId()).thenReturn("s1");
+		doAnswer(invocation -> {
+			firstWrite.countDown();
+			release.await();
+			written.add(invocation.getArgument(0));
+			return null;
+		}).when(raw).sendMessage(any());
+		backpressure.decorate(handler).afterConnectionEstablished(raw);
+		ArgumentCaptor<WebSocketSession> captor = ArgumentCaptor.forClass(WebSocketSession.class);
+		verify(handler).afterConnectionEstablished(captor.capture());
+		return captor.getValue();
+	}
+
+	private static OutboundBackpressure backpressure(int chatLimit) {
+		return new OutboundBackpressure(chatLimit, 1 << 20, 5_000, 10_000);
+	}
+
+	private static TextMessage stomp(String destination, String body, String... headers) {
+		StringBuilder frame = new StringBuilder("MESSAGE\ndestination:").append(destination).append('\n');
+		for (String header : headers) {
+			frame.append(header).append('\n');
+		}
+		return new TextMessage(frame.append("subscription:sub-0\n\n").append(body).append('\0').toString());
+	}
+
+	// Gửi frame đầu để chiếm socket, chờ nó bị giữ lại
+	private void occupy(WebSocketSession session) throws Exception {
+		session.sendMessage(stomp("/topic/room/r/video", "first"));
+		assertTrue(firstWrite.await(5, TimeUnit.SECONDS));
+	}
+
+	private List<String> drained(int expected) throws InterruptedException {
+		release.countDown();
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (written.size() < expected && System.nanoTime() < deadline) {
+			Thread.sleep(5);
+		}
+		Thread.sleep(50);
+		synchronized (written) {
+			return written.stream().map(message -> {
+				String payload = (String) message.getPayload();
+				return payload.substring(payload.indexOf("\n\n") + 2, payload.length() - 1);
+			}).toList();
+		}
+	}
+
+	@Test
+	void stateFramesKeepOnlyTheLatestPerDestination() throws Exception {
+		OutboundBackpressure backpressure = backpressure(100);
+		WebSocketSession session = connect(backpressure);
+		occupy(session);
+
+		session.sendMessage(stomp("/topic/room/r/members", "m1"));
+		session.sendMessage(stomp("/topic/room/r/members", "m2"));
+		session.sendMessage(stomp("/user/queue/video/sync", "s1"));
+		session.sendMessage(stomp("/topic/room/r/members", "m3"));
+
+		assertEquals(List.of("first", "s1", "m3"), drained(3));
+		assertEquals(2L, backpressure.stats().get("conflated"));
+	}
+
+	@Test
+	void replacedStateFrameDoesNotOvertakeOrderedFrames() throws Exception {
+		WebSocketSession session = connect(backpressure(100));
+		occupy(session);
+
+		session.sendMessage(stomp("/topic/rooms/r/video", "sync-1", OutboundBackpressure.CONFLATE_HEADER + ":true"));
+		session.sendMessage(stomp("/topic/rooms/r/video", "change"));
+		session.sendMessage(stomp("/topic/rooms/r/video", "sync-2", OutboundBackpressure.CONFLATE_HEADER + ":true"));
+
+		assertEquals(List.of("first", "change", "sync-2"), drained(3));
+	}
+
+	@Test
+	void chatBeyondTheLimitDropsTheOldest() throws Exception {
+		OutboundBackpressure backpressure = backpressure(2);
+		WebSocketSession session = connect(backpressure);
+		occupy(session);
+
+		session.sendMessage(stomp("/topic/room/r/chat", "c1"));
+		session.sendMessage(stomp("/topic/room/r", "join"));
+		session.sendMessage(stomp("/topic/room/r/chat", "c2"));
+		session.sendMessage(stomp("/topic/room/r/chat", "c3"));
+
+		assertEquals(List.of("first", "join", "c2", "c3"), drained(4));
+		assertEquals(1L, backpressure.stats().get("droppedChat"));
+	}
+
+	@Test
+	void wrappedNativeFrameIsConflatedByKeyAndUnwrapped() throws Exception {
+		WebSocketSession session = connect(backpressure(100));
+		occupy(session);
+		TextMessage latest = new TextMessage("MESSAGE\n\nnot-parsed\0");
+
+		session.sendMessage(new OutboundBackpressure.ConflatedMessage<>(new TextMessage("old"), "r:members"));
+		session.sendMessage(new OutboundBackpressure.ConflatedMessage<>(latest, "r:members"));
+
+		drained(2);
+		assertEquals(2, written.size());
+		assertSame(latest, written.get(1));
+	}
+
+	@Test
+	void sessionOverBudgetPastTheGraceIsClosed() throws Exception {
+		OutboundBackpressure backpressure = new OutboundBackpressure(100, 64, 0, 10_000);
+		WebSocketSession session = connect(backpressure);
+		occupy(session);
+
+		session.sendMessage(stomp("/topic/room/r", "x".repeat(100)));
+		Thread.sleep(5);
+		session.sendMessage(stomp("/topic/room/r", "y"));
+
+		verify(raw, timeout(2000)).close(CloseStatus.SESSION_NOT_RELIABLE);
+		assertEquals(1L, backpressure.stats().get("disconnected"));
+		release.countDown();
+	}
+}
@@ -0,0 +1,157 @@
+package com.watchtogether.Handler;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayOutputStream;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Inflater;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+class WebSocketCompressionTests {
+
+	private static final int MIN_SIZE = 64;
+
+	private final WebSocketCompression compression = new WebSocketCompression(true, MIN_SIZE, 1);
+	private final WebSocketHandler handler = mock(WebSocketHandler.class);
+
+	private static WebSocketSession session(String id, String query, String wireFormat) {
+		WebSocketSession session = mock(WebSocketSession.class);
+		Map<String, Object> attributes = new HashMap<>();
+		if (wireFormat != null) {
+			attributes.put("wireFormat", wireFormat);
+		}
+		when(session.getId()).thenReturn(id);
+		when(session.getUri()).thenReturn(URI.create("ws://localhost/ws-native" + query));
+		when(session.getExtensions()).thenReturn(List.of());
+		when(session.getAttributes()).thenReturn(attributes);
+		return session;
+	}
+
+	// Session mà handler bên trong nhận được (đã qua bộ nén)
+	private WebSocketSession connect(WebSocketSession raw) throws Exception {
+		WebSocketHandler decorated = compression.decorate(handler);
+		decorated.afterConnectionEstablished(raw);
+		ArgumentCaptor<WebSocketSession> captor = ArgumentCaptor.forClass(WebSocketSession.class);
+		verify(handler).afterConnectionEstablished(captor.capture());
+		return captor.getValue();
+	}
+
+	private static WebSocketMessage<?> sent(WebSocketSession raw) throws Exception {
+		ArgumentCaptor<WebSocketMessage<?>> captor = ArgumentCaptor.forClass(WebSocketMessage.class);
+		verify(raw).sendMessage(captor.capture());
+		return captor.getValue();
+	}
+
+	private static String inflate(ByteBuffer payload) throws Exception {
+		byte[] input = new byte[payload.remaining()];
+		payload.duplicate().get(input);
+		Inflater inflater = new Inflater(true);
+		inflater.setInput(input);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[1024];
+		while (!inflater.finished()) {
+			out.write(buffer, 0, inflater.inflate(buffer));
+		}
+		inflater.end();
+		return out.toString(StandardCharsets.UTF_8);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Map<String, Object> sessionStats(WebSocketCompression compression, String id) {
+		return (Map<String, Object>) ((Map<String, Object>) compression.stats().get("topSessions")).get(id);
+	}
+
+	@Test
+	void largeTextFrameIsSentAsDeflateRawBinary() throws Exception {
+		WebSocketSession raw = session("s1", "?compress=deflate", null);
+		String body = "{\"type\":\"SYNC_STATE\"}".repeat(20);
+
+		connect(raw).sendMessage(new TextMessage(body));
+
+		BinaryMessage binary = assertInstanceOf(BinaryMessage.class, sent(raw));
+		assertEquals(body, inflate(binary.getPayload()));
+		Map<String, Object> stats = sessionStats(compression, "s1");
+		assertEquals("app-deflate", stats.get("mode"));
+		assertEquals(1L, stats.get("compressedMessages"));
+		assertEquals((long) body.length(), stats.get("rawBytes"));
+		assertEquals((long) binary.getPayloadLength(), stats.get("sentBytes"));
+	}
+
+	@Test
+	void smallFrameStaysText() throws Exception {
+		WebSocketSession raw = session("s1", "?compress=deflate", null);
+		TextMessage small = new TextMessage("{\"t\":1}");
+
+		connect(raw).sendMessage(small);
+
+		assertSame(small, sent(raw));
+	}
+
+	@Test
+	void sessionWithoutTheParameterIsOnlyMeasured() throws Exception {
+		WebSocketSession raw = session("s1", "", null);
+
+		connect(raw).sendMessage(new TextMessage("x".repeat(MIN_SIZE * 4)));
+
+		assertInstanceOf(TextMessage.class, sent(raw));
+		assertEquals("none", sessionStats(compression, "s1").get("mode"));
+		assertEquals((long) MIN_SIZE * 4, sessionStats(compression, "s1").get("sentBytes"));
+	}
+
+	@Test
+	void cborSessionIsNotDeflated() throws Exception {
+		WebSocketSession raw = session("s1", "?compress=deflate", "cbor");
+
+		connect(raw).sendMessage(new TextMessage("x".repeat(MIN_SIZE * 4)));
+
+		assertInstanceOf(TextMessage.class, sent(raw));
+		assertEquals("none", sessionStats(compression, "s1").get("mode"));
+	}
+
+	@Test
+	void conflatedFrameKeepsItsKeyAfterCompression() throws Exception {
+		WebSocketSession raw = session("s1", "?compress=deflate", null);
+		String body = "{\"members\":[\"a\",\"b\",\"c\"]}".repeat(10);
+
+		connect(raw).sendMessage(new OutboundBackpressure.ConflatedMessage<>(new TextMessage(body), "room:members"));
+
+		OutboundBackpressure.ConflatedMessage<?> conflated = assertInstanceOf(OutboundBackpressure.ConflatedMessage.class,
+				sent(raw));
+		assertEquals("room:members", conflated.key());
+		BinaryMessage binary = assertInstanceOf(BinaryMessage.class, conflated.message());
+		assertEquals(body, inflate(binary.getPayload()));
+	}
+
+	@Test
+	void closedSessionTotalsAreKept() throws Exception {
+		WebSocketSession raw = session("s1", "?compress=deflate", null);
+		WebSocketHandler decorated = compression.decorate(handler);
+		decorated.afterConnectionEstablished(raw);
+		ArgumentCaptor<WebSocketSession> captor = ArgumentCaptor.forClass(WebSocketSession.class);
+		verify(handler).afterConnectionEstablished(captor.capture());
+		captor.getValue().sendMessage(new TextMessage("y".repeat(1000)));
+
+		decorated.afterConnectionClosed(raw, CloseStatus.NORMAL);
+
+		assertEquals(0, compression.stats().get("sessions"));
+		assertEquals(1000L, compression.stats().get("rawBytes"));
+	}
+}
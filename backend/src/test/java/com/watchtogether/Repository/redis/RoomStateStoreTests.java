@@ -0,0 +1,92 @@
+package com.watchtogether.Repository.redis;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Instant;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import com.watchtogether.Entity.redis.Room;
+
+class RoomStateStoreTests {
+
+	@SuppressWarnings("unchecked")
+	private final RedisTemplate<String, String> redisTemplate = mock(RedisTemplate.class);
+	private final RoomStateStore store = new RoomStateStore(redisTemplate);
+
+	@SuppressWarnings("unchecked")
+	private void scriptReturns(Long result) {
+		when(redisTemplate.execute(any(RedisScript.class), anyList(), any(Object[].class))).thenReturn(result);
+	}
+
+	private static Room room() {
+		return Room.builder().id("room").version(3L).build();
+	}
+
+	@Test
+	void updatedSetsTheNewVersion() {
+		scriptReturns(4L);
+		Room room = room();
+
+		assertEquals(RoomStateStore.Result.UPDATED, store.updatePlayback(room, 3L));
+		assertEquals(4L, room.getVersion());
+	}
+
+	@Test
+	void versionMismatchIsAConflict() {
+		scriptReturns(-2L);
+		Room room = room();
+
+		assertEquals(RoomStateStore.Result.CONFLICT, store.updatePlayback(room, 3L));
+		assertEquals(3L, room.getVersion());
+	}
+
+	@Test
+	void missingHashIsNotFound() {
+		scriptReturns(-1L);
+		assertEquals(RoomStateStore.Result.NOT_FOUND, store.updatePlayback(room(), 3L));
+
+		scriptReturns(null);
+		assertEquals(RoomStateStore.Result.NOT_FOUND, store.updatePlayback(room(), 3L));
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	void onlyNonNullPlaybackFieldsAreSentInSpringDataFormat() {
+		scriptReturns(1L);
+		Room room = Room.builder().id("room")
+				.lastPosition(12.5)
+				.playbackState("PLAYING")
+				.lastSyncAt(Instant.parse("2025-01-01T00:00:00Z"))
+				.build();
+
+		store.updatePlayback(room, null);
+
+		ArgumentCaptor<Object[]> args = ArgumentCaptor.forClass(Object[].class);
+		verify(redisTemplate).execute(any(RedisScript.class), eq(List.of("Room:room")), args.capture());
+		assertArrayEquals(new Object[] { "",
+				"lastPosition", "12.5",
+				"playbackState", "PLAYING",
+				"lastSyncAt", "2025-01-01T00:00:00Z" }, args.getValue());
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	void sequenceUsesItsOwnKey() {
+		scriptReturns(9L);
+
+		assertEquals(9L, store.raiseSequence("room", 5L));
+		verify(redisTemplate).execute(any(RedisScript.class), eq(List.of("video:seq:room")), any(Object[].class));
+	}
+}
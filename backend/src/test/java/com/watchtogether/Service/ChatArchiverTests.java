@@ -0,0 +1,158 @@
+package com.watchtogether.Service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.contains;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.watchtogether.Repository.jpa.ChatMessageView;
+import com.watchtogether.util.ChatCursor;
+
+class ChatArchiverTests {
+
+	private static final LocalDateTime T = LocalDateTime.of(2024, 1, 10, 12, 0);
+
+	@TempDir
+	Path dir;
+
+	private final JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+	private final ChatPartitionManager partitionManager = mock(ChatPartitionManager.class);
+
+	private ChatArchiver archiver(boolean enabled) {
+		return new ChatArchiver(jdbcTemplate, mock(PlatformTransactionManager.class), partitionManager,
+				new ObjectMapper(), enabled, 180, dir.toString(), 100);
+	}
+
+	private static String line(long id, String type, LocalDateTime timestamp) {
+		return "{\"id\":" + id + ",\"type\":\"" + type + "\",\"content\":\"m" + id + "\",\"sender\":\"alice\","
+				+ "\"roomId\":\"r1\",\"timestamp\":\"" + timestamp + "\"}";
+	}
+
+	// Ghi một file lưu trữ của phòng r1 trong thư mục partition
+	private void archiveFile(String partition, String... lines) throws IOException {
+		Path partitionDir = Files.createDirectories(dir.resolve(partition));
+		try (OutputStream out = new GZIPOutputStream(
+				Files.newOutputStream(partitionDir.resolve(ChatArchiver.fileName("r1"))))) {
+			out.write(String.join("\n", lines).concat("\n").getBytes(StandardCharsets.UTF_8));
+		}
+	}
+
+	private static List<Long> ids(List<ChatMessageView> page) {
+		return page.stream().map(ChatMessageView::getId).toList();
+	}
+
+	@Test
+	void pageBeforeReturnsTheNewestArchivedRowsAcrossPartitions() throws IOException {
+		// Ghi partition tháng trước để thứ tự đọc không phụ thuộc thứ tự tạo thư mục
+		archiveFile("chat_messages_p202402", line(5, "CHAT", T.plusMonths(1)), line(6, "CHAT", T.plusMonths(1).plusMinutes(1)));
+		archiveFile(ChatPartitionManager.LEGACY_PARTITION, line(1, "CHAT", T), line(2, "JOIN", T.plusMinutes(1)),
+				line(3, "CHAT", T.plusMinutes(2)));
+
+		assertEquals(List.of(6L, 5L, 3L), ids(archiver(false).pageBefore("r1", null, 3)));
+	}
+
+	@Test
+	void cursorTieOnTimestampIsBrokenById() throws IOException {
+		archiveFile(ChatPartitionManager.LEGACY_PARTITION, line(1, "CHAT", T), line(2, "CHAT", T), line(3, "CHAT", T),
+				line(4, "CHAT", T.plusMinutes(1)));
+
+		List<ChatMessageView> page = archiver(false).pageBefore("r1", new ChatCursor(T, 3), 10);
+
+		assertEquals(List.of(2L, 1L), ids(page));
+		assertEquals("m2", page.get(0).getContent());
+		assertEquals("alice", page.get(0).getSenderName());
+	}
+
+	@Test
+	void unfinishedTmpDirectoryAndOtherRoomsAreIgnored() throws IOException {
+		archiveFile("chat_messages_p202402.tmp", line(9, "CHAT", T));
+		Files.createDirectories(dir.resolve("chat_messages_p202403"));
+		Files.write(dir.resolve("chat_messages_p202403").resolve(ChatArchiver.fileName("r2")), new byte[0]);
+
+		ChatArchiver archiver = archiver(false);
+
+		assertTrue(archiver.pageBefore("r1", null, 10).isEmpty());
+		assertEquals(0, archiver.copyRoom("r1", null, new ByteArrayOutputStream()));
+	}
+
+	@Test
+	void copyRoomFiltersByType() throws IOException {
+		archiveFile(ChatPartitionManager.LEGACY_PARTITION, line(1, "CHAT", T), line(2, "JOIN", T), line(3, "LEAVE", T));
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+		long rows = archiver(false).copyRoom("r1", Set.of("JOIN", "LEAVE"), out);
+
+		assertEquals(2, rows);
+		assertEquals(line(2, "JOIN", T) + "\n" + line(3, "LEAVE", T) + "\n", out.toString(StandardCharsets.UTF_8));
+	}
+
+	@Test
+	void oldPartitionIsWrittenPerRoomThenDetachedAndDropped() throws Exception {
+		String partition = "chat_messages_p202401";
+		when(partitionManager.isPartitioned()).thenReturn(true);
+		when(partitionManager.partitions()).thenReturn(List.of(
+				new ChatPartitionManager.Partition(partition, LocalDateTime.of(2024, 2, 1, 0, 0)),
+				new ChatPartitionManager.Partition("chat_messages_p209901", LocalDateTime.of(2099, 2, 1, 0, 0))));
+		when(jdbcTemplate.queryForObject(contains("pg_try_advisory_xact_lock"), eq(Boolean.class))).thenReturn(true);
+		ResultSet rs = mock(ResultSet.class);
+		when(rs.next()).thenReturn(true, true, true, false);
+		when(rs.getString("room_id")).thenReturn("r1", "r1", "r2");
+		when(rs.getLong("id")).thenReturn(1L, 2L, 3L);
+		when(rs.getString("type")).thenReturn("CHAT");
+		when(rs.getTimestamp("timestamp")).thenReturn(Timestamp.valueOf(T));
+		when(jdbcTemplate.query(any(PreparedStatementCreator.class), any(ResultSetExtractor.class)))
+				.thenAnswer(invocation -> ((ResultSetExtractor<?>) invocation.getArgument(1)).extractData(rs));
+		ChatArchiver archiver = archiver(true);
+
+		archiver.archive();
+
+		verify(jdbcTemplate).execute("ALTER TABLE chat_messages DETACH PARTITION " + partition);
+		verify(jdbcTemplate).execute("DROP TABLE " + partition);
+		verify(jdbcTemplate, never()).execute("DROP TABLE chat_messages_p209901");
+		assertFalse(Files.exists(dir.resolve(partition + ".tmp")));
+		assertEquals(List.of(2L, 1L), ids(archiver.pageBefore("r1", null, 10)));
+		assertEquals(List.of(3L), ids(archiver.pageBefore("r2", null, 10)));
+		assertEquals(3L, archiver.stats().get("rowsArchived"));
+	}
+
+	@Test
+	void partitionIsLeftAloneWhenAnotherNodeHoldsTheLock() {
+		when(partitionManager.isPartitioned()).thenReturn(true);
+		when(partitionManager.partitions()).thenReturn(List.of(
+				new ChatPartitionManager.Partition("chat_messages_p202401", LocalDateTime.of(2024, 2, 1, 0, 0))));
+		when(jdbcTemplate.queryForObject(contains("pg_try_advisory_xact_lock"), eq(Boolean.class))).thenReturn(false);
+
+		archiver(true).archive();
+
+		verify(jdbcTemplate, never()).execute(anyString());
+		assertFalse(Files.exists(dir.resolve("chat_messages_p202401")));
+	}
+}
@@ -0,0 +1,73 @@
+package com.watchtogether.Service;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class ChatDedupeWindowTests {
+
+	// Cửa sổ 120 giây: thế hệ xoay mỗi 60 giây
+	private static final long HALF = 60_000;
+
+	private static ChatDedupeWindow window(int maxPerRoom) {
+		return new ChatDedupeWindow(null, 120, maxPerRoom, false);
+	}
+
+	@Test
+	void duplicateInsideWindowIsRejected() {
+		ChatDedupeWindow window = window(100);
+
+		assertTrue(window.firstSeen("room", "a", 0));
+		assertFalse(window.firstSeen("room", "a", 1_000));
+	}
+
+	@Test
+	void idSurvivesOneRotationThenExpires() {
+		ChatDedupeWindow window = window(100);
+		assertTrue(window.firstSeen("room", "a", 0));
+
+		// Xoay lần 1: "a" sang thế hệ trước, vẫn bị nhận ra
+		assertFalse(window.firstSeen("room", "a", HALF));
+		assertFalse(window.firstSeen("room", "a", 2 * HALF - 1));
+
+		// Xoay lần 2: thế hệ chứa "a" bị bỏ
+		assertTrue(window.firstSeen("room", "a", 2 * HALF));
+	}
+
+	@Test
+	void silenceLongerThanWindowForgetsBothGenerations() {
+		ChatDedupeWindow window = window(100);
+		assertTrue(window.firstSeen("room", "a", 0));
+		assertTrue(window.firstSeen("room", "b", HALF + 1));
+
+		assertTrue(window.firstSeen("room", "b", HALF + 1 + 2 * HALF));
+		assertTrue(window.firstSeen("room", "a", HALF + 2 + 2 * HALF));
+	}
+
+	@Test
+	void fullGenerationRotatesEarly() {
+		ChatDedupeWindow window = window(2);
+		assertTrue(window.firstSeen("room", "a", 0));
+		assertTrue(window.firstSeen("room", "b", 0));
+
+		// Thế hệ hiện tại đủ 2 id: xoay ngay, "a" và "b" còn trong thế hệ trước
+		assertTrue(window.firstSeen("room", "c", 1));
+		assertFalse(window.firstSeen("room", "a", 2));
+		assertTrue(window.firstSeen("room", "d", 3));
+
+		// Xoay tiếp: {c, d} thành thế hệ trước, {a, b} bị bỏ
+		assertTrue(window.firstSeen("room", "e", 4));
+		assertFalse(window.firstSeen("room", "c", 5));
+		assertTrue(window.firstSeen("room", "a", 6));
+	}
+
+	@Test
+	void roomsHaveSeparateWindows() {
+		ChatDedupeWindow window = window(100);
+
+		assertTrue(window.firstSeen("room-1", "a", 0));
+		assertTrue(window.firstSeen("room-2", "a", 0));
+		assertFalse(window.firstSeen("room-2", "a", 1));
+	}
+}
@@ -0,0 +1,94 @@
+package com.watchtogether.Service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.watchtogether.Entity.jpa.ChatMessage.MessageType;
+
+class ChatExportServiceTests {
+
+	private final JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+	private final ChatArchiver chatArchiver = mock(ChatArchiver.class);
+	private final ChatExportService service = new ChatExportService(jdbcTemplate, mock(PlatformTransactionManager.class),
+			new ObjectMapper(), chatArchiver, 100);
+
+	// Cursor giả trả về một dòng chat duy nhất từ Postgres
+	private void databaseReturnsOneRow() throws Exception {
+		ResultSet rs = mock(ResultSet.class);
+		when(rs.next()).thenReturn(true, false);
+		when(rs.getLong("id")).thenReturn(7L);
+		when(rs.getString("type")).thenReturn("CHAT");
+		when(rs.getString("content")).thenReturn("hi");
+		when(rs.getString("sender_name")).thenReturn("bob");
+		when(rs.getTimestamp("timestamp")).thenReturn(Timestamp.valueOf(LocalDateTime.of(2025, 3, 1, 10, 0)));
+		when(jdbcTemplate.query(any(PreparedStatementCreator.class), any(ResultSetExtractor.class)))
+				.thenAnswer(invocation -> ((ResultSetExtractor<?>) invocation.getArgument(1)).extractData(rs));
+	}
+
+	@Test
+	void archivedLinesComeBeforeDatabaseRows() throws Exception {
+		databaseReturnsOneRow();
+		doAnswer(invocation -> {
+			((OutputStream) invocation.getArgument(2)).write("{\"id\":1,\"type\":\"CHAT\"}\n".getBytes(StandardCharsets.UTF_8));
+			return 1L;
+		}).when(chatArchiver).copyRoom(eq("r1"), isNull(), any());
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+		long rows = service.exportRoom("r1", List.of(MessageType.values()), out);
+
+		assertEquals(2, rows);
+		assertEquals("{\"id\":1,\"type\":\"CHAT\"}\n"
+				+ "{\"id\":7,\"type\":\"CHAT\",\"content\":\"hi\",\"sender\":\"bob\",\"roomId\":\"r1\","
+				+ "\"timestamp\":\"2025-03-01T10:00\"}\n", out.toString(StandardCharsets.UTF_8));
+		assertEquals(2L, service.stats().get("rows"));
+		assertEquals(0L, service.stats().get("active"));
+	}
+
+	@Test
+	void typeSubsetIsPassedToTheArchive() throws Exception {
+		databaseReturnsOneRow();
+
+		service.exportRoom("r1", List.of(MessageType.JOIN, MessageType.LEAVE), new ByteArrayOutputStream());
+
+		verify(chatArchiver).copyRoom(eq("r1"), eq(Set.of("JOIN", "LEAVE")), any());
+	}
+
+	@Test
+	void clientDisconnectSurfacesAsIOExceptionAndIsCounted() throws Exception {
+		databaseReturnsOneRow();
+		OutputStream broken = new OutputStream() {
+			@Override
+			public void write(int b) throws IOException {
+				throw new IOException("broken pipe");
+			}
+		};
+
+		assertThrows(IOException.class, () -> service.exportRoom("r1", List.of(MessageType.CHAT), broken));
+		assertEquals(1L, service.stats().get("failed"));
+		assertEquals(0L, service.stats().get("active"));
+	}
+}
@@ -0,0 +1,102 @@
+package com.watchtogether.Service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ParameterizedPreparedStatementSetter;
+
+import com.watchtogether.DTO.ChatMessageDTO;
+
+class ChatMessageWriterTests {
+
+	private final JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+	// Nội dung từng batch được ghi (writer dùng lại list nên phải chép ra)
+	private final List<List<String>> batches = Collections.synchronizedList(new ArrayList<>());
+
+	private ChatMessageWriter writer(int capacity, int batchSize, String overflow) {
+		doAnswer(invocation -> {
+			Collection<ChatMessageDTO> rows = invocation.getArgument(1);
+			batches.add(rows.stream().map(ChatMessageDTO::getContent).toList());
+			return new int[0][];
+		}).when(jdbcTemplate).batchUpdate(anyString(), any(Collection.class), anyInt(),
+				any(ParameterizedPreparedStatementSetter.class));
+		return new ChatMessageWriter(jdbcTemplate, capacity, batchSize, 20, overflow, 10);
+	}
+
+	private static ChatMessageDTO message(String content) {
+		ChatMessageDTO message = new ChatMessageDTO();
+		message.setRoomId("room");
+		message.setSender("alice");
+		message.setContent(content);
+		message.setTimestamp(LocalDateTime.of(2025, 1, 1, 12, 0));
+		return message;
+	}
+
+	@Test
+	void queuedMessagesAreWrittenInBatchesOfAtMostBatchSize() throws InterruptedException {
+		ChatMessageWriter writer = writer(100, 3, "block");
+		for (int i = 1; i <= 5; i++) {
+			assertTrue(writer.enqueue(message("m" + i)));
+		}
+
+		writer.start();
+		writer.shutdown();
+
+		assertEquals(List.of(List.of("m1", "m2", "m3"), List.of("m4", "m5")), batches);
+		assertEquals(5L, writer.stats().get("written"));
+		assertEquals(2L, writer.stats().get("batches"));
+	}
+
+	@Test
+	void fullQueueDropsInDropMode() {
+		ChatMessageWriter writer = writer(1, 10, "drop");
+
+		assertTrue(writer.enqueue(message("m1")));
+		assertFalse(writer.enqueue(message("m2")));
+		assertEquals(1L, writer.stats().get("dropped"));
+	}
+
+	@Test
+	void fullQueueWaitsThenDropsInBlockMode() {
+		ChatMessageWriter writer = writer(1, 10, "block");
+		writer.enqueue(message("m1"));
+
+		long start = System.nanoTime();
+		assertFalse(writer.enqueue(message("m2")));
+		assertTrue(System.nanoTime() - start >= 5_000_000L, "offer should wait for the timeout");
+	}
+
+	@Test
+	void failedBatchIsRetriedRowByRow() throws InterruptedException {
+		ChatMessageWriter writer = new ChatMessageWriter(jdbcTemplate, 100, 10, 20, "block", 10);
+		when(jdbcTemplate.batchUpdate(anyString(), any(Collection.class), anyInt(),
+				any(ParameterizedPreparedStatementSetter.class))).thenThrow(new RuntimeException("fk violation"));
+		when(jdbcTemplate.update(anyString(), any(), eq("bad"), any(), any(), any(), any()))
+				.thenThrow(new RuntimeException("fk violation"));
+		writer.enqueue(message("ok-1"));
+		writer.enqueue(message("bad"));
+		writer.enqueue(message("ok-2"));
+
+		writer.start();
+		writer.shutdown();
+
+		assertEquals(2L, writer.stats().get("written"));
+		assertEquals(1L, writer.stats().get("failed"));
+	}
+}
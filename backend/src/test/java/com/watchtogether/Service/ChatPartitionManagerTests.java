@@ -0,0 +1,152 @@
+package com.watchtogether.Service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.contains;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.startsWith;
+import static org.mockito.Mockito.atLeast;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.sql.ResultSet;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.transaction.PlatformTransactionManager;
+
+class ChatPartitionManagerTests {
+
+	private final JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+	private final ChatPartitionManager manager = new ChatPartitionManager(jdbcTemplate,
+			mock(PlatformTransactionManager.class), true, 2);
+
+	private static String name(YearMonth month) {
+		return String.format("chat_messages_p%d%02d", month.getYear(), month.getMonthValue());
+	}
+
+	private static String bound(YearMonth month) {
+		return month.atDay(1) + " 00:00:00";
+	}
+
+	// pg_inherits trả về các partition với biểu thức cận như Postgres in ra
+	private void partitions(String... nameAndBound) {
+		when(jdbcTemplate.query(contains("pg_inherits"), any(RowMapper.class))).thenAnswer(invocation -> {
+			RowMapper<?> mapper = invocation.getArgument(1);
+			List<Object> result = new ArrayList<>();
+			for (int i = 0; i < nameAndBound.length; i += 2) {
+				ResultSet rs = mock(ResultSet.class);
+				when(rs.getString(1)).thenReturn(nameAndBound[i]);
+				when(rs.getString(2)).thenReturn(nameAndBound[i + 1]);
+				result.add(mapper.mapRow(rs, i / 2));
+			}
+			return result;
+		});
+	}
+
+	private void relkind(String kind) {
+		when(jdbcTemplate.queryForList(contains("relkind"), eq(String.class)))
+				.thenReturn(kind == null ? List.of() : List.of(kind));
+	}
+
+	private List<String> executed() {
+		ArgumentCaptor<String> sql = ArgumentCaptor.forClass(String.class);
+		verify(jdbcTemplate, atLeast(0)).execute(sql.capture());
+		return sql.getAllValues();
+	}
+
+	@Test
+	void upperBoundIsParsedAndDefaultPartitionHasNone() {
+		partitions("chat_messages_legacy", "FOR VALUES FROM (MINVALUE) TO ('2025-02-01 00:00:00')",
+				"chat_messages_default", "DEFAULT");
+
+		List<ChatPartitionManager.Partition> partitions = manager.partitions();
+
+		assertEquals(LocalDateTime.of(2025, 2, 1, 0, 0), partitions.get(0).upperBound());
+		assertNull(partitions.get(1).upperBound());
+	}
+
+	@Test
+	void missingMonthsAreCreatedFromTheHighestBoundUpToPremake() {
+		YearMonth next = YearMonth.now().plusMonths(1);
+		partitions("chat_messages_legacy", "FOR VALUES FROM (MINVALUE) TO ('" + bound(next) + "')");
+		when(jdbcTemplate.queryForObject(anyString(), eq(Boolean.class), eq(name(next)))).thenReturn(true);
+
+		manager.ensurePartitions();
+
+		YearMonth last = YearMonth.now().plusMonths(2);
+		verify(jdbcTemplate, never()).execute(contains(name(next)));
+		verify(jdbcTemplate).execute("CREATE TABLE IF NOT EXISTS " + name(last) + " PARTITION OF chat_messages "
+				+ "FOR VALUES FROM ('" + bound(last) + "') TO ('" + bound(last.plusMonths(1)) + "')");
+		verify(jdbcTemplate, times(1)).execute(startsWith("CREATE TABLE"));
+		assertEquals(1L, manager.stats().get("partitionsCreated"));
+	}
+
+	@Test
+	void failedCreateDoesNotStopTheRemainingMonths() {
+		partitions();
+		YearMonth now = YearMonth.now();
+		doThrow(new RuntimeException("already exists")).when(jdbcTemplate).execute(contains(name(now)));
+
+		manager.ensurePartitions();
+
+		verify(jdbcTemplate).execute(contains(name(now.plusMonths(1))));
+		verify(jdbcTemplate).execute(contains(name(now.plusMonths(2))));
+		assertEquals(2L, manager.stats().get("partitionsCreated"));
+	}
+
+	@Test
+	void plainTableIsConvertedWithLegacyAttachedBeforeTheFirstMonth() {
+		relkind("r");
+		partitions();
+		when(jdbcTemplate.queryForObject(contains("pg_constraint"), eq(Integer.class), any(Object[].class))).thenReturn(0);
+
+		manager.init();
+
+		List<String> sql = executed();
+		String firstMonth = bound(YearMonth.now().plusMonths(1));
+		assertEquals("SELECT pg_advisory_xact_lock(hashtext('chat_messages_partitioning'))", sql.get(0));
+		assertEquals("ALTER TABLE chat_messages RENAME TO chat_messages_legacy", sql.get(1));
+		int attach = sql.indexOf("ALTER TABLE chat_messages ATTACH PARTITION chat_messages_legacy "
+				+ "FOR VALUES FROM (MINVALUE) TO ('" + firstMonth + "')");
+		int createParent = sql.indexOf("CREATE TABLE chat_messages (LIKE chat_messages_legacy "
+				+ "INCLUDING DEFAULTS INCLUDING GENERATED) PARTITION BY RANGE (\"timestamp\")");
+		assertTrue(createParent >= 0 && attach > createParent);
+		int foreignKey = sql.indexOf("ALTER TABLE chat_messages ADD CONSTRAINT chat_messages_room_id_fkey "
+				+ "FOREIGN KEY (room_id) REFERENCES rooms (room_id)");
+		assertTrue(foreignKey > attach);
+		assertTrue(sql.contains("ALTER TABLE chat_messages ADD CONSTRAINT chat_messages_sender_id_fkey "
+				+ "FOREIGN KEY (sender_id) REFERENCES users (id)"));
+		assertEquals(true, manager.stats().get("migratedThisRun"));
+	}
+
+	@Test
+	void alreadyPartitionedTableOnlyGetsMissingForeignKeysAndMonths() {
+		relkind("p");
+		partitions("chat_messages_p209901", "FOR VALUES FROM ('2099-01-01 00:00:00') TO ('2099-02-01 00:00:00')");
+		when(jdbcTemplate.queryForObject(contains("pg_constraint"), eq(Integer.class), eq("room_id"))).thenReturn(1);
+		when(jdbcTemplate.queryForObject(contains("pg_constraint"), eq(Integer.class), eq("sender_id"))).thenReturn(0);
+
+		manager.init();
+
+		verify(jdbcTemplate, never()).execute(contains("RENAME TO"));
+		verify(jdbcTemplate, never()).execute(contains("chat_messages_room_id_fkey"));
+		verify(jdbcTemplate).execute(contains("chat_messages_sender_id_fkey"));
+		// Cận trên đã vượt xa tháng này + 2: không tạo thêm
+		verify(jdbcTemplate, never()).execute(startsWith("CREATE TABLE"));
+		assertEquals(false, manager.stats().get("migratedThisRun"));
+	}
+}
@@ -0,0 +1,116 @@
+package com.watchtogether.Service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.contains;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+
+import com.watchtogether.DTO.ChatMessageDTO;
+import com.watchtogether.util.ChatCursor;
+
+class ChatSearchServiceTests {
+
+	private static final LocalDateTime T = LocalDateTime.of(2025, 5, 1, 9, 0);
+
+	private final JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+	private final ChatSearchService service = new ChatSearchService(jdbcTemplate, "english", true);
+
+	// Truy vấn trả về các dòng có id cho trước (mới → cũ), cách nhau một phút
+	private void rows(long... ids) {
+		when(jdbcTemplate.query(anyString(), any(RowMapper.class), any(Object[].class))).thenAnswer(invocation -> {
+			RowMapper<?> mapper = invocation.getArgument(1);
+			List<Object> result = new ArrayList<>();
+			for (int i = 0; i < ids.length; i++) {
+				ResultSet rs = mock(ResultSet.class);
+				when(rs.getLong("id")).thenReturn(ids[i]);
+				when(rs.getString("type")).thenReturn("CHAT");
+				when(rs.getString("content")).thenReturn("m" + ids[i]);
+				when(rs.getString("sender_name")).thenReturn("alice");
+				when(rs.getTimestamp("timestamp")).thenReturn(Timestamp.valueOf(T.minusMinutes(i)));
+				result.add(mapper.mapRow(rs, i));
+			}
+			return result;
+		});
+	}
+
+	@Test
+	void tsConfigMustBeAPlainIdentifier() {
+		assertThrows(IllegalArgumentException.class, () -> new ChatSearchService(jdbcTemplate, "english'); DROP", true));
+	}
+
+	@Test
+	void extraRowBecomesTheNextCursor() {
+		rows(30, 20, 10);
+
+		ChatSearchService.Page page = service.search("r1", "hello", 2, null);
+
+		assertEquals(List.of("m30", "m20"), page.messages().stream().map(ChatMessageDTO::getContent).toList());
+		assertEquals(new ChatCursor(T.minusMinutes(1), 20), page.nextCursor());
+		verify(jdbcTemplate).query(anyString(), any(RowMapper.class), eq("r1"), eq("english"), eq("hello"), eq(3));
+	}
+
+	@Test
+	void lastPageHasNoCursor() {
+		rows(10);
+
+		ChatSearchService.Page page = service.search("r1", "hello", 2, null);
+
+		assertEquals(1, page.messages().size());
+		assertNull(page.nextCursor());
+	}
+
+	@Test
+	void cursorIsAppliedAsARowComparison() {
+		rows();
+
+		service.search("r1", "hello", 5, new ChatCursor(T, 42));
+
+		verify(jdbcTemplate).query(contains("AND (timestamp, id) < (?, ?) "), any(RowMapper.class), eq("r1"),
+				eq("english"), eq("hello"), eq(Timestamp.valueOf(T)), eq(42L), eq(6));
+		assertEquals(1L, service.stats().get("searches"));
+	}
+
+	@Test
+	void partitionedTableWithoutBtreeGinGetsAPlainContentIndex() {
+		doThrow(new RuntimeException("extension not available")).when(jdbcTemplate)
+				.execute("CREATE EXTENSION IF NOT EXISTS btree_gin");
+		when(jdbcTemplate.queryForList(contains("relkind = 'p'"))).thenReturn(List.of(Map.of("?column?", 1)));
+
+		service.initSchema();
+
+		ArgumentCaptor<String> sql = ArgumentCaptor.forClass(String.class);
+		verify(jdbcTemplate, times(3)).execute(sql.capture());
+		assertEquals("CREATE INDEX IF NOT EXISTS idx_chat_messages_content_tsv ON chat_messages USING GIN (content_tsv)",
+				sql.getAllValues().get(2));
+	}
+
+	@Test
+	void plainTableIndexIsBuiltConcurrentlyWithRoomId() {
+		when(jdbcTemplate.queryForList(contains("relkind = 'p'"))).thenReturn(List.of());
+
+		service.initSchema();
+
+		verify(jdbcTemplate).execute("CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_chat_messages_content_tsv "
+				+ "ON chat_messages USING GIN (room_id, content_tsv)");
+	}
+}
@@ -0,0 +1,127 @@
+package com.watchtogether.Service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+
+class OnlineCountFlusherTests {
+
+	@SuppressWarnings("unchecked")
+	private final RedisTemplate<String, String> redisTemplate = mock(RedisTemplate.class);
+	private final JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+	private final OnlineCountFlusher flusher = new OnlineCountFlusher(redisTemplate, jdbcTemplate);
+
+	// Mảng room_id / count của từng câu UPDATE đã chạy
+	private final List<List<Object>> roomIds = new ArrayList<>();
+	private final List<List<Object>> counts = new ArrayList<>();
+
+	@BeforeEach
+	void setUp() {
+		when(jdbcTemplate.update(any(PreparedStatementCreator.class))).thenAnswer(invocation -> {
+			Connection con = mock(Connection.class);
+			when(con.prepareStatement(anyString())).thenReturn(mock(PreparedStatement.class));
+			when(con.createArrayOf(anyString(), any())).thenAnswer(array -> {
+				List<Object> values = Arrays.asList((Object[]) array.getArgument(1));
+				("varchar".equals(array.getArgument(0)) ? roomIds : counts).add(values);
+				return null;
+			});
+			((PreparedStatementCreator) invocation.getArgument(0)).createPreparedStatement(con);
+			return 1;
+		});
+	}
+
+	private void scard(Object... values) {
+		when(redisTemplate.executePipelined(any(RedisCallback.class))).thenReturn(Arrays.asList(values));
+	}
+
+	@Test
+	void repeatedMarksAreWrittenOnceInOneUpdate() {
+		scard(3L, null);
+		flusher.markDirty("a");
+		flusher.markDirty("a");
+		flusher.markDirty("b");
+
+		flusher.flush();
+
+		assertEquals(1, roomIds.size());
+		List<Object> ids = roomIds.get(0);
+		assertEquals(2, ids.size());
+		// Không có SCARD (set đã bị xoá) → 0
+		assertEquals(ids.indexOf("a") == 0 ? List.of(3, 0) : List.of(0, 3), counts.get(0));
+		assertEquals(3L, flusher.stats().get("marks"));
+		assertEquals(0, flusher.stats().get("dirtyRooms"));
+	}
+
+	@Test
+	void nothingDirtyTouchesNeitherRedisNorTheDatabase() {
+		flusher.flush();
+
+		verifyNoInteractions(redisTemplate, jdbcTemplate);
+	}
+
+	@Test
+	void failedFlushKeepsRoomsForTheNextRun() {
+		when(redisTemplate.executePipelined(any(RedisCallback.class)))
+				.thenThrow(new RuntimeException("redis down"))
+				.thenReturn(List.of(2L));
+		flusher.markDirty("a");
+
+		flusher.flush();
+		assertEquals(1, flusher.stats().get("dirtyRooms"));
+
+		flusher.flush();
+		assertEquals(List.of(List.of("a")), roomIds);
+		assertEquals(List.of(List.of(2)), counts);
+		assertEquals(1L, flusher.stats().get("flushes"));
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	void reconcileCoversDatabaseCountsAndRedisPresenceSets() {
+		when(jdbcTemplate.queryForList(anyString(), eq(String.class))).thenReturn(List.of("stale", "live"));
+		Iterator<String> keys = List.of(RoomPresenceService.roomKey("live"), RoomPresenceService.roomKey("new")).iterator();
+		Cursor<String> cursor = mock(Cursor.class);
+		when(cursor.hasNext()).thenAnswer(invocation -> keys.hasNext());
+		when(cursor.next()).thenAnswer(invocation -> keys.next());
+		when(redisTemplate.scan(any(ScanOptions.class))).thenReturn(cursor);
+		scard(0L, 2L, 1L);
+
+		flusher.reconcile();
+
+		assertEquals(List.of(List.of("stale", "live", "new")), roomIds);
+		assertEquals(List.of(List.of(0, 2, 1)), counts);
+		verify(cursor).close();
+		assertEquals(1L, flusher.stats().get("reconciled"));
+	}
+
+	@Test
+	void reconcileFailureDoesNotBlockStartup() {
+		when(jdbcTemplate.queryForList(anyString(), eq(String.class))).thenThrow(new RuntimeException("no db"));
+
+		flusher.reconcile();
+
+		verify(jdbcTemplate, never()).update(any(PreparedStatementCreator.class));
+	}
+}
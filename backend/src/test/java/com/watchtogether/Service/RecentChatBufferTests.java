@@ -0,0 +1,124 @@
+package com.watchtogether.Service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.watchtogether.DTO.ChatMessageDTO;
+
+class RecentChatBufferTests {
+
+	private static final LocalDateTime T0 = LocalDateTime.of(2025, 1, 1, 12, 0);
+
+	private static RecentChatBuffer buffer(int capacity, int maxRooms) {
+		return new RecentChatBuffer(null, new ObjectMapper(), capacity, maxRooms, false, 0);
+	}
+
+	private static ChatMessageDTO message(String roomId, int second) {
+		ChatMessageDTO message = new ChatMessageDTO();
+		message.setRoomId(roomId);
+		message.setContent("m" + second);
+		message.setTimestamp(T0.plusSeconds(second));
+		return message;
+	}
+
+	private static List<RecentChatBuffer.Entry> rows(String roomId, int... seconds) {
+		List<RecentChatBuffer.Entry> rows = new ArrayList<>();
+		for (int second : seconds) {
+			ChatMessageDTO message = message(roomId, second);
+			rows.add(new RecentChatBuffer.Entry(message.getTimestamp(), message));
+		}
+		return rows;
+	}
+
+	private static List<String> contents(List<RecentChatBuffer.Entry> entries) {
+		return entries.stream().map(entry -> entry.message().getContent()).toList();
+	}
+
+	@Test
+	void unknownRoomIsAMiss() {
+		assertNull(buffer(3, 10).recent("room", 1));
+	}
+
+	@Test
+	void completeSeedAnswersLargerLimits() {
+		RecentChatBuffer buffer = buffer(3, 10);
+		buffer.seed("room", rows("room", 1, 2), true);
+
+		assertEquals(List.of("m1", "m2"), contents(buffer.recent("room", 5)));
+		assertFalse(buffer.mayHaveOlder("room", 2));
+	}
+
+	@Test
+	void incompleteSeedAnswersOnlyWhatItHolds() {
+		RecentChatBuffer buffer = buffer(3, 10);
+		buffer.seed("room", rows("room", 1, 2), false);
+
+		assertNull(buffer.recent("room", 3));
+		assertEquals(List.of("m1", "m2"), contents(buffer.recent("room", 2)));
+		assertTrue(buffer.mayHaveOlder("room", 2));
+	}
+
+	@Test
+	void seedKeepsMessagesAppendedMeanwhile() {
+		RecentChatBuffer buffer = buffer(5, 10);
+		// Tin broadcast trước khi trang Postgres được nạp
+		buffer.append(message("room", 3));
+		buffer.seed("room", rows("room", 1, 2, 3), true);
+
+		assertEquals(List.of("m1", "m2", "m3"), contents(buffer.recent("room", 5)));
+	}
+
+	@Test
+	void overflowingSeedIsNoLongerComplete() {
+		RecentChatBuffer buffer = buffer(3, 10);
+		buffer.seed("room", rows("room", 1, 2, 3, 4), true);
+
+		assertNull(buffer.recent("room", 4));
+		assertEquals(List.of("m2", "m3", "m4"), contents(buffer.recent("room", 3)));
+		assertTrue(buffer.mayHaveOlder("room", 3));
+	}
+
+	@Test
+	void appendPastCapacityDropsCompleteness() {
+		RecentChatBuffer buffer = buffer(3, 10);
+		buffer.seed("room", rows("room", 1), true);
+		buffer.append(message("room", 2));
+		buffer.append(message("room", 3));
+		assertEquals(List.of("m1", "m2", "m3"), contents(buffer.recent("room", 10)));
+
+		buffer.append(message("room", 4));
+		assertNull(buffer.recent("room", 10));
+		assertEquals(List.of("m3", "m4"), contents(buffer.recent("room", 2)));
+	}
+
+	@Test
+	void completeRingIsNotReseeded() {
+		RecentChatBuffer buffer = buffer(5, 10);
+		buffer.seed("room", rows("room", 1, 2), true);
+		buffer.seed("room", rows("room", 0, 1, 2), true);
+
+		assertEquals(List.of("m1", "m2"), contents(buffer.recent("room", 5)));
+	}
+
+	@Test
+	void leastRecentlyUsedRoomIsEvicted() {
+		RecentChatBuffer buffer = buffer(3, 2);
+		buffer.seed("a", rows("a", 1), true);
+		buffer.seed("b", rows("b", 1), true);
+		buffer.recent("a", 1);
+		buffer.seed("c", rows("c", 1), true);
+
+		assertNull(buffer.recent("b", 1));
+		assertEquals(List.of("m1"), contents(buffer.recent("a", 1)));
+		assertEquals(List.of("m1"), contents(buffer.recent("c", 1)));
+	}
+}
@@ -0,0 +1,119 @@
+package com.watchtogether.Service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class RoomEventSequencerTests {
+
+	private final RoomEventSequencer sequencer = new RoomEventSequencer();
+
+	@AfterEach
+	void shutdown() {
+		sequencer.shutdown();
+	}
+
+	private void await(CountDownLatch latch) throws InterruptedException {
+		assertTrue(latch.await(5, TimeUnit.SECONDS), "tasks did not finish");
+	}
+
+	@Test
+	void tasksOfOneKeyRunInSubmitOrder() throws InterruptedException {
+		List<Integer> seen = Collections.synchronizedList(new ArrayList<>());
+		CountDownLatch done = new CountDownLatch(1000);
+
+		for (int i = 0; i < 1000; i++) {
+			int n = i;
+			sequencer.submit("room", () -> {
+				seen.add(n);
+				done.countDown();
+			});
+		}
+
+		await(done);
+		for (int i = 0; i < 1000; i++) {
+			assertEquals(i, seen.get(i));
+		}
+	}
+
+	@Test
+	void tasksOfOneKeyNeverOverlapUnderConcurrentSubmit() throws InterruptedException {
+		AtomicInteger running = new AtomicInteger();
+		AtomicInteger maxRunning = new AtomicInteger();
+		int producers = 8;
+		int perProducer = 200;
+		CountDownLatch done = new CountDownLatch(producers * perProducer);
+
+		List<Thread> threads = new ArrayList<>();
+		for (int p = 0; p < producers; p++) {
+			threads.add(Thread.ofVirtual().start(() -> {
+				for (int i = 0; i < perProducer; i++) {
+					sequencer.submit("room", () -> {
+						maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+						running.decrementAndGet();
+						done.countDown();
+					});
+				}
+			}));
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		await(done);
+		assertEquals(1, maxRunning.get());
+	}
+
+	@Test
+	void slowKeyDoesNotBlockOtherKeys() throws InterruptedException {
+		CountDownLatch release = new CountDownLatch(1);
+		CountDownLatch other = new CountDownLatch(1);
+
+		sequencer.submit("slow", () -> {
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		sequencer.submit("fast", other::countDown);
+
+		await(other);
+		release.countDown();
+	}
+
+	@Test
+	void failingTaskDoesNotStopTheMailbox() throws InterruptedException {
+		CountDownLatch done = new CountDownLatch(1);
+
+		sequencer.submit("room", () -> {
+			throw new IllegalStateException("boom");
+		});
+		sequencer.submit("room", done::countDown);
+
+		await(done);
+	}
+
+	@Test
+	void idleMailboxesAreRemoved() throws InterruptedException {
+		CountDownLatch done = new CountDownLatch(2);
+		sequencer.submit("a", done::countDown);
+		sequencer.submit("b", done::countDown);
+		await(done);
+
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (sequencer.activeMailboxes() > 0 && System.nanoTime() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(0, sequencer.activeMailboxes());
+	}
+}
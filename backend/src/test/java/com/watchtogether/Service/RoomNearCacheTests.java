@@ -0,0 +1,121 @@
+package com.watchtogether.Service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.redis.connection.DefaultMessage;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.data.redis.listener.Topic;
+
+import com.watchtogether.Entity.redis.Room;
+
+class RoomNearCacheTests {
+
+	@SuppressWarnings("unchecked")
+	private final RedisTemplate<String, String> redisTemplate = mock(RedisTemplate.class);
+	private final RedisMessageListenerContainer container = mock(RedisMessageListenerContainer.class);
+	private RoomNearCache cache;
+	private MessageListener listener;
+
+	@BeforeEach
+	void setUp() {
+		cache = new RoomNearCache(redisTemplate, container, 2, 30);
+		cache.subscribe();
+		ArgumentCaptor<MessageListener> captor = ArgumentCaptor.forClass(MessageListener.class);
+		verify(container).addMessageListener(captor.capture(), any(Topic.class));
+		listener = captor.getValue();
+	}
+
+	private static Room room(String id) {
+		return Room.builder().id(id).lastPosition(1.0).build();
+	}
+
+	private void receive(String body) {
+		listener.onMessage(new DefaultMessage(RoomNearCache.ROOM_CACHE_CHANNEL.getBytes(), body.getBytes()), null);
+	}
+
+	@Test
+	void getReturnsACopy() {
+		cache.put(room("a"));
+
+		Room first = cache.get("a");
+		first.setLastPosition(99.0);
+		Room second = cache.get("a");
+
+		assertNotSame(first, second);
+		assertEquals(1.0, second.getLastPosition());
+	}
+
+	@Test
+	void leastRecentlyUsedRoomIsEvicted() {
+		cache.put(room("a"));
+		cache.put(room("b"));
+		cache.get("a");
+		cache.put(room("c"));
+
+		assertNull(cache.get("b"));
+		assertNotNull(cache.get("a"));
+		assertNotNull(cache.get("c"));
+		assertEquals(1L, cache.stats().get("evictions"));
+	}
+
+	@Test
+	void roomTimeToLiveCapsTheEntry() throws InterruptedException {
+		cache.put(room("a").toBuilder().timeToLive(0L).build());
+		assertNotNull(cache.get("a"));
+
+		// timeToLive 1 giây ngắn hơn TTL cache 30 giây
+		cache.put(room("b").toBuilder().timeToLive(1L).build());
+		Thread.sleep(1_100);
+		assertNull(cache.get("b"));
+		assertEquals(1L, cache.stats().get("expirations"));
+	}
+
+	@Test
+	void remoteInvalidationEvictsAndNotifiesListeners() {
+		List<String> notified = new ArrayList<>();
+		cache.onRemoteInvalidation(notified::add);
+		cache.put(room("a"));
+
+		receive("other-node|a");
+
+		assertNull(cache.get("a"));
+		assertEquals(List.of("a"), notified);
+	}
+
+	@Test
+	void ownInvalidationIsIgnored() {
+		cache.putAndPublish(room("a"));
+		ArgumentCaptor<String> body = ArgumentCaptor.forClass(String.class);
+		verify(redisTemplate).convertAndSend(eq(RoomNearCache.ROOM_CACHE_CHANNEL), body.capture());
+
+		receive(body.getValue());
+
+		assertNotNull(cache.get("a"));
+		assertEquals(0L, cache.stats().get("remoteInvalidations"));
+	}
+
+	@Test
+	void failedPublishStillEvictsLocally() {
+		when(redisTemplate.convertAndSend(any(), any())).thenThrow(new RuntimeException("down"));
+		cache.put(room("a"));
+
+		cache.invalidate("a");
+		assertNull(cache.get("a"));
+	}
+}
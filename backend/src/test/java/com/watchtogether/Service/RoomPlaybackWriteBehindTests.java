@@ -0,0 +1,115 @@
+package com.watchtogether.Service;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import com.watchtogether.Entity.jpa.Room;
+import com.watchtogether.Repository.jpa.RoomRepository;
+
+class RoomPlaybackWriteBehindTests {
+
+	private final JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+	private final RoomRepository roomRepository = mock(RoomRepository.class);
+	private final RoomPlaybackWriteBehind writeBehind = new RoomPlaybackWriteBehind(jdbcTemplate, roomRepository, 500);
+
+	@SuppressWarnings("unchecked")
+	private List<Object[]> writtenRows() {
+		ArgumentCaptor<List<Object[]>> rows = ArgumentCaptor.forClass(List.class);
+		verify(jdbcTemplate).batchUpdate(anyString(), rows.capture());
+		return rows.getValue();
+	}
+
+	@Test
+	void unknownRoomIsNotTracked() {
+		assertFalse(writeBehind.update("ghost", "v", 1.0, true));
+
+		writeBehind.flush();
+		verify(jdbcTemplate, never()).batchUpdate(anyString(), anyList());
+		assertEquals(0, writeBehind.stats().get("trackedRooms"));
+	}
+
+	@Test
+	void repeatedUpdatesCollapseIntoOneRowPerFlush() {
+		when(roomRepository.existsById("room")).thenReturn(true);
+
+		assertTrue(writeBehind.update("room", "v1", 1.0, true));
+		writeBehind.update("room", null, 2.0, false);
+		writeBehind.update("room", null, 3.0, true);
+		writeBehind.flush();
+
+		List<Object[]> rows = writtenRows();
+		assertEquals(1, rows.size());
+		// videoId null giữ lại video trước đó
+		assertArrayEquals(new Object[] { "v1", 3.0, true, "room" }, rows.get(0));
+		// Phòng đã theo dõi không hỏi lại DB
+		verify(roomRepository, times(1)).existsById("room");
+	}
+
+	@Test
+	void cleanRoomsAreNotWrittenAgain() {
+		when(roomRepository.existsById("room")).thenReturn(true);
+		writeBehind.update("room", "v", 1.0, true);
+
+		writeBehind.flush();
+		writeBehind.flush();
+		verify(jdbcTemplate, times(1)).batchUpdate(anyString(), anyList());
+	}
+
+	@Test
+	void failedBatchIsRetriedOnTheNextFlush() {
+		when(roomRepository.existsById("room")).thenReturn(true);
+		when(jdbcTemplate.batchUpdate(anyString(), anyList()))
+				.thenThrow(new RuntimeException("db down"))
+				.thenReturn(new int[] { 1 });
+		writeBehind.update("room", "v", 1.0, true);
+
+		writeBehind.flush();
+		assertEquals(1, writeBehind.stats().get("dirtyRooms"));
+
+		writeBehind.flush();
+		assertEquals(0, writeBehind.stats().get("dirtyRooms"));
+		assertEquals(1L, writeBehind.stats().get("rowsWritten"));
+	}
+
+	@Test
+	void memoryStateOverridesTheEntity() {
+		when(roomRepository.existsById("room")).thenReturn(true);
+		writeBehind.update("room", "v2", 42.0, false);
+
+		Room room = new Room();
+		room.setRoomId("room");
+		room.setCurrentVideoId("v1");
+		room.setPlaying(true);
+		writeBehind.applyTo(room);
+
+		assertEquals("v2", room.getCurrentVideoId());
+		assertEquals(42.0, room.getCurrentTime());
+		assertFalse(room.isPlaying());
+	}
+
+	@Test
+	void flushAndForgetWritesAndDropsTheRoom() {
+		when(roomRepository.existsById("room")).thenReturn(true);
+		writeBehind.update("room", "v", 5.0, true);
+
+		writeBehind.flushAndForget("room");
+
+		assertEquals(1, writtenRows().size());
+		assertEquals(0, writeBehind.stats().get("trackedRooms"));
+	}
+}
@@ -0,0 +1,169 @@
+package com.watchtogether.Service;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisScriptingCommands;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.messaging.simp.SimpMessageSendingOperations;
+
+import com.watchtogether.DTO.Response.MembersDelta;
+
+class RoomPresenceServiceTests {
+
+	@SuppressWarnings("unchecked")
+	private final RedisTemplate<String, String> redisTemplate = mock(RedisTemplate.class);
+	private final OnlineCountFlusher onlineCountFlusher = mock(OnlineCountFlusher.class);
+	private final SimpMessageSendingOperations messagingTemplate = mock(SimpMessageSendingOperations.class);
+	private final RoomPresenceService service = new RoomPresenceService(redisTemplate, onlineCountFlusher,
+			messagingTemplate);
+
+	@SuppressWarnings("unchecked")
+	private void scriptReturns(long count, String... changed) {
+		when(redisTemplate.execute(any(RedisScript.class), anyList(), any(Object[].class)))
+				.thenReturn(List.of(count, List.of(changed)));
+	}
+
+	private static byte[] utf8(String value) {
+		return value.getBytes(StandardCharsets.UTF_8);
+	}
+
+	// Chạy callback của pipeline trên connection giả; mỗi lần eval coi như gỡ được mọi username
+	// đã gửi (dạng byte[] như kết quả pipeline thật). Trả về keysAndArgs của các lần eval
+	private List<byte[][]> pipeline(long count) {
+		List<byte[][]> evals = new ArrayList<>();
+		when(redisTemplate.executePipelined(any(RedisCallback.class))).thenAnswer(invocation -> {
+			RedisConnection connection = mock(RedisConnection.class);
+			RedisScriptingCommands scripting = mock(RedisScriptingCommands.class);
+			when(connection.scriptingCommands()).thenReturn(scripting);
+			when(scripting.eval(any(byte[].class), eq(ReturnType.MULTI), eq(1), any(byte[][].class)))
+					.thenAnswer(eval -> evals.add((byte[][]) eval.getRawArguments()[3]));
+			((RedisCallback<?>) invocation.getArgument(0)).doInRedis(connection);
+			List<Object> results = new ArrayList<>();
+			for (byte[][] keysAndArgs : evals) {
+				results.add(List.of(count, List.of(Arrays.copyOfRange(keysAndArgs, 3, keysAndArgs.length))));
+			}
+			return results;
+		});
+		return evals;
+	}
+
+	private static String key(byte[][] keysAndArgs) {
+		return new String(keysAndArgs[0], StandardCharsets.UTF_8);
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	void addRunsTheScriptOnceAndReturnsOnlyTheNewName() {
+		scriptReturns(3, "alice");
+
+		RoomPresenceService.PresenceChange change = service.addUser("r1", "alice");
+
+		ArgumentCaptor<Object[]> args = ArgumentCaptor.forClass(Object[].class);
+		verify(redisTemplate).execute(any(RedisScript.class), eq(List.of("room:r1:users")), args.capture());
+		assertArrayEquals(new Object[] { "add", "86400", "alice" }, args.getValue());
+		assertEquals(List.of("alice"), change.added());
+		assertEquals(3, change.count());
+		verify(onlineCountFlusher).markDirty("r1");
+	}
+
+	@Test
+	void secondTabOfTheSameUserChangesNothing() {
+		scriptReturns(3);
+
+		RoomPresenceService.PresenceChange change = service.addUser("r1", "alice");
+		service.publishDelta(change);
+
+		verify(onlineCountFlusher, never()).markDirty(anyString());
+		verifyNoInteractions(messagingTemplate);
+	}
+
+	@Test
+	void deltaCarriesTheChangedNamesAndTheCount() {
+		scriptReturns(1, "bob");
+
+		service.publishDelta(service.removeUser("r1", "bob"));
+
+		ArgumentCaptor<MembersDelta> delta = ArgumentCaptor.forClass(MembersDelta.class);
+		verify(messagingTemplate).convertAndSend(eq("/topic/room/r1/members/delta"), delta.capture());
+		assertEquals(new MembersDelta(List.of(), List.of("bob"), 1), delta.getValue());
+	}
+
+	@Test
+	void brokerFailureWhilePublishingIsSwallowed() {
+		doThrow(new RuntimeException("broker stopped")).when(messagingTemplate).convertAndSend(anyString(),
+				any(Object.class));
+
+		service.publishDelta(new RoomPresenceService.PresenceChange("r1", List.of("a"), List.of(), 1));
+	}
+
+	@Test
+	void drainRemovesLocalUsersInOnePipelineAndPublishesEachRoom() {
+		scriptReturns(1, "alice");
+		service.addUser("r1", "alice");
+		service.addUser("r2", "bob");
+		List<byte[][]> evals = pipeline(0);
+
+		Map<String, RoomPresenceService.PresenceChange> changes = service.drain();
+
+		assertEquals(2, evals.size());
+		byte[][] r1 = evals.stream().filter(args -> key(args).equals("room:r1:users")).findFirst().orElseThrow();
+		assertArrayEquals(new byte[][] { utf8("room:r1:users"), utf8("rem"), utf8("86400"), utf8("alice") }, r1);
+		assertEquals(List.of("alice"), changes.get("r1").removed());
+		assertEquals(List.of("bob"), changes.get("r2").removed());
+		verify(messagingTemplate).convertAndSend(eq("/topic/room/r1/members/delta"), any(MembersDelta.class));
+		verify(messagingTemplate).convertAndSend(eq("/topic/room/r2/members/delta"), any(MembersDelta.class));
+		// Đã gỡ hết: lần drain sau không làm gì
+		assertTrue(service.drain().isEmpty());
+	}
+
+	@Test
+	void largeRoomIsSplitIntoChunksAndMerged() {
+		List<String> usernames = new ArrayList<>();
+		for (int i = 0; i < RoomPresenceService.USERNAMES_PER_CALL + 5; i++) {
+			usernames.add("u" + i);
+		}
+		List<byte[][]> evals = pipeline(0);
+
+		RoomPresenceService.PresenceChange change = service.removeUsers(Map.of("r1", usernames)).get("r1");
+
+		assertEquals(2, evals.size());
+		assertEquals(RoomPresenceService.USERNAMES_PER_CALL + 3, evals.get(0).length);
+		assertEquals(8, evals.get(1).length);
+		// Hai lô được nối lại theo đúng thứ tự
+		assertEquals(usernames, change.removed());
+		assertEquals(0, change.count());
+	}
+
+	@Test
+	void missingScriptResultIsAnEmptyChange() {
+		RoomPresenceService.PresenceChange change = service.toChange("r1", true, null);
+
+		assertEquals(0, change.count());
+		assertTrue(change.added().isEmpty());
+		verify(onlineCountFlusher, never()).markDirty(anyString());
+	}
+}
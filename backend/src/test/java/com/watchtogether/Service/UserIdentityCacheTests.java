@@ -0,0 +1,132 @@
+package com.watchtogether.Service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.endsWith;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Optional;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.redis.connection.DefaultMessage;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.data.redis.listener.Topic;
+
+import com.watchtogether.Repository.jpa.UserIdentity;
+import com.watchtogether.Repository.jpa.UserRepository;
+
+class UserIdentityCacheTests {
+
+	private static final UserIdentity ALICE = new UserIdentity("u1", "alice", "alice@example.com");
+	private static final UserIdentity BOB = new UserIdentity("u2", "bob", null);
+	private static final UserIdentity CAROL = new UserIdentity("u3", "carol", null);
+
+	private final UserRepository userRepository = mock(UserRepository.class);
+	@SuppressWarnings("unchecked")
+	private final RedisTemplate<String, String> redisTemplate = mock(RedisTemplate.class);
+	private final RedisMessageListenerContainer container = mock(RedisMessageListenerContainer.class);
+	private UserIdentityCache cache;
+	private MessageListener listener;
+
+	@BeforeEach
+	void setUp() {
+		cache = cache(2, 600);
+		when(userRepository.findIdentityByName(anyString())).thenReturn(Optional.empty());
+		when(userRepository.findIdentityByName("alice")).thenReturn(Optional.of(ALICE));
+	}
+
+	private UserIdentityCache cache(int maxEntries, long ttlSeconds) {
+		UserIdentityCache created = new UserIdentityCache(userRepository, redisTemplate, container, maxEntries, ttlSeconds);
+		created.subscribe();
+		ArgumentCaptor<MessageListener> captor = ArgumentCaptor.forClass(MessageListener.class);
+		verify(container, atLeastOnce()).addMessageListener(captor.capture(), any(Topic.class));
+		listener = captor.getValue();
+		return created;
+	}
+
+	private void receive(String body) {
+		listener.onMessage(new DefaultMessage(UserIdentityCache.USER_CACHE_CHANNEL.getBytes(), body.getBytes()), null);
+	}
+
+	@Test
+	void loadedUserIsServedFromBothIndexes() {
+		assertEquals(ALICE, cache.findByName("alice").orElseThrow());
+		assertEquals(ALICE, cache.findByName("alice").orElseThrow());
+		assertEquals(ALICE, cache.findById("u1").orElseThrow());
+
+		verify(userRepository, times(1)).findIdentityByName("alice");
+		verify(userRepository, never()).findIdentityById(anyString());
+		assertEquals(2L, cache.stats().get("hits"));
+	}
+
+	@Test
+	void unknownNameIsNotCached() {
+		assertTrue(cache.findByName("guest").isEmpty());
+		assertTrue(cache.findByName("guest").isEmpty());
+
+		verify(userRepository, times(2)).findIdentityByName("guest");
+	}
+
+	@Test
+	void invalidateEvictsLocallyAndTellsOtherNodes() {
+		cache.findByName("alice");
+
+		cache.invalidate("u1", "alice");
+		cache.findById("u1");
+
+		verify(userRepository).findIdentityById("u1");
+		verify(redisTemplate).convertAndSend(eq(UserIdentityCache.USER_CACHE_CHANNEL), endsWith("|u1|alice"));
+	}
+
+	@Test
+	void remoteInvalidationEvictsButOwnMessageIsIgnored() {
+		cache.put(ALICE);
+		cache.invalidate(null, "bob");
+		ArgumentCaptor<String> own = ArgumentCaptor.forClass(String.class);
+		verify(redisTemplate).convertAndSend(eq(UserIdentityCache.USER_CACHE_CHANNEL), own.capture());
+
+		receive(own.getValue().replace("bob", "alice"));
+		assertEquals(1, cache.stats().get("sizeById"));
+
+		receive("other-node||alice");
+		assertEquals(0, cache.stats().get("sizeById"));
+		assertEquals(0, cache.stats().get("sizeByName"));
+		assertEquals(1L, cache.stats().get("remoteInvalidations"));
+	}
+
+	@Test
+	void expiredEntryGoesBackToTheDatabase() {
+		cache = cache(2, 0);
+
+		cache.findByName("alice");
+		cache.findByName("alice");
+
+		verify(userRepository, times(2)).findIdentityByName("alice");
+	}
+
+	@Test
+	void leastRecentlyUsedUserIsEvicted() {
+		cache.put(ALICE);
+		cache.put(BOB);
+		cache.findById("u1");
+		cache.put(CAROL);
+
+		cache.findById("u2");
+		cache.findById("u1");
+
+		verify(userRepository).findIdentityById("u2");
+		verify(userRepository, never()).findIdentityById("u1");
+	}
+}
@@ -0,0 +1,118 @@
+package com.watchtogether.Service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import com.watchtogether.DTO.Request.VideoEventDto;
+import com.watchtogether.util.Enum.VideoEventType;
+
+class VideoEventCoalescerTests {
+
+	private static final String ROOM = "room";
+
+	private final RoomEventSequencer sequencer = new RoomEventSequencer();
+	private final VideoEventCoalescer coalescer = new VideoEventCoalescer(sequencer, 100);
+	private final BlockingQueue<VideoEventDto> emitted = new LinkedBlockingQueue<>();
+
+	@AfterEach
+	void shutdown() {
+		coalescer.shutdown();
+		sequencer.shutdown();
+	}
+
+	private static VideoEventDto event(VideoEventType type, Double time) {
+		return VideoEventDto.builder().type(type).currentTime(time).build();
+	}
+
+	// Như VideoSyncService: mọi offer chạy trên lane của phòng
+	private void offer(VideoEventDto event) {
+		sequencer.submit(ROOM, () -> coalescer.offer(ROOM, event, emitted::add));
+	}
+
+	private VideoEventDto next() throws InterruptedException {
+		VideoEventDto event = emitted.poll(2, TimeUnit.SECONDS);
+		assertNotNull(event, "expected an emitted event");
+		return event;
+	}
+
+	@Test
+	void firstEventIsEmittedImmediatelyAndBurstCollapsesToOne() throws InterruptedException {
+		offer(event(VideoEventType.SEEK, 10.0));
+		offer(event(VideoEventType.SEEK, 20.0));
+		offer(event(VideoEventType.SEEK, 30.0));
+
+		assertEquals(10.0, next().getCurrentTime());
+		VideoEventDto merged = next();
+		assertEquals(VideoEventType.SEEK, merged.getType());
+		assertEquals(30.0, merged.getCurrentTime());
+		assertNull(emitted.poll(300, TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	void pauseThenSeekKeepsThePause() throws InterruptedException {
+		offer(event(VideoEventType.PLAY, 0.0));
+		offer(event(VideoEventType.PAUSE, 5.0));
+		offer(event(VideoEventType.SEEK, 42.0));
+
+		assertEquals(VideoEventType.PLAY, next().getType());
+		VideoEventDto merged = next();
+		assertEquals(VideoEventType.PAUSE, merged.getType());
+		assertEquals(42.0, merged.getCurrentTime());
+	}
+
+	@Test
+	void seekThenPauseWithoutTimePausesAtTheSeekPosition() throws InterruptedException {
+		offer(event(VideoEventType.PLAY, 0.0));
+		offer(event(VideoEventType.SEEK, 42.0));
+		offer(event(VideoEventType.PAUSE, null));
+
+		assertEquals(VideoEventType.PLAY, next().getType());
+		VideoEventDto merged = next();
+		assertEquals(VideoEventType.PAUSE, merged.getType());
+		assertEquals(42.0, merged.getCurrentTime());
+	}
+
+	@Test
+	void lastPlayPauseWins() throws InterruptedException {
+		offer(event(VideoEventType.SEEK, 0.0));
+		offer(event(VideoEventType.PAUSE, 3.0));
+		offer(event(VideoEventType.SEEK, 7.0));
+		offer(event(VideoEventType.PLAY, null));
+		offer(event(VideoEventType.SEEK, 9.0));
+
+		next();
+		VideoEventDto merged = next();
+		assertEquals(VideoEventType.PLAY, merged.getType());
+		assertEquals(9.0, merged.getCurrentTime());
+	}
+
+	@Test
+	void nonCoalescibleEventFlushesPendingFirst() throws InterruptedException {
+		offer(event(VideoEventType.SEEK, 1.0));
+		offer(event(VideoEventType.SEEK, 2.0));
+		offer(VideoEventDto.builder().type(VideoEventType.CHANGE).videoUrl("https://example.com/v").build());
+
+		assertEquals(1.0, next().getCurrentTime());
+		assertEquals(2.0, next().getCurrentTime());
+		assertEquals(VideoEventType.CHANGE, next().getType());
+		assertNull(emitted.poll(300, TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	void mergeKeepsOlderUrlWhenNewerHasNone() {
+		VideoEventDto older = VideoEventDto.builder().type(VideoEventType.SEEK).currentTime(1.0)
+				.videoUrl("https://example.com/v").build();
+
+		VideoEventDto merged = VideoEventCoalescer.merge(older, event(VideoEventType.SEEK, 2.0));
+		assertEquals("https://example.com/v", merged.getVideoUrl());
+		assertEquals(2.0, merged.getCurrentTime());
+	}
+}
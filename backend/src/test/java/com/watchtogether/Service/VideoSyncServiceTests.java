@@ -0,0 +1,185 @@
+package com.watchtogether.Service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Instant;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+
+import com.watchtogether.DTO.Request.VideoEventDto;
+import com.watchtogether.Entity.redis.Room;
+import com.watchtogether.Repository.redis.RoomStateStore;
+import com.watchtogether.util.Enum.VideoEventType;
+
+class VideoSyncServiceTests {
+
+	private static final String ROOM = "room";
+
+	private final SimpMessagingTemplate messagingTemplate = mock(SimpMessagingTemplate.class);
+	private final RoomService roomService = mock(RoomService.class);
+	private final RoomStateStore roomStateStore = mock(RoomStateStore.class);
+	private final RoomNearCache roomNearCache = mock(RoomNearCache.class);
+	private final RoomEventSequencer sequencer = new RoomEventSequencer();
+	private final VideoEventCoalescer coalescer = new VideoEventCoalescer(sequencer, 100);
+	private final BlockingQueue<VideoEventDto> broadcast = new LinkedBlockingQueue<>();
+	// Giá trị video:seq:<id> trong Redis giả
+	private final AtomicLong storedSequence = new AtomicLong(41);
+
+	private VideoSyncService service;
+
+	@BeforeEach
+	void setUp() {
+		service = new VideoSyncService(messagingTemplate, roomService, sequencer, coalescer, roomStateStore, roomNearCache);
+		when(roomService.getRoom(ROOM)).thenAnswer(invocation -> Room.builder().id(ROOM).version(1L).build());
+		when(roomStateStore.updatePlayback(any(), any())).thenReturn(RoomStateStore.Result.UPDATED);
+		when(roomStateStore.currentSequence(ROOM)).thenAnswer(invocation -> storedSequence.get());
+		when(roomStateStore.raiseSequence(eq(ROOM), anyLong()))
+				.thenAnswer(invocation -> storedSequence.accumulateAndGet(invocation.getArgument(1), Math::max));
+		doAnswer(invocation -> broadcast.add(invocation.getArgument(1)))
+				.when(messagingTemplate).convertAndSend(anyString(), any(Object.class));
+	}
+
+	@AfterEach
+	void shutdown() {
+		coalescer.shutdown();
+		sequencer.shutdown();
+	}
+
+	private static VideoEventDto change(String url) {
+		return VideoEventDto.builder().type(VideoEventType.CHANGE).videoUrl(url).build();
+	}
+
+	private VideoEventDto next() throws InterruptedException {
+		VideoEventDto event = broadcast.poll(2, TimeUnit.SECONDS);
+		assertNotNull(event, "expected a broadcast");
+		return event;
+	}
+
+	@Test
+	void sequenceIsSeededOnceFromRedisThenCountedInMemory() throws InterruptedException {
+		service.broadcastVideoEvent(ROOM, change("https://example.com/a"));
+		service.broadcastVideoEvent(ROOM, change("https://example.com/b"));
+		service.broadcastVideoEvent(ROOM, change("https://example.com/c"));
+
+		assertEquals(42L, next().getSequence());
+		assertEquals(43L, next().getSequence());
+		assertEquals(44L, next().getSequence());
+		verify(roomStateStore, times(1)).currentSequence(ROOM);
+		// Mốc cao nhất được ghi trên lane persist
+		verify(roomStateStore, timeout(2000)).raiseSequence(ROOM, 44L);
+	}
+
+	@Test
+	void reloadAfterEvictionContinuesFromTheHighWaterMark() throws InterruptedException {
+		service.broadcastVideoEvent(ROOM, change("https://example.com/a"));
+		assertEquals(42L, next().getSequence());
+
+		service.evictRoom(ROOM);
+		service.broadcastVideoEvent(ROOM, change("https://example.com/b"));
+
+		assertEquals(43L, next().getSequence());
+		verify(roomStateStore, times(2)).currentSequence(ROOM);
+	}
+
+	@Test
+	void nodeThatReloadsSeesAnotherNodesHighWaterMark() throws InterruptedException {
+		service.broadcastVideoEvent(ROOM, change("https://example.com/a"));
+		assertEquals(42L, next().getSequence());
+
+		// Node khác đã phát tới 100 rồi ghi phòng: invalidation làm node này nạp lại
+		storedSequence.set(100);
+		service.evictRoom(ROOM);
+		service.broadcastVideoEvent(ROOM, change("https://example.com/b"));
+
+		assertEquals(101L, next().getSequence());
+	}
+
+	@Test
+	void redisFailureWhileSeedingSendsWithoutSequence() throws InterruptedException {
+		when(roomStateStore.currentSequence(ROOM)).thenThrow(new IllegalStateException("redis down"));
+
+		service.broadcastVideoEvent(ROOM, change("https://example.com/a"));
+
+		assertNull(next().getSequence());
+		verify(roomStateStore, never()).raiseSequence(anyString(), anyLong());
+	}
+
+	@Test
+	void sequenceWriteIsQueuedBeforeThePlaybackWrite() throws InterruptedException {
+		service.broadcastVideoEvent(ROOM, change("https://example.com/a"));
+		next();
+
+		InOrder order = inOrder(roomStateStore);
+		order.verify(roomStateStore, timeout(2000)).raiseSequence(eq(ROOM), eq(42L));
+		order.verify(roomStateStore, timeout(2000)).updatePlayback(any(), any());
+	}
+
+	@Test
+	void conflictWithNewerRedisStateAdoptsItAndResyncsTheRoom() throws InterruptedException {
+		Room newer = Room.builder().id(ROOM).version(5L).currentVideoUrl("https://example.com/other")
+				.lastSyncAt(Instant.now().plusSeconds(60)).build();
+		when(roomStateStore.updatePlayback(any(), any())).thenReturn(RoomStateStore.Result.CONFLICT);
+		when(roomService.reloadRoom(ROOM)).thenReturn(newer);
+
+		service.broadcastVideoEvent(ROOM, change("https://example.com/a"));
+		next();
+
+		verify(messagingTemplate, timeout(2000)).convertAndSend(eq("/topic/rooms/" + ROOM + "/video"),
+				argThat((Object event) -> event instanceof VideoEventDto dto
+						&& dto.getType() == VideoEventType.SYNC_STATE
+						&& "https://example.com/other".equals(dto.getVideoUrl())),
+				anyMap());
+		// Không ghi đè trạng thái mới hơn của node khác
+		verify(roomStateStore, times(1)).updatePlayback(any(), any());
+	}
+
+	@Test
+	void conflictWithOlderRedisStateRetriesOnTheReloadedVersion() throws InterruptedException {
+		Room older = Room.builder().id(ROOM).version(7L).build();
+		when(roomStateStore.updatePlayback(any(), eq(1L))).thenReturn(RoomStateStore.Result.CONFLICT);
+		when(roomStateStore.updatePlayback(any(), eq(7L))).thenReturn(RoomStateStore.Result.UPDATED);
+		when(roomService.reloadRoom(ROOM)).thenReturn(older);
+
+		service.broadcastVideoEvent(ROOM, change("https://example.com/a"));
+		next();
+
+		verify(roomStateStore, timeout(2000)).updatePlayback(
+				argThat(room -> "https://example.com/a".equals(room.getCurrentVideoUrl())), eq(7L));
+		verify(roomNearCache, timeout(2000)).putAndPublish(any());
+	}
+
+	@Test
+	void deletedRoomIsForgotten() throws InterruptedException {
+		when(roomStateStore.updatePlayback(any(), any())).thenReturn(RoomStateStore.Result.NOT_FOUND);
+
+		service.broadcastVideoEvent(ROOM, change("https://example.com/a"));
+		next();
+
+		verify(roomNearCache, timeout(2000)).invalidate(ROOM);
+		verify(roomService, never()).reloadRoom(anyString());
+	}
+}
@@ -0,0 +1,43 @@
+package com.watchtogether.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.time.LocalDateTime;
+
+import org.junit.jupiter.api.Test;
+
+class ChatCursorTests {
+
+	@Test
+	void roundTripKeepsTimestampAndId() {
+		ChatCursor cursor = new ChatCursor(LocalDateTime.of(2025, 3, 14, 15, 9, 26, 535_897_000), 42L);
+
+		assertEquals(cursor, ChatCursor.decode(cursor.encode()));
+	}
+
+	@Test
+	void roundTripKeepsWholeSecondTimestamp() {
+		// LocalDateTime.toString() bỏ phần giây khi bằng 0 ("2025-01-01T00:00")
+		ChatCursor cursor = new ChatCursor(LocalDateTime.of(2025, 1, 1, 0, 0), Long.MAX_VALUE);
+
+		assertEquals(cursor, ChatCursor.decode(cursor.encode()));
+	}
+
+	@Test
+	void encodedCursorIsUrlSafe() {
+		String encoded = new ChatCursor(LocalDateTime.of(2025, 12, 31, 23, 59, 59, 999_999_999), 1234567890L).encode();
+
+		assertFalse(encoded.contains("+"));
+		assertFalse(encoded.contains("/"));
+		assertFalse(encoded.contains("="));
+	}
+
+	@Test
+	void invalidCursorIsRejected() {
+		assertThrows(IllegalArgumentException.class, () -> ChatCursor.decode("not base64!"));
+		assertThrows(IllegalArgumentException.class, () -> ChatCursor.decode("bm8tc2VwYXJhdG9y"));
+		assertThrows(IllegalArgumentException.class, () -> ChatCursor.decode(""));
+	}
+}
@@ -0,0 +1,83 @@
+package com.watchtogether.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import com.watchtogether.DTO.Request.VideoEventDto;
+import com.watchtogether.util.Enum.VideoEventType;
+
+class CompactVideoCodecTests {
+
+	private final CompactVideoCodec codec = new CompactVideoCodec();
+
+	@Test
+	void roundTripKeepsWireFields() throws Exception {
+		VideoEventDto event = VideoEventDto.builder()
+				.type(VideoEventType.SEEK)
+				.currentTime(12.5)
+				.videoUrl("https://www.youtube.com/watch?v=M7lc1UVf-VE")
+				.isPlaying(true)
+				.playbackRate(1.5)
+				.serverTime(1_700_000_000_123L)
+				.sequence(42L)
+				.participantId("p-1")
+				.build();
+
+		assertEquals(event, codec.decode(codec.encode(event)));
+	}
+
+	@Test
+	void roomIdAndClientTimestampAreNotSent() throws Exception {
+		VideoEventDto event = VideoEventDto.builder()
+				.type(VideoEventType.PAUSE)
+				.roomId("room")
+				.timestamp(123L)
+				.build();
+
+		VideoEventDto decoded = codec.decode(codec.encode(event));
+		assertEquals(VideoEventType.PAUSE, decoded.getType());
+		assertNull(decoded.getRoomId());
+		assertNull(decoded.getTimestamp());
+	}
+
+	@Test
+	void defaultPlaybackRateIsOmitted() throws Exception {
+		VideoEventDto event = VideoEventDto.builder().type(VideoEventType.PLAY).playbackRate(1.0).build();
+
+		Map<?, ?> frame = new CBORMapper().readValue(codec.encode(event), Map.class);
+		assertEquals(Map.of("t", 0), frame);
+	}
+
+	@Test
+	void everyTypeRoundTripsThroughItsCode() throws Exception {
+		for (VideoEventType type : VideoEventType.values()) {
+			VideoEventDto decoded = codec.decode(codec.encode(VideoEventDto.builder().type(type).build()));
+			assertEquals(type, decoded.getType());
+		}
+	}
+
+	@Test
+	void wireCodesAreStable() {
+		// Client đã phát hành giải mã theo các mã này: không được đổi
+		assertEquals(0, VideoEventType.PLAY.code());
+		assertEquals(1, VideoEventType.PAUSE.code());
+		assertEquals(2, VideoEventType.SEEK.code());
+		assertEquals(3, VideoEventType.CHANGE.code());
+		assertEquals(4, VideoEventType.SYNC_STATE.code());
+		assertEquals(5, VideoEventType.REQUEST_SYNC.code());
+	}
+
+	@Test
+	void unknownTypeCodeDecodesToNullType() throws Exception {
+		byte[] frame = new CBORMapper().writeValueAsBytes(Map.of("t", 99, "p", 3.0));
+
+		VideoEventDto decoded = codec.decode(frame);
+		assertNull(decoded.getType());
+		assertEquals(3.0, decoded.getCurrentTime());
+	}
+}
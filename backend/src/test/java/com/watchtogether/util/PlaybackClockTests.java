@@ -0,0 +1,75 @@
+package com.watchtogether.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.time.Instant;
+
+import org.junit.jupiter.api.Test;
+
+import com.watchtogether.Entity.redis.Room;
+
+class PlaybackClockTests {
+
+	private static final long T0 = 1_700_000_000_000L;
+
+	private static Room room(Double position, String state, Double rate) {
+		return Room.builder()
+				.lastPosition(position)
+				.playbackState(state)
+				.playbackRate(rate)
+				.lastSyncAt(Instant.ofEpochMilli(T0))
+				.build();
+	}
+
+	@Test
+	void playingRoomAdvancesWithElapsedTime() {
+		Room room = room(10.0, PlaybackClock.PLAYING, null);
+
+		assertEquals(10.0, PlaybackClock.positionAt(room, T0));
+		assertEquals(12.5, PlaybackClock.positionAt(room, T0 + 2_500));
+	}
+
+	@Test
+	void pausedRoomStaysAtTheAnchor() {
+		Room room = room(10.0, PlaybackClock.PAUSED, null);
+
+		assertEquals(10.0, PlaybackClock.positionAt(room, T0 + 60_000));
+	}
+
+	@Test
+	void playbackRateScalesElapsedTime() {
+		Room room = room(0.0, PlaybackClock.PLAYING, 1.5);
+
+		assertEquals(3.0, PlaybackClock.positionAt(room, T0 + 2_000));
+	}
+
+	@Test
+	void missingOrInvalidRateCountsAsNormalSpeed() {
+		assertEquals(1.0, PlaybackClock.rateOf(room(0.0, PlaybackClock.PLAYING, null)));
+		assertEquals(1.0, PlaybackClock.rateOf(room(0.0, PlaybackClock.PLAYING, 0.0)));
+		assertEquals(1.0, PlaybackClock.rateOf(room(0.0, PlaybackClock.PLAYING, -2.0)));
+	}
+
+	@Test
+	void clockBehindTheAnchorDoesNotRewind() {
+		// Đồng hồ node này chậm hơn node đã đặt mốc
+		Room room = room(10.0, PlaybackClock.PLAYING, null);
+
+		assertEquals(10.0, PlaybackClock.positionAt(room, T0 - 5_000));
+	}
+
+	@Test
+	void roomWithoutAnchorStartsAtZero() {
+		assertEquals(0.0, PlaybackClock.positionAt(new Room(), T0));
+	}
+
+	@Test
+	void reanchorMovesTheAnchorAndClampsNegativePositions() {
+		Room room = room(10.0, PlaybackClock.PLAYING, null);
+
+		PlaybackClock.reanchor(room, -3.0, PlaybackClock.PAUSED, T0 + 1_000);
+		assertEquals(0.0, room.getLastPosition());
+		assertEquals(PlaybackClock.PAUSED, room.getPlaybackState());
+		assertEquals(Instant.ofEpochMilli(T0 + 1_000), room.getLastSyncAt());
+	}
+}
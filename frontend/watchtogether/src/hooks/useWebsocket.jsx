@@ -3,6 +3,36 @@ import { Client } from '@stomp/stompjs';
 import SockJS from 'sockjs-client';
 
 const SOCKET_URL = 'http://localhost:8080/ws';
+// Số tin chat chưa được server xác nhận giữ lại tối đa để gửi lại khi kết nối lại
+const MAX_PENDING_CHAT = 100;
+
+// ID cho mỗi tin chat; crypto.randomUUID chỉ có trong secure context (https/localhost)
+const newMessageId = () => {
+    if (typeof crypto !== 'undefined' && typeof crypto.randomUUID === 'function') {
+        return crypto.randomUUID();
+    }
+    const bytes = new Uint8Array(16);
+    if (typeof crypto !== 'undefined' && typeof crypto.getRandomValues === 'function') {
+        crypto.getRandomValues(bytes);
+    } else {
+        for (let i = 0; i < bytes.length; i++) bytes[i] = Math.floor(Math.random() * 256);
+    }
+    bytes[6] = (bytes[6] & 0x0f) | 0x40; // UUID v4
+    bytes[8] = (bytes[8] & 0x3f) | 0x80;
+    const hex = Array.from(bytes, (b) => b.toString(16).padStart(2, '0')).join('');
+    return `${hex.slice(0, 8)}-${hex.slice(8, 12)}-${hex.slice(12, 16)}-${hex.slice(16, 20)}-${hex.slice(20)}`;
+};
+
+const publishChat = (client, payload) => {
+    try {
+        client.publish({
+            destination: '/app/chat.sendMessage',
+            body: JSON.stringify(payload)
+        });
+    } catch (error) {
+        console.error("Lỗi khi gửi tin nhắn:", error);
+    }
+};
 
 export const useWebSocket = (roomId, username, onVideoAction, onChatMessage, onRoomInfo, onUpdateMembers) => {
     const stompClientRef = useRef(null);
@@ -13,6 +43,10 @@ export const useWebSocket = (roomId, username, onVideoAction, onChatMessage, onR
     const onRoomInfoRef = useRef(onRoomInfo); // Thêm ref
 
     const onUpdateMembersRef = useRef(onUpdateMembers); // MỚI
+    // Danh sách thành viên hiện tại: bản đầy đủ nhận lúc join, sau đó áp từng delta
+    const membersRef = useRef([]);
+    // Tin chat đã gửi nhưng chưa nhận ack (messageId → payload), gửi lại nguyên ID khi kết nối lại
+    const pendingChatRef = useRef(new Map());
 
     useEffect(() => {
         onVideoActionRef.current = onVideoAction;
@@ -22,6 +56,7 @@ export const useWebSocket = (roomId, username, onVideoAction, onChatMessage, onR
     }, [onVideoAction, onChatMessage, onRoomInfo, onUpdateMembers]);
     useEffect(() => {
         if (!roomId || !username) return;
+        const pendingChat = pendingChatRef.current;
 
         const socket = new SockJS(SOCKET_URL);
         const client = new Client({
@@ -31,18 +66,39 @@ export const useWebSocket = (roomId, username, onVideoAction, onChatMessage, onR
                 console.log('Connected to WebSocket');
                 setIsConnected(true);
 
-                // 1. Gửi lệnh Join Room
+                // 1. Thành viên: subscribe trước khi register để không lỡ bản đầy đủ server gửi
+                //    riêng cho session này; sau đó cả phòng chỉ gửi phần thay đổi
+                const updateMembers = (members) => {
+                    membersRef.current = members;
+                    if (onUpdateMembersRef.current) {
+                        onUpdateMembersRef.current(members);
+                    }
+                };
+                client.subscribe('/user/queue/members', (msg) => {
+                    updateMembers(JSON.parse(msg.body));
+                });
+                client.subscribe(`/topic/room/${roomId}/members/delta`, (msg) => {
+                    const delta = JSON.parse(msg.body);
+                    const removed = new Set(delta.removed);
+                    const members = membersRef.current.filter((name) => !removed.has(name));
+                    delta.added.forEach((name) => {
+                        if (!members.includes(name)) members.push(name);
+                    });
+                    updateMembers(members);
+                });
+
+                // 2. Gửi lệnh Join Room
                 client.publish({
                     destination: `/app/room/${roomId}/join`,
                     body: username
                 });
-                // 2. Gửi lệnh đăng ký thành viên Redis (gửi tới ParticipantWebSocket)
+                // 3. Gửi lệnh đăng ký thành viên Redis (gửi tới ParticipantWebSocket)
                 client.publish({
                     destination: `/app/room/${roomId}/register`, // <--- PATH MỚI
                     body: username
                 });
 
-                // 2. Lắng nghe lệnh điều khiển Video (Play/Pause/Sync)
+                // 4. Lắng nghe lệnh điều khiển Video (Play/Pause/Sync)
                 client.subscribe(`/topic/room/${roomId}/video`, (message) => {
                     if (onVideoActionRef.current) {
                         onVideoActionRef.current(JSON.parse(message.body));
@@ -50,13 +106,13 @@ export const useWebSocket = (roomId, username, onVideoAction, onChatMessage, onR
                 });
                 
 
-                // 3. Lắng nghe Chat
+                // 5. Lắng nghe Chat
                 client.subscribe(`/topic/room/${roomId}/chat`, (message) => {
                     if (onChatMessageRef.current) {
                         onChatMessageRef.current(JSON.parse(message.body));
                     }
                 });
-                // 4. Lắng nghe thông tin phòng (để lấy Host Name)
+                // 6. Lắng nghe thông tin phòng (để lấy Host Name)
                 client.subscribe(`/topic/room/${roomId}`, (message) => {
                     const roomInfo = JSON.parse(message.body);
                     console.log("Room Info:", roomInfo); // Debug xem có hostName không
@@ -66,11 +122,16 @@ export const useWebSocket = (roomId, username, onVideoAction, onChatMessage, onR
                         onRoomInfoRef.current(roomInfo); // Gọi callback mới
                     }
                 });
-                client.subscribe(`/topic/room/${roomId}/members`, (msg) => {
-                    if (onUpdateMembersRef.current) {
-                        onUpdateMembersRef.current(JSON.parse(msg.body));
-                    }
-                })
+                // 7. Ack của server cho tin chat (kể cả bản gửi lại bị coi là trùng) → bỏ khỏi hàng chờ
+                client.subscribe('/user/queue/chat-ack', (msg) => {
+                    const ack = JSON.parse(msg.body);
+                    pendingChatRef.current.delete(ack.messageId);
+                });
+                // 8. Gửi lại các tin chưa được xác nhận (mất kết nối giữa lúc gửi), cùng messageId
+                //    để server bỏ bản đã nhận rồi
+                pendingChatRef.current.forEach((payload) => {
+                    publishChat(client, payload);
+                });
             },
             onDisconnect: () => {
                 setIsConnected(false);
@@ -84,6 +145,7 @@ export const useWebSocket = (roomId, username, onVideoAction, onChatMessage, onR
         return () => {
             client.deactivate();
             stompClientRef.current = null;
+            pendingChat.clear(); // Đổi phòng / rời phòng: không gửi lại tin của phòng cũ
         };
     }, [roomId, username]);
     // Hàm gửi lệnh Video (Play/Pause/Change)
@@ -116,24 +178,23 @@ export const useWebSocket = (roomId, username, onVideoAction, onChatMessage, onR
     //Hàm gửi tin nhắn Chat
     const sendChatMessage = (content) => {
         const client = stompClientRef.current; // Đọc từ ref
-        // SỬA LẠI ĐOẠN NÀY TƯƠNG TỰ
+        const payload = {
+            messageId: newMessageId(), // Server bỏ bản gửi trùng theo ID này
+            type: "CHAT",
+            content: content,
+            sender: username,
+            roomId: roomId
+        };
+        // Giữ tới khi có ack; chưa kết nối thì tin sẽ được gửi khi kết nối lại
+        const pending = pendingChatRef.current;
+        pending.set(payload.messageId, payload);
+        if (pending.size > MAX_PENDING_CHAT) {
+            pending.delete(pending.keys().next().value);
+        }
         if (client && client.connected) {
-            const payload = {
-                type: "CHAT",
-                content: content,
-                sender: username,
-                roomId: roomId
-            };
-            try {
-                client.publish({
-                    destination: '/app/chat.sendMessage',
-                    body: JSON.stringify(payload)
-                });
-            } catch (error) {
-                console.error("Lỗi khi gửi tin nhắn:", error);
-            }
+            publishChat(client, payload);
         } else {
-            console.warn("Chưa kết nối WebSocket, không thể chat!", client);
+            console.warn("Chưa kết nối WebSocket, tin nhắn sẽ được gửi khi kết nối lại", client);
         }
     };
 